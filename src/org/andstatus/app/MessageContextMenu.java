@@ -101,12 +101,19 @@ public class MessageContextMenu implements OnCreateContextMenuListener {
             }
 
             mCurrentMsgId = info.id;
+            if (mCurrentMsgId <= 0) {
+                // Placeholder row of a gap, not a message
+                return;
+            }
             if (userIdForThisMessage == 0) {
                 userIdForThisMessage = messageList.getLinkedUserIdFromCursor(info.position);
             }
         } else {
             TextView id = (TextView) v.findViewById(R.id.id);
             mCurrentMsgId = Long.parseLong(id.getText().toString());
+            if (mCurrentMsgId <= 0) {
+                return;
+            }
             if (userIdForThisMessage == 0) {
                 TextView linkedUserId = (TextView) v.findViewById(R.id.linked_user_id);
                 userIdForThisMessage = Long.parseLong(linkedUserId.getText().toString());
@@ -253,8 +260,8 @@ public class MessageContextMenu implements OnCreateContextMenuListener {
             MyLog.e(this, "bad menuInfo", e);
             return false;
         }
-        if (mCurrentMsgId == 0) {
-            MyLog.e(this, "message id == 0");
+        if (mCurrentMsgId <= 0) {
+            MyLog.e(this, "no message, id=" + mCurrentMsgId);
             return false;
         }
 
@@ -71,6 +71,11 @@ import org.andstatus.app.data.MyDatabase.User;
 import org.andstatus.app.data.DbUtils;
 import org.andstatus.app.data.MyProvider;
 import org.andstatus.app.data.PagedCursorAdapter;
+import org.andstatus.app.data.TimelinePageToken;
+import org.andstatus.app.data.TimelineGaps;
+import org.andstatus.app.data.TimelineGapsCursor;
+import org.andstatus.app.data.TimelinePagesCursor;
+import org.andstatus.app.data.TimelineTable;
 import org.andstatus.app.data.TimelineSearchSuggestionProvider;
 import org.andstatus.app.data.TimelineTypeEnum;
 import org.andstatus.app.data.TimelineViewBinder;
@@ -123,6 +128,20 @@ public class TimelineActivity extends ListActivity implements MyServiceListener,
      * The is no more items in the query, so don't try to load more pages
      */
     private boolean noMoreItems = false;
+
+    /**
+     * Older messages are requested from the Internet, when the User scrolls
+     * to this number of rows from the end of the downloaded messages
+     */
+    private static final int OLDER_PREFETCH_ROWS = 40;
+    /**
+     * {@link CommandEnum#FETCH_OLDER} is sent and not executed yet
+     */
+    private boolean fetchingOlder = false;
+    /**
+     * The last {@link CommandEnum#FETCH_OLDER} found nothing older, so it is not sent again till a refresh
+     */
+    private boolean nothingOlder = false;
     
     /**
      * For testing purposes
@@ -758,6 +777,10 @@ public class TimelineActivity extends ListActivity implements MyServiceListener,
             if (MyLog.isLoggable(this, MyLog.VERBOSE)) {
                 MyLog.v(this, "onItemClick, position=" + position + "; id=" + id + "; view=" + view);
             }
+            if (id < 0) {
+                // Placeholder row of a gap
+                sendFetchCommand(CommandEnum.FILL_GAPS, false);
+            }
             return;
         }
         long linkedUserId = getLinkedUserIdFromCursor(position);
@@ -822,7 +845,54 @@ public class TimelineActivity extends ListActivity implements MyServiceListener,
                 setLoading(true);
                 queryListData(true);
             }
+        } else if (noMoreItems && positionRestored && !fetchingOlder && !nothingOlder) {
+            // Local data runs out, so let's download older messages beforehand
+            boolean fetchOlder = (visibleItemCount > 0) && (firstVisibleItem > 0)
+                    && (firstVisibleItem + visibleItemCount >= totalItemCount - OLDER_PREFETCH_ROWS);
+            if (fetchOlder && isPagedDownloadSupported()) {
+                MyLog.d(this, "Start fetching older messages, rows=" + totalItemCount);
+                fetchingOlder = sendFetchCommand(CommandEnum.FETCH_OLDER, false);
+            }
+        }
+    }
+
+    /**
+     * @return true if older messages and gaps may be downloaded for this timeline
+     */
+    private boolean isPagedDownloadSupported() {
+        if (!TextUtils.isEmpty(searchQuery)) {
+            return false;
+        }
+        switch (timelineType) {
+            case HOME:
+            case MENTIONS:
+            case DIRECT:
+            case USER:
+                return true;
+            default:
+                // E.g. PUBLIC: not materialized, so its older items would be downloaded as the newest ones
+                return false;
+        }
+    }
+
+    /**
+     * @return Users, whose timelines are shown, to show their {@link TimelineGaps}
+     */
+    private List<Long> getTimelineUserIds() {
+        List<Long> userIds = new ArrayList<Long>();
+        if (!isPagedDownloadSupported()) {
+            return userIds;
+        }
+        if (timelineType == TimelineTypeEnum.USER) {
+            userIds.add(selectedUserId);
+        } else if (timelineCombined) {
+            for (MyAccount ma : MyContextHolder.get().persistentAccounts().collection()) {
+                userIds.add(ma.getUserId());
+            }
+        } else {
+            userIds.add(currentMyAccountUserId);
         }
+        return userIds;
     }
 
     @Override
@@ -981,6 +1051,8 @@ public class TimelineActivity extends ListActivity implements MyServiceListener,
             combinedTimelineToggle.setVisibility(View.VISIBLE);
         }
         noMoreItems = false;
+        fetchingOlder = false;
+        nothingOlder = false;
         contextMenu.setAccountUserIdToActAs(0);
 
         updateActionBar("");
@@ -1063,9 +1135,11 @@ public class TimelineActivity extends ListActivity implements MyServiceListener,
         boolean incrementallyLoadingPages;
         long startTime = System.nanoTime();
         Uri contentUri;
+        List<Long> timelineUserIds;
+        List<TimelineGaps.Gap> gaps = new ArrayList<TimelineGaps.Gap>();
 
         SelectionAndArgs sa = new SelectionAndArgs();
-        String sortOrder = MyDatabase.Msg.DEFAULT_SORT_ORDER;
+        String sortOrder = TimelinePageToken.SORT_ORDER;
         
         Cursor cursor;
 
@@ -1078,6 +1152,7 @@ public class TimelineActivity extends ListActivity implements MyServiceListener,
                     && loadOneMorePage;
             contentUri = MyProvider.getTimelineUri(activity.currentMyAccountUserId, activity.timelineType,
                     activity.timelineCombined);
+            timelineUserIds = activity.getTimelineUserIds();
         }
         
         @Override
@@ -1150,15 +1225,9 @@ public class TimelineActivity extends ListActivity implements MyServiceListener,
                         break;
                     case USER:
                         AccountUserIds userIds = new AccountUserIds(activity.isTimelineCombined(), activity.getSelectedUserId());
-                        // Reblogs are included also
-                        sa.addSelection(MyDatabase.Msg.AUTHOR_ID + " " + userIds.getSqlUserIds() 
-                                + " OR "
-                                + MyDatabase.Msg.SENDER_ID + " " + userIds.getSqlUserIds() 
-                                + " OR " 
-                                + "("
-                                + User.LINKED_USER_ID + " " + userIds.getSqlUserIds() 
-                                + " AND "
-                                + MyDatabase.MsgOfUser.REBLOGGED + " = 1"
+                        // Messages, where the User is an Author or a Sender. Reblogs are included also
+                        sa.addSelection(MyProvider.MSG_TABLE_ALIAS + "." + MyDatabase.Msg._ID + " IN ("
+                                + TimelineTable.selectMsgIdsSql(TimelineTypeEnum.USER, userIds.getSqlUserIds()) 
                                 + ")",
                                 null);
                         break;
@@ -1173,28 +1242,26 @@ public class TimelineActivity extends ListActivity implements MyServiceListener,
                 lastItemId = new ListPositionStorage(activity).getLast();
             }
 
-            int nMessages = 0;
-            if (activity.mCursor != null && !activity.mCursor.isClosed()) {
-                if (activity.positionRestored) {
-                    // If position is NOT loaded - this cursor is from other
-                    // timeline/search
-                    // and we shouldn't care how much rows are there.
-                    nMessages = activity.mCursor.getCount();
-                }
-            }
+            // If position is NOT loaded - this cursor is from other
+            // timeline/search and we shouldn't care which rows are there.
+            TimelinePageToken lastShown = activity.positionRestored 
+                    ? TimelinePageToken.afterLastRow(activity.mCursor) : TimelinePageToken.EMPTY;
 
             if (lastItemId > 0) {
                 sa.addSelection(MyProvider.MSG_TABLE_ALIAS + "." + MyDatabase.Msg.SENT_DATE + " >= ?",
                         new String[] {
                             String.valueOf(MyProvider.msgIdToLongColumnValue(MyDatabase.Msg.SENT_DATE, lastItemId))
                         });
+            } else if (incrementallyLoadingPages && !lastShown.isEmpty()) {
+                // Seek to the next page instead of rereading the rows, which are already shown
+                sa.addSelection(lastShown.getSelection(), lastShown.getSelectionArgs());
+                sortOrder += " LIMIT " + PAGE_SIZE;
+            } else if (!loadOneMorePage && !lastShown.isEmpty() && activity.mCursor.getCount() > PAGE_SIZE) {
+                // Reload the same rows
+                sa.addSelection(lastShown.getSelectionUpToThis(), lastShown.getSelectionArgsUpToThis());
             } else {
-                if (loadOneMorePage) {
-                    nMessages += PAGE_SIZE;
-                } else if (nMessages < PAGE_SIZE) {
-                    nMessages = PAGE_SIZE;
-                }
-                sortOrder += " LIMIT 0," + nMessages;
+                incrementallyLoadingPages = false;
+                sortOrder += " LIMIT " + PAGE_SIZE;
             }
             
             prepareListForChanges();
@@ -1225,6 +1292,11 @@ public class TimelineActivity extends ListActivity implements MyServiceListener,
                     }
                 }
             }
+            for (long userId : timelineUserIds) {
+                if (userId != 0 && !isCancelled()) {
+                    gaps.addAll(new TimelineGaps(activity.timelineType, userId).getGaps());
+                }
+            }
             return null;
         }
 
@@ -1242,19 +1314,25 @@ public class TimelineActivity extends ListActivity implements MyServiceListener,
                 doRestorePosition = true;
                 if (incrementallyLoadingPages) {
                     // This check will prevent continuous loading...
-                    if (cursor.getCount() > activity.getListAdapter().getCount()) {
-                        MyLog.v(this, "On changing Cursor");
-                        ((SimpleCursorAdapter) activity.getListAdapter()).changeCursor(cursor);
-                        activity.mCursor = cursor;
+                    if (cursor.getCount() > 0 && activity.mCursor instanceof TimelineGapsCursor) {
+                        MyLog.v(this, "On appending page of " + cursor.getCount() + " rows");
+                        if (cursor.getCount() < PAGE_SIZE) {
+                            activity.noMoreItems = true;
+                        }
+                        Cursor pages = ((TimelineGapsCursor) activity.mCursor).append(cursor, gaps);
+                        ((SimpleCursorAdapter) activity.getListAdapter()).changeCursor(pages);
+                        activity.mCursor = pages;
                     } else {
                         activity.noMoreItems = true;
                         doRestorePosition = false;
-                        // We don't need this cursor: assuming it is the same as existing
+                        // We don't need this cursor: there are no more rows
                         DbUtils.closeSilently(cursor);
                     }
                 } else {
-                    ((SimpleCursorAdapter) activity.getListAdapter()).changeCursor(cursor);
-					activity.mCursor = cursor;
+                    Cursor pages = new TimelineGapsCursor(new TimelinePagesCursor(cursor), gaps,
+                            activity.getText(R.string.timeline_gap).toString());
+                    ((SimpleCursorAdapter) activity.getListAdapter()).changeCursor(pages);
+					activity.mCursor = pages;
                 }
             }
             return doRestorePosition;
@@ -1311,6 +1389,7 @@ public class TimelineActivity extends ListActivity implements MyServiceListener,
         columnNames.add(User.RECIPIENT_NAME);
         columnNames.add(MsgOfUser.FAVORITED);
         columnNames.add(Msg.CREATED_DATE);
+        columnNames.add(Msg.SENT_DATE);
         columnNames.add(User.LINKED_USER_ID);
         if (MyPreferences.showAvatars()) {
             columnNames.add(Msg.AUTHOR_ID);
@@ -1325,6 +1404,17 @@ public class TimelineActivity extends ListActivity implements MyServiceListener,
      * Internet, older ones are not being reloaded.
      */
     protected void manualReload(boolean allTimelineTypes) {
+        nothingOlder = false;
+        sendFetchCommand(CommandEnum.FETCH_TIMELINE, allTimelineTypes);
+    }
+
+    /**
+     * Sends the command for the selected TimelineType
+     * @param command {@link CommandEnum#FETCH_TIMELINE} or {@link CommandEnum#FETCH_OLDER},
+     *   which is executed in the background
+     * @return true if the command was sent
+     */
+    private boolean sendFetchCommand(CommandEnum command, boolean allTimelineTypes) {
         MyAccount ma = MyContextHolder.get().persistentAccounts().fromUserId(currentMyAccountUserId);
         TimelineTypeEnum timelineTypeForReload = TimelineTypeEnum.HOME;
         long userId = 0;
@@ -1348,7 +1438,7 @@ public class TimelineActivity extends ListActivity implements MyServiceListener,
             long originId = MyProvider.userIdToLongColumnValue(MyDatabase.User.ORIGIN_ID, userId);
             if (originId == 0) {
                 MyLog.e(this, "Unknown origin for userId=" + userId);
-                return;
+                return false;
             }
             if (ma == null || ma.getOriginId() != originId) {
                 ma = MyContextHolder.get().persistentAccounts().fromUserId(userId);
@@ -1358,18 +1448,21 @@ public class TimelineActivity extends ListActivity implements MyServiceListener,
             }
         }
         if (!allAccounts && ma == null) {
-            return;
+            return false;
         }
 
-        setLoading(true);
+        if (command == CommandEnum.FETCH_TIMELINE) {
+            setLoading(true);
+        }
         MyServiceManager.sendCommand(
-                new CommandData(CommandEnum.FETCH_TIMELINE,
+                new CommandData(command,
                         allAccounts ? "" : ma.getAccountName(), timelineTypeForReload, userId)
                 );
 
         if (allTimelineTypes && ma != null) {
             ma.requestSync();
         }
+        return true;
     }
     
     protected void startMyPreferenceActivity() {
@@ -1452,7 +1545,7 @@ public class TimelineActivity extends ListActivity implements MyServiceListener,
         PagedCursorAdapter messageAdapter = new PagedCursorAdapter(TimelineActivity.this,
                 listItemId, mCursor, columnNames.toArray(new String[]{}),
                 toIntArray(viewIds), 
-                getIntent().getData(), getProjection(), MyDatabase.Msg.DEFAULT_SORT_ORDER);
+                getIntent().getData(), getProjection(), PAGE_SIZE);
         messageAdapter.setViewBinder(new TimelineViewBinder());
 
         setListAdapter(messageAdapter);
@@ -1481,6 +1574,23 @@ public class TimelineActivity extends ListActivity implements MyServiceListener,
             case SEARCH_MESSAGE:
                 setLoading(false);
                 break;
+            case FETCH_OLDER:
+                if (fetchingOlder) {
+                    fetchingOlder = false;
+                    if (commandData.getResult().getDownloadedCount() == 0 && !commandData.getResult().hasError()) {
+                        MyLog.d(this, "Nothing older in " + timelineType);
+                        nothingOlder = true;
+                        break;
+                    }
+                    // Older messages may be in the database now
+                    noMoreItems = false;
+                    if (positionRestored && !isLoading()) {
+                        saveListPosition();
+                        setLoading(true);
+                        queryListData(true);
+                    }
+                }
+                break;
             case RATE_LIMIT_STATUS:
                 if (commandData.getResult().getHourlyLimit() > 0) {
                     updateActionBar(commandData.getResult().getRemainingHits() + "/"
@@ -915,6 +915,14 @@ public final class MyAccount implements AccountDataReader {
     private boolean isPersistent() {
         return androidAccount != null;
     }
+
+    /**
+     * @return true if the account is persistent and the system syncs it automatically
+     */
+    public boolean isSyncedAutomatically() {
+        return isPersistent() && ContentResolver.getMasterSyncAutomatically()
+                && ContentResolver.getSyncAutomatically(androidAccount, MyProvider.AUTHORITY);
+    }
     
     /**
      * Are authenticated users from more than one different Originating system?
@@ -10,6 +10,7 @@ import org.andstatus.app.context.MyContextHolder;
 import org.andstatus.app.context.MyPreferences;
 import org.andstatus.app.data.MyDatabase;
 import org.andstatus.app.data.MyProvider;
+import org.andstatus.app.service.UserStreams;
 import org.andstatus.app.util.MyLog;
 
 import java.util.Collection;
@@ -92,6 +93,7 @@ public class PersistentAccounts {
             }
         }
         if (found) {
+            UserStreams.getInstance().stop(ma.getAccountName());
             MyAccount.Builder.fromMyAccount(ma).deleteData();
 
             // And delete the object from the list
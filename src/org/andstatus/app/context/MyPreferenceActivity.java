@@ -57,6 +57,7 @@ import org.andstatus.app.data.MyDatabase;
 import org.andstatus.app.origin.OriginList;
 import org.andstatus.app.service.MyService;
 import org.andstatus.app.service.MyServiceManager;
+import org.andstatus.app.service.UserStreams;
 import org.andstatus.app.util.DialogFactory;
 import org.andstatus.app.util.MyLog;
 import org.andstatus.app.util.SharedPreferencesUtil;
@@ -283,6 +284,9 @@ public class MyPreferenceActivity extends PreferenceActivity implements
                 MyContextHolder.get().persistentAccounts().onMyPreferencesChanged();
                 showFrequency();
             }
+            if (key.equals(MyPreferences.KEY_USER_STREAM) && !UserStreams.isEnabled()) {
+                UserStreams.getInstance().stopAll();
+            }
             if (key.equals(MyPreferences.KEY_RINGTONE_PREFERENCE)) {
                 showRingtone();
             }
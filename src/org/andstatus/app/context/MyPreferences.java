@@ -49,6 +49,14 @@ public class MyPreferences {
      * Period of automatic updates in seconds
      */
     public static final String KEY_FETCH_FREQUENCY = "fetch_frequency";
+    /**
+     * Receive new messages from the "user stream" connections instead of polling (boolean)
+     */
+    public static final String KEY_USER_STREAM = "user_stream";
+    /**
+     * Download timelines of several accounts at once (boolean)
+     */
+    public static final String KEY_PARALLEL_DOWNLOADS = "parallel_downloads";
     public static final String KEY_RINGTONE_PREFERENCE = "notification_ringtone";
     public static final String KEY_CONTACT_DEVELOPER = "contact_developer";
     public static final String KEY_REPORT_BUG = "report_bug";
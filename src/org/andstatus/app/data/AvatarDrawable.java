@@ -58,7 +58,9 @@ public class AvatarDrawable {
         if (exists()) {
             return Drawable.createFromPath(file.getAbsolutePath());
         }
-        MyServiceManager.sendCommand(new CommandData(CommandEnum.FETCH_AVATAR, null, userId));
+        if (userId != 0) {
+            MyServiceManager.sendCommand(new CommandData(CommandEnum.FETCH_AVATAR, null, userId));
+        }
         return defaultAvatar;
     }
 
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2014 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.andstatus.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.provider.BaseColumns;
+
+import org.andstatus.app.context.MyContextHolder;
+import org.andstatus.app.data.MyDatabase.CommandQueue;
+import org.andstatus.app.util.MyLog;
+
+/**
+ * Persistent queues of commands, see {@link CommandQueue}.
+ * Each command is one row, so putting a command to a queue, moving it to another queue
+ * and removing it after execution are writes of one row, and nothing is lost, when the process is killed.
+ * @author yvolk@yurivolkov.com
+ */
+public final class CommandQueueTable {
+    private static final String TAG = CommandQueueTable.class.getSimpleName();
+    public static final String MAIN_QUEUE = "main";
+    public static final String RETRY_QUEUE = "retry";
+
+    private CommandQueueTable() {
+    }
+
+    static void create(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + CommandQueue.TABLE_NAME + " (" 
+                + BaseColumns._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," 
+                + CommandQueue.QUEUE_TYPE + " TEXT NOT NULL," 
+                + CommandQueue.COMMAND_CODE + " TEXT NOT NULL," 
+                + CommandQueue.PRIORITY + " INTEGER NOT NULL DEFAULT 0," 
+                + CommandQueue.ACCOUNT_NAME + " TEXT," 
+                + CommandQueue.TIMELINE_TYPE + " TEXT," 
+                + CommandQueue.ITEM_ID + " INTEGER NOT NULL DEFAULT 0," 
+                + CommandQueue.STATUS + " TEXT," 
+                + CommandQueue.IN_REPLY_TO_ID + " INTEGER NOT NULL DEFAULT 0," 
+                + CommandQueue.RECIPIENT_ID + " INTEGER NOT NULL DEFAULT 0," 
+                + CommandQueue.EXECUTION_COUNT + " INTEGER NOT NULL DEFAULT 0," 
+                + CommandQueue.RETRIES_LEFT + " INTEGER NOT NULL DEFAULT 0," 
+                + CommandQueue.CREATED_DATE + " INTEGER NOT NULL"
+                + ")");
+
+        db.execSQL("CREATE INDEX idx_commandqueue_priority ON " + CommandQueue.TABLE_NAME + " (" 
+                + CommandQueue.QUEUE_TYPE + ", " 
+                + CommandQueue.PRIORITY + " DESC, " 
+                + BaseColumns._ID
+                + ")");
+    }
+
+    /**
+     * The cursor is read row by row, so the queue isn't loaded into memory at once
+     * @return Commands of the queue, the highest priority first, 
+     *    older commands first among commands of the same priority. The caller should close it
+     */
+    public static Cursor query(String queueType) {
+        SQLiteDatabase db = MyContextHolder.get().getDatabase().getReadableDatabase();
+        return db.query(CommandQueue.TABLE_NAME, null, 
+                CommandQueue.QUEUE_TYPE + "='" + queueType + "'", null, null, null, 
+                CommandQueue.PRIORITY + " DESC, " + BaseColumns._ID + " ASC");
+    }
+
+    /**
+     * @return Number of commands in the queue
+     */
+    public static long getCount(String queueType) {
+        return queryForLong("SELECT count(*) FROM " + CommandQueue.TABLE_NAME
+                + " WHERE " + CommandQueue.QUEUE_TYPE + "='" + queueType + "'");
+    }
+
+    /**
+     * @return Time in milliseconds, for which the oldest command of the queue is waiting. 0 if the queue is empty
+     */
+    public static long getOldestAge(String queueType) {
+        long createdDate = queryForLong("SELECT min(" + CommandQueue.CREATED_DATE + ") FROM " + CommandQueue.TABLE_NAME
+                + " WHERE " + CommandQueue.QUEUE_TYPE + "='" + queueType + "'");
+        return createdDate == 0 ? 0 : Math.max(System.currentTimeMillis() - createdDate, 0);
+    }
+
+    /**
+     * Depth and age of the queues for diagnostics
+     */
+    public static String describe() {
+        return MyLog.formatKeyValue(TAG, 
+                MAIN_QUEUE + ":" + getCount(MAIN_QUEUE) + ",age:" + getOldestAge(MAIN_QUEUE) / 1000 + "s,"
+                + RETRY_QUEUE + ":" + getCount(RETRY_QUEUE) + ",age:" + getOldestAge(RETRY_QUEUE) / 1000 + "s");
+    }
+
+    private static long queryForLong(String sql) {
+        long value = 0;
+        SQLiteStatement statement = null;
+        try {
+            SQLiteDatabase db = MyContextHolder.get().getDatabase().getReadableDatabase();
+            statement = db.compileStatement(sql);
+            value = statement.simpleQueryForLong();
+        } catch (Exception e) {
+            MyLog.e(TAG, "queryForLong: sql='" + sql + "'", e);
+        } finally {
+            DbUtils.closeSilently(statement);
+        }
+        return value;
+    }
+}
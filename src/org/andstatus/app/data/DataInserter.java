@@ -17,6 +17,7 @@
 package org.andstatus.app.data;
 
 import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.text.TextUtils;
 
@@ -25,6 +26,7 @@ import org.andstatus.app.context.MyContextHolder;
 import org.andstatus.app.data.MyDatabase.Msg;
 import org.andstatus.app.data.MyDatabase.OidEnum;
 import org.andstatus.app.net.MbMessage;
+import org.andstatus.app.net.MbTimelineItem;
 import org.andstatus.app.net.MbUser;
 import org.andstatus.app.service.CommandData;
 import org.andstatus.app.service.CommandExecutionContext;
@@ -33,10 +35,13 @@ import org.andstatus.app.util.SharedPreferencesUtil;
 import org.andstatus.app.util.TriState;
 
 import java.util.Date;
+import java.util.List;
 
 /**
  * Stores ("inserts" -  adds or updates) messages and users
  *  from Microblogging system in the database.
+ * Each message or user is looked up by its oid and inserted by the {@link DatabaseWriter},
+ * so concurrent downloads of the same message or user don't insert it twice
  * 
  * @author yvolk@yurivolkov.com
  */
@@ -52,8 +57,74 @@ public class DataInserter {
         this.execContext = execContext;
     }
     
-    public long insertOrUpdateMsg(MbMessage message, LatestUserMessages lum) {
-        return insertOrUpdateMsgBySender(message, lum, 0);
+    public long insertOrUpdateMsg(final MbMessage message, final LatestUserMessages lum) {
+        return MyContextHolder.get().getDatabase().getWriter().execute(new DatabaseWriter.Operation() {
+            @Override
+            public long execute(SQLiteDatabase db) {
+                return insertOrUpdateMsgBySender(message, lum, 0);
+            }
+        });
+    }
+
+    /**
+     * Stores the whole downloaded page of a timeline in one database transaction:
+     * messages, users, {@link MyDatabase.MsgOfUser} rows, {@link LatestUserMessages} 
+     * and the {@link LatestTimelineItem} position are committed at once
+     * instead of one implicit transaction per row.
+     * The page is written by the {@link DatabaseWriter}
+     * @param latestTimelineItem null if the caller updates the position itself,
+     *      e.g. after the rest of a streamed page is stored
+     * @return number of items processed
+     */
+    public int insertOrUpdateTimelinePage(final List<MbTimelineItem> items, final LatestUserMessages lum,
+            final LatestTimelineItem latestTimelineItem) {
+        final String method = "insertOrUpdateTimelinePage";
+        long startTime = System.currentTimeMillis();
+        // Ids of the rolled back rows are removed from the OidCache by the writer
+        int count = (int) MyContextHolder.get().getDatabase().getWriter().execute(new DatabaseWriter.Operation() {
+            @Override
+            public long execute(SQLiteDatabase db) {
+                return insertOrUpdateTimelinePage(db, items, lum, latestTimelineItem);
+            }
+        });
+        if (MyLog.isLoggable(TAG, MyLog.VERBOSE)) {
+            MyLog.v(TAG, method + ": " + count + " items in " 
+                    + (System.currentTimeMillis() - startTime) + " ms; "
+                    + MyContextHolder.get().getDatabase().getOidCache());
+        }
+        return count;
+    }
+
+    private int insertOrUpdateTimelinePage(SQLiteDatabase db, List<MbTimelineItem> items, LatestUserMessages lum,
+            LatestTimelineItem latestTimelineItem) {
+        int count = 0;
+        db.beginTransaction();
+        try {
+            for (MbTimelineItem item : items) {
+                count++;
+                if (latestTimelineItem != null) {
+                    latestTimelineItem.onNewMsg(item.timelineItemPosition, item.timelineItemDate);
+                }
+                switch (item.getType()) {
+                    case MESSAGE:
+                        insertOrUpdateMsg(item.mbMessage, lum);
+                        break;
+                    case USER:
+                        insertOrUpdateUser(item.mbUser, lum);
+                        break;
+                    default:
+                        break;
+                }
+            }
+            lum.save();
+            if (latestTimelineItem != null) {
+                latestTimelineItem.save();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return count;
     }
     
     private long insertOrUpdateMsgBySender(MbMessage message, LatestUserMessages lum, long senderIdIn) {
@@ -322,7 +393,16 @@ public class DataInserter {
     /**
      * @return userId
      */
-    public long insertOrUpdateUser(MbUser mbUser, LatestUserMessages lum) {
+    public long insertOrUpdateUser(final MbUser mbUser, final LatestUserMessages lum) {
+        return MyContextHolder.get().getDatabase().getWriter().execute(new DatabaseWriter.Operation() {
+            @Override
+            public long execute(SQLiteDatabase db) {
+                return insertOrUpdateUser1(mbUser, lum);
+            }
+        });
+    }
+
+    private long insertOrUpdateUser1(MbUser mbUser, LatestUserMessages lum) {
         if (mbUser.isEmpty()) {
             MyLog.v(this, "insertUser - mbUser is empty");
             return 0;
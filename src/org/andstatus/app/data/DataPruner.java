@@ -16,29 +16,64 @@
 
 package org.andstatus.app.data;
 
-import android.content.ContentResolver;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+import android.text.TextUtils;
 
+import org.andstatus.app.context.MyContextHolder;
 import org.andstatus.app.context.MyPreferences;
 import org.andstatus.app.data.MyDatabase.FollowingUser;
 import org.andstatus.app.data.MyDatabase.Msg;
 import org.andstatus.app.data.MyDatabase.MsgOfUser;
+import org.andstatus.app.data.MyDatabase.OidEnum;
 import org.andstatus.app.data.MyDatabase.User;
+import org.andstatus.app.service.CommandExecutorParent;
+import org.andstatus.app.service.CommandResult;
 import org.andstatus.app.util.MyLog;
-import org.andstatus.app.util.SelectionAndArgs;
+
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Clean database from outdated information
- * currently only old Messages are being deleted 
+ * currently only old Messages are being deleted.
+ * Messages are deleted in chunks of ids, each chunk in its own short transaction of the {@link DatabaseWriter},
+ * so other threads may use the database between the chunks.
+ * The chunks are found by seeking past the last id of the previous chunk, so messages,
+ * which are kept (e.g. favorited), don't make us walk through empty ranges of ids.
+ * What is not deleted during one run (stopped or out of time budget) is deleted during the next one.
  */
 public class DataPruner {
-    private ContentResolver mContentResolver;
+    /** Number of messages in one deletion transaction */
+    static final int CHUNK_SIZE = 200;
+    /** Pause between the transactions to let readers and writers of other threads in */
+    static final long CHUNK_PAUSE_MILLIS = 20;
+    /** Maximum duration of one run */
+    static final long TIME_BUDGET_MILLIS = 10000;
+
+    private Context mContext;
+    private CommandExecutorParent mParent;
+    private CommandResult mResult;
     private int mDeleted = 0;
-    
+    private int mChunks = 0;
+    private long mStartedAt = 0;
+
     public DataPruner(Context context) {
-        mContentResolver = context.getContentResolver();
+        this(context, null, null);
+    }
+
+    /**
+     * @param parent To check if we should stop. May be null
+     * @param result Where to report pruning progress. May be null
+     */
+    public DataPruner(Context context, CommandExecutorParent parent, CommandResult result) {
+        mContext = context;
+        mParent = parent;
+        mResult = result;
     }
 
     /**
@@ -50,8 +85,10 @@ public class DataPruner {
      */
     public boolean prune() {
         boolean ok = true;
-       
+
         mDeleted = 0;
+        mChunks = 0;
+        mStartedAt = System.currentTimeMillis();
         int nDeletedTime = 0;
         // We're using global preferences here
         SharedPreferences sp = MyPreferences
@@ -61,89 +98,193 @@ public class DataPruner {
         String sqlNotFavoritedMessage = "NOT EXISTS ("
                 + "SELECT * FROM " + MsgOfUser.TABLE_NAME + " AS gnf WHERE "
                 + Msg.TABLE_NAME + "." + Msg._ID + "=gnf." + MyDatabase.MsgOfUser.MSG_ID
-                + " AND gnf." + MyDatabase.MsgOfUser.FAVORITED + "=1" 
+                + " AND gnf." + MyDatabase.MsgOfUser.FAVORITED + "=1"
                 + ")";
         String sqlNotLatestMessageByFollowedUser = Msg.TABLE_NAME + "." + Msg._ID + " NOT IN("
-                + "SELECT " + User.USER_MSG_ID 
+                + "SELECT " + User.USER_MSG_ID
                 + " FROM " + User.TABLE_NAME + " AS userf"
-                + " INNER JOIN " + FollowingUser.TABLE_NAME 
-                + " ON" 
+                + " INNER JOIN " + FollowingUser.TABLE_NAME
+                + " ON"
                 + " userf." + User._ID + "=" + FollowingUser.TABLE_NAME + "." + FollowingUser.FOLLOWING_USER_ID
                 + " AND " + FollowingUser.TABLE_NAME + "." + FollowingUser.USER_FOLLOWED + "=1"
                 + ")";
-        
+
         int maxDays = Integer.parseInt(sp.getString(MyPreferences.KEY_HISTORY_TIME, "3"));
         long sinceTimestamp = 0;
 
-        int nTweets = 0;
-        int nToDeleteSize = 0;
+        long nTweets = 0;
+        long nToDeleteSize = 0;
         int nDeletedSize = 0;
         int maxSize = Integer.parseInt(sp.getString(MyPreferences.KEY_HISTORY_SIZE, "2000"));
-        long sinceTimestampSize = 0;
-        Cursor cursor = null;
+        long lastIdToDeleteSize = 0;
+        long nDeletedTimeline = 0;
         try {
+            if (!MyContextHolder.get().isReady()) {
+                MyLog.v(this, "pruneOldRecords; context is not ready");
+                return false;
+            }
+            SQLiteDatabase db = MyContextHolder.get().getDatabase().getWritableDatabase();
             if (maxDays > 0) {
                 sinceTimestamp = System.currentTimeMillis() - maxDays * (1000L * 60 * 60 * 24);
-                SelectionAndArgs sa = new SelectionAndArgs();
-                sa.addSelection(Msg.TABLE_NAME + "." + MyDatabase.Msg.INS_DATE + " <  ?", new String[] {
-                    String.valueOf(sinceTimestamp)
-                });
-                sa.selection += " AND " + sqlNotFavoritedMessage;
-                sa.selection += " AND " + sqlNotLatestMessageByFollowedUser;
-                nDeletedTime = mContentResolver.delete(MyProvider.MSG_CONTENT_URI, sa.selection, sa.selectionArgs);
+                String sqlOld = Msg.TABLE_NAME + "." + Msg.INS_DATE + "<" + sinceTimestamp;
+                long lastIdToDeleteTime = longForQuery(db, "SELECT max(" + Msg._ID + ") FROM "
+                        + Msg.TABLE_NAME + " WHERE " + sqlOld);
+                nDeletedTime = deleteInChunks(db, lastIdToDeleteTime,
+                        sqlOld + " AND " + sqlNotFavoritedMessage + " AND " + sqlNotLatestMessageByFollowedUser);
             }
 
-            if (maxSize > 0) {
-                nDeletedSize = 0;
-                cursor = mContentResolver.query(MyProvider.MSG_CONTENT_COUNT_URI, null, null, null, null);
-                if (cursor.moveToFirst()) {
-                    // Count is in the first column
-                    nTweets = cursor.getInt(0);
-                    nToDeleteSize = nTweets - maxSize;
-                }
-                cursor.close();
+            if (maxSize > 0 && !isOutOfTime()) {
+                nTweets = longForQuery(db, "SELECT count(*) FROM " + Msg.TABLE_NAME);
+                nToDeleteSize = nTweets - maxSize;
                 if (nToDeleteSize > 0) {
-                    // Find INS_DATE of the most recent tweet to delete
-                    cursor = mContentResolver.query(MyProvider.MSG_CONTENT_URI, new String[] {
-                            MyDatabase.Msg.INS_DATE
-                    }, null, null, MyDatabase.Msg.INS_DATE + " ASC LIMIT 0," + nToDeleteSize);
-                    if (cursor.moveToLast()) {
-                        sinceTimestampSize = cursor.getLong(0);
-                    }
-                    cursor.close();
-                    if (sinceTimestampSize > 0) {
-                        SelectionAndArgs sa = new SelectionAndArgs();
-                        sa.addSelection(Msg.TABLE_NAME + "." + MyDatabase.Msg.INS_DATE + " <=  ?", new String[] {
-                            String.valueOf(sinceTimestampSize)
-                        });
-                        sa.selection += " AND " + sqlNotFavoritedMessage;
-                        sa.selection += " AND " + sqlNotLatestMessageByFollowedUser;
-                        nDeletedSize = mContentResolver.delete(MyProvider.MSG_CONTENT_URI, sa.selection,
-                                sa.selectionArgs);
-                    }
+                    // Ids grow with insertion time, so the primary key is enough
+                    // to find the most recent message to delete
+                    lastIdToDeleteSize = longForQuery(db, "SELECT " + Msg._ID + " FROM " + Msg.TABLE_NAME
+                            + " ORDER BY " + Msg._ID + " ASC LIMIT 1 OFFSET " + (nToDeleteSize - 1));
+                    nDeletedSize = deleteInChunks(db, lastIdToDeleteSize,
+                            sqlNotFavoritedMessage + " AND " + sqlNotLatestMessageByFollowedUser);
                 }
             }
+            if (!isStopping()) {
+                nDeletedTimeline = MyContextHolder.get().getDatabase().getWriter().execute(
+                        new DatabaseWriter.Operation() {
+                            @Override
+                            public long execute(SQLiteDatabase db1) {
+                                return TimelineTable.deleteOrphans(db1);
+                            }
+                        });
+            }
         } catch (Exception e) {
+            ok = false;
             MyLog.e(this, "pruneOldRecords failed", e);
-        } finally {
-            DbUtils.closeSilently(cursor);
         }
         mDeleted = nDeletedTime + nDeletedSize;
+        long duration = System.currentTimeMillis() - mStartedAt;
+        if (mResult != null) {
+            mResult.onPruned(mDeleted, mChunks, duration);
+        }
+        if (mDeleted > 0) {
+            MyContextHolder.get().getDatabase().getOidCache().clear(OidEnum.MSG_OID);
+            mContext.getContentResolver().notifyChange(MyProvider.TIMELINE_URI, null);
+        }
         if (MyLog.isLoggable(this, MyLog.VERBOSE)) {
             MyLog.v(this,
                     "pruneOldRecords; History time=" + maxDays + " days; deleted " + nDeletedTime
                             + " , since " + sinceTimestamp + ", now=" + System.currentTimeMillis());
             MyLog.v(this, "pruneOldRecords; History size=" + maxSize + " messages; deleted "
-                    + nDeletedSize + " of " + nTweets + " messages, since " + sinceTimestampSize);
+                    + nDeletedSize + " of " + nTweets + " messages, up to id=" + lastIdToDeleteSize);
+            MyLog.v(this, "pruneOldRecords; deleted " + nDeletedTimeline + " timeline rows without messages");
+            MyLog.v(this, "pruneOldRecords; " + mChunks + " chunks in " + duration + " ms"
+                    + (isStopping() ? ", stopped" : "") + (isOutOfTime() ? ", out of time" : ""));
         }
-        
+
         return ok;
     }
 
+    /**
+     * Deletes messages with ids up to maxId (inclusive), satisfying the condition,
+     * together with their {@link MsgOfUser} rows. One transaction per {@link #CHUNK_SIZE} messages
+     * @return number of messages deleted
+     */
+    private int deleteInChunks(SQLiteDatabase db, long maxId, String condition) {
+        int deleted = 0;
+        long lastId = 0;
+        while (lastId < maxId && !isStopping() && !isOutOfTime()) {
+            List<Long> ids = selectIds(db, lastId, maxId, condition);
+            if (ids.isEmpty()) {
+                break;
+            }
+            lastId = ids.get(ids.size() - 1);
+            final String sqlIds = " IN (" + TextUtils.join(",", ids) + ")";
+            // The condition is checked again, as a message might have been e.g. favorited meanwhile
+            final String msgSelection = Msg.TABLE_NAME + "." + Msg._ID + sqlIds + " AND " + condition;
+            int deletedInChunk = (int) MyContextHolder.get().getDatabase().getWriter().execute(
+                    new DatabaseWriter.Operation() {
+                        @Override
+                        public long execute(SQLiteDatabase db1) {
+                            int count = db1.delete(Msg.TABLE_NAME, msgSelection, null);
+                            db1.delete(MsgOfUser.TABLE_NAME, MsgOfUser.MSG_ID + sqlIds
+                                    + " AND NOT EXISTS (SELECT * FROM " + Msg.TABLE_NAME + " WHERE "
+                                    + Msg.TABLE_NAME + "." + Msg._ID + "=" + MsgOfUser.TABLE_NAME + "." 
+                                    + MsgOfUser.MSG_ID + ")", null);
+                            return count;
+                        }
+                    });
+            deleted += deletedInChunk;
+            mChunks++;
+            if (MyLog.isLoggable(this, MyLog.VERBOSE)) {
+                MyLog.v(this, "Chunk " + mChunks + ", ids " + ids.get(0) + "-" + lastId + " of " + maxId
+                        + ": deleted " + deletedInChunk + ", total " + deleted);
+            }
+            if (ids.size() == CHUNK_SIZE && lastId < maxId) {
+                try {
+                    Thread.sleep(CHUNK_PAUSE_MILLIS);
+                } catch (InterruptedException e) {
+                    MyLog.v(this, "Interrupted");
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * @return Ids of the next chunk of messages to delete, after lastId, in ascending order
+     */
+    private static List<Long> selectIds(SQLiteDatabase db, long lastId, long maxId, String condition) {
+        List<Long> ids = new ArrayList<Long>();
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery("SELECT " + Msg._ID + " FROM " + Msg.TABLE_NAME
+                    + " WHERE " + Msg.TABLE_NAME + "." + Msg._ID + ">" + lastId
+                    + " AND " + Msg.TABLE_NAME + "." + Msg._ID + "<=" + maxId
+                    + " AND " + condition
+                    + " ORDER BY " + Msg._ID + " LIMIT " + CHUNK_SIZE, null);
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+            }
+        } finally {
+            DbUtils.closeSilently(cursor);
+        }
+        return ids;
+    }
+
+    /**
+     * @return 0 if nothing found
+     */
+    private static long longForQuery(SQLiteDatabase db, String sql) {
+        long value = 0;
+        SQLiteStatement statement = db.compileStatement(sql);
+        try {
+            value = statement.simpleQueryForLong();
+        } catch (SQLiteDoneException e) {
+            value = 0;
+        } finally {
+            statement.close();
+        }
+        return value;
+    }
+
+    private boolean isStopping() {
+        return mParent != null && mParent.isStopping();
+    }
+
+    private boolean isOutOfTime() {
+        return System.currentTimeMillis() - mStartedAt > TIME_BUDGET_MILLIS;
+    }
+
     /**
      * @return number of Messages deleted
      */
     public int getDeleted() {
         return mDeleted;
     }
+
+    /**
+     * @return number of transactions used during the last run
+     */
+    public int getChunks() {
+        return mChunks;
+    }
 }
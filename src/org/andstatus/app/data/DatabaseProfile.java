@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2014 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app.data;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.andstatus.app.util.MyLog;
+
+/**
+ * Storage engine settings of the database, sized by the memory class of the device.
+ * With Write-Ahead Logging the framework keeps a pool of connections,
+ * so readers (e.g. {@link MyProvider#query(android.net.Uri, String[], String, String[], String)})
+ * are not blocked by a writer (e.g. {@link org.andstatus.app.service.MyService}).
+ * See <a href="http://www.sqlite.org/wal.html">Write-Ahead Logging</a>
+ * @author yvolk@yurivolkov.com
+ */
+public final class DatabaseProfile {
+    /** {@link android.database.sqlite.SQLiteOpenHelper#setWriteAheadLoggingEnabled(boolean)} appeared in Jelly Bean */
+    static final int MIN_SDK_FOR_WAL = 16;
+    /** Memory class (MB) of low end devices */
+    static final int MEMORY_CLASS_DEFAULT = 16;
+
+    private final int memoryClass;
+    private final long cacheSizeBytes;
+
+    public DatabaseProfile(int memoryClass) {
+        this.memoryClass = memoryClass > 0 ? memoryClass : MEMORY_CLASS_DEFAULT;
+        // 1/32 of the heap limit, from 512 KB to 4 MB
+        cacheSizeBytes = Math.min(Math.max(this.memoryClass * 32L * 1024, 512L * 1024), 4L * 1024 * 1024);
+    }
+
+    public static DatabaseProfile fromContext(Context context) {
+        int memoryClass = 0;
+        try {
+            ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+            if (am != null) {
+                memoryClass = am.getMemoryClass();
+            }
+        } catch (Exception e) {
+            MyLog.d(DatabaseProfile.class.getSimpleName(), "Couldn't get memory class", e);
+        }
+        return new DatabaseProfile(memoryClass);
+    }
+
+    public static boolean isWriteAheadLoggingSupported() {
+        return android.os.Build.VERSION.SDK_INT >= MIN_SDK_FOR_WAL;
+    }
+
+    /**
+     * Applies the settings, which persist in the database file. To be called from
+     * {@link android.database.sqlite.SQLiteOpenHelper#onOpen(SQLiteDatabase)}.
+     * The framework gives no hook for the pooled connections of the Write-Ahead Logging mode, 
+     * so per connection PRAGMAs (cache_size, mmap_size...) would reach the primary connection only.
+     * The default_cache_size is stored in the database header and is used by every new connection
+     */
+    public void apply(SQLiteDatabase db) {
+        long pageSize = pragmaForLong(db, "page_size");
+        if (pageSize > 0) {
+            long cacheSizePages = cacheSizeBytes / pageSize;
+            if (pragmaForLong(db, "default_cache_size") != cacheSizePages) {
+                pragmaForLong(db, "default_cache_size=" + cacheSizePages);
+            }
+        }
+        MyLog.v(this, "Applied " + toString() + ", journal_mode=" + pragmaForString(db, "journal_mode"));
+    }
+
+    /**
+     * Some pragmas return a row, others return nothing, so execSQL doesn't suit all of them
+     * @return 0 if nothing was returned
+     */
+    private long pragmaForLong(SQLiteDatabase db, String pragma) {
+        String value = pragmaForString(db, pragma);
+        try {
+            return value.length() == 0 ? 0 : Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            MyLog.v(this, "PRAGMA " + pragma + " returned '" + value + "'");
+            return 0;
+        }
+    }
+
+    private String pragmaForString(SQLiteDatabase db, String pragma) {
+        String value = "";
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery("PRAGMA " + pragma, null);
+            if (cursor.moveToFirst()) {
+                value = cursor.getString(0);
+            }
+        } catch (Exception e) {
+            MyLog.d(this, "PRAGMA " + pragma, e);
+        } finally {
+            DbUtils.closeSilently(cursor);
+        }
+        return value == null ? "" : value;
+    }
+
+    public int getMemoryClass() {
+        return memoryClass;
+    }
+
+    public long getCacheSizeBytes() {
+        return cacheSizeBytes;
+    }
+
+    @Override
+    public String toString() {
+        return MyLog.formatKeyValue("DatabaseProfile", "memoryClass:" + memoryClass
+                + ",cacheSize:" + cacheSizeBytes
+                + ",walSupported:" + isWriteAheadLoggingSupported());
+    }
+}
@@ -0,0 +1,323 @@
+/*
+ * Copyright (c) 2014 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app.data;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import net.jcip.annotations.ThreadSafe;
+
+import org.andstatus.app.util.MyLog;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The only thread, which writes to the database.
+ * Producers submit {@link Operation}s to the non-blocking queue and get {@link Future}s of their results.
+ * Adjacent operations are executed in one transaction,
+ * so writers don't compete for the database locks and don't need to retry.
+ * @author yvolk@yurivolkov.com
+ */
+@ThreadSafe
+public final class DatabaseWriter {
+    /**
+     * Write operation to be executed in the writer thread.
+     * It may be executed more than once: after a failure of another operation of the same transaction
+     * it is replayed alone. So it shouldn't change anything outside of the database (e.g. delete files):
+     * let the caller do this after the operation is done
+     */
+    public interface Operation {
+        /**
+         * @return e.g. Row id of the inserted row or number of rows changed
+         */
+        long execute(SQLiteDatabase db);
+    }
+
+    static final int MAX_OPERATIONS_IN_TRANSACTION = 50;
+    private static final long IDLE_PARK_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final SQLiteOpenHelper databaseHelper;
+    private final OidCache oidCache;
+    private final Queue<WriteTask> queue = new ConcurrentLinkedQueue<WriteTask>();
+    private volatile Thread writerThread = null;
+    private volatile boolean stopped = false;
+    private final AtomicLong operationsCount = new AtomicLong();
+    private final AtomicLong transactionsCount = new AtomicLong();
+
+    DatabaseWriter(SQLiteOpenHelper databaseHelper) {
+        this(databaseHelper, null);
+    }
+
+    /**
+     * @param oidCache Operations may put ids of the rows, which they inserted, into the cache. 
+     *      It is cleared when a transaction is rolled back. May be null
+     */
+    DatabaseWriter(SQLiteOpenHelper databaseHelper, OidCache oidCache) {
+        this.databaseHelper = databaseHelper;
+        this.oidCache = oidCache;
+    }
+
+    /**
+     * Doesn't block the caller
+     */
+    public Future<Long> submit(Operation operation) {
+        WriteTask task = new WriteTask(operation);
+        if (stopped) {
+            // Let the caller get an exception from the closed database
+            executeInTransaction(databaseHelper.getWritableDatabase(), Collections.singletonList(task));
+            return task;
+        }
+        queue.offer(task);
+        ensureStarted();
+        LockSupport.unpark(writerThread);
+        return task;
+    }
+
+    /**
+     * Blocks the caller till the operation is committed.
+     * The operation is executed immediately, if we are in the writer thread already
+     * @return Result of the operation
+     * @throws RuntimeException thrown by the operation
+     */
+    public long execute(Operation operation) {
+        if (isWriterThread()) {
+            return operation.execute(databaseHelper.getWritableDatabase());
+        }
+        Future<Long> future = submit(operation);
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the database write", e);
+        } catch (ExecutionException e) {
+            if (RuntimeException.class.isAssignableFrom(e.getCause().getClass())) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Blocks the caller till the operations, submitted before this call, are done
+     */
+    public void flush() {
+        execute(new Operation() {
+            @Override
+            public long execute(SQLiteDatabase db) {
+                return 0;
+            }
+        });
+    }
+
+    public boolean isWriterThread() {
+        return Thread.currentThread() == writerThread;
+    }
+
+    private synchronized void ensureStarted() {
+        if (writerThread == null) {
+            writerThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    writeLoop();
+                }
+            }, DatabaseWriter.class.getSimpleName());
+            writerThread.setDaemon(true);
+            writerThread.start();
+        }
+    }
+
+    /**
+     * Operations, submitted before this call, are still executed
+     */
+    synchronized void stop() {
+        stopped = true;
+        if (writerThread != null) {
+            LockSupport.unpark(writerThread);
+        }
+    }
+
+    private void writeLoop() {
+        MyLog.v(this, "Started");
+        while (true) {
+            WriteTask task = queue.poll();
+            if (task == null) {
+                if (stopped) {
+                    break;
+                }
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                continue;
+            }
+            List<WriteTask> batch = new ArrayList<WriteTask>();
+            while (task != null) {
+                batch.add(task);
+                if (batch.size() >= MAX_OPERATIONS_IN_TRANSACTION) {
+                    break;
+                }
+                task = queue.poll();
+            }
+            try {
+                SQLiteDatabase db = databaseHelper.getWritableDatabase();
+                if (!executeInTransaction(db, batch) && batch.size() > 1) {
+                    // Don't let one failed operation roll back the others.
+                    // The operations are replayed from the database state, as the cache was cleared
+                    for (WriteTask task1 : batch) {
+                        executeInTransaction(db, Collections.singletonList(task1));
+                    }
+                }
+            } catch (RuntimeException e) {
+                MyLog.e(this, "Couldn't open the database", e);
+                for (WriteTask task1 : batch) {
+                    task1.setFailure(e);
+                }
+            }
+        }
+        MyLog.v(this, "Stopped; " + toString());
+    }
+
+    /**
+     * Results are delivered only after commit.
+     * A failed operation is reported only if it was alone in the transaction
+     * @return true if committed
+     */
+    private boolean executeInTransaction(SQLiteDatabase db, List<WriteTask> batch) {
+        long[] results = new long[batch.size()];
+        RuntimeException failure = null;
+        boolean committed = false;
+        try {
+            db.beginTransaction();
+            try {
+                for (int ind = 0; ind < batch.size(); ind++) {
+                    results[ind] = batch.get(ind).operation.execute(db);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            committed = true;
+        } catch (RuntimeException e) {
+            failure = e;
+            onRolledBack();
+        }
+        transactionsCount.incrementAndGet();
+        if (committed) {
+            operationsCount.addAndGet(batch.size());
+            for (int ind = 0; ind < batch.size(); ind++) {
+                batch.get(ind).setResult(results[ind]);
+            }
+        } else if (batch.size() == 1) {
+            MyLog.d(this, "Operation failed", failure);
+            batch.get(0).setFailure(failure);
+        }
+        return committed;
+    }
+
+    /**
+     * Ids of the rolled back rows, cached by the operations 
+     * (e.g. by {@link MyProvider#insert(android.net.Uri, android.content.ContentValues)}), don't exist
+     */
+    private void onRolledBack() {
+        if (oidCache != null) {
+            oidCache.clear();
+        }
+    }
+
+    public long getOperationsCount() {
+        return operationsCount.get();
+    }
+
+    public long getTransactionsCount() {
+        return transactionsCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return MyLog.formatKeyValue("DatabaseWriter", "operations:" + operationsCount.get()
+                + ",transactions:" + transactionsCount.get() + ",queued:" + queue.size());
+    }
+
+    private static final class WriteTask implements Future<Long> {
+        final Operation operation;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile long result = 0;
+        private volatile Throwable failure = null;
+
+        WriteTask(Operation operation) {
+            this.operation = operation;
+        }
+
+        void setResult(long result) {
+            this.result = result;
+            done.countDown();
+        }
+
+        void setFailure(Throwable failure) {
+            this.failure = failure;
+            done.countDown();
+        }
+
+        /**
+         * Submitted operations are not cancelled
+         */
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        @Override
+        public Long get() throws InterruptedException, ExecutionException {
+            done.await();
+            return getResult();
+        }
+
+        @Override
+        public Long get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException,
+                TimeoutException {
+            if (!done.await(timeout, unit)) {
+                throw new TimeoutException();
+            }
+            return getResult();
+        }
+
+        private Long getResult() throws ExecutionException {
+            if (failure != null) {
+                throw new ExecutionException(failure);
+            }
+            return result;
+        }
+    }
+}
@@ -18,6 +18,7 @@ package org.andstatus.app.data;
 
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteStatement;
 import android.provider.BaseColumns;
@@ -43,15 +44,33 @@ public final class DbUtils {
     }
 
     /**
+     * Executes the statement in the {@link DatabaseWriter} thread
+     */
+    public static void execSQL(final String sql) {
+        MyContextHolder.get().getDatabase().getWriter().execute(new DatabaseWriter.Operation() {
+            @Override
+            public long execute(SQLiteDatabase db) {
+                db.execSQL(sql);
+                return 0;
+            }
+        });
+    }
+
+    /**
+     * The row is inserted by the {@link DatabaseWriter}
      * @return rowId
      */
-    public static long addRowWithRetry(String tableName, ContentValues values, int nRetries) {
+    public static long addRowWithRetry(final String tableName, final ContentValues values, int nRetries) {
         String method = "addRowWithRetry";
         long rowId = -1;
         for (int pass = 0; pass < nRetries; pass++) {
             try {
-                rowId = MyContextHolder.get().getDatabase().getReadableDatabase()
-                        .insert(tableName, null, values);
+                rowId = MyContextHolder.get().getDatabase().getWriter().execute(new DatabaseWriter.Operation() {
+                    @Override
+                    public long execute(SQLiteDatabase db) {
+                        return db.insert(tableName, null, values);
+                    }
+                });
                 if (rowId != -1) {
                     break;
                 }
@@ -69,15 +88,20 @@ public final class DbUtils {
     }
 
     /**
+     * The row is updated by the {@link DatabaseWriter}
      * @return Number of rows updated
      */
-    public static int updateRowWithRetry(String tableName, long rowId, ContentValues values, int nRetries) {
+    public static int updateRowWithRetry(final String tableName, final long rowId, final ContentValues values, int nRetries) {
         String method = "updateRowWithRetry";
         int rowsUpdated = 0;
         for (int pass=0; pass<nRetries; pass++) {
             try {
-                rowsUpdated = MyContextHolder.get().getDatabase().getReadableDatabase()
-                        .update(tableName, values, BaseColumns._ID + "=" + Long.toString(rowId), null);
+                rowsUpdated = (int) MyContextHolder.get().getDatabase().getWriter().execute(new DatabaseWriter.Operation() {
+                    @Override
+                    public long execute(SQLiteDatabase db) {
+                        return db.update(tableName, values, BaseColumns._ID + "=" + Long.toString(rowId), null);
+                    }
+                });
                 break;
             } catch (SQLiteException e) {
                 MyLog.i(method, " Database is locked, pass=" + pass, e);
@@ -21,6 +21,7 @@ import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
 
+import org.andstatus.app.context.MyContextHolder;
 import org.andstatus.app.data.MyDatabase.FollowingUser;
 import org.andstatus.app.util.MyLog;
 import org.andstatus.app.util.SharedPreferencesUtil;
@@ -60,10 +61,10 @@ public class FollowingUserValues {
     }
     
     /**
-     * Update information in the database 
+     * Update information in the database by the {@link DatabaseWriter}
      */
-    public void update(SQLiteDatabase db) {
-        boolean followed = false;
+    public void update() {
+        final boolean followed;
         if (userId != 0 && followingUserId != 0 && contentValues.containsKey(FollowingUser.USER_FOLLOWED)) {
             // This works for API 17 but not for API 10:
             // followed = contentValues.getAsBoolean(FollowingUser.USER_FOLLOWED);
@@ -72,20 +73,16 @@ public class FollowingUserValues {
             // Don't change anything as there is no information
             return;
         }
-        for (int pass=0; pass<5; pass++) {
-            try {
-                tryToUpdate(db, followed);
-                break;
-       // This is since API 11, see http://developer.android.com/reference/android/database/sqlite/SQLiteDatabaseLockedException.html
-       //     } catch (SQLiteDatabaseLockedException e) {
-            } catch (SQLiteException e) {
-                MyLog.i(this, "update, Database is locked, pass=" + pass, e);
-                try {
-                    Thread.sleep(Math.round((Math.random() + 1) * 200));
-                } catch (InterruptedException e2) {
-                    MyLog.e(this, e2);
+        try {
+            MyContextHolder.get().getDatabase().getWriter().execute(new DatabaseWriter.Operation() {
+                @Override
+                public long execute(SQLiteDatabase db) {
+                    tryToUpdate(db, followed);
+                    return 0;
                 }
-            }
+            });
+        } catch (SQLiteException e) {
+            MyLog.e(this, "update, userId=" + userId + ", followingUserId=" + followingUserId, e);
         }
     }
 
@@ -16,11 +16,9 @@
 
 package org.andstatus.app.data;
 
-import android.database.sqlite.SQLiteDatabase;
 import android.provider.BaseColumns;
 import android.text.TextUtils;
 
-import org.andstatus.app.context.MyContextHolder;
 import org.andstatus.app.context.MyPreferences;
 import org.andstatus.app.data.MyDatabase.User;
 import org.andstatus.app.net.TimelinePosition;
@@ -177,8 +175,7 @@ public class LatestTimelineItem {
             sql = "UPDATE " + User.TABLE_NAME + " SET " + sql 
                     + " WHERE " + BaseColumns._ID + "=" + userId;
 
-            SQLiteDatabase db = MyContextHolder.get().getDatabase().getReadableDatabase();
-            db.execSQL(sql);
+            DbUtils.execSQL(sql);
             
             timelineDateChanged = false;
             timelineItemChanged = false;
@@ -40,6 +40,11 @@ public final class MyDatabase extends SQLiteOpenHelper  {
      * This is used to check (and upgrade if necessary) 
      * existing database after application update.
      * 
+     * v.20 2014-03-30 yvolk. Timeline table triggers update only the changed rows
+     * v.19 2014-03-23 yvolk. CommandQueue table added
+     * v.18 2014-03-16 yvolk. Timeline table added
+     * v.17 2014-03-09 yvolk. Full text search index of messages added
+     * v.16 2014-03-02 yvolk. Indexes for timeline queries added
      * v.15 2014-02-16 yvolk. Public timeline added
      * v.14 2013-12-15 yvolk. Origin table added
      * v.13 2013-12-06 yvolk. Avatar table added
@@ -52,7 +57,7 @@ public final class MyDatabase extends SQLiteOpenHelper  {
      *      All messages are in the same table. 
      *      Allows to have multiple User Accounts in different Originating systems (twitter.com etc. ) 
      */
-    public static final int DATABASE_VERSION = 15;
+    public static final int DATABASE_VERSION = 20;
     public static final String DATABASE_NAME = "andstatus.sqlite";
 
     /**
@@ -413,6 +418,87 @@ public final class MyDatabase extends SQLiteOpenHelper  {
         public static final String TEXT_LIMIT = "text_limit";
         public static final String SHORT_URL_LENGTH = "short_url_length";
     }
+
+    /**
+     * Full text search index of messages: FTS3 virtual table, kept in sync 
+     * with the {@link Msg} and {@link User} tables by triggers.
+     * Its "docid" is {@link Msg#_ID}
+     */
+    public static final class MsgFts {
+        public static final String TABLE_NAME = MsgFts.class.getSimpleName().toLowerCase(Locale.US);
+        private MsgFts() {
+        }
+        public static final String DOCID = "docid";
+        public static final String BODY = "fts_body";
+        /**
+         * Usernames of the Author and of the Sender of the message
+         */
+        public static final String USERNAMES = "fts_usernames";
+    }
+
+    /**
+     * Membership of messages in timelines, so a timeline may be read as one range of the primary key. 
+     * Derived from the {@link Msg} and {@link MsgOfUser} tables, see {@link TimelineTable}
+     */
+    public static final class Timeline {
+        public static final String TABLE_NAME = Timeline.class.getSimpleName().toLowerCase(Locale.US);
+        private Timeline() {
+        }
+        /**
+         * The User, whose timeline this is: an Account for the {@link TimelineTypeEnum#HOME} etc., 
+         * Author, Sender or Reblogger for the {@link TimelineTypeEnum#USER} 
+         */
+        public static final String USER_ID = "timeline_user_id";
+        /**
+         * See {@link TimelineTypeEnum#save()}
+         */
+        public static final String TIMELINE_TYPE = "timeline_type";
+        /**
+         * Copy of the {@link Msg#SENT_DATE}
+         */
+        public static final String SENT_DATE = "timeline_sent_date";
+        public static final String MSG_ID = "timeline_msg_id";
+    }
+
+    /**
+     * Commands of the main and retry queues of the {@link org.andstatus.app.service.MyService},
+     * so they survive restarts of the process, see {@link CommandQueueTable}
+     */
+    public static final class CommandQueue implements BaseColumns {
+        public static final String TABLE_NAME = CommandQueue.class.getSimpleName().toLowerCase(Locale.US);
+        private CommandQueue() {
+        }
+        /**
+         * Queue, which the command is in: {@link CommandQueueTable#MAIN_QUEUE} or {@link CommandQueueTable#RETRY_QUEUE}
+         */
+        public static final String QUEUE_TYPE = "queue_type";
+        /**
+         * See {@link org.andstatus.app.service.CommandEnum#save()}
+         */
+        public static final String COMMAND_CODE = "command_code";
+        /**
+         * Commands are restored from the queue in the order of their priority
+         */
+        public static final String PRIORITY = "command_priority";
+        public static final String ACCOUNT_NAME = "command_account_name";
+        /**
+         * See {@link TimelineTypeEnum#save()}
+         */
+        public static final String TIMELINE_TYPE = "command_timeline_type";
+        public static final String ITEM_ID = "command_item_id";
+        /**
+         * Text of the message to be sent by the {@link org.andstatus.app.service.CommandEnum#UPDATE_STATUS}
+         */
+        public static final String STATUS = "command_status";
+        public static final String IN_REPLY_TO_ID = "command_in_reply_to_id";
+        public static final String RECIPIENT_ID = "command_recipient_id";
+        public static final String EXECUTION_COUNT = "command_execution_count";
+        public static final String RETRIES_LEFT = "command_retries_left";
+        /**
+         * Date and time, when the command was put to the queue first time
+         */
+        public static final String CREATED_DATE = "command_created_date";
+    }
     
     /**
      * ids in originating system
@@ -430,8 +516,56 @@ public final class MyDatabase extends SQLiteOpenHelper  {
     }
     
     
+    /**
+     * Lives as long as this database helper, so it is reset together with the database
+     */
+    private final OidCache oidCache = new OidCache();
+    private final TimelineSqlCache timelineSqlCache = new TimelineSqlCache();
+    private final DatabaseProfile profile;
+    private final DatabaseWriter writer = new DatabaseWriter(this, oidCache);
+
     public MyDatabase(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        profile = DatabaseProfile.fromContext(context);
+        if (DatabaseProfile.isWriteAheadLoggingSupported()) {
+            // Readers use a pool of connections and are not blocked by the writer
+            setWriteAheadLoggingEnabled(true);
+        }
+    }
+
+    public DatabaseProfile getProfile() {
+        return profile;
+    }
+
+    /**
+     * All background writes should go through it
+     */
+    public DatabaseWriter getWriter() {
+        return writer;
+    }
+
+    @Override
+    public synchronized void close() {
+        writer.stop();
+        super.close();
+    }
+
+    public boolean isWriteAheadLoggingEnabled() {
+        return DatabaseProfile.isWriteAheadLoggingSupported() && getReadableDatabase().isWriteAheadLoggingEnabled();
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        profile.apply(db);
+    }
+
+    public OidCache getOidCache() {
+        return oidCache;
+    }
+
+    public TimelineSqlCache getTimelineSqlCache() {
+        return timelineSqlCache;
     }
 
     private ThreadLocal<Boolean> onUpgradeTriggered = new ThreadLocal<Boolean>();
@@ -490,6 +624,33 @@ public final class MyDatabase extends SQLiteOpenHelper  {
                 + Msg.ORIGIN_ID + ", "
                 + Msg.MSG_OID
                 + ")");
+
+        db.execSQL("CREATE INDEX idx_msg_sent_date ON " + Msg.TABLE_NAME + " (" 
+                + Msg.SENT_DATE
+                + ")");
+
+        db.execSQL("CREATE INDEX idx_msg_ins_date ON " + Msg.TABLE_NAME + " (" 
+                + Msg.INS_DATE
+                + ")");
+
+        db.execSQL("CREATE INDEX idx_msg_in_reply_to ON " + Msg.TABLE_NAME + " (" 
+                + Msg.IN_REPLY_TO_MSG_ID
+                + ")");
+
+        db.execSQL("CREATE INDEX idx_msg_author ON " + Msg.TABLE_NAME + " (" 
+                + Msg.AUTHOR_ID + ", "
+                + Msg.SENT_DATE
+                + ")");
+
+        db.execSQL("CREATE INDEX idx_msg_sender ON " + Msg.TABLE_NAME + " (" 
+                + Msg.SENDER_ID + ", "
+                + Msg.SENT_DATE
+                + ")");
+
+        db.execSQL("CREATE INDEX idx_msg_public ON " + Msg.TABLE_NAME + " (" 
+                + Msg.PUBLIC + ", "
+                + Msg.SENT_DATE
+                + ")");
         
         db.execSQL("CREATE TABLE " + MsgOfUser.TABLE_NAME + " (" 
                 + MsgOfUser.USER_ID + " INTEGER NOT NULL," 
@@ -503,6 +664,32 @@ public final class MyDatabase extends SQLiteOpenHelper  {
                 + MsgOfUser.DIRECTED + " BOOLEAN DEFAULT 0 NOT NULL," 
                 + " CONSTRAINT pk_msgofuser PRIMARY KEY (" + MsgOfUser.USER_ID + " ASC, " + MsgOfUser.MSG_ID + " ASC)"
                 + ")");
+
+        db.execSQL("CREATE INDEX idx_msgofuser_msg ON " + MsgOfUser.TABLE_NAME + " (" 
+                + MsgOfUser.MSG_ID + ", "
+                + MsgOfUser.FAVORITED
+                + ")");
+
+        /* SQLite of old Android versions doesn't support partial indexes,
+         * so sparse flags are indexed together with the User in order to find
+         * e.g. Mentions of the User without scanning all messages of the User */
+        db.execSQL("CREATE INDEX idx_msgofuser_mentioned ON " + MsgOfUser.TABLE_NAME + " (" 
+                + MsgOfUser.USER_ID + ", "
+                + MsgOfUser.MENTIONED + ", "
+                + MsgOfUser.MSG_ID
+                + ")");
+
+        db.execSQL("CREATE INDEX idx_msgofuser_favorited ON " + MsgOfUser.TABLE_NAME + " (" 
+                + MsgOfUser.USER_ID + ", "
+                + MsgOfUser.FAVORITED + ", "
+                + MsgOfUser.MSG_ID
+                + ")");
+
+        db.execSQL("CREATE INDEX idx_msgofuser_directed ON " + MsgOfUser.TABLE_NAME + " (" 
+                + MsgOfUser.USER_ID + ", "
+                + MsgOfUser.DIRECTED + ", "
+                + MsgOfUser.MSG_ID
+                + ")");
         
         db.execSQL("CREATE TABLE " + User.TABLE_NAME + " (" 
                 + BaseColumns._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," 
@@ -577,6 +764,46 @@ public final class MyDatabase extends SQLiteOpenHelper  {
         db.execSQL("CREATE UNIQUE INDEX idx_origin_name ON " + Origin.TABLE_NAME + " (" 
                 + Origin.ORIGIN_NAME
                 + ")");
+
+        /* FTS4 is not available in SQLite of old Android versions, so we use FTS3 */
+        db.execSQL("CREATE VIRTUAL TABLE " + MsgFts.TABLE_NAME + " USING fts3 (" 
+                + MsgFts.BODY + ", " 
+                + MsgFts.USERNAMES
+                + ")");
+
+        String usernamesOfNewMsg = "coalesce((SELECT " + User.USERNAME + " FROM " + User.TABLE_NAME
+                + " WHERE " + BaseColumns._ID + "=new." + Msg.AUTHOR_ID + "), '')"
+                + " || ' ' || coalesce((SELECT " + User.USERNAME + " FROM " + User.TABLE_NAME
+                + " WHERE " + BaseColumns._ID + "=new." + Msg.SENDER_ID + "), '')";
+        String insertNewMsgToFts = "INSERT INTO " + MsgFts.TABLE_NAME + " (" 
+                + MsgFts.DOCID + ", " + MsgFts.BODY + ", " + MsgFts.USERNAMES
+                + ") VALUES (new." + BaseColumns._ID + ", new." + Msg.BODY + ", " + usernamesOfNewMsg + ");";
+        String deleteOldMsgFromFts = "DELETE FROM " + MsgFts.TABLE_NAME 
+                + " WHERE " + MsgFts.DOCID + "=old." + BaseColumns._ID + ";";
+
+        db.execSQL("CREATE TRIGGER trg_msg_fts_insert AFTER INSERT ON " + Msg.TABLE_NAME
+                + " BEGIN " + insertNewMsgToFts + " END");
+        db.execSQL("CREATE TRIGGER trg_msg_fts_update AFTER UPDATE OF " 
+                + Msg.BODY + ", " + Msg.AUTHOR_ID + ", " + Msg.SENDER_ID 
+                + " ON " + Msg.TABLE_NAME
+                + " BEGIN " + deleteOldMsgFromFts + " " + insertNewMsgToFts + " END");
+        db.execSQL("CREATE TRIGGER trg_msg_fts_delete AFTER DELETE ON " + Msg.TABLE_NAME
+                + " BEGIN " + deleteOldMsgFromFts + " END");
+        db.execSQL("CREATE TRIGGER trg_user_fts_update AFTER UPDATE OF " + User.USERNAME 
+                + " ON " + User.TABLE_NAME
+                + " BEGIN UPDATE " + MsgFts.TABLE_NAME + " SET " + MsgFts.USERNAMES + "="
+                + "(SELECT coalesce(author." + User.USERNAME + ", '') || ' ' || coalesce(sender." + User.USERNAME + ", '')"
+                + " FROM " + Msg.TABLE_NAME + " AS msg"
+                + " LEFT JOIN " + User.TABLE_NAME + " AS author ON msg." + Msg.AUTHOR_ID + "=author." + BaseColumns._ID
+                + " LEFT JOIN " + User.TABLE_NAME + " AS sender ON msg." + Msg.SENDER_ID + "=sender." + BaseColumns._ID
+                + " WHERE msg." + BaseColumns._ID + "=" + MsgFts.TABLE_NAME + "." + MsgFts.DOCID + ")"
+                + " WHERE " + MsgFts.DOCID + " IN (SELECT " + BaseColumns._ID + " FROM " + Msg.TABLE_NAME
+                + " WHERE " + Msg.AUTHOR_ID + "=new." + BaseColumns._ID 
+                + " OR " + Msg.SENDER_ID + "=new." + BaseColumns._ID + ");"
+                + " END");
+
+        TimelineTable.create(db);
+        CommandQueueTable.create(db);
         
         String sqlIns = "INSERT INTO " + Origin.TABLE_NAME + " ("
                 + BaseColumns._ID + "," 
@@ -104,6 +104,21 @@ class MyDatabaseConverter {
         if (currentVersion == 14) {
             currentVersion = convert14to15(db, currentVersion);
         }
+        if (currentVersion == 15) {
+            currentVersion = convert15to16(db, currentVersion);
+        }
+        if (currentVersion == 16) {
+            currentVersion = convert16to17(db, currentVersion);
+        }
+        if (currentVersion == 17) {
+            currentVersion = convert17to18(db, currentVersion);
+        }
+        if (currentVersion == 18) {
+            currentVersion = convert18to19(db, currentVersion);
+        }
+        if (currentVersion == 19) {
+            currentVersion = convert19to20(db, currentVersion);
+        }
         if ( currentVersion == newVersion) {
             MyLog.i(this, "Successfully upgraded database from version " + oldVersion + " to version "
                     + newVersion + ".");
@@ -262,4 +277,181 @@ class MyDatabaseConverter {
         }
         return ok ? versionTo : oldVersion;
     }
+
+    private int convert15to16(SQLiteDatabase db, int oldVersion) {
+        final int versionTo = 16;
+        boolean ok = false;
+        String sql = "";
+        try {
+            MyLog.i(this, "Database upgrading step from version " + oldVersion + " to version " + versionTo );
+            
+            sql = "CREATE INDEX idx_msg_sent_date ON msg (msg_sent_date)";
+            db.execSQL(sql);
+            sql = "CREATE INDEX idx_msg_ins_date ON msg (msg_ins_date)";
+            db.execSQL(sql);
+            sql = "CREATE INDEX idx_msg_in_reply_to ON msg (in_reply_to_msg_id)";
+            db.execSQL(sql);
+            sql = "CREATE INDEX idx_msg_author ON msg (author_id, msg_sent_date)";
+            db.execSQL(sql);
+            sql = "CREATE INDEX idx_msg_sender ON msg (sender_id, msg_sent_date)";
+            db.execSQL(sql);
+            sql = "CREATE INDEX idx_msg_public ON msg (public, msg_sent_date)";
+            db.execSQL(sql);
+            sql = "CREATE INDEX idx_msgofuser_msg ON msgofuser (msg_id, favorited)";
+            db.execSQL(sql);
+            sql = "CREATE INDEX idx_msgofuser_mentioned ON msgofuser (user_id, mentioned, msg_id)";
+            db.execSQL(sql);
+            sql = "CREATE INDEX idx_msgofuser_favorited ON msgofuser (user_id, favorited, msg_id)";
+            db.execSQL(sql);
+            sql = "CREATE INDEX idx_msgofuser_directed ON msgofuser (user_id, directed, msg_id)";
+            db.execSQL(sql);
+            sql = "ANALYZE";
+            db.execSQL(sql);
+            
+            ok = true;
+        } catch (Exception e) {
+            MyLog.e(this, e);
+        }
+        if (ok) {
+            MyLog.i(this, "Database upgrading step successfully upgraded database from " + oldVersion + " to version " + versionTo);
+        } else {
+            MyLog.e(this, "Database upgrading step failed to upgrade database from " + oldVersion 
+                    + " to version " + versionTo
+                    + " SQL='" + sql +"'");
+        }
+        return ok ? versionTo : oldVersion;
+    }
+
+    private int convert16to17(SQLiteDatabase db, int oldVersion) {
+        final int versionTo = 17;
+        boolean ok = false;
+        String sql = "";
+        try {
+            MyLog.i(this, "Database upgrading step from version " + oldVersion + " to version " + versionTo );
+            
+            sql = "CREATE VIRTUAL TABLE msgfts USING fts3 (fts_body, fts_usernames)";
+            db.execSQL(sql);
+            sql = "INSERT INTO msgfts (docid, fts_body, fts_usernames)"
+                    + " SELECT msg._id, msg.body,"
+                    + " coalesce(author.username, '') || ' ' || coalesce(sender.username, '')"
+                    + " FROM msg"
+                    + " LEFT JOIN user AS author ON msg.author_id=author._id"
+                    + " LEFT JOIN user AS sender ON msg.sender_id=sender._id";
+            db.execSQL(sql);
+
+            String usernamesOfNewMsg = "coalesce((SELECT username FROM user WHERE _id=new.author_id), '')"
+                    + " || ' ' || coalesce((SELECT username FROM user WHERE _id=new.sender_id), '')";
+            String insertNewMsgToFts = "INSERT INTO msgfts (docid, fts_body, fts_usernames)"
+                    + " VALUES (new._id, new.body, " + usernamesOfNewMsg + ");";
+            String deleteOldMsgFromFts = "DELETE FROM msgfts WHERE docid=old._id;";
+            sql = "CREATE TRIGGER trg_msg_fts_insert AFTER INSERT ON msg"
+                    + " BEGIN " + insertNewMsgToFts + " END";
+            db.execSQL(sql);
+            sql = "CREATE TRIGGER trg_msg_fts_update AFTER UPDATE OF body, author_id, sender_id ON msg"
+                    + " BEGIN " + deleteOldMsgFromFts + " " + insertNewMsgToFts + " END";
+            db.execSQL(sql);
+            sql = "CREATE TRIGGER trg_msg_fts_delete AFTER DELETE ON msg"
+                    + " BEGIN " + deleteOldMsgFromFts + " END";
+            db.execSQL(sql);
+            sql = "CREATE TRIGGER trg_user_fts_update AFTER UPDATE OF username ON user"
+                    + " BEGIN UPDATE msgfts SET fts_usernames="
+                    + "(SELECT coalesce(author.username, '') || ' ' || coalesce(sender.username, '')"
+                    + " FROM msg AS msg"
+                    + " LEFT JOIN user AS author ON msg.author_id=author._id"
+                    + " LEFT JOIN user AS sender ON msg.sender_id=sender._id"
+                    + " WHERE msg._id=msgfts.docid)"
+                    + " WHERE docid IN (SELECT _id FROM msg WHERE author_id=new._id OR sender_id=new._id);"
+                    + " END";
+            db.execSQL(sql);
+            
+            ok = true;
+        } catch (Exception e) {
+            MyLog.e(this, e);
+        }
+        if (ok) {
+            MyLog.i(this, "Database upgrading step successfully upgraded database from " + oldVersion + " to version " + versionTo);
+        } else {
+            MyLog.e(this, "Database upgrading step failed to upgrade database from " + oldVersion 
+                    + " to version " + versionTo
+                    + " SQL='" + sql +"'");
+        }
+        return ok ? versionTo : oldVersion;
+    }
+
+    private int convert17to18(SQLiteDatabase db, int oldVersion) {
+        final int versionTo = 18;
+        boolean ok = false;
+        String sql = "";
+        try {
+            MyLog.i(this, "Database upgrading step from version " + oldVersion + " to version " + versionTo );
+            
+            sql = "Create timeline table";
+            TimelineTable.create(db);
+            sql = "Fill timeline table";
+            TimelineTable.fill(db);
+            
+            ok = true;
+        } catch (Exception e) {
+            MyLog.e(this, e);
+        }
+        if (ok) {
+            MyLog.i(this, "Database upgrading step successfully upgraded database from " + oldVersion + " to version " + versionTo);
+        } else {
+            MyLog.e(this, "Database upgrading step failed to upgrade database from " + oldVersion 
+                    + " to version " + versionTo
+                    + " SQL='" + sql +"'");
+        }
+        return ok ? versionTo : oldVersion;
+    }
+
+    private int convert18to19(SQLiteDatabase db, int oldVersion) {
+        final int versionTo = 19;
+        boolean ok = false;
+        String sql = "";
+        try {
+            MyLog.i(this, "Database upgrading step from version " + oldVersion + " to version " + versionTo );
+            
+            // Commands, which are still in the SharedPreferences files, are moved to the table by MyService
+            sql = "Create command queue table";
+            CommandQueueTable.create(db);
+            
+            ok = true;
+        } catch (Exception e) {
+            MyLog.e(this, e);
+        }
+        if (ok) {
+            MyLog.i(this, "Database upgrading step successfully upgraded database from " + oldVersion + " to version " + versionTo);
+        } else {
+            MyLog.e(this, "Database upgrading step failed to upgrade database from " + oldVersion 
+                    + " to version " + versionTo
+                    + " SQL='" + sql +"'");
+        }
+        return ok ? versionTo : oldVersion;
+    }
+
+    private int convert19to20(SQLiteDatabase db, int oldVersion) {
+        final int versionTo = 20;
+        boolean ok = false;
+        String sql = "";
+        try {
+            MyLog.i(this, "Database upgrading step from version " + oldVersion + " to version " + versionTo );
+            
+            sql = "Drop timeline table triggers";
+            TimelineTable.dropTriggers(db);
+            sql = "Create timeline table triggers";
+            TimelineTable.createTriggers(db);
+            
+            ok = true;
+        } catch (Exception e) {
+            MyLog.e(this, e);
+        }
+        if (ok) {
+            MyLog.i(this, "Database upgrading step successfully upgraded database from " + oldVersion + " to version " + versionTo);
+        } else {
+            MyLog.e(this, "Database upgrading step failed to upgrade database from " + oldVersion 
+                    + " to version " + versionTo
+                    + " SQL='" + sql +"'");
+        }
+        return ok ? versionTo : oldVersion;
+    }
 }
@@ -27,8 +27,11 @@ import java.util.Map;
 import java.util.Set;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.SQLException;
@@ -46,9 +49,11 @@ import org.andstatus.app.context.MyPreferences;
 import org.andstatus.app.data.MyDatabase.Avatar;
 import org.andstatus.app.data.MyDatabase.FollowingUser;
 import org.andstatus.app.data.MyDatabase.Msg;
+import org.andstatus.app.data.MyDatabase.MsgFts;
 import org.andstatus.app.data.MyDatabase.MsgOfUser;
 import org.andstatus.app.data.MyDatabase.OidEnum;
 import org.andstatus.app.data.MyDatabase.Origin;
+import org.andstatus.app.data.MyDatabase.Timeline;
 import org.andstatus.app.data.MyDatabase.User;
 import org.andstatus.app.service.CommandData;
 import org.andstatus.app.service.CommandEnum;
@@ -336,12 +341,14 @@ public class MyProvider extends ContentProvider {
                     db.endTransaction();
                 }
                 if (count > 0) {
+                    MyContextHolder.get().getDatabase().getOidCache().clear(OidEnum.MSG_OID);
                     getContext().getContentResolver().notifyChange(MyProvider.TIMELINE_URI, null);
                 }
                 break;
 
             case USERS:
                 count = db.delete(User.TABLE_NAME, selection, selectionArgs);
+                MyContextHolder.get().getDatabase().getOidCache().clear(OidEnum.USER_OID);
                 break;
 
             case USER:
@@ -350,6 +357,7 @@ public class MyProvider extends ContentProvider {
                 count = db.delete(User.TABLE_NAME, BaseColumns._ID + "=" + userId
                         + (!TextUtils.isEmpty(selection) ? " AND (" + selection + ')' : ""),
                         selectionArgs);
+                MyContextHolder.get().getDatabase().getOidCache().clear(OidEnum.USER_OID);
                 break;
 
             default:
@@ -433,6 +441,9 @@ public class MyProvider extends ContentProvider {
                 throw new SQLException("Failed to insert row into " + uri);
             } else if ( User.TABLE_NAME.equals(table)) {
                 loadAvatar(rowId, values);
+                putToOidCache(OidEnum.USER_OID, values.getAsLong(User.ORIGIN_ID), values.getAsString(User.USER_OID), rowId);
+            } else if ( Msg.TABLE_NAME.equals(table)) {
+                putToOidCache(OidEnum.MSG_OID, values.getAsLong(Msg.ORIGIN_ID), values.getAsString(Msg.MSG_OID), rowId);
             }
             
             if (msgOfUserValues != null) {
@@ -445,7 +456,7 @@ public class MyProvider extends ContentProvider {
             }
             if (followingUserValues != null) {
                 followingUserValues.followingUserId =  rowId;
-                followingUserValues.update(db);
+                followingUserValues.update();
             }
 
             switch (matchedUri) {
@@ -468,6 +479,61 @@ public class MyProvider extends ContentProvider {
         return newUri;
     }
 
+    private static void putToOidCache(OidEnum oidEnum, Long originId, String oid, long rowId) {
+        if (originId != null) {
+            MyContextHolder.get().getDatabase().getOidCache().put(oidEnum, originId, oid, rowId);
+        }
+    }
+
+    /**
+     * All inserts are done in one database transaction: the whole batch is one operation of the {@link DatabaseWriter}.
+     * A transaction of the caller's thread would block the writer, 
+     * which the inserts use too (e.g. {@link FollowingUserValues#update()})
+     * @see android.content.ContentProvider#bulkInsert(android.net.Uri, android.content.ContentValues[])
+     */
+    @Override
+    public int bulkInsert(final Uri uri, final ContentValues[] values) {
+        return (int) MyContextHolder.get().getDatabase().getWriter().execute(new DatabaseWriter.Operation() {
+            @Override
+            public long execute(SQLiteDatabase db) {
+                return MyProvider.super.bulkInsert(uri, values);
+            }
+        });
+    }
+
+    /**
+     * All operations are applied in one database transaction, see {@link #bulkInsert(Uri, ContentValues[])}
+     * @see android.content.ContentProvider#applyBatch(java.util.ArrayList)
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(final ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final ContentProviderResult[][] results = new ContentProviderResult[1][];
+        final OperationApplicationException[] exceptions = new OperationApplicationException[1];
+        try {
+            MyContextHolder.get().getDatabase().getWriter().execute(new DatabaseWriter.Operation() {
+                @Override
+                public long execute(SQLiteDatabase db) {
+                    try {
+                        results[0] = MyProvider.super.applyBatch(operations);
+                        exceptions[0] = null;
+                        return results[0].length;
+                    } catch (OperationApplicationException e) {
+                        exceptions[0] = e;
+                        // Roll the batch back
+                        throw new SQLException("applyBatch failed", e);
+                    }
+                }
+            });
+        } catch (SQLException e) {
+            if (exceptions[0] != null) {
+                throw exceptions[0];
+            }
+            throw e;
+        }
+        return results[0];
+    }
+
     public static Uri getOriginUri(long rowId) {
         return ContentUris.withAppendedId(MyProvider.ORIGIN_CONTENT_URI, rowId);
     }
@@ -561,13 +627,15 @@ public class MyProvider extends ContentProvider {
         SQLiteQueryBuilder qb = new SQLiteQueryBuilder();
         boolean built = false;
         String sql = "";
+        // Tables of cacheable SQL are set only if the SQL is not in the cache
+        boolean cacheable = false;
 
         MatchedUri matchedUri = MatchedUri.fromInt(URI_MATCHER.match(uri));
         switch (matchedUri) {
             case TIMELINE:
                 qb.setDistinct(true);
-                qb.setTables(tablesForTimeline(uri, projection));
                 qb.setProjectionMap(MSG_PROJECTION_MAP);
+                cacheable = true;
                 break;
 
             case MSG_COUNT:
@@ -578,39 +646,26 @@ public class MyProvider extends ContentProvider {
                 break;
 
             case TIMELINE_MSG_ID:
-                qb.setTables(tablesForTimeline(uri, projection));
+                // The message may be not in this timeline
+                qb.setTables(tablesForTimeline(uri, projection, false));
                 qb.setProjectionMap(MSG_PROJECTION_MAP);
                 qb.appendWhere(MSG_TABLE_ALIAS + "." + BaseColumns._ID + "=" + uriToMessageId(uri));
                 break;
 
             case TIMELINE_SEARCH:
-                qb.setTables(tablesForTimeline(uri, projection));
                 qb.setProjectionMap(MSG_PROJECTION_MAP);
-                String s1 = uri.getLastPathSegment();
-                if (s1 != null) {
-                    // These two lines don't work:
-                    // qb.appendWhere(Msg.SENDER_ID + " LIKE '%" + s1 +
-                    // "%' OR " + Msg.BODY + " LIKE '%" + s1 + "%'");
-                    // qb.appendWhere(Msg.SENDER_ID + " LIKE \"%" + s1 +
-                    // "%\" OR " + Msg.BODY + " LIKE \"%" + s1 + "%\"");
-                    // ...so we have to use selectionArgs
-
-                    // 1. This works:
-                    // qb.appendWhere(Msg.SENDER_ID + " LIKE ?  OR " +
-                    // Msg.BODY + " LIKE ?");
-
-                    // 2. This works also, but yvolk likes it more :-)
+                cacheable = true;
+                String ftsQuery = toFtsQuery(uri.getLastPathSegment());
+                if (!TextUtils.isEmpty(ftsQuery)) {
                     if (selection != null && selection.length() > 0) {
                         selection = " AND (" + selection + ")";
                     } else {
                         selection = "";
                     }
-                    /// TODO: Search in MyDatabase.User.USERNAME also
-                    selection = "(" + User.AUTHOR_NAME + " LIKE ?  OR " + Msg.BODY
-                            + " LIKE ?)" + selection;
-
-                    selectionArgs = addBeforeArray(selectionArgs, "%" + s1 + "%");
-                    selectionArgs = addBeforeArray(selectionArgs, "%" + s1 + "%");
+                    // Both message bodies and usernames of Authors and Senders are indexed
+                    selection = MSG_TABLE_ALIAS + "." + BaseColumns._ID + " IN (" + FTS_SELECT_DOCIDS + ")" 
+                            + selection;
+                    selectionArgs = addBeforeArray(selectionArgs, ftsQuery);
                 }
                 break;
 
@@ -665,9 +720,19 @@ public class MyProvider extends ContentProvider {
         if (MyContextHolder.get().isReady()) {
             // Get the database and run the query
             SQLiteDatabase db = MyContextHolder.get().getDatabase().getReadableDatabase();
+            TimelineSqlCache sqlCache = MyContextHolder.get().getDatabase().getTimelineSqlCache();
             boolean logQuery = MyLog.isLoggable(TAG, MyLog.VERBOSE);
             try {
+                String cacheKey = "";
+                if (sql.length() == 0 && cacheable) {
+                    cacheKey = TimelineSqlCache.toKey(timelineShape(matchedUri, uri), projection, selection, orderBy);
+                    sql = sqlCache.get(cacheKey);
+                }
                 if (sql.length() == 0) {
+                    long startTime = System.nanoTime();
+                    if (cacheable) {
+                        qb.setTables(tablesForTimeline(uri, projection, true));
+                    }
                     /* We don't use selectionArgs here, they will be actually used (substitute ?-s in selection)
                      * when the query is executed. 
                      * See <a href="http://stackoverflow.com/questions/2481322/sqlitequerybuilder-buildquery-not-using-selectargs">SQLiteQueryBuilder.buildQuery not using selectArgs?</a> 
@@ -677,6 +742,9 @@ public class MyProvider extends ContentProvider {
                     // TODO: We cannot use this method in API 10...
                     // sql = qb.buildQuery(projection, selection, null, null, orderBy, null);
                     built = true;
+                    if (cacheable) {
+                        sqlCache.put(cacheKey, sql, System.nanoTime() - startTime);
+                    }
                 }
                 // Here we substitute ?-s in selection with values from selectionArgs
                 c = db.rawQuery(sql, selectionArgs);
@@ -697,6 +765,9 @@ public class MyProvider extends ContentProvider {
                     + "; qb.getTables=" + qb.getTables() + "; orderBy=" + orderBy;
                     MyLog.v(TAG, msg);
                 }
+                if (cacheable) {
+                    MyLog.v(TAG, sqlCache.toString());
+                }
             }
         }
 
@@ -706,13 +777,46 @@ public class MyProvider extends ContentProvider {
         return c;
     }
 
+    /**
+     * Everything in the timeline Uri, which affects SQL of the query, see {@link TimelineSqlCache}
+     */
+    private static String timelineShape(MatchedUri matchedUri, Uri uri) {
+        boolean isCombined = uriToIsCombined(uri);
+        return matchedUri + ";" + uriToTimelineType(uri).save() + ";" + isCombined + ";" 
+                + new AccountUserIds(isCombined, uriToAccountUserId(uri)).getSqlUserIds();
+    }
+    
+    /**
+     * The same SQL, as {@link #query(Uri, String[], String, String[], String)} builds 
+     * for the {@link MatchedUri#TIMELINE}. Used to check query plans in tests
+     */
+    static String timelineQuerySql(Uri uri, String[] projection, String selection, String sortOrder) {
+        return timelineQuerySql(uri, projection, selection, sortOrder, true);
+    }
+
+    /**
+     * @param useTimelineTable false to build the SQL without the {@link MyDatabase.Timeline} table,
+     *  e.g. to compare performance
+     */
+    static String timelineQuerySql(Uri uri, String[] projection, String selection, String sortOrder, 
+            boolean useTimelineTable) {
+        SQLiteQueryBuilder qb = new SQLiteQueryBuilder();
+        qb.setDistinct(true);
+        qb.setTables(tablesForTimeline(uri, projection, useTimelineTable));
+        qb.setProjectionMap(MSG_PROJECTION_MAP);
+        return qb.buildQuery(projection, selection, null, null, null, 
+                TextUtils.isEmpty(sortOrder) ? Msg.DEFAULT_SORT_ORDER : sortOrder, null);
+    }
+    
     /**
      * @param uri the same as uri for
      *            {@link MyProvider#query(Uri, String[], String, String[], String)}
      * @param projection
+     * @param useTimelineTable if true, messages of the timeline are selected 
+     *  from the {@link MyDatabase.Timeline} table, when possible
      * @return String for {@link SQLiteQueryBuilder#setTables(String)}
      */
-    private static String tablesForTimeline(Uri uri, String[] projection) {
+    private static String tablesForTimeline(Uri uri, String[] projection, boolean useTimelineTable) {
         TimelineTypeEnum tt = uriToTimelineType(uri);
         boolean isCombined = uriToIsCombined(uri);
         AccountUserIds userIds = new AccountUserIds(isCombined, uriToAccountUserId(uri));
@@ -768,6 +872,11 @@ public class MyProvider extends ContentProvider {
                 tables = "(SELECT * FROM " + Msg.TABLE_NAME + " WHERE public=1) AS " + MSG_TABLE_ALIAS;
                 break;
             default:
+                if (useTimelineTable && isTimelineTableUsable(tt, isCombined)) {
+                    tables = "(" + TimelineTable.selectMsgIdsSql(tt, userIds.getSqlUserIds()) + ") AS tl"
+                            + " INNER JOIN " + Msg.TABLE_NAME + " AS " + MSG_TABLE_ALIAS
+                            + " ON " + MSG_TABLE_ALIAS + "." + BaseColumns._ID + "=tl." + Timeline.MSG_ID;
+                }
                 break;
         }
 
@@ -869,6 +978,46 @@ public class MyProvider extends ContentProvider {
         return tables;
     }
     
+    /**
+     * Ids of messages, found by {@link #toFtsQuery(String)} in the full text index
+     */
+    static final String FTS_SELECT_DOCIDS = "SELECT " + MsgFts.DOCID + " FROM " + MsgFts.TABLE_NAME
+            + " WHERE " + MsgFts.TABLE_NAME + " MATCH ?";
+
+    /**
+     * Converts text, entered by a User, into the full text search query:
+     * every word is searched as a prefix, all words should be found (implicit AND).
+     * Special characters of the FTS query syntax are removed
+     * @return empty string if there is nothing to search for
+     */
+    public static String toFtsQuery(String searchText) {
+        if (TextUtils.isEmpty(searchText)) {
+            return "";
+        }
+        StringBuilder builder = new StringBuilder();
+        for (String word : searchText.replaceAll("[\"*():^\\-]", " ").trim().split("\\s+")) {
+            if (word.length() == 0 
+                    || "AND".equals(word) || "OR".equals(word) || "NOT".equals(word) || "NEAR".equals(word)) {
+                continue;
+            }
+            if (builder.length() > 0) {
+                builder.append(" ");
+            }
+            builder.append(word + "*");
+        }
+        return builder.toString();
+    }
+    
+    /**
+     * The Combined Home timeline shows all messages, not only the Home timelines of the accounts.
+     * The User timeline is defined by the selected User, which is not in the Uri, 
+     * so it is selected by {@link TimelineTable#selectMsgIdsSql(TimelineTypeEnum, String)}
+     */
+    private static boolean isTimelineTableUsable(TimelineTypeEnum tt, boolean isCombined) {
+        return TimelineTable.isMaterialized(tt) && tt != TimelineTypeEnum.USER
+                && !(tt == TimelineTypeEnum.HOME && isCombined);
+    }
+    
     private static String[] addBeforeArray(String[] array, String s) {
         int length = 0;
         if (array != null) {
@@ -942,7 +1091,7 @@ public class MyProvider extends ContentProvider {
                 count = db.update(User.TABLE_NAME, values, BaseColumns._ID + "=" + selectedUserId
                         + (!TextUtils.isEmpty(selection) ? " AND (" + selection + ')' : ""),
                         selectionArgs);
-                followingUserValues.update(db);
+                followingUserValues.update();
                 loadAvatar(selectedUserId, values);
                 break;
 
@@ -964,7 +1113,11 @@ public class MyProvider extends ContentProvider {
      *         {@link MyDatabase.Msg#_ID} ). Or 0 if nothing was found.
      */
     public static long oidToId(MyDatabase.OidEnum oidEnum, long originId, String oid) {
-        long id = 0;
+        OidCache cache = MyContextHolder.get().getDatabase().getOidCache();
+        long id = cache.get(oidEnum, originId, oid);
+        if (id != 0) {
+            return id;
+        }
         String sql = "";
 
         SQLiteStatement prog = null;
@@ -988,6 +1141,7 @@ public class MyProvider extends ContentProvider {
             SQLiteDatabase db = MyContextHolder.get().getDatabase().getReadableDatabase();
             prog = db.compileStatement(sql);
             id = prog.simpleQueryForLong();
+            cache.put(oidEnum, originId, oid, id);
             if (id == 1 || id == 388) {
                 if (MyLog.isLoggable(TAG, MyLog.VERBOSE)) {
                     MyLog.v(TAG, "oidToId: sql='" + sql +"'");
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2014 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app.data;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+import org.andstatus.app.data.MyDatabase.OidEnum;
+import org.andstatus.app.util.MyLog;
+import org.andstatus.app.util.SharedPreferencesUtil;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded (least recently used entries are evicted) cache of ids in our system
+ * by oids in the originating systems, see {@link MyProvider#oidToId(OidEnum, long, String)}
+ * Only found ids are cached, so we don't need to invalidate anything on inserts.
+ * @author yvolk@yurivolkov.com
+ */
+@ThreadSafe
+public final class OidCache {
+    static final int MAX_SIZE = 1000;
+
+    @GuardedBy("this")
+    private final Map<String, Long> ids = new LinkedHashMap<String, Long>(64, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > MAX_SIZE;
+        }
+    };
+    @GuardedBy("this")
+    private long hits = 0;
+    @GuardedBy("this")
+    private long misses = 0;
+
+    private static String toKey(OidEnum oidEnum, long originId, String oid) {
+        return oidEnum.ordinal() + ";" + originId + ";" + oid;
+    }
+
+    /**
+     * @return 0 if the id is not in the cache
+     */
+    public synchronized long get(OidEnum oidEnum, long originId, String oid) {
+        Long id = ids.get(toKey(oidEnum, originId, oid));
+        if (id == null) {
+            misses++;
+            return 0;
+        }
+        hits++;
+        return id;
+    }
+
+    public synchronized void put(OidEnum oidEnum, long originId, String oid, long id) {
+        if (id != 0 && !SharedPreferencesUtil.isEmpty(oid)) {
+            ids.put(toKey(oidEnum, originId, oid), id);
+        }
+    }
+
+    /**
+     * Remove all entries of this type, e.g. after deletion of messages
+     */
+    public synchronized void clear(OidEnum oidEnum) {
+        String prefix = oidEnum.ordinal() + ";";
+        Iterator<String> iterator = ids.keySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().startsWith(prefix)) {
+                iterator.remove();
+            }
+        }
+        MyLog.v(this, "Cleared " + oidEnum + "; " + toString());
+    }
+
+    /**
+     * Remove all entries, e.g. after a rollback
+     */
+    public synchronized void clear() {
+        ids.clear();
+        MyLog.v(this, "Cleared; " + toString());
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized int size() {
+        return ids.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return MyLog.formatKeyValue("OidCache", "size:" + ids.size() + ",hits:" + hits + ",misses:" + misses);
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2014 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app.data;
+
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.andstatus.app.context.MyContextHolder;
+import org.andstatus.app.context.MyPreferences;
+import org.andstatus.app.data.MyDatabase.Msg;
+import org.andstatus.app.data.MyDatabase.OidEnum;
+import org.andstatus.app.data.MyDatabase.Timeline;
+import org.andstatus.app.net.TimelinePosition;
+import org.andstatus.app.util.MyLog;
+
+import java.util.Date;
+
+/**
+ * Retrieve and save information about position of the oldest downloaded timeline item,
+ * so the older history of the timeline may be downloaded on demand (backward paging).
+ * Counterpart of the {@link LatestTimelineItem}, kept in its own SharedPreferences file
+ * @author yvolk@yurivolkov.com
+ */
+public class OldestTimelineItem {
+    private static final String TAG = OldestTimelineItem.class.getSimpleName();
+
+    private final TimelineTypeEnum timelineType;
+    private final long userId;
+    private final String keyPrefix;
+
+    private TimelinePosition position = TimelinePosition.getEmpty();
+    /**
+     * 0 - none were downloaded
+     */
+    private long timelineItemDate = 0;
+    /**
+     * The server has nothing older
+     */
+    private boolean endReached = false;
+    private boolean changed = false;
+
+    /**
+     * @param userIdIn Should always be Id of the User of this timeline
+     */
+    public OldestTimelineItem(TimelineTypeEnum timelineTypeIn, long userIdIn) {
+        timelineType = timelineTypeIn;
+        userId = userIdIn;
+        if (userId == 0) {
+            throw new IllegalArgumentException(TAG + ": userId==0");
+        }
+        // The version: the previous one might have taken positions of Pump.io timelines and reblogs from message ids,
+        // and such a wrong position is never replaced, as only older items replace it
+        keyPrefix = "v2_" + timelineType.save() + "_" + userId + "_";
+        SharedPreferences sp = getSharedPreferences();
+        if (sp != null) {
+            timelineItemDate = sp.getLong(keyPrefix + "date", 0);
+            if (timelineItemDate != 0) {
+                position = new TimelinePosition(sp.getString(keyPrefix + "position", ""));
+            }
+            endReached = sp.getBoolean(keyPrefix + "end", false);
+        }
+    }
+
+    private static SharedPreferences getSharedPreferences() {
+        return MyPreferences.getSharedPreferences(TAG);
+    }
+
+    /**
+     * @return Position of the oldest downloaded item of this timeline, empty if none were downloaded
+     */
+    public TimelinePosition getPosition() {
+        return position;
+    }
+
+    public long getTimelineItemDate() {
+        return timelineItemDate;
+    }
+
+    /**
+     * @return true if there is nothing older on the server
+     */
+    public boolean isEndReached() {
+        return endReached;
+    }
+
+    /** A Timeline Item was downloaded, it may be older than the known ones */
+    public void onMsg(TimelinePosition timelineItemPosition, long timelineItemDate) {
+        if (timelineItemPosition != null
+                && !timelineItemPosition.isEmpty()
+                && timelineItemDate > 0
+                && (this.timelineItemDate == 0 || timelineItemDate < this.timelineItemDate)) {
+            this.timelineItemDate = timelineItemDate;
+            this.position = timelineItemPosition;
+            changed = true;
+        }
+    }
+
+    /**
+     * Takes the oldest message of the timeline, which is stored already, as the oldest downloaded item.
+     * E.g. the timeline was downloaded before the oldest position was tracked.
+     * To be used only if positions are ids of messages, see {@link org.andstatus.app.net.Connection#isTimelinePositionMsgOid()}.
+     * A reblog is stored as its original message, which id is not the position, so it is not taken
+     * @return true if the position is known now
+     */
+    public boolean onOldestStoredMessage() {
+        if (!position.isEmpty()) {
+            return true;
+        }
+        MyDatabase myDb = MyContextHolder.get().getDatabase();
+        if (myDb == null || !TimelineTable.isMaterialized(timelineType)) {
+            return false;
+        }
+        SQLiteDatabase db = myDb.getReadableDatabase();
+        String sql = "SELECT " + Timeline.MSG_ID + ", " + Timeline.SENT_DATE + ", " + Msg.CREATED_DATE
+                + " FROM " + Timeline.TABLE_NAME
+                + " INNER JOIN " + Msg.TABLE_NAME + " ON " + Msg.TABLE_NAME + "." + Msg._ID + "=" + Timeline.MSG_ID
+                + " WHERE " + Timeline.USER_ID + "=" + userId
+                + " AND " + Timeline.TIMELINE_TYPE + "='" + timelineType.save() + "'"
+                + " ORDER BY " + Timeline.SENT_DATE + " ASC, " + Timeline.MSG_ID + " ASC LIMIT 1";
+        long msgId = 0;
+        long sentDate = 0;
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery(sql, null);
+            // Sent date of a reblog differs from the created date of its message
+            if (cursor.moveToFirst() && cursor.getLong(1) == cursor.getLong(2)) {
+                msgId = cursor.getLong(0);
+                sentDate = cursor.getLong(1);
+            }
+        } finally {
+            DbUtils.closeSilently(cursor);
+        }
+        if (msgId != 0) {
+            onMsg(new TimelinePosition(MyProvider.idToOid(db, OidEnum.MSG_OID, msgId, 0)), sentDate);
+        }
+        return !position.isEmpty();
+    }
+
+    /** Older items were requested, but none were returned */
+    public void onEndReached() {
+        if (!endReached) {
+            endReached = true;
+            changed = true;
+        }
+    }
+
+    /**
+     * Persist the info, if it changed
+     */
+    public void save() {
+        if (MyLog.isLoggable(TAG, MyLog.VERBOSE)) {
+            MyLog.v(this, this.toString());
+        }
+        SharedPreferences sp = getSharedPreferences();
+        if (changed && sp != null) {
+            sp.edit().putString(keyPrefix + "position", position.getPosition())
+                    .putLong(keyPrefix + "date", timelineItemDate)
+                    .putBoolean(keyPrefix + "end", endReached).commit();
+            changed = false;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return TAG + "[" + timelineType
+                + " for the userName=" + MyProvider.userIdToName(userId)
+                + (timelineItemDate > 0 ? " oldest at " + new Date(timelineItemDate).toString() : " none")
+                + (endReached ? " end reached" : "")
+                + (changed ? "" : " not changed")
+                + " oldest position=" + MyProvider.quoteIfNotQuoted(position.getPosition())
+                + "]";
+    }
+}
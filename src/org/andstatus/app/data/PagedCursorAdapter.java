@@ -38,7 +38,7 @@ public class PagedCursorAdapter extends SimpleCursorAdapter implements FilterQue
     private ContentResolver mContentResolver;
     private Uri mUri;
     private String[] mProjection;
-    private String mSortOrder;
+    private int mPageSize;
 
     /**
      * 
@@ -47,29 +47,38 @@ public class PagedCursorAdapter extends SimpleCursorAdapter implements FilterQue
      * @param c
      * @param from
      * @param to
+     * @param projection should contain {@link MyDatabase.Msg#SENT_DATE} and {@link MyDatabase.Msg#_ID}
+     *      to continue from the last row, see {@link TimelinePageToken}
      */
     public PagedCursorAdapter(Context context, int layout, Cursor c,
-            String[] from, int[] to, Uri uri, String[] projection, String sortOrder) {
+            String[] from, int[] to, Uri uri, String[] projection, int pageSize) {
         super(context, layout, c, from, to);
         mContentResolver = context.getContentResolver();
         mUri = uri;
         mProjection = projection.clone();
-        mSortOrder = sortOrder;
+        mPageSize = pageSize;
         setFilterQueryProvider(this);
     }
 
+    /**
+     * @param constraint continuation token, see {@link TimelinePageToken#toString()}.
+     *  If it's empty, the first page is loaded, else the next page is appended to the current cursor
+     */
     @Override
     public Cursor runQuery(CharSequence constraint) {
-        if (constraint != null) {
-            if (mSortOrder.indexOf("LIMIT 0,") > 0) {
-                String newSortOrder = mSortOrder.substring(0, mSortOrder.indexOf("LIMIT 0,"));
-                mSortOrder = newSortOrder;
-            }
-            mSortOrder += " " + constraint.toString().trim();
-        }
+        TimelinePageToken token = TimelinePageToken.fromString(constraint);
+        String sortOrder = TimelinePageToken.SORT_ORDER + " LIMIT " + mPageSize;
         if (MyLog.isLoggable(TAG, MyLog.VERBOSE)) {
-            MyLog.v(TAG, "runQuery, mUri=" + mUri + "; mProjection=" + Arrays.toString(mProjection) + "; mSortOrder=" + mSortOrder + ";");
+            MyLog.v(TAG, "runQuery, mUri=" + mUri + "; mProjection=" + Arrays.toString(mProjection) + "; token=" + token + ";");
+        }
+        Cursor page = mContentResolver.query(mUri, mProjection, token.getSelection(), token.getSelectionArgs(), sortOrder);
+        if (page == null) {
+            return null;
+        }
+        Cursor current = getCursor();
+        if (!token.isEmpty() && current instanceof TimelinePagesCursor && !current.isClosed()) {
+            return ((TimelinePagesCursor) current).append(page);
         }
-        return mContentResolver.query(mUri, mProjection, null, null, mSortOrder);
+        return new TimelinePagesCursor(page);
     }
 }
@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) 2014 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app.data;
+
+import android.content.SharedPreferences;
+
+import org.andstatus.app.context.MyPreferences;
+import org.andstatus.app.net.TimelinePosition;
+import org.andstatus.app.util.MyLog;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Gaps in a downloaded timeline: ranges of items, which were not downloaded,
+ * because there were too many new items since the previous download
+ * (e.g. the device was offline for a long time).
+ * Kept together with {@link LatestTimelineItem} and {@link OldestTimelineItem} positions in their own SharedPreferences file.
+ * Gaps are added and removed by different commands of the same timeline, so every change
+ * re-reads the stored gaps and saves them under the lock of the timeline
+ * @author yvolk@yurivolkov.com
+ */
+public class TimelineGaps {
+    private static final String TAG = TimelineGaps.class.getSimpleName();
+    /** Two oldest gaps are merged into one, when there are more of them */
+    static final int MAX_GAPS = 10;
+    private static final ConcurrentMap<String, Object> locks = new ConcurrentHashMap<String, Object>();
+
+    /**
+     * The gap is between the oldest item of a newer downloaded part of the timeline
+     * and the newest item of the older one. Both bounding items are downloaded
+     */
+    public static final class Gap {
+        public final TimelinePosition newerPosition;
+        public final long newerDate;
+        public final TimelinePosition olderPosition;
+        public final long olderDate;
+
+        public Gap(TimelinePosition newerPosition, long newerDate, TimelinePosition olderPosition, long olderDate) {
+            this.newerPosition = newerPosition;
+            this.newerDate = newerDate;
+            this.olderPosition = olderPosition;
+            this.olderDate = olderDate;
+        }
+
+        /**
+         * @return the gap, which is left after the newer part of this gap was downloaded
+         */
+        public Gap withNewerBound(TimelinePosition position, long date) {
+            return new Gap(position, date, olderPosition, olderDate);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Gap)) {
+                return false;
+            }
+            Gap gap = (Gap) o;
+            return newerDate == gap.newerDate && olderDate == gap.olderDate
+                    && newerPosition.equals(gap.newerPosition) && olderPosition.equals(gap.olderPosition);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * newerPosition.hashCode() + olderPosition.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return "{newer:" + newerPosition + ",newerDate:" + newerDate
+                    + ",older:" + olderPosition + ",olderDate:" + olderDate + "}";
+        }
+    }
+
+    private final TimelineTypeEnum timelineType;
+    private final long userId;
+    private final String key;
+    /** Newest first */
+    private final List<Gap> gaps = new ArrayList<Gap>();
+
+    /**
+     * @param userIdIn Should always be Id of the User of this timeline
+     */
+    public TimelineGaps(TimelineTypeEnum timelineTypeIn, long userIdIn) {
+        timelineType = timelineTypeIn;
+        userId = userIdIn;
+        key = timelineType.save() + "_" + userId;
+        synchronized (getLock()) {
+            load();
+        }
+    }
+
+    private static SharedPreferences getSharedPreferences() {
+        return MyPreferences.getSharedPreferences(TAG);
+    }
+
+    private Object getLock() {
+        locks.putIfAbsent(key, new Object());
+        return locks.get(key);
+    }
+
+    private void load() {
+        gaps.clear();
+        SharedPreferences sp = getSharedPreferences();
+        if (sp != null) {
+            fromJson(sp.getString(key, ""));
+        }
+    }
+
+    private void fromJson(String json) {
+        if (json == null || json.length() == 0) {
+            return;
+        }
+        try {
+            JSONArray jsa = new JSONArray(json);
+            for (int index = 0; index < jsa.length(); index++) {
+                JSONObject jso = jsa.getJSONObject(index);
+                gaps.add(new Gap(new TimelinePosition(jso.optString("newer")), jso.optLong("newerDate"),
+                        new TimelinePosition(jso.optString("older")), jso.optLong("olderDate")));
+            }
+        } catch (JSONException e) {
+            MyLog.e(this, "Bad gaps of " + key + ": '" + json + "'", e);
+            gaps.clear();
+        }
+    }
+
+    private String toJson() {
+        JSONArray jsa = new JSONArray();
+        try {
+            for (Gap gap : gaps) {
+                JSONObject jso = new JSONObject();
+                jso.put("newer", gap.newerPosition.getPosition());
+                jso.put("newerDate", gap.newerDate);
+                jso.put("older", gap.olderPosition.getPosition());
+                jso.put("olderDate", gap.olderDate);
+                jsa.put(jso);
+            }
+        } catch (JSONException e) {
+            MyLog.e(this, "Gaps of " + key, e);
+        }
+        return jsa.toString();
+    }
+
+    /**
+     * @return Gaps, newest first
+     */
+    public List<Gap> getGaps() {
+        return Collections.unmodifiableList(new ArrayList<Gap>(gaps));
+    }
+
+    public boolean isEmpty() {
+        return gaps.isEmpty();
+    }
+
+    /**
+     * Adds the gap to the stored gaps and saves them
+     */
+    public void add(Gap gap) {
+        if (gap.newerPosition.isEmpty() || gap.olderPosition.isEmpty() || gap.newerPosition.equals(gap.olderPosition)) {
+            return;
+        }
+        synchronized (getLock()) {
+            load();
+            int index = 0;
+            while (index < gaps.size() && gaps.get(index).newerDate >= gap.newerDate) {
+                index++;
+            }
+            gaps.add(index, gap);
+            if (gaps.size() > MAX_GAPS) {
+                Gap older = gaps.remove(gaps.size() - 1);
+                Gap newer = gaps.remove(gaps.size() - 1);
+                gaps.add(new Gap(newer.newerPosition, newer.newerDate, older.olderPosition, older.olderDate));
+            }
+            save();
+        }
+    }
+
+    /**
+     * Replaces the gap among the stored gaps and saves them.
+     * Nothing is changed, if the gap was already replaced or merged with another one
+     * @param narrowed null if the gap is filled
+     */
+    public void replace(Gap gap, Gap narrowed) {
+        synchronized (getLock()) {
+            load();
+            int index = gaps.indexOf(gap);
+            if (index < 0) {
+                return;
+            }
+            if (narrowed == null) {
+                gaps.remove(index);
+            } else {
+                gaps.set(index, narrowed);
+            }
+            save();
+        }
+    }
+
+    /**
+     * To be called under the lock
+     */
+    private void save() {
+        if (MyLog.isLoggable(TAG, MyLog.VERBOSE)) {
+            MyLog.v(this, this.toString());
+        }
+        SharedPreferences sp = getSharedPreferences();
+        if (sp != null) {
+            if (gaps.isEmpty()) {
+                sp.edit().remove(key).commit();
+            } else {
+                sp.edit().putString(key, toJson()).commit();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return TAG + "[" + timelineType
+                + " for the userName=" + MyProvider.userIdToName(userId)
+                + " gaps=" + gaps
+                + "]";
+    }
+}
@@ -0,0 +1,301 @@
+/*
+ * Copyright (c) 2014 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app.data;
+
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.provider.BaseColumns;
+
+import org.andstatus.app.data.MyDatabase.Msg;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Timeline pages with placeholder rows for the {@link TimelineGaps}.
+ * A placeholder row is shown before the first message, which is older than the gap's newer bound.
+ * It has negative {@link BaseColumns#_ID}, the date of the gap and the placeholder text as its {@link Msg#BODY}
+ * @author yvolk@yurivolkov.com
+ */
+public class TimelineGapsCursor extends CursorWrapper {
+    private final TimelinePagesCursor pages;
+    private final List<TimelineGaps.Gap> gaps;
+    private final String placeholderText;
+    private final int indId;
+    private final int indSentDate;
+    private final int indBody;
+
+    /** Number of the gaps, which have rows below them, so their placeholder rows are shown */
+    private int gapsShown = 0;
+    /** Positions of the placeholder rows in this cursor, ascending. Found lazily, see {@link #findGapPositionsTill(int)} */
+    private int[] gapPositions = new int[0];
+    private int gapPositionsFound = 0;
+    private int position = -1;
+    /** Index of the placeholder row at the {@link #position} or -1 */
+    private int gapIndex = -1;
+
+    /**
+     * @param gaps in any order, may be of several timelines (e.g. of the combined timeline)
+     */
+    public TimelineGapsCursor(TimelinePagesCursor pages, List<TimelineGaps.Gap> gaps, String placeholderText) {
+        super(pages);
+        this.pages = pages;
+        this.gaps = new ArrayList<TimelineGaps.Gap>(gaps);
+        Collections.sort(this.gaps, new Comparator<TimelineGaps.Gap>() {
+            @Override
+            public int compare(TimelineGaps.Gap lhs, TimelineGaps.Gap rhs) {
+                return lhs.newerDate > rhs.newerDate ? -1 : (lhs.newerDate == rhs.newerDate ? 0 : 1);
+            }
+        });
+        this.placeholderText = placeholderText;
+        indId = pages.getColumnIndex(BaseColumns._ID);
+        indSentDate = pages.getColumnIndex(Msg.SENT_DATE);
+        indBody = pages.getColumnIndex(Msg.BODY);
+        countGapsShown();
+    }
+
+    /**
+     * @return new cursor with all pages of this one and the page appended
+     */
+    public TimelineGapsCursor append(Cursor page, List<TimelineGaps.Gap> gaps) {
+        return new TimelineGapsCursor(pages.append(page), gaps, placeholderText);
+    }
+
+    public int getPagesCount() {
+        return pages.getPagesCount();
+    }
+
+    /**
+     * Messages are sorted by their date descending, see {@link TimelinePageToken#SORT_ORDER},
+     * so a gap is shown, if the last message is older than the gap's newer bound.
+     * Only the last row is read here, positions of the placeholder rows are found, when the rows are reached
+     */
+    private void countGapsShown() {
+        gapsShown = 0;
+        if (!gaps.isEmpty() && indSentDate >= 0 && pages.moveToLast()) {
+            long oldestDate = pages.getLong(indSentDate);
+            while (gapsShown < gaps.size() && oldestDate < gaps.get(gapsShown).newerDate) {
+                gapsShown++;
+            }
+            pages.moveToPosition(-1);
+        }
+        gapPositions = new int[gapsShown];
+        gapPositionsFound = 0;
+        position = -1;
+        gapIndex = -1;
+    }
+
+    @Override
+    public boolean requery() {
+        boolean ok = super.requery();
+        countGapsShown();
+        return ok;
+    }
+
+    /**
+     * Finds positions of the placeholder rows up to the position (and one more after it).
+     * The first message, which is older than the gap's newer bound, is found by a binary search
+     * among the messages below the previous gap, so not every row is read
+     */
+    private void findGapPositionsTill(int pos) {
+        while (gapPositionsFound < gapsShown
+                && (gapPositionsFound == 0 || gapPositions[gapPositionsFound - 1] < pos)) {
+            long newerDate = gaps.get(gapPositionsFound).newerDate;
+            int low = gapPositionsFound == 0 ? 0 : gapPositions[gapPositionsFound - 1] - (gapPositionsFound - 1);
+            int high = super.getCount() - 1;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                pages.moveToPosition(mid);
+                if (pages.getLong(indSentDate) < newerDate) {
+                    high = mid;
+                } else {
+                    low = mid + 1;
+                }
+            }
+            gapPositions[gapPositionsFound] = low + gapPositionsFound;
+            gapPositionsFound++;
+        }
+    }
+
+    /**
+     * @return index of the placeholder row at the position or -1
+     */
+    private int gapIndexAt(int pos) {
+        for (int ind = 0; ind < gapPositionsFound && gapPositions[ind] <= pos; ind++) {
+            if (gapPositions[ind] == pos) {
+                return ind;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return position of the message row in the pages
+     */
+    private int pagesPositionOf(int pos) {
+        int before = 0;
+        while (before < gapPositionsFound && gapPositions[before] < pos) {
+            before++;
+        }
+        return pos - before;
+    }
+
+    private boolean isGapRow() {
+        return gapIndex >= 0;
+    }
+
+    @Override
+    public int getCount() {
+        return super.getCount() + gapsShown;
+    }
+
+    @Override
+    public int getPosition() {
+        return position;
+    }
+
+    @Override
+    public boolean moveToPosition(int pos) {
+        int count = getCount();
+        gapIndex = -1;
+        if (pos < 0) {
+            position = -1;
+            pages.moveToPosition(-1);
+            return false;
+        }
+        if (pos >= count) {
+            position = count;
+            pages.moveToPosition(super.getCount());
+            return false;
+        }
+        position = pos;
+        findGapPositionsTill(pos);
+        gapIndex = gapIndexAt(pos);
+        if (gapIndex >= 0) {
+            return true;
+        }
+        return pages.moveToPosition(pagesPositionOf(pos));
+    }
+
+    @Override
+    public boolean move(int offset) {
+        return moveToPosition(position + offset);
+    }
+
+    @Override
+    public boolean moveToFirst() {
+        return moveToPosition(0);
+    }
+
+    @Override
+    public boolean moveToLast() {
+        return moveToPosition(getCount() - 1);
+    }
+
+    @Override
+    public boolean moveToNext() {
+        return moveToPosition(position + 1);
+    }
+
+    @Override
+    public boolean moveToPrevious() {
+        return moveToPosition(position - 1);
+    }
+
+    @Override
+    public boolean isFirst() {
+        return position == 0 && getCount() > 0;
+    }
+
+    @Override
+    public boolean isLast() {
+        int count = getCount();
+        return position == count - 1 && count > 0;
+    }
+
+    @Override
+    public boolean isBeforeFirst() {
+        return getCount() == 0 || position == -1;
+    }
+
+    @Override
+    public boolean isAfterLast() {
+        int count = getCount();
+        return count == 0 || position == count;
+    }
+
+    @Override
+    public long getLong(int columnIndex) {
+        if (gapIndex < 0) {
+            return super.getLong(columnIndex);
+        }
+        if (columnIndex == indId) {
+            return -1 - gapIndex;
+        } else if (columnIndex == indSentDate) {
+            return gaps.get(gapIndex).newerDate;
+        }
+        return 0;
+    }
+
+    @Override
+    public int getInt(int columnIndex) {
+        return isGapRow() ? (int) getLong(columnIndex) : super.getInt(columnIndex);
+    }
+
+    @Override
+    public short getShort(int columnIndex) {
+        return isGapRow() ? (short) getLong(columnIndex) : super.getShort(columnIndex);
+    }
+
+    @Override
+    public float getFloat(int columnIndex) {
+        return isGapRow() ? getLong(columnIndex) : super.getFloat(columnIndex);
+    }
+
+    @Override
+    public double getDouble(int columnIndex) {
+        return isGapRow() ? getLong(columnIndex) : super.getDouble(columnIndex);
+    }
+
+    @Override
+    public String getString(int columnIndex) {
+        if (!isGapRow()) {
+            return super.getString(columnIndex);
+        }
+        if (columnIndex == indBody) {
+            return placeholderText;
+        } else if (columnIndex == indId || columnIndex == indSentDate) {
+            return Long.toString(getLong(columnIndex));
+        }
+        return null;
+    }
+
+    @Override
+    public byte[] getBlob(int columnIndex) {
+        return isGapRow() ? null : super.getBlob(columnIndex);
+    }
+
+    @Override
+    public boolean isNull(int columnIndex) {
+        if (!isGapRow()) {
+            return super.isNull(columnIndex);
+        }
+        return columnIndex != indId && columnIndex != indSentDate && columnIndex != indBody;
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2014 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app.data;
+
+import android.database.Cursor;
+import android.provider.BaseColumns;
+import android.text.TextUtils;
+
+import org.andstatus.app.data.MyDatabase.Msg;
+import org.andstatus.app.util.MyLog;
+
+/**
+ * Continuation token for the keyset (seek) pagination of a timeline:
+ * the next page starts right after the last loaded message, 
+ * so every page costs the same regardless of how deep in the history it is.
+ * Messages are ordered by {@link Msg#SENT_DATE} and then by {@link Msg#_ID}
+ * @author yvolk@yurivolkov.com
+ */
+public final class TimelinePageToken {
+    public static final TimelinePageToken EMPTY = new TimelinePageToken(0, 0);
+    /**
+     * Sort order which allows to continue from any message
+     */
+    public static final String SORT_ORDER = Msg.SENT_DATE + " DESC, " 
+            + MyProvider.MSG_TABLE_ALIAS + "." + BaseColumns._ID + " DESC";
+    private static final String SEPARATOR = ";";
+
+    private final long sentDate;
+    private final long msgId;
+
+    public TimelinePageToken(long sentDate, long msgId) {
+        this.sentDate = sentDate;
+        this.msgId = msgId;
+    }
+
+    /**
+     * @param cursor should contain {@link Msg#SENT_DATE} and {@link Msg#_ID} columns 
+     * @return position after the last row of the cursor
+     */
+    public static TimelinePageToken afterLastRow(Cursor cursor) {
+        if (cursor == null || cursor.isClosed() || !cursor.moveToLast()) {
+            return EMPTY;
+        }
+        int indSentDate = cursor.getColumnIndex(Msg.SENT_DATE);
+        int indId = cursor.getColumnIndex(BaseColumns._ID);
+        if (indSentDate < 0 || indId < 0) {
+            MyLog.e(TimelinePageToken.class, "No " + Msg.SENT_DATE + " or " + BaseColumns._ID + " columns in the cursor");
+            return EMPTY;
+        }
+        return new TimelinePageToken(cursor.getLong(indSentDate), cursor.getLong(indId));
+    }
+    
+    public static TimelinePageToken fromString(CharSequence token) {
+        if (TextUtils.isEmpty(token)) {
+            return EMPTY;
+        }
+        String[] parts = token.toString().split(SEPARATOR);
+        if (parts.length == 2) {
+            try {
+                return new TimelinePageToken(Long.parseLong(parts[0]), Long.parseLong(parts[1]));
+            } catch (NumberFormatException e) {
+                MyLog.d(TimelinePageToken.class, "Invalid token '" + token + "'", e);
+            }
+        }
+        return EMPTY;
+    }
+
+    public boolean isEmpty() {
+        return msgId == 0;
+    }
+    
+    /**
+     * @return selection of messages after this position, empty if the token is empty 
+     */
+    public String getSelection() {
+        if (isEmpty()) {
+            return "";
+        }
+        String sentDateColumn = MyProvider.MSG_TABLE_ALIAS + "." + Msg.SENT_DATE;
+        return sentDateColumn + " < ? OR (" + sentDateColumn + " = ? AND " 
+                + MyProvider.MSG_TABLE_ALIAS + "." + BaseColumns._ID + " < ?)";
+    }
+
+    public String[] getSelectionArgs() {
+        if (isEmpty()) {
+            return new String[] {};
+        }
+        return new String[] {Long.toString(sentDate), Long.toString(sentDate), Long.toString(msgId)};
+    }
+
+    /**
+     * @return selection of messages at this position or newer, used to reload the same rows 
+     */
+    public String getSelectionUpToThis() {
+        if (isEmpty()) {
+            return "";
+        }
+        return MyProvider.MSG_TABLE_ALIAS + "." + Msg.SENT_DATE + " >= ?";
+    }
+
+    public String[] getSelectionArgsUpToThis() {
+        if (isEmpty()) {
+            return new String[] {};
+        }
+        return new String[] {Long.toString(sentDate)};
+    }
+    
+    @Override
+    public String toString() {
+        return isEmpty() ? "" : Long.toString(sentDate) + SEPARATOR + Long.toString(msgId);
+    }
+
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + (int) (msgId ^ (msgId >>> 32));
+        result = prime * result + (int) (sentDate ^ (sentDate >>> 32));
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof TimelinePageToken)) {
+            return false;
+        }
+        TimelinePageToken other = (TimelinePageToken) o;
+        return msgId == other.msgId && sentDate == other.sentDate;
+    }
+}
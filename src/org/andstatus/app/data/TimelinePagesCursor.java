@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2014 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app.data;
+
+import android.database.Cursor;
+import android.database.MergeCursor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pages of a timeline, loaded one after another, shown as one cursor.
+ * Appending a page creates a new cursor, which takes over the pages of this one,
+ * so closing this cursor (e.g. by {@link android.widget.CursorAdapter#changeCursor(Cursor)})
+ * doesn't close the pages any more
+ * @author yvolk@yurivolkov.com
+ */
+public class TimelinePagesCursor extends MergeCursor {
+    private final List<Cursor> pages;
+    private volatile boolean pagesTakenOver = false;
+
+    public TimelinePagesCursor(Cursor firstPage) {
+        this(listOf(firstPage));
+    }
+
+    private TimelinePagesCursor(List<Cursor> pages) {
+        super(pages.toArray(new Cursor[pages.size()]));
+        this.pages = pages;
+    }
+
+    private static List<Cursor> listOf(Cursor cursor) {
+        List<Cursor> list = new ArrayList<Cursor>();
+        list.add(cursor);
+        return list;
+    }
+
+    /**
+     * @return new cursor with all pages of this one and the page appended
+     */
+    public TimelinePagesCursor append(Cursor page) {
+        List<Cursor> newPages = new ArrayList<Cursor>(pages);
+        newPages.add(page);
+        pagesTakenOver = true;
+        return new TimelinePagesCursor(newPages);
+    }
+
+    public int getPagesCount() {
+        return pages.size();
+    }
+
+    @Override
+    public void close() {
+        if (!pagesTakenOver) {
+            super.close();
+        }
+    }
+}
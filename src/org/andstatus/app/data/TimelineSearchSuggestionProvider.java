@@ -16,9 +16,25 @@
 
 package org.andstatus.app.data;
 
+import android.app.SearchManager;
 import android.content.SearchRecentSuggestionsProvider;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.MergeCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.provider.BaseColumns;
+import android.text.Html;
+
+import org.andstatus.app.context.MyContextHolder;
+import org.andstatus.app.data.MyDatabase.Msg;
+import org.andstatus.app.data.MyDatabase.MsgFts;
+import org.andstatus.app.data.MyDatabase.User;
+import org.andstatus.app.util.MyLog;
 
 /**
+ * Recent queries are suggested first, then Usernames and Messages, 
+ * found in the full text index as the User types
  * @author torgny.bjers
  *
  */
@@ -26,6 +42,13 @@ public class TimelineSearchSuggestionProvider extends SearchRecentSuggestionsPro
 
     public static final String AUTHORITY = "org.andstatus.app.data.TimelineSuggestionProvider";
     public static final int MODE = DATABASE_MODE_QUERIES;
+    /**
+     * Shorter text matches too much to be useful
+     */
+    private static final int MIN_SEARCH_TEXT_LENGTH = 2;
+    private static final int MAX_USERS_SUGGESTED = 5;
+    private static final int MAX_MESSAGES_SUGGESTED = 5;
+    private static final int MAX_SUGGESTION_LENGTH = 80;
 
     /**
      * 
@@ -34,4 +57,108 @@ public class TimelineSearchSuggestionProvider extends SearchRecentSuggestionsPro
         super();
         setupSuggestions(AUTHORITY, MODE);
     }
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+            String sortOrder) {
+        Cursor recent = super.query(uri, projection, selection, selectionArgs, sortOrder);
+        String searchText = (selectionArgs != null && selectionArgs.length > 0 && selectionArgs[0] != null) 
+                ? selectionArgs[0].trim() : "";
+        if (recent == null || searchText.length() < MIN_SEARCH_TEXT_LENGTH 
+                || !MyContextHolder.get().isReady()) {
+            return recent;
+        }
+        MatrixCursor found = new MatrixCursor(recent.getColumnNames());
+        try {
+            SQLiteDatabase db = MyContextHolder.get().getDatabase().getReadableDatabase();
+            addUsernames(db, searchText, found);
+            addMessages(db, searchText, found);
+        } catch (Exception e) {
+            MyLog.e(this, "Full text search of '" + searchText + "'", e);
+        }
+        return new MergeCursor(new Cursor[] {recent, found});
+    }
+
+    /**
+     * Authors and Senders, whose usernames start with the first word of the text. 
+     * Only the Users, who matched, are suggested, not all participants of the found messages.
+     * The most recently active are the first
+     */
+    private void addUsernames(SQLiteDatabase db, String searchText, MatrixCursor found) {
+        String ftsQuery = MyProvider.toFtsQuery(searchText.split("\\s+")[0]);
+        if (ftsQuery.length() == 0) {
+            return;
+        }
+        String prefix = ftsQuery.substring(0, ftsQuery.length() - 1);
+        String sqlMatchedMsgs = " FROM " + Msg.TABLE_NAME 
+                + " WHERE " + BaseColumns._ID + " IN (" + MyProvider.FTS_SELECT_DOCIDS + ")";
+        String sql = "SELECT DISTINCT " + User.USERNAME + ", " + User.USER_MSG_DATE
+                + " FROM " + User.TABLE_NAME
+                + " WHERE " + User.USERNAME + " LIKE ? ESCAPE '\\'"
+                + " AND " + BaseColumns._ID + " IN (SELECT " + Msg.AUTHOR_ID + sqlMatchedMsgs
+                + " UNION SELECT " + Msg.SENDER_ID + sqlMatchedMsgs + ")"
+                + " ORDER BY " + User.USER_MSG_DATE + " DESC"
+                + " LIMIT " + MAX_USERS_SUGGESTED;
+        String usernamesQuery = MsgFts.USERNAMES + ":" + ftsQuery;
+        Cursor c = null;
+        try {
+            c = db.rawQuery(sql, new String[] {toLikePrefix(prefix), usernamesQuery, usernamesQuery});
+            while (c.moveToNext()) {
+                addRow(found, c.getString(0), c.getString(0));
+            }
+        } finally {
+            DbUtils.closeSilently(c);
+        }
+    }
+
+    /**
+     * "_" is frequent in usernames, so the LIKE wildcards are escaped
+     */
+    static String toLikePrefix(String prefix) {
+        return prefix.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%";
+    }
+
+    /**
+     * The newest messages, which match the text
+     */
+    private void addMessages(SQLiteDatabase db, String searchText, MatrixCursor found) {
+        String ftsQuery = MyProvider.toFtsQuery(searchText);
+        if (ftsQuery.length() == 0) {
+            return;
+        }
+        String sql = "SELECT " + Msg.BODY
+                + " FROM " + Msg.TABLE_NAME
+                + " WHERE " + BaseColumns._ID + " IN (" + MyProvider.FTS_SELECT_DOCIDS + ")"
+                + " ORDER BY " + Msg.DEFAULT_SORT_ORDER
+                + " LIMIT " + MAX_MESSAGES_SUGGESTED;
+        Cursor c = null;
+        try {
+            c = db.rawQuery(sql, new String[] {ftsQuery});
+            while (c.moveToNext()) {
+                String body = Html.fromHtml(c.getString(0) == null ? "" : c.getString(0)).toString().trim();
+                if (body.length() > MAX_SUGGESTION_LENGTH) {
+                    body = body.substring(0, MAX_SUGGESTION_LENGTH) + "...";
+                }
+                addRow(found, body, searchText);
+            }
+        } finally {
+            DbUtils.closeSilently(c);
+        }
+    }
+
+    private void addRow(MatrixCursor found, String text, String query) {
+        String[] columnNames = found.getColumnNames();
+        Object[] row = new Object[columnNames.length];
+        for (int ind = 0; ind < columnNames.length; ind++) {
+            if (BaseColumns._ID.equals(columnNames[ind])) {
+                // Don't intersect with ids of the recent queries
+                row[ind] = -1 - found.getCount();
+            } else if (SearchManager.SUGGEST_COLUMN_TEXT_1.equals(columnNames[ind])) {
+                row[ind] = text;
+            } else if (SearchManager.SUGGEST_COLUMN_QUERY.equals(columnNames[ind])) {
+                row[ind] = query;
+            }
+        }
+        found.addRow(row);
+    }
 }
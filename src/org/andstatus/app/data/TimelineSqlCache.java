@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2014 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app.data;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+import org.andstatus.app.util.MyLog;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of SQL, built for timeline queries 
+ * (see {@link MyProvider#query(android.net.Uri, String[], String, String[], String)}).
+ * The same timeline is queried again and again (on every change of its content, on every page...),
+ * so we don't need to rebuild the same SQL. Values of the parameters are not in the SQL, they are bound.
+ * @author yvolk@yurivolkov.com
+ */
+@ThreadSafe
+public final class TimelineSqlCache {
+    static final int MAX_SIZE = 50;
+
+    @GuardedBy("this")
+    private final Map<String, String> sqls = new LinkedHashMap<String, String>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAX_SIZE;
+        }
+    };
+    @GuardedBy("this")
+    private long hits = 0;
+    @GuardedBy("this")
+    private long misses = 0;
+    @GuardedBy("this")
+    private long buildNanos = 0;
+
+    /**
+     * @param shape everything in the Uri, which affects the SQL: matched Uri, timeline type, 
+     *  combined or not, ids of the Accounts
+     */
+    public static String toKey(String shape, String[] projection, String selection, String sortOrder) {
+        return shape + ";" + Arrays.toString(projection) + ";" + selection + ";" + sortOrder;
+    }
+
+    /**
+     * @return empty string if not cached
+     */
+    public synchronized String get(String key) {
+        String sql = sqls.get(key);
+        if (sql == null) {
+            misses++;
+            return "";
+        }
+        hits++;
+        return sql;
+    }
+
+    /**
+     * @param nanosToBuild time spent to build the SQL
+     */
+    public synchronized void put(String key, String sql, long nanosToBuild) {
+        buildNanos += nanosToBuild;
+        sqls.put(key, sql);
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Estimate: every hit saves average time, spent to build the SQL
+     */
+    public synchronized long getMicrosSaved() {
+        if (misses == 0) {
+            return 0;
+        }
+        return hits * buildNanos / misses / 1000;
+    }
+
+    public synchronized int size() {
+        return sqls.size();
+    }
+
+    public synchronized void clear() {
+        sqls.clear();
+    }
+    
+    @Override
+    public synchronized String toString() {
+        return MyLog.formatKeyValue("TimelineSqlCache", "size:" + sqls.size() + ",hits:" + hits 
+                + ",misses:" + misses + ",savedMs:" + getMicrosSaved() / 1000);
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) 2014 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app.data;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.provider.BaseColumns;
+
+import org.andstatus.app.data.MyDatabase.Msg;
+import org.andstatus.app.data.MyDatabase.MsgOfUser;
+import org.andstatus.app.data.MyDatabase.Timeline;
+
+/**
+ * Materialized membership of messages in timelines, see {@link Timeline}.
+ * The table is maintained by triggers on the {@link Msg} and {@link MsgOfUser} tables,
+ * so every way of storing messages (including {@link DataInserter}) keeps it up to date.
+ * @author yvolk@yurivolkov.com
+ */
+public final class TimelineTable {
+
+    /**
+     * Flags of the {@link MsgOfUser}, which put the message into the timeline of the same index 
+     * in the {@link #FLAG_TIMELINES}. Reblogs are in the User timeline of the reblogger
+     */
+    private static final String[] FLAG_COLUMNS = new String[] {
+            MsgOfUser.SUBSCRIBED, MsgOfUser.MENTIONED, MsgOfUser.FAVORITED, MsgOfUser.DIRECTED, MsgOfUser.REBLOGGED
+    };
+    private static final TimelineTypeEnum[] FLAG_TIMELINES = new TimelineTypeEnum[] {
+            TimelineTypeEnum.HOME, TimelineTypeEnum.MENTIONS, TimelineTypeEnum.FAVORITES, 
+            TimelineTypeEnum.DIRECT, TimelineTypeEnum.USER
+    };
+
+    private TimelineTable() {
+    }
+
+    /**
+     * Timelines, which are stored in the table
+     */
+    public static boolean isMaterialized(TimelineTypeEnum timelineType) {
+        switch (timelineType) {
+            case HOME:
+            case MENTIONS:
+            case FAVORITES:
+            case DIRECT:
+            case USER:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    static void create(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + Timeline.TABLE_NAME + " (" 
+                + Timeline.USER_ID + " INTEGER NOT NULL," 
+                + Timeline.TIMELINE_TYPE + " TEXT NOT NULL," 
+                + Timeline.SENT_DATE + " INTEGER NOT NULL," 
+                + Timeline.MSG_ID + " INTEGER NOT NULL," 
+                + " CONSTRAINT pk_timeline PRIMARY KEY (" 
+                + Timeline.USER_ID + " ASC, " 
+                + Timeline.TIMELINE_TYPE + " ASC, " 
+                + Timeline.SENT_DATE + " DESC, " 
+                + Timeline.MSG_ID + " DESC)"
+                + ")");
+
+        db.execSQL("CREATE INDEX idx_timeline_msg ON " + Timeline.TABLE_NAME + " (" 
+                + Timeline.MSG_ID
+                + ")");
+        
+        createTriggers(db);
+    }
+
+    /**
+     * A change of a {@link MsgOfUser} flag touches only the row of that flag's timeline,
+     * so marking a message as favorite etc. doesn't rewrite all its memberships
+     */
+    static void createTriggers(SQLiteDatabase db) {
+        String deleteOld = deleteMsgSql("old." + BaseColumns._ID);
+        db.execSQL("CREATE TRIGGER trg_timeline_msg_insert AFTER INSERT ON " + Msg.TABLE_NAME
+                + " BEGIN " + insertMsgSql("new." + BaseColumns._ID) + " END");
+        db.execSQL("CREATE TRIGGER trg_timeline_msg_update AFTER UPDATE OF " 
+                + Msg.SENT_DATE + ", " + Msg.AUTHOR_ID + ", " + Msg.SENDER_ID 
+                + " ON " + Msg.TABLE_NAME
+                + " WHEN " + isChangedSql(Msg.SENT_DATE) 
+                + " OR " + isChangedSql(Msg.AUTHOR_ID) 
+                + " OR " + isChangedSql(Msg.SENDER_ID)
+                + " BEGIN " + deleteOld + " " + insertMsgSql("new." + BaseColumns._ID) + " END");
+        db.execSQL("CREATE TRIGGER trg_timeline_msg_delete AFTER DELETE ON " + Msg.TABLE_NAME
+                + " BEGIN " + deleteOld + " END");
+
+        StringBuilder insertNew = new StringBuilder();
+        StringBuilder deleteOldFlagged = new StringBuilder();
+        for (int ind = 0; ind < FLAG_COLUMNS.length; ind++) {
+            insertNew.append(insertFlaggedSql("new", ind));
+            deleteOldFlagged.append(deleteFlaggedSql("old", ind, "old." + FLAG_COLUMNS[ind] + "=1"));
+        }
+        db.execSQL("CREATE TRIGGER trg_timeline_msgofuser_insert AFTER INSERT ON " + MsgOfUser.TABLE_NAME
+                + " BEGIN " + insertNew + " END");
+        for (int ind = 0; ind < FLAG_COLUMNS.length; ind++) {
+            String flag = FLAG_COLUMNS[ind];
+            db.execSQL("CREATE TRIGGER trg_timeline_msgofuser_" + flag + " AFTER UPDATE OF " + flag
+                    + " ON " + MsgOfUser.TABLE_NAME
+                    + " WHEN " + isChangedSql(flag)
+                    + " BEGIN " + insertFlaggedSql("new", ind) 
+                    + " " + deleteFlaggedSql("new", ind, "coalesce(new." + flag + ", 0)<>1") + " END");
+        }
+        db.execSQL("CREATE TRIGGER trg_timeline_msgofuser_update AFTER UPDATE OF " 
+                + MsgOfUser.USER_ID + ", " + MsgOfUser.MSG_ID + " ON " + MsgOfUser.TABLE_NAME
+                + " WHEN " + isChangedSql(MsgOfUser.USER_ID) + " OR " + isChangedSql(MsgOfUser.MSG_ID)
+                + " BEGIN " + deleteOldFlagged + " " + insertNew + " END");
+        db.execSQL("CREATE TRIGGER trg_timeline_msgofuser_delete AFTER DELETE ON " + MsgOfUser.TABLE_NAME
+                + " BEGIN " + deleteOldFlagged + " END");
+    }
+
+    static void dropTriggers(SQLiteDatabase db) {
+        db.execSQL("DROP TRIGGER IF EXISTS trg_timeline_msg_insert");
+        db.execSQL("DROP TRIGGER IF EXISTS trg_timeline_msg_update");
+        db.execSQL("DROP TRIGGER IF EXISTS trg_timeline_msg_delete");
+        db.execSQL("DROP TRIGGER IF EXISTS trg_timeline_msgofuser_insert");
+        for (String flag : FLAG_COLUMNS) {
+            db.execSQL("DROP TRIGGER IF EXISTS trg_timeline_msgofuser_" + flag);
+        }
+        db.execSQL("DROP TRIGGER IF EXISTS trg_timeline_msgofuser_update");
+        db.execSQL("DROP TRIGGER IF EXISTS trg_timeline_msgofuser_delete");
+    }
+
+    /**
+     * Adds all existing messages to the table
+     */
+    static void fill(SQLiteDatabase db) {
+        db.execSQL("INSERT OR IGNORE INTO " + Timeline.TABLE_NAME + " " + selectMembersSql(null));
+    }
+
+    /**
+     * Normally rows are deleted by triggers together with their messages.
+     * This is a safety net for the rows, which are left without messages
+     * @return number of rows deleted
+     */
+    static long deleteOrphans(SQLiteDatabase db) {
+        SQLiteStatement statement = db.compileStatement("SELECT count(*) FROM " + Timeline.TABLE_NAME
+                + " WHERE NOT EXISTS (SELECT * FROM " + Msg.TABLE_NAME 
+                + " WHERE " + Msg.TABLE_NAME + "." + BaseColumns._ID + "=" + Timeline.MSG_ID + ")");
+        long count = 0;
+        try {
+            count = statement.simpleQueryForLong();
+        } finally {
+            statement.close();
+        }
+        if (count > 0) {
+            db.execSQL("DELETE FROM " + Timeline.TABLE_NAME
+                    + " WHERE NOT EXISTS (SELECT * FROM " + Msg.TABLE_NAME 
+                    + " WHERE " + Msg.TABLE_NAME + "." + BaseColumns._ID + "=" + Timeline.MSG_ID + ")");
+        }
+        return count;
+    }
+    
+    /**
+     * @param sqlUserIds See {@link AccountUserIds#getSqlUserIds()}
+     * @return Message ids of the timeline, for "_id IN (...)" selection 
+     */
+    public static String selectMsgIdsSql(TimelineTypeEnum timelineType, String sqlUserIds) {
+        return "SELECT " + Timeline.MSG_ID + " FROM " + Timeline.TABLE_NAME
+                + " WHERE " + Timeline.USER_ID + sqlUserIds
+                + " AND " + Timeline.TIMELINE_TYPE + "='" + timelineType.save() + "'";
+    }
+    
+    private static String isChangedSql(String column) {
+        return "new." + column + " IS NOT old." + column;
+    }
+
+    /**
+     * @param ref "new" or "old" row of the {@link MsgOfUser}
+     * @param ind of the flag in the {@link #FLAG_COLUMNS}
+     */
+    private static String insertFlaggedSql(String ref, int ind) {
+        return "INSERT OR IGNORE INTO " + Timeline.TABLE_NAME 
+                + " SELECT " + ref + "." + MsgOfUser.USER_ID + ", '" + FLAG_TIMELINES[ind].save() + "', " 
+                + "coalesce(" + Msg.SENT_DATE + ", 0), " + BaseColumns._ID
+                + " FROM " + Msg.TABLE_NAME 
+                + " WHERE " + BaseColumns._ID + "=" + ref + "." + MsgOfUser.MSG_ID
+                + " AND " + ref + "." + FLAG_COLUMNS[ind] + "=1;";
+    }
+
+    /**
+     * Deletes one row by its primary key. 
+     * The User timeline row stays, if the User is also the Author or the Sender of the message
+     */
+    private static String deleteFlaggedSql(String ref, int ind, String condition) {
+        String msgId = ref + "." + MsgOfUser.MSG_ID;
+        String userId = ref + "." + MsgOfUser.USER_ID;
+        return "DELETE FROM " + Timeline.TABLE_NAME 
+                + " WHERE " + condition
+                + " AND " + Timeline.USER_ID + "=" + userId
+                + " AND " + Timeline.TIMELINE_TYPE + "='" + FLAG_TIMELINES[ind].save() + "'"
+                + " AND " + Timeline.SENT_DATE + "=(SELECT coalesce(" + Msg.SENT_DATE + ", 0) FROM " + Msg.TABLE_NAME 
+                + " WHERE " + BaseColumns._ID + "=" + msgId + ")"
+                + " AND " + Timeline.MSG_ID + "=" + msgId
+                + (FLAG_TIMELINES[ind] == TimelineTypeEnum.USER 
+                        ? " AND NOT EXISTS (SELECT * FROM " + Msg.TABLE_NAME 
+                                + " WHERE " + BaseColumns._ID + "=" + msgId 
+                                + " AND (" + Msg.AUTHOR_ID + "=" + userId + " OR " + Msg.SENDER_ID + "=" + userId + "))"
+                        : "")
+                + ";";
+    }
+
+    private static String deleteMsgSql(String msgIdExpression) {
+        return "DELETE FROM " + Timeline.TABLE_NAME 
+                + " WHERE " + Timeline.MSG_ID + "=" + msgIdExpression + ";";
+    }
+
+    private static String insertMsgSql(String msgIdExpression) {
+        return "INSERT OR IGNORE INTO " + Timeline.TABLE_NAME + " " + selectMembersSql(msgIdExpression) + ";";
+    }
+    
+    /**
+     * @param msgIdExpression null for all messages
+     */
+    private static String selectMembersSql(String msgIdExpression) {
+        String msgFilter = msgIdExpression == null ? "" 
+                : " AND msg." + BaseColumns._ID + "=" + msgIdExpression;
+        StringBuilder builder = new StringBuilder();
+        for (int ind = 0; ind < FLAG_COLUMNS.length; ind++) {
+            builder.append(selectFlaggedSql(FLAG_TIMELINES[ind], FLAG_COLUMNS[ind], msgFilter) + " UNION ALL ");
+        }
+        return builder.toString() 
+                + selectByUserSql(Msg.AUTHOR_ID, msgFilter)
+                + " UNION ALL " + selectByUserSql(Msg.SENDER_ID, msgFilter);
+    }
+
+    private static String selectFlaggedSql(TimelineTypeEnum timelineType, String flagColumn, String msgFilter) {
+        return "SELECT mou." + MsgOfUser.USER_ID + ", '" + timelineType.save() + "', " 
+                + "coalesce(msg." + Msg.SENT_DATE + ", 0), msg." + BaseColumns._ID
+                + " FROM " + Msg.TABLE_NAME + " AS msg"
+                + " INNER JOIN " + MsgOfUser.TABLE_NAME + " AS mou"
+                + " ON mou." + MsgOfUser.MSG_ID + "=msg." + BaseColumns._ID
+                + " WHERE mou." + flagColumn + "=1" + msgFilter;
+    }
+
+    private static String selectByUserSql(String userIdColumn, String msgFilter) {
+        return "SELECT msg." + userIdColumn + ", '" + TimelineTypeEnum.USER.save() + "', " 
+                + "coalesce(msg." + Msg.SENT_DATE + ", 0), msg." + BaseColumns._ID
+                + " FROM " + Msg.TABLE_NAME + " AS msg"
+                + " WHERE msg." + userIdColumn + "<>0" + msgFilter;
+    }
+}
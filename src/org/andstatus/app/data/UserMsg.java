@@ -16,10 +16,8 @@
 
 package org.andstatus.app.data;
 
-import android.database.sqlite.SQLiteDatabase;
 import android.provider.BaseColumns;
 
-import org.andstatus.app.context.MyContextHolder;
 import org.andstatus.app.data.MyDatabase.Msg;
 import org.andstatus.app.data.MyDatabase.User;
 import org.andstatus.app.util.MyLog;
@@ -146,8 +144,7 @@ public final class UserMsg {
             sql = "UPDATE " + User.TABLE_NAME + " SET " + sql 
                     + " WHERE " + BaseColumns._ID + "=" + userId;
 
-            SQLiteDatabase db = MyContextHolder.get().getDatabase().getReadableDatabase();
-            db.execSQL(sql);
+            DbUtils.execSQL(sql);
             
             changed = false;
         } catch (Exception e) {
@@ -30,8 +30,13 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.util.Date;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Handles connection to the API of the Microblogging System (i.e. to the "Origin")
@@ -76,6 +81,8 @@ public abstract class Connection {
         GET_FRIENDS, // List of users
         GET_FRIENDS_IDS, // List of Users' IDs
         GET_USER,
+        /** Several Users at once, see {@link Connection#getUsers(List)} */
+        GET_USERS,
         POST_DIRECT_MESSAGE,
         POST_REBLOG,
         REGISTER_CLIENT,
@@ -103,6 +110,11 @@ public abstract class Connection {
         GET_MESSAGE,
         STATUSES_UPDATE,
         STOP_FOLLOWING_USER,
+        /**
+         * Long-lived connection, which receives new items of the User's timelines as soon as they appear,
+         * see {@link Connection#readUserStream(UserStreamConsumer)}
+         */
+        USER_STREAM,
         
         /**
          * OAuth APIs
@@ -247,6 +259,22 @@ public abstract class Connection {
      * Returns a list of users the specified user is following.
      */
     public List<MbUser> getUsersFollowedBy(String userId) throws ConnectionException {
+        final List<MbUser> users = new ArrayList<MbUser>();
+        getUsersFollowedBy(userId, new UsersPageConsumer() {
+            @Override
+            public void onUsersPage(List<MbUser> page) {
+                users.addAll(page);
+            }
+        });
+        return users;
+    }
+
+    /**
+     * Returns the whole list of users the specified user is following, page by page
+     * @return number of users
+     * @throws ConnectionException also if the list couldn't be downloaded till its last page
+     */
+    public int getUsersFollowedBy(String userId, UsersPageConsumer consumer) throws ConnectionException {
         throw ConnectionException.fromStatusCodeAndHost(StatusCode.UNSUPPORTED_API, "(any host)", "getUsersFollowedBy for userOid=" + userId);
     }
     
@@ -254,8 +282,61 @@ public abstract class Connection {
      * Returns a list of IDs for every user the specified user is following.
      */
     public List<String> getIdsOfUsersFollowedBy(String userId) throws ConnectionException {
+        final List<String> userIds = new ArrayList<String>();
+        getIdsOfUsersFollowedBy(userId, new UsersPageConsumer() {
+            @Override
+            public void onUsersPage(List<MbUser> page) {
+                for (MbUser user : page) {
+                    userIds.add(user.oid);
+                }
+            }
+        });
+        return userIds;
+    }
+
+    /**
+     * Returns IDs of all users the specified user is following, page by page
+     * @param consumer receives Users with their oids only
+     * @return number of users
+     * @throws ConnectionException also if the list couldn't be downloaded till its last page
+     */
+    public int getIdsOfUsersFollowedBy(String userId, UsersPageConsumer consumer) throws ConnectionException {
         throw ConnectionException.fromStatusCodeAndHost(StatusCode.UNSUPPORTED_API, "(any host)", "getIdsOfUsersFollowedBy for userOid=" + userId);
     }
+
+    /**
+     * Receives new items of the User's timelines (Home, Mentions, Direct messages) as soon as they appear,
+     * instead of polling. Returns when the server closes the stream or the consumer stops it
+     * @throws ConnectionException e.g. if the stream is not supported, see {@link ApiRoutineEnum#USER_STREAM}
+     */
+    public void readUserStream(UserStreamConsumer consumer) throws ConnectionException {
+        throw ConnectionException.fromStatusCodeAndHost(StatusCode.UNSUPPORTED_API, "(any host)", "readUserStream");
+    }
+
+    /**
+     * @return true if the result of the last call in this thread (e.g. {@link #getUsersFollowedBy(String)})
+     * was taken from the cache, because the server responded "304 Not Modified"
+     */
+    public boolean isLastResponseNotModified() {
+        return HttpValidatorCache.isLastResponseNotModified();
+    }
+
+    /**
+     * @param routine {@link ApiRoutineEnum#DUMMY} for any routine
+     * @return true if little of the rate limit quota of the routine remains till the end of the window,
+     * so low priority requests should be deferred
+     */
+    public boolean isQuotaLow(ApiRoutineEnum routine) {
+        return http != null && RateLimiter.getInstance().isQuotaLow(RateLimiter.accountKey(http.data), routine);
+    }
+
+    /**
+     * Forget cached responses of this account, e.g. because they were not stored successfully,
+     * so the next requests are not conditional
+     */
+    public void clearCachedResponses() {
+        HttpValidatorCache.getInstance().clear(http.data);
+    }
     
     /**
      * Returns a single status, specified by the id parameter below.
@@ -320,6 +401,33 @@ public abstract class Connection {
     public abstract List<MbTimelineItem> getTimeline(ApiRoutineEnum apiRoutine, TimelinePosition sinceId, int limit, String userId)
             throws ConnectionException;
 
+    /**
+     * Streaming version of {@link #getTimeline(ApiRoutineEnum, TimelinePosition, int, String)}:
+     * items are passed to the consumer as soon as they are parsed, in the order of the response, 
+     * i.e. newest first (the list version returns them in chronological order).
+     * This implementation downloads and parses the whole timeline first
+     * @return number of items passed to the consumer
+     */
+    public int getTimeline(ApiRoutineEnum apiRoutine, TimelinePosition sinceId, int limit, String userId,
+            TimelineItemConsumer consumer) throws ConnectionException {
+        List<MbTimelineItem> timeline = getTimeline(apiRoutine, sinceId, limit, userId);
+        for (int index = timeline.size() - 1; index >= 0; index--) {
+            consumer.onTimelineItem(timeline.get(index));
+        }
+        return timeline.size();
+    }
+
+    /**
+     * Backward paging: downloads one page of the timeline items, which are older than the given position,
+     * newest first. Used to load the timeline history, which was never downloaded, and to fill gaps in it
+     * @param sinceId If not empty, only items newer than this are returned (the lower bound of a gap)
+     * @param olderThan Position of the oldest downloaded item of the timeline, the item itself is not returned
+     * @return number of items passed to the consumer, 0 if there are no older items
+     */
+    public abstract int getTimelineOlder(ApiRoutineEnum apiRoutine, TimelinePosition sinceId,
+            TimelinePosition olderThan, int limit, String userId, TimelineItemConsumer consumer)
+            throws ConnectionException;
+
     public abstract List<MbTimelineItem> search(String searchQuery, int limit)
             throws ConnectionException;
     
@@ -340,6 +448,50 @@ public abstract class Connection {
      * @throws ConnectionException
      */
     public abstract MbUser getUser(String userId) throws ConnectionException;
+
+    /**
+     * Get information about several Users at once, e.g. about the followed Users, who are new for us.
+     * This implementation is for the APIs without a bulk lookup ({@link ApiRoutineEnum#GET_USERS}):
+     * the Users are requested one by one in not more than {@link HttpConnectionPool#getMaxConnectionsPerHost()}
+     * parallel threads
+     * @return Users found, in no particular order. A User, who failed to download, is logged and skipped
+     */
+    public List<MbUser> getUsers(List<String> userIds) throws ConnectionException {
+        List<MbUser> users = new ArrayList<MbUser>();
+        if (userIds.isEmpty()) {
+            return users;
+        }
+        int threads = Math.max(1, Math.min(userIds.size(), HttpConnectionPool.getMaxConnectionsPerHost()));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<MbUser>> futures = new ArrayList<Future<MbUser>>();
+            for (final String userId : userIds) {
+                futures.add(executor.submit(new Callable<MbUser>() {
+                    @Override
+                    public MbUser call() throws ConnectionException {
+                        return getUser(userId);
+                    }
+                }));
+            }
+            for (int index = 0; index < futures.size(); index++) {
+                try {
+                    MbUser user = futures.get(index).get();
+                    if (user != null && !user.isEmpty()) {
+                        users.add(user);
+                    }
+                } catch (ExecutionException e) {
+                    MyLog.i(this, "Failed to download the User object for oid=" + userIds.get(index), e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConnectionException("getUsers interrupted", e);
+        } finally {
+            executor.shutdownNow();
+        }
+        MyLog.d(this, "getUsers " + users.size() + " of " + userIds.size() + " users in " + threads + " threads");
+        return users;
+    }
     
     protected final String fixSinceId(String sinceId) {
         String out = "";
@@ -404,6 +556,14 @@ public abstract class Connection {
         return false;
     }
 
+    /**
+     * @return true if a position of a timeline item is the id of its message (except a reblog),
+     *      so the oldest stored message may be used as the oldest downloaded position, see {@link #getTimelineOlder}
+     */
+    public boolean isTimelinePositionMsgOid() {
+        return true;
+    }
+
     public MbConfig getConfig() throws ConnectionException {
         return MbConfig.getEmpty();
     }
@@ -423,19 +583,11 @@ public abstract class Connection {
     }
     
     /**
-     * Currently seems like most universal solution
      * @return Unix time. Returns 0 in a case of an error
+     * @see DateParser#parseRfc822(String)
      */
     public long parseDate(String stringDate) {
-        long unixDate = 0;
-        if(stringDate != null) {
-            try {
-                unixDate = Date.parse(stringDate);
-            } catch (IllegalArgumentException e) {
-                MyLog.e(this, "Failed to parse the date: '" + stringDate +"'", e);
-            }
-        }
-        return unixDate;
+        return DateParser.parseRfc822(stringDate);
     }
 
     protected void setMessagesPublic(List<MbTimelineItem> timeline) {
@@ -446,10 +598,11 @@ public abstract class Connection {
         }
     }
 
-    public JSONArray getRequestArrayInObject(String path, String arrayName) throws ConnectionException {
+    public JSONArray getRequestArrayInObject(ApiRoutineEnum routine, String path, String arrayName)
+            throws ConnectionException {
         String method = "getRequestArrayInObject";
         JSONArray jArr = null;
-        JSONObject jso = http.getRequest(path);
+        JSONObject jso = http.getRequest(routine, path);
         if (jso != null) {
             try {
                 jArr = jso.getJSONArray(arrayName);
@@ -77,6 +77,13 @@ public class ConnectionEmpty extends Connection {
         return new ArrayList<MbTimelineItem>();
     }
 
+    @Override
+    public int getTimelineOlder(ApiRoutineEnum apiRoutine, TimelinePosition sinceId,
+            TimelinePosition olderThan, int limit, String userId, TimelineItemConsumer consumer)
+            throws ConnectionException {
+        return 0;
+    }
+
     @Override
     public List<MbTimelineItem> search(String searchQuery, int limit)
             throws ConnectionException {
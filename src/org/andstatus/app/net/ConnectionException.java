@@ -36,7 +36,9 @@ public class ConnectionException extends Exception {
         BAD_REQUEST,
         AUTHENTICATION_ERROR,
         CREDENTIALS_OF_OTHER_USER,
-        NO_CREDENTIALS_FOR_HOST;
+        NO_CREDENTIALS_FOR_HOST,
+        /** The rate limit is exceeded or too little of it remains */
+        RATE_LIMITED;
         
         public static StatusCode fromResponseCode(int responseCode) {
             switch (responseCode) {
@@ -44,6 +46,9 @@ public class ConnectionException extends Exception {
                     return NOT_FOUND;
                 case 400:
                     return BAD_REQUEST;
+                case 420:
+                case 429:
+                    return RATE_LIMITED;
                 default:
                     return UNKNOWN;
             }
@@ -123,6 +128,8 @@ public class ConnectionException extends Exception {
         this.statusCode = statusCode;
         switch (statusCode) {
             case UNKNOWN:
+            case RATE_LIMITED:
+                // May succeed later
                 break;
             default:
                 isHardError = true;
@@ -27,12 +27,8 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.text.DateFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Locale;
 
 /**
  * Implementation of pump.io API: <a href="https://github.com/e14n/pump.io/blob/master/API.md">https://github.com/e14n/pump.io/blob/master/API.md</a>  
@@ -97,7 +93,8 @@ public class ConnectionPumpio extends Connection {
 
     @Override
     public MbUser verifyCredentials() throws ConnectionException {
-        JSONObject user = http.getRequest(getApiPath(ApiRoutineEnum.ACCOUNT_VERIFY_CREDENTIALS));
+        JSONObject user = http.getRequest(ApiRoutineEnum.ACCOUNT_VERIFY_CREDENTIALS,
+                getApiPath(ApiRoutineEnum.ACCOUNT_VERIFY_CREDENTIALS));
         return userFromJson(user);
     }
 
@@ -124,29 +121,13 @@ public class ConnectionPumpio extends Connection {
         return user;
     }
     
-    private final DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ", Locale.GERMANY);
     /**
-     * Simple solution based on:
-     * http://stackoverflow.com/questions/2201925/converting-iso8601-compliant-string-to-java-util-date
      * @return Unix time. Returns 0 in a case of an error
+     * @see DateParser#parseIso8601(String)
      */
     @Override
     public long parseDate(String stringDate) {
-        long unixDate = 0;
-        if(stringDate != null) {
-            String datePrepared;        
-            if (stringDate.lastIndexOf('Z') == stringDate.length()-1) {
-                datePrepared = stringDate.substring(0, stringDate.length()-1) + "+0000";
-            } else {
-                datePrepared = stringDate.replaceAll("\\+0([0-9]){1}\\:00", "+0$100");
-            }
-            try {
-                unixDate = dateFormat.parse(datePrepared).getTime();
-            } catch (ParseException e) {
-                MyLog.e(this, "Failed to parse the date: '" + stringDate +"'", e);
-            }
-        }
-        return unixDate;
+        return DateParser.parseIso8601(stringDate);
     }
     
     @Override
@@ -169,8 +150,12 @@ public class ConnectionPumpio extends Connection {
         return ActivitySender.fromId(this, messageId).sendMessage(verb);
     }
 
+    /**
+     * The following collection is read page by page, following its "next" link.
+     * Each page is requested as the {@link ApiRoutineEnum#GET_FRIENDS}, so it is paced and counted as such
+     */
     @Override
-    public List<MbUser> getUsersFollowedBy(String userId) throws ConnectionException {
+    public int getUsersFollowedBy(String userId, UsersPageConsumer consumer) throws ConnectionException {
         int limit = 200;
         ApiRoutineEnum apiRoutine = ApiRoutineEnum.GET_FRIENDS;
         ConnectionAndUrl conu = getConnectionAndUrl(apiRoutine, userId);
@@ -180,26 +165,54 @@ public class ConnectionPumpio extends Connection {
             builder.appendQueryParameter("count",String.valueOf(fixedDownloadLimitForApiRoutine(limit, apiRoutine)));
         }
         String url = builder.build().toString();
-        JSONArray jArr = conu.httpConnection.getRequestAsArray(url);
-        List<MbUser> followedUsers = new ArrayList<MbUser>();
-        if (jArr != null) {
-            for (int index = 0; index < jArr.length(); index++) {
-                try {
-                    JSONObject jso = jArr.getJSONObject(index);
-                    MbUser item = userFromJson(jso);
-                    followedUsers.add(item);
-                } catch (JSONException e) {
-                    throw ConnectionException.loggedJsonException(this, e, null, "Parsing list of users");
+        int count = 0;
+        while (!TextUtils.isEmpty(url)) {
+            JSONObject jsoCollection = conu.httpConnection.getRequest(apiRoutine, url);
+            if (jsoCollection == null) {
+                throw new ConnectionException("getUsersFollowedBy no response for '" + url + "'");
+            }
+            List<MbUser> followedUsers = new ArrayList<MbUser>();
+            JSONArray jArr = jsoCollection.optJSONArray("items");
+            if (jArr != null) {
+                for (int index = 0; index < jArr.length(); index++) {
+                    try {
+                        JSONObject jso = jArr.getJSONObject(index);
+                        MbUser item = userFromJson(jso);
+                        followedUsers.add(item);
+                    } catch (JSONException e) {
+                        throw ConnectionException.loggedJsonException(this, e, null, "Parsing list of users");
+                    }
                 }
             }
+            MyLog.d(TAG, "getUsersFollowedBy '" + url + "' " + followedUsers.size() + " users");
+            count += followedUsers.size();
+            consumer.onUsersPage(followedUsers);
+            String nextUrl = nextPageUrl(jsoCollection);
+            if (url.equals(nextUrl)) {
+                throw new ConnectionException("getUsersFollowedBy the same next page '" + url + "'");
+            }
+            url = followedUsers.isEmpty() ? "" : nextUrl;
         }
-        MyLog.d(TAG, "getUsersFollowedBy '" + url + "' " + followedUsers.size() + " users");
-        return followedUsers;
+        return count;
+    }
+
+    /**
+     * @return an empty string if this is the last page of the collection
+     */
+    private static String nextPageUrl(JSONObject jsoCollection) {
+        JSONObject links = jsoCollection.optJSONObject("links");
+        if (links != null) {
+            JSONObject next = links.optJSONObject("next");
+            if (next != null) {
+                return next.optString("href");
+            }
+        }
+        return "";
     }
 
     @Override
     public MbMessage getMessage1(String messageId) throws ConnectionException {
-        JSONObject message = http.getRequest(messageId);
+        JSONObject message = http.getRequest(ApiRoutineEnum.GET_MESSAGE, messageId);
         return messageFromJson(message);
     }
 
@@ -245,6 +258,7 @@ public class ConnectionPumpio extends Connection {
 
     ConnectionAndUrl getConnectionAndUrl(ApiRoutineEnum apiRoutine, String userId) throws ConnectionException {
         ConnectionAndUrl conu = new ConnectionAndUrl();
+        conu.apiRoutine = apiRoutine;
         conu.url = this.getApiPath(apiRoutine);
         if (TextUtils.isEmpty(conu.url)) {
             throw new ConnectionException(StatusCode.UNSUPPORTED_API, "The API is not supported yet: " + apiRoutine);
@@ -286,6 +300,7 @@ public class ConnectionPumpio extends Connection {
     }
     
     static class ConnectionAndUrl {
+        ApiRoutineEnum apiRoutine;
         String url;
         HttpConnection httpConnection;
     }
@@ -307,19 +322,10 @@ public class ConnectionPumpio extends Connection {
     @Override
     public List<MbTimelineItem> getTimeline(ApiRoutineEnum apiRoutine, TimelinePosition sinceId, int limit, String userId)
             throws ConnectionException {
-        ConnectionAndUrl conu = getConnectionAndUrl(apiRoutine, userId);
-        Uri sUri = Uri.parse(conu.url);
-        Uri.Builder builder = sUri.buildUpon();
-        if (!sinceId.isEmpty()) {
-            // The "since" should point to the "Activity" on the timeline, not to the message
-            // Otherwise we will always get "not found"
-            builder.appendQueryParameter("since", sinceId.getPosition());
-        }
-        if (fixedDownloadLimitForApiRoutine(limit, apiRoutine) > 0) {
-            builder.appendQueryParameter("count",String.valueOf(fixedDownloadLimitForApiRoutine(limit, apiRoutine)));
-        }
-        String url = builder.build().toString();
-        JSONArray jArr = conu.httpConnection.getRequestAsArray(url);
+        ConnectionAndUrl conu = timelineConnectionAndUrl(apiRoutine, sinceId, TimelinePosition.getEmpty(), limit,
+                userId);
+        String url = conu.url;
+        JSONArray jArr = conu.httpConnection.getRequestAsArray(apiRoutine, url);
         List<MbTimelineItem> timeline = new ArrayList<MbTimelineItem>();
         if (jArr != null) {
             // Read the activities in chronological order
@@ -337,6 +343,57 @@ public class ConnectionPumpio extends Connection {
         return timeline;
     }
 
+    @Override
+    public int getTimeline(ApiRoutineEnum apiRoutine, TimelinePosition sinceId, int limit, String userId,
+            TimelineItemConsumer consumer) throws ConnectionException {
+        ConnectionAndUrl conu = timelineConnectionAndUrl(apiRoutine, sinceId, TimelinePosition.getEmpty(), limit,
+                userId);
+        return getTimelineItems(conu, consumer);
+    }
+
+    @Override
+    public int getTimelineOlder(ApiRoutineEnum apiRoutine, TimelinePosition sinceId, TimelinePosition olderThan,
+            int limit, String userId, TimelineItemConsumer consumer) throws ConnectionException {
+        ConnectionAndUrl conu = timelineConnectionAndUrl(apiRoutine, sinceId, olderThan, limit, userId);
+        return getTimelineItems(conu, consumer);
+    }
+
+    private int getTimelineItems(ConnectionAndUrl conu, final TimelineItemConsumer consumer)
+            throws ConnectionException {
+        final int[] count = {0};
+        conu.httpConnection.getRequestArrayItems(conu.apiRoutine, conu.url, "items", new JsonObjectConsumer() {
+            @Override
+            public void onJsonObject(JSONObject jso) throws ConnectionException {
+                // Newest first, as in the response
+                count[0]++;
+                consumer.onTimelineItem(timelineItemFromJson(jso));
+            }
+        });
+        MyLog.d(TAG, "getTimeline '" + conu.url + "' " + count[0] + " messages streamed");
+        return count[0];
+    }
+
+    private ConnectionAndUrl timelineConnectionAndUrl(ApiRoutineEnum apiRoutine, TimelinePosition sinceId,
+            TimelinePosition olderThan, int limit, String userId) throws ConnectionException {
+        ConnectionAndUrl conu = getConnectionAndUrl(apiRoutine, userId);
+        Uri sUri = Uri.parse(conu.url);
+        Uri.Builder builder = sUri.buildUpon();
+        if (!sinceId.isEmpty()) {
+            // The "since" should point to the "Activity" on the timeline, not to the message
+            // Otherwise we will always get "not found"
+            builder.appendQueryParameter("since", sinceId.getPosition());
+        }
+        if (!olderThan.isEmpty()) {
+            // Also the "Activity" and not inclusive
+            builder.appendQueryParameter("before", olderThan.getPosition());
+        }
+        if (fixedDownloadLimitForApiRoutine(limit, apiRoutine) > 0) {
+            builder.appendQueryParameter("count",String.valueOf(fixedDownloadLimitForApiRoutine(limit, apiRoutine)));
+        }
+        conu.url = builder.build().toString();
+        return conu;
+    }
+
     @Override
     public int fixedDownloadLimitForApiRoutine(int limit, ApiRoutineEnum apiRoutine) {
         final int maxLimit = apiRoutine == ApiRoutineEnum.GET_FRIENDS ? 200 : 20;
@@ -590,9 +647,17 @@ public class ConnectionPumpio extends Connection {
     @Override
     public MbUser getUser(String userId) throws ConnectionException {
         ConnectionAndUrl conu = getConnectionAndUrl(ApiRoutineEnum.GET_USER, userId);
-        JSONObject jso = conu.httpConnection.getRequest(conu.url);
+        JSONObject jso = conu.httpConnection.getRequest(conu.apiRoutine, conu.url);
         MbUser mbUser = userFromJson(jso);
         MyLog.v(this, "getUser '" + userId + "' " + mbUser.realName);
         return mbUser;
     }
+
+    /**
+     * Positions are ids of activities, "before" a message id is "not found"
+     */
+    @Override
+    public boolean isTimelinePositionMsgOid() {
+        return false;
+    }
 }
@@ -19,6 +19,8 @@ package org.andstatus.app.net;
 import android.net.Uri;
 import android.text.TextUtils;
 
+import org.andstatus.app.net.ConnectionException.StatusCode;
+import org.andstatus.app.net.MbTimelineItem.ItemType;
 import org.andstatus.app.util.MyLog;
 import org.andstatus.app.util.SharedPreferencesUtil;
 import org.andstatus.app.util.TriState;
@@ -35,6 +37,11 @@ import java.util.List;
  */
 public abstract class ConnectionTwitter extends Connection {
     private static final String TAG = ConnectionTwitter.class.getSimpleName();
+    /** Maximum number of Users in one {@link ApiRoutineEnum#GET_USERS} request */
+    static final int USERS_IN_LOOKUP = 100;
+    /** Cursors of the paged collections, e.g. of {@link ApiRoutineEnum#GET_FRIENDS_IDS} */
+    private static final String FIRST_CURSOR = "-1";
+    private static final String LAST_CURSOR = "0";
 
     /**
      * URL of the API. Not logged
@@ -69,6 +76,9 @@ public abstract class ConnectionTwitter extends Connection {
             case GET_USER:
                 url = "users/show" + EXTENSION;
                 break;
+            case GET_USERS:
+                url = "users/lookup" + EXTENSION;
+                break;
             case POST_DIRECT_MESSAGE:
                 url = "direct_messages/new" + EXTENSION;
                 break;
@@ -108,7 +118,8 @@ public abstract class ConnectionTwitter extends Connection {
 
     @Override
     public boolean destroyStatus(String statusId) throws ConnectionException {
-        JSONObject jso = http.postRequest(getApiPath(ApiRoutineEnum.STATUSES_DESTROY) + statusId + EXTENSION);
+        JSONObject jso = http.postRequest(ApiRoutineEnum.STATUSES_DESTROY,
+                getApiPath(ApiRoutineEnum.STATUSES_DESTROY) + statusId + EXTENSION);
         if (jso != null && MyLog.isLoggable(null, MyLog.VERBOSE)) {
             try {
                 MyLog.v(TAG, "destroyStatus response: " + jso.toString(2));
@@ -139,28 +150,48 @@ public abstract class ConnectionTwitter extends Connection {
     } 
 
     /**
-     * Returns an array of numeric IDs for every user the specified user is following.
-     * Current implementation is restricted to 5000 IDs (no paged cursors are used...)
+     * Returns numeric IDs for every user the specified user is following, up to 5000 IDs in a page.
+     * The pages are navigated with cursors till the "next_cursor" is 0
      * @see <a
      *      href="https://dev.twitter.com/docs/api/1.1/get/friends/ids">GET friends/ids</a>
+     * @see <a
+     *      href="https://dev.twitter.com/docs/misc/cursoring">Using cursors to navigate collections</a>
      * @throws ConnectionException
      */
     @Override
-    public List<String> getIdsOfUsersFollowedBy(String userId) throws ConnectionException {
+    public int getIdsOfUsersFollowedBy(String userId, UsersPageConsumer consumer) throws ConnectionException {
         String method = "getIdsOfUsersFollowedBy";
-        Uri sUri = Uri.parse(getApiPath(ApiRoutineEnum.GET_FRIENDS_IDS));
-        Uri.Builder builder = sUri.buildUpon();
-        builder.appendQueryParameter("user_id", userId);
-        List<String> list = new ArrayList<String>();
-        JSONArray jArr = getRequestArrayInObject(builder.build().toString(), "ids");
-        try {
-            for (int index = 0; jArr != null && index < jArr.length(); index++) {
-                list.add(jArr.getString(index));
+        int count = 0;
+        String cursor = FIRST_CURSOR;
+        while (!LAST_CURSOR.equals(cursor)) {
+            Uri sUri = Uri.parse(getApiPath(ApiRoutineEnum.GET_FRIENDS_IDS));
+            Uri.Builder builder = sUri.buildUpon();
+            builder.appendQueryParameter("user_id", userId);
+            builder.appendQueryParameter("cursor", cursor);
+            JSONObject jso = http.getRequest(ApiRoutineEnum.GET_FRIENDS_IDS, builder.build().toString());
+            if (jso == null) {
+                throw new ConnectionException(method + " no response for cursor=" + cursor);
             }
-        } catch (JSONException e) {
-            throw ConnectionException.loggedJsonException(this, e, jArr, method);
+            List<MbUser> users = new ArrayList<MbUser>();
+            String nextCursor;
+            try {
+                JSONArray jArr = jso.getJSONArray("ids");
+                for (int index = 0; index < jArr.length(); index++) {
+                    users.add(MbUser.fromOriginAndUserOid(data.getOriginId(), jArr.getString(index)));
+                }
+                nextCursor = jso.optString("next_cursor_str", jso.optString("next_cursor", LAST_CURSOR));
+            } catch (JSONException e) {
+                throw ConnectionException.loggedJsonException(this, e, jso, method);
+            }
+            count += users.size();
+            consumer.onUsersPage(users);
+            if (nextCursor.equals(cursor)) {
+                throw new ConnectionException(method + " the same next cursor=" + cursor);
+            }
+            cursor = nextCursor;
         }
-        return list;
+        MyLog.d(this, method + " " + count + " ids");
+        return count;
     }
 
     /**
@@ -177,27 +208,135 @@ public abstract class ConnectionTwitter extends Connection {
         Uri sUri = Uri.parse(getApiPath(ApiRoutineEnum.GET_MESSAGE));
         Uri.Builder builder = sUri.buildUpon();
         builder.appendQueryParameter("id", messageId);
-        JSONObject message = http.getRequest(builder.build().toString());
+        JSONObject message = http.getRequest(ApiRoutineEnum.GET_MESSAGE, builder.build().toString());
         return messageFromJson(message);
     }
 
     @Override
     public List<MbTimelineItem> getTimeline(ApiRoutineEnum apiRoutine, TimelinePosition sinceId, int limit, String userId)
             throws ConnectionException {
+        String url = timelineUrl(apiRoutine, sinceId, TimelinePosition.getEmpty(), limit, userId);
+        JSONArray jArr = http.getRequestAsArray(apiRoutine, url);
+        return jArrToTimeline(jArr, apiRoutine, url);
+    }
+
+    @Override
+    public int getTimeline(ApiRoutineEnum apiRoutine, TimelinePosition sinceId, int limit, String userId,
+            TimelineItemConsumer consumer) throws ConnectionException {
+        String url = timelineUrl(apiRoutine, sinceId, TimelinePosition.getEmpty(), limit, userId);
+        return getTimelineItems(apiRoutine, url, consumer);
+    }
+
+    @Override
+    public int getTimelineOlder(ApiRoutineEnum apiRoutine, TimelinePosition sinceId, TimelinePosition olderThan,
+            int limit, String userId, TimelineItemConsumer consumer) throws ConnectionException {
+        String url = timelineUrl(apiRoutine, sinceId, olderThan, limit, userId);
+        return getTimelineItems(apiRoutine, url, consumer);
+    }
+
+    private int getTimelineItems(final ApiRoutineEnum apiRoutine, String url, final TimelineItemConsumer consumer)
+            throws ConnectionException {
+        final int[] count = {0};
+        http.getRequestArrayItems(apiRoutine, url, "", new JsonObjectConsumer() {
+            @Override
+            public void onJsonObject(JSONObject jso) throws ConnectionException {
+                // Newest first, as in the response
+                MbTimelineItem item = timelineItemFromJson(jso);
+                if (apiRoutine.isMsgPublic() && item.getType() == ItemType.MESSAGE) {
+                    item.mbMessage.setPublic(true);
+                }
+                count[0]++;
+                consumer.onTimelineItem(item);
+            }
+        });
+        MyLog.d(this, apiRoutine + " '" + url + "' " + count[0] + " items streamed");
+        return count[0];
+    }
+
+    /**
+     * @see <a
+     *      href="https://dev.twitter.com/docs/streaming-apis/streams/user">User streams</a>
+     */
+    @Override
+    public void readUserStream(final UserStreamConsumer consumer) throws ConnectionException {
+        String url = getApiPath(ApiRoutineEnum.USER_STREAM);
+        final int[] count = {0};
+        try {
+            http.getRequestStream(ApiRoutineEnum.USER_STREAM, url, new JsonStreamConsumer() {
+                @Override
+                public void onJsonObject(JSONObject jso) throws ConnectionException {
+                    MbTimelineItem item = timelineItemFromStreamEvent(jso);
+                    if (item != null) {
+                        count[0]++;
+                        consumer.onTimelineItem(item);
+                    }
+                }
+
+                @Override
+                public void onIdle() {
+                    consumer.onIdle();
+                }
+
+                @Override
+                public boolean isStopped() {
+                    return consumer.isStopped();
+                }
+            });
+        } finally {
+            MyLog.d(this, "readUserStream '" + url + "' " + count[0] + " items streamed");
+        }
+    }
+
+    /**
+     * Messages and Direct messages are taken, other messages of the stream
+     * (e.g. the list of friends, deletion notices and events) are skipped
+     * @return null if this is not a message
+     * @see <a
+     *      href="https://dev.twitter.com/docs/streaming-apis/messages">Streaming message types</a>
+     */
+    MbTimelineItem timelineItemFromStreamEvent(JSONObject jso) throws ConnectionException {
+        JSONObject directMessage = jso.optJSONObject("direct_message");
+        if (directMessage != null) {
+            return timelineItemFromJson(directMessage);
+        } else if (jso.has("text") && jso.has("user")) {
+            return timelineItemFromJson(jso);
+        }
+        if (MyLog.isLoggable(TAG, MyLog.VERBOSE)) {
+            MyLog.v(this, "Skipped stream message: " + jso.names());
+        }
+        return null;
+    }
+
+    private String timelineUrl(ApiRoutineEnum apiRoutine, TimelinePosition sinceId, TimelinePosition olderThan,
+            int limit, String userId) throws ConnectionException {
         String url = this.getApiPath(apiRoutine);
         Uri sUri = Uri.parse(url);
         Uri.Builder builder = sUri.buildUpon();
         if (!sinceId.isEmpty()) {
             builder.appendQueryParameter("since_id", sinceId.getPosition());
         }
+        if (!olderThan.isEmpty()) {
+            builder.appendQueryParameter("max_id", maxIdOlderThan(olderThan));
+        }
         if (fixedDownloadLimitForApiRoutine(limit, apiRoutine) > 0) {
             builder.appendQueryParameter("count", String.valueOf(fixedDownloadLimitForApiRoutine(limit, apiRoutine)));
         }
         if (!TextUtils.isEmpty(userId)) {
             builder.appendQueryParameter("user_id", userId);
         }
-        JSONArray jArr = http.getRequestAsArray(builder.build().toString());
-        return jArrToTimeline(jArr, apiRoutine, url);
+        return builder.build().toString();
+    }
+
+    /**
+     * "max_id" is inclusive, so we ask for the items, which are older than the position
+     * (if it is numeric, as in Twitter and StatusNet)
+     */
+    static String maxIdOlderThan(TimelinePosition olderThan) {
+        try {
+            return Long.toString(Long.parseLong(olderThan.getPosition()) - 1);
+        } catch (NumberFormatException e) {
+            return olderThan.getPosition();
+        }
     }
 
     private MbTimelineItem timelineItemFromJson(JSONObject jso) throws ConnectionException {
@@ -371,7 +510,7 @@ public abstract class ConnectionTwitter extends Connection {
         if (!TextUtils.isEmpty(searchQuery)) {
             builder.appendQueryParameter("q", searchQuery);
         }
-        JSONArray jArr = http.getRequestAsArray(builder.build().toString());
+        JSONArray jArr = http.getRequestAsArray(apiRoutine, builder.build().toString());
         return jArrToTimeline(jArr, apiRoutine, url);
     }
     
@@ -405,9 +544,48 @@ public abstract class ConnectionTwitter extends Connection {
         Uri sUri = Uri.parse(getApiPath(ApiRoutineEnum.GET_USER));
         Uri.Builder builder = sUri.buildUpon();
         builder.appendQueryParameter("user_id", userId);
-        JSONObject jso = http.getRequest(builder.build().toString());
+        JSONObject jso = http.getRequest(ApiRoutineEnum.GET_USER, builder.build().toString());
         return userFromJson(jso);
     }
+
+    /**
+     * Up to {@link #USERS_IN_LOOKUP} Users in one request
+     * @see <a
+     *      href="https://dev.twitter.com/docs/api/1.1/get/users/lookup">GET users/lookup</a>
+     */
+    @Override
+    public List<MbUser> getUsers(List<String> userIds) throws ConnectionException {
+        if (!isApiSupported(ApiRoutineEnum.GET_USERS)) {
+            return super.getUsers(userIds);
+        }
+        String method = "getUsers";
+        List<MbUser> users = new ArrayList<MbUser>();
+        for (int start = 0; start < userIds.size(); start += USERS_IN_LOOKUP) {
+            List<String> ids = userIds.subList(start, Math.min(start + USERS_IN_LOOKUP, userIds.size()));
+            Uri sUri = Uri.parse(getApiPath(ApiRoutineEnum.GET_USERS));
+            Uri.Builder builder = sUri.buildUpon();
+            builder.appendQueryParameter("user_id", TextUtils.join(",", ids));
+            JSONArray jArr;
+            try {
+                jArr = http.getRequestAsArray(ApiRoutineEnum.GET_USERS, builder.build().toString());
+            } catch (ConnectionException e) {
+                if (e.getStatusCode() != StatusCode.NOT_FOUND) {
+                    throw e;
+                }
+                // None of the Users was found
+                continue;
+            }
+            try {
+                for (int index = 0; jArr != null && index < jArr.length(); index++) {
+                    users.add(userFromJson(jArr.getJSONObject(index)));
+                }
+            } catch (JSONException e) {
+                throw ConnectionException.loggedJsonException(this, e, jArr, method);
+            }
+        }
+        MyLog.d(this, method + " " + users.size() + " of " + userIds.size() + " users");
+        return users;
+    }
     
     @Override
     public MbMessage postDirectMessage(String message, String userId) throws ConnectionException {
@@ -426,7 +604,8 @@ public abstract class ConnectionTwitter extends Connection {
     
     @Override
     public MbMessage postReblog(String rebloggedId) throws ConnectionException {
-        JSONObject jso = http.postRequest(getApiPath(ApiRoutineEnum.POST_REBLOG) + rebloggedId + EXTENSION);
+        JSONObject jso = http.postRequest(ApiRoutineEnum.POST_REBLOG,
+                getApiPath(ApiRoutineEnum.POST_REBLOG) + rebloggedId + EXTENSION);
         return messageFromJson(jso);
     }
 
@@ -447,7 +626,8 @@ public abstract class ConnectionTwitter extends Connection {
      */
     @Override
     public MbRateLimitStatus rateLimitStatus() throws ConnectionException {
-        JSONObject result = http.getRequest(getApiPath(ApiRoutineEnum.ACCOUNT_RATE_LIMIT_STATUS));
+        JSONObject result = http.getRequest(ApiRoutineEnum.ACCOUNT_RATE_LIMIT_STATUS,
+                getApiPath(ApiRoutineEnum.ACCOUNT_RATE_LIMIT_STATUS));
         MbRateLimitStatus status = new MbRateLimitStatus();
         if (result != null) {
             switch (data.getOriginType().getApi()) {
@@ -495,12 +675,13 @@ public abstract class ConnectionTwitter extends Connection {
      */
     @Override
     public MbUser verifyCredentials() throws ConnectionException {
-        JSONObject user = http.getRequest(getApiPath(ApiRoutineEnum.ACCOUNT_VERIFY_CREDENTIALS));
+        JSONObject user = http.getRequest(ApiRoutineEnum.ACCOUNT_VERIFY_CREDENTIALS,
+                getApiPath(ApiRoutineEnum.ACCOUNT_VERIFY_CREDENTIALS));
         return userFromJson(user);
     }
 
     protected final JSONObject postRequest(ApiRoutineEnum apiRoutine, JSONObject formParams) throws ConnectionException {
-        return http.postRequest(getApiPath(apiRoutine), formParams);
+        return http.postRequest(apiRoutine, getApiPath(apiRoutine), formParams);
     }
     
     @Override
@@ -31,6 +31,8 @@ import java.util.List;
  *
  */
 public class ConnectionTwitter1p1 extends ConnectionTwitter {
+    /** @see <a href="https://dev.twitter.com/docs/api/1.1/get/user">GET user</a> */
+    static final String USER_STREAM_URL = "https://userstream.twitter.com/1.1/user.json";
 
     @Override
     protected String getApiPath1(ApiRoutineEnum routine) {
@@ -58,6 +60,9 @@ public class ConnectionTwitter1p1 extends ConnectionTwitter {
                 // https://dev.twitter.com/docs/api/1.1/get/statuses/mentions_timeline
                 url = "statuses/mentions_timeline" + EXTENSION;
                 break;
+            case USER_STREAM:
+                // The streams have their own host
+                return USER_STREAM_URL;
             default:
                 url = "";
                 break;
@@ -107,7 +112,7 @@ public class ConnectionTwitter1p1 extends ConnectionTwitter {
         if (!TextUtils.isEmpty(searchQuery)) {
             builder.appendQueryParameter("q", searchQuery);
         }
-        JSONArray jArr = getRequestArrayInObject(builder.build().toString(), "statuses");
+        JSONArray jArr = getRequestArrayInObject(apiRoutine, builder.build().toString(), "statuses");
         return jArrToTimeline(jArr, apiRoutine, url);
     }
 }
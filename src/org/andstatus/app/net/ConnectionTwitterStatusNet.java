@@ -47,6 +47,9 @@ public class ConnectionTwitterStatusNet extends ConnectionTwitter1p0 {
             case SEARCH_MESSAGES:
                 url = "search" + EXTENSION;
                 break;
+            case GET_USERS:
+                // There is no bulk lookup in the StatusNet's Twitter API, see {@link Connection#getUsers(List)}
+                return "";
             default:
                 url = "";
                 break;
@@ -59,21 +62,28 @@ public class ConnectionTwitterStatusNet extends ConnectionTwitter1p0 {
         return url;
     }
     
+    /**
+     * StatusNet returns all IDs at once, as a plain array, so there is one page only
+     */
     @Override
-    public List<String> getIdsOfUsersFollowedBy(String userId) throws ConnectionException {
+    public int getIdsOfUsersFollowedBy(String userId, UsersPageConsumer consumer) throws ConnectionException {
         Uri sUri = Uri.parse(getApiPath(ApiRoutineEnum.GET_FRIENDS_IDS));
         Uri.Builder builder = sUri.buildUpon();
         builder.appendQueryParameter("user_id", userId);
-        List<String> list = new ArrayList<String>();
-        JSONArray jArr = http.getRequestAsArray(builder.build().toString());
+        List<MbUser> users = new ArrayList<MbUser>();
+        JSONArray jArr = http.getRequestAsArray(ApiRoutineEnum.GET_FRIENDS_IDS, builder.build().toString());
+        if (jArr == null) {
+            throw new ConnectionException("getIdsOfUsersFollowedBy no response for userId=" + userId);
+        }
         try {
             for (int index = 0; index < jArr.length(); index++) {
-                list.add(jArr.getString(index));
+                users.add(MbUser.fromOriginAndUserOid(data.getOriginId(), jArr.getString(index)));
             }
         } catch (JSONException e) {
             throw ConnectionException.loggedJsonException(this, e, null, "Parsing friendsIds");
         }
-        return list;
+        consumer.onUsersPage(users);
+        return users.size();
     }
 
     @Override
@@ -97,7 +107,7 @@ public class ConnectionTwitterStatusNet extends ConnectionTwitter1p0 {
     
     @Override
     public MbConfig getConfig() throws ConnectionException {
-        JSONObject result = http.getRequest(getApiPath(ApiRoutineEnum.GET_CONFIG));
+        JSONObject result = http.getRequest(ApiRoutineEnum.GET_CONFIG, getApiPath(ApiRoutineEnum.GET_CONFIG));
         MbConfig config = MbConfig.getEmpty();
         if (result != null) {
             JSONObject site = result.optJSONObject("site");
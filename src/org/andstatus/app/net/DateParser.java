@@ -0,0 +1,261 @@
+/*
+ * Copyright (c) 2014 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.andstatus.app.net;
+
+import org.andstatus.app.util.MyLog;
+
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Parses dates of the Microblogging systems. Dates are parsed for every message and user,
+ * so the formats, which are actually sent by the systems, are parsed "by hand",
+ * without creating objects and without shared state, hence the parser may be used by several threads at once.
+ * Other formats are passed to the general (slower) parsers.
+ * @author yvolk@yurivolkov.com
+ */
+public final class DateParser {
+    private static final String TAG = DateParser.class.getSimpleName();
+    static final long NOT_PARSED = Long.MIN_VALUE;
+
+    private static final long MILLIS_IN_SECOND = 1000L;
+    private static final long MILLIS_IN_MINUTE = 60 * MILLIS_IN_SECOND;
+    private static final long MILLIS_IN_HOUR = 60 * MILLIS_IN_MINUTE;
+    private static final long MILLIS_IN_DAY = 24 * MILLIS_IN_HOUR;
+
+    /** {@link SimpleDateFormat} is not thread safe */
+    private static final ThreadLocal<DateFormat> ISO_8601_FORMAT = new ThreadLocal<DateFormat>() {
+        @Override
+        protected DateFormat initialValue() {
+            return new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ", Locale.GERMANY);
+        }
+    };
+
+    private DateParser() {
+    }
+
+    /**
+     * Date of Twitter and StatusNet, e.g. "Fri Mar 14 11:04:18 +0100 2014"
+     * @return Unix time. Returns 0 in a case of an error
+     */
+    public static long parseRfc822(String stringDate) {
+        if (stringDate == null) {
+            return 0;
+        }
+        long unixDate = fastRfc822(stringDate);
+        if (unixDate == NOT_PARSED) {
+            try {
+                unixDate = Date.parse(stringDate);
+            } catch (IllegalArgumentException e) {
+                MyLog.e(TAG, "Failed to parse the date: '" + stringDate +"'", e);
+                unixDate = 0;
+            }
+        }
+        return unixDate;
+    }
+
+    /**
+     * Date of pump.io, e.g. "2013-10-29T01:18:45Z"
+     * @return Unix time. Returns 0 in a case of an error
+     */
+    public static long parseIso8601(String stringDate) {
+        if (stringDate == null) {
+            return 0;
+        }
+        long unixDate = fastIso8601(stringDate);
+        if (unixDate == NOT_PARSED) {
+            try {
+                unixDate = ISO_8601_FORMAT.get().parse(prepareIso8601(stringDate)).getTime();
+            } catch (ParseException e) {
+                MyLog.e(TAG, "Failed to parse the date: '" + stringDate +"'", e);
+                unixDate = 0;
+            }
+        }
+        return unixDate;
+    }
+
+    /**
+     * "Z" and "+hh:mm" time zones are not understood by {@link SimpleDateFormat} of old Java versions
+     */
+    private static String prepareIso8601(String stringDate) {
+        int length = stringDate.length();
+        if (length > 0 && stringDate.charAt(length - 1) == 'Z') {
+            return stringDate.substring(0, length - 1) + "+0000";
+        }
+        if (length > 6 && stringDate.charAt(length - 3) == ':') {
+            char sign = stringDate.charAt(length - 6);
+            if (sign == '+' || sign == '-') {
+                return stringDate.substring(0, length - 3) + stringDate.substring(length - 2);
+            }
+        }
+        return stringDate;
+    }
+
+    /**
+     * "EEE MMM dd HH:mm:ss Z yyyy"
+     * @return {@link #NOT_PARSED} if the string is not in this format
+     */
+    static long fastRfc822(String s) {
+        if (s.length() != 30 || s.charAt(3) != ' ' || s.charAt(7) != ' ' || s.charAt(10) != ' '
+                || s.charAt(13) != ':' || s.charAt(16) != ':' || s.charAt(19) != ' ' || s.charAt(25) != ' ') {
+            return NOT_PARSED;
+        }
+        int month = month(s.charAt(4), s.charAt(5), s.charAt(6));
+        int day = digits(s, 8, 2);
+        int hour = digits(s, 11, 2);
+        int minute = digits(s, 14, 2);
+        int second = digits(s, 17, 2);
+        long offset = offsetMillis(s, 20, false);
+        int year = digits(s, 26, 4);
+        return toUnixTime(year, month, day, hour, minute, second, 0, offset);
+    }
+
+    /**
+     * "yyyy-MM-ddTHH:mm:ss[.SSS]" followed by "Z", "+hh:mm" or "+hhmm"
+     * @return {@link #NOT_PARSED} if the string is not in this format
+     */
+    static long fastIso8601(String s) {
+        int length = s.length();
+        if (length < 20 || s.charAt(4) != '-' || s.charAt(7) != '-' || s.charAt(10) != 'T'
+                || s.charAt(13) != ':' || s.charAt(16) != ':') {
+            return NOT_PARSED;
+        }
+        int year = digits(s, 0, 4);
+        int month = digits(s, 5, 2);
+        int day = digits(s, 8, 2);
+        int hour = digits(s, 11, 2);
+        int minute = digits(s, 14, 2);
+        int second = digits(s, 17, 2);
+        int pos = 19;
+        int millis = 0;
+        if (s.charAt(pos) == '.') {
+            int scale = 100;
+            for (pos++; pos < length && Character.isDigit(s.charAt(pos)); pos++) {
+                millis += (s.charAt(pos) - '0') * scale;
+                scale /= 10;
+            }
+        }
+        long offset;
+        if (pos == length - 1 && s.charAt(pos) == 'Z') {
+            offset = 0;
+        } else if (pos == length - 6 && s.charAt(pos + 3) == ':') {
+            offset = offsetMillis(s, pos, true);
+        } else if (pos == length - 5) {
+            offset = offsetMillis(s, pos, false);
+        } else {
+            return NOT_PARSED;
+        }
+        return toUnixTime(year, month, day, hour, minute, second, millis, offset);
+    }
+
+    /**
+     * @return -1 if not all the characters are digits
+     */
+    private static int digits(String s, int start, int count) {
+        int value = 0;
+        for (int pos = start; pos < start + count; pos++) {
+            char c = s.charAt(pos);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * "+hhmm" or, with the colon, "+hh:mm"
+     * @return {@link #NOT_PARSED} if the string is not in this format
+     */
+    private static long offsetMillis(String s, int start, boolean withColon) {
+        char sign = s.charAt(start);
+        int hours = digits(s, start + 1, 2);
+        int minutes = digits(s, start + (withColon ? 4 : 3), 2);
+        if ((sign != '+' && sign != '-') || hours < 0 || hours > 23 || minutes < 0 || minutes > 59) {
+            return NOT_PARSED;
+        }
+        long millis = hours * MILLIS_IN_HOUR + minutes * MILLIS_IN_MINUTE;
+        return sign == '-' ? -millis : millis;
+    }
+
+    /**
+     * @return 1..12 or -1 for unknown English abbreviation of a month
+     */
+    private static int month(char c1, char c2, char c3) {
+        switch (c1) {
+            case 'J':
+                if (c2 == 'a' && c3 == 'n') {
+                    return 1;
+                } else if (c2 == 'u' && c3 == 'n') {
+                    return 6;
+                } else if (c2 == 'u' && c3 == 'l') {
+                    return 7;
+                }
+                break;
+            case 'F':
+                return c2 == 'e' && c3 == 'b' ? 2 : -1;
+            case 'M':
+                if (c2 == 'a' && c3 == 'r') {
+                    return 3;
+                } else if (c2 == 'a' && c3 == 'y') {
+                    return 5;
+                }
+                break;
+            case 'A':
+                if (c2 == 'p' && c3 == 'r') {
+                    return 4;
+                } else if (c2 == 'u' && c3 == 'g') {
+                    return 8;
+                }
+                break;
+            case 'S':
+                return c2 == 'e' && c3 == 'p' ? 9 : -1;
+            case 'O':
+                return c2 == 'c' && c3 == 't' ? 10 : -1;
+            case 'N':
+                return c2 == 'o' && c3 == 'v' ? 11 : -1;
+            case 'D':
+                return c2 == 'e' && c3 == 'c' ? 12 : -1;
+            default:
+                break;
+        }
+        return -1;
+    }
+
+    /**
+     * Days are counted without {@link java.util.Calendar}, see
+     * http://howardhinnant.github.io/date_algorithms.html#days_from_civil
+     * @return {@link #NOT_PARSED} if any field is out of its range
+     */
+    private static long toUnixTime(int year, int month, int day, int hour, int minute, int second,
+            int millis, long offset) {
+        if (year < 1 || month < 1 || month > 12 || day < 1 || day > 31 || hour < 0 || hour > 23
+                || minute < 0 || minute > 59 || second < 0 || second > 59 || offset == NOT_PARSED) {
+            return NOT_PARSED;
+        }
+        int y = month <= 2 ? year - 1 : year;
+        int era = y / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        long days = era * 146097L + dayOfEra - 719468;
+        return days * MILLIS_IN_DAY + hour * MILLIS_IN_HOUR + minute * MILLIS_IN_MINUTE
+                + second * MILLIS_IN_SECOND + millis - offset;
+    }
+}
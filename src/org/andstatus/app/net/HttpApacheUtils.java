@@ -18,26 +18,17 @@ package org.andstatus.app.net;
 
 import android.text.TextUtils;
 
+import org.andstatus.app.net.Connection.ApiRoutineEnum;
 import org.andstatus.app.util.MyLog;
-import org.apache.http.HttpVersion;
 import org.apache.http.NameValuePair;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.conn.ClientConnectionManager;
-import org.apache.http.conn.scheme.PlainSocketFactory;
-import org.apache.http.conn.scheme.Scheme;
-import org.apache.http.conn.scheme.SchemeRegistry;
-import org.apache.http.conn.ssl.SSLSocketFactory;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
 import org.apache.http.message.BasicNameValuePair;
-import org.apache.http.params.BasicHttpParams;
-import org.apache.http.params.HttpConnectionParams;
-import org.apache.http.params.HttpParams;
-import org.apache.http.params.HttpProtocolParams;
+import org.apache.http.protocol.BasicHttpContext;
 import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -49,14 +40,17 @@ import java.util.Iterator;
 import java.util.List;
 
 class HttpApacheUtils {
+    static final String CONTEXT_API_ROUTINE = "andstatus.api_routine";
+    static final String CONTEXT_ACCOUNT_KEY = "andstatus.account_key";
+
     private HttpApacheRequest request;
     
     HttpApacheUtils(HttpApacheRequest request) {
         this.request = request;
     }
 
-    final JSONArray getRequestAsArray(HttpGet get) throws ConnectionException {
-        return jsonTokenerToArray(request.getRequest(get));
+    final JSONArray getRequestAsArray(ApiRoutineEnum routine, HttpGet get) throws ConnectionException {
+        return jsonTokenerToArray(request.getRequest(routine, get));
     }
 
     final JSONArray jsonTokenerToArray(JSONTokener jst) throws ConnectionException {
@@ -89,10 +83,10 @@ class HttpApacheUtils {
         return jsa;
     }
     
-    final JSONObject getRequestAsObject(HttpGet get) throws ConnectionException {
+    final JSONObject getRequestAsObject(ApiRoutineEnum routine, HttpGet get) throws ConnectionException {
         String method = "getRequestAsObject";
         JSONObject jso = null;
-        JSONTokener jst = request.getRequest(get);
+        JSONTokener jst = request.getRequest(routine, get);
         try {
             jso = (JSONObject) jst.nextValue();
         } catch (JSONException e) {
@@ -105,12 +99,12 @@ class HttpApacheUtils {
         return jso;
     }
 
-    protected JSONObject postRequest(String path) throws ConnectionException {
+    protected JSONObject postRequest(ApiRoutineEnum routine, String path) throws ConnectionException {
         HttpPost post = new HttpPost(request.pathToUrl(path));
-        return request.postRequest(post);
+        return request.postRequest(routine, post);
     }
     
-    protected JSONObject postRequest(String path, JSONObject jso) throws ConnectionException {
+    protected JSONObject postRequest(ApiRoutineEnum routine, String path, JSONObject jso) throws ConnectionException {
         List<NameValuePair> formParams = HttpApacheUtils.jsonToNameValuePair(jso);
         HttpPost postMethod = new HttpPost(request.pathToUrl(path));
         try {
@@ -118,7 +112,7 @@ class HttpApacheUtils {
                 UrlEncodedFormEntity formEntity = new UrlEncodedFormEntity(formParams, HTTP.UTF_8);
                 postMethod.setEntity(formEntity);
             }
-            jso = request.postRequest(postMethod);
+            jso = request.postRequest(routine, postMethod);
         } catch (UnsupportedEncodingException e) {
             MyLog.e(this, e);
         }
@@ -142,31 +136,37 @@ class HttpApacheUtils {
         return formParams;
     }
     
+    /**
+     * @return The client, shared by all connections, see {@link HttpConnectionPool}
+     */
     static HttpClient getHttpClient() {
-        SchemeRegistry schemeRegistry = new SchemeRegistry();
-        schemeRegistry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
-        
-        SSLSocketFactory socketFactory = SSLSocketFactory.getSocketFactory();
-        // This is done to get rid of the "javax.net.ssl.SSLException: hostname in certificate didn't match" error
-        // See e.g. http://stackoverflow.com/questions/8839541/hostname-in-certificate-didnt-match
-        socketFactory.setHostnameVerifier(SSLSocketFactory.ALLOW_ALL_HOSTNAME_VERIFIER);        
-        schemeRegistry.register(new Scheme("https", socketFactory, 443));
+        return HttpConnectionPool.getHttpClient();
+    }
 
-        HttpParams params = getHttpParams();        
-        ClientConnectionManager clientConnectionManager = new ThreadSafeClientConnManager(params, schemeRegistry);
-        return new DefaultHttpClient(clientConnectionManager, params);
+    /**
+     * The client is shared, so its interceptors learn from the context of each request,
+     * which routine of which account the response belongs to
+     */
+    static HttpContext newContext(HttpConnectionData data, ApiRoutineEnum routine) {
+        HttpContext context = new BasicHttpContext();
+        context.setAttribute(CONTEXT_API_ROUTINE, routine);
+        context.setAttribute(CONTEXT_ACCOUNT_KEY, RateLimiter.accountKey(data));
+        return context;
     }
 
-    private static HttpParams getHttpParams() {
-        HttpParams params = new BasicHttpParams();
-        HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
-        HttpProtocolParams.setContentCharset(params, HTTP.UTF_8);
-        HttpConnectionParams.setStaleCheckingEnabled(params, true);
+    /**
+     * @return {@link ApiRoutineEnum#DUMMY} if the request was sent without the context
+     */
+    static ApiRoutineEnum getApiRoutine(HttpContext context) {
+        Object routine = context == null ? null : context.getAttribute(CONTEXT_API_ROUTINE);
+        return routine instanceof ApiRoutineEnum ? (ApiRoutineEnum) routine : ApiRoutineEnum.DUMMY;
+    }
 
-        HttpProtocolParams.setUseExpectContinue(params, false);
-        HttpConnectionParams.setSoTimeout(params, 30000);
-        HttpConnectionParams.setSocketBufferSize(params, 2*8192);
-        return params;
+    /**
+     * @return empty string if the request was sent without the context
+     */
+    static String getAccountKey(HttpContext context) {
+        Object accountKey = context == null ? null : context.getAttribute(CONTEXT_ACCOUNT_KEY);
+        return accountKey instanceof String ? (String) accountKey : "";
     }
-    
 }
@@ -0,0 +1,256 @@
+/*
+ * Copyright (c) 2014 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app.net;
+
+import org.andstatus.app.net.Connection.ApiRoutineEnum;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.net.HttpURLConnection;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Negotiates "gzip" and "deflate" content encodings of responses and decompresses them while they are read,
+ * counting bytes in {@link HttpTraffic}.
+ * Used by both the Apache HttpClient and the java.net families of {@link HttpConnection}s
+ * @author yvolk@yurivolkov.com
+ */
+final class HttpCompression {
+    static final String ACCEPT_ENCODING = "Accept-Encoding";
+    static final String ENCODINGS_ACCEPTED = "gzip, deflate";
+
+    private HttpCompression() {
+    }
+
+    /**
+     * Added to the shared client, see {@link HttpConnectionPool}
+     */
+    static final HttpRequestInterceptor REQUEST_INTERCEPTOR = new HttpRequestInterceptor() {
+        @Override
+        public void process(HttpRequest request, HttpContext context) throws HttpException, IOException {
+            if (!request.containsHeader(ACCEPT_ENCODING)) {
+                request.addHeader(ACCEPT_ENCODING, ENCODINGS_ACCEPTED);
+            }
+        }
+    };
+
+    static final HttpResponseInterceptor RESPONSE_INTERCEPTOR = new HttpResponseInterceptor() {
+        @Override
+        public void process(HttpResponse response, HttpContext context) throws HttpException, IOException {
+            HttpEntity entity = response.getEntity();
+            if (entity != null) {
+                Header header = entity.getContentEncoding();
+                response.setEntity(new DecodingEntity(entity, header == null ? "" : header.getValue(),
+                        HttpApacheUtils.getApiRoutine(context)));
+            }
+        }
+    };
+
+    /**
+     * Should be called before the connection is connected
+     */
+    static void acceptCompressed(HttpURLConnection conn) {
+        // Setting the header explicitly turns off the transparent gzip of Gingerbread+,
+        // which is not available in Froyo and which hides the number of bytes received
+        conn.setRequestProperty(ACCEPT_ENCODING, ENCODINGS_ACCEPTED);
+    }
+
+    static InputStream getInputStream(HttpURLConnection conn, ApiRoutineEnum routine) throws IOException {
+        return decodingStream(conn.getInputStream(), conn.getContentEncoding(), routine);
+    }
+
+    static InputStream getErrorStream(HttpURLConnection conn, ApiRoutineEnum routine) throws IOException {
+        InputStream in = conn.getErrorStream();
+        if (in == null) {
+            return null;
+        }
+        return decodingStream(in, conn.getContentEncoding(), routine);
+    }
+
+    /**
+     * @param contentEncoding The "Content-Encoding" header value, may be null
+     */
+    static InputStream decodingStream(InputStream wire, String contentEncoding, ApiRoutineEnum routine)
+            throws IOException {
+        CountingInputStream wireCounter = new CountingInputStream(wire);
+        boolean compressed = isCompressed(contentEncoding);
+        InputStream decoded = wireCounter;
+        if (compressed) {
+            PushbackInputStream pushback = new PushbackInputStream(wireCounter, 2);
+            byte[] header = new byte[2];
+            int read = 0;
+            int count;
+            while (read < header.length && (count = pushback.read(header, read, header.length - read)) >= 0) {
+                read += count;
+            }
+            if (read == 0) {
+                // Empty body, e.g. of an error response
+                decoded = pushback;
+            } else {
+                pushback.unread(header, 0, read);
+                if (isGzip(contentEncoding)) {
+                    decoded = new GZIPInputStream(pushback);
+                } else {
+                    // Some servers send raw "deflate" data instead of the zlib format, required by RFC 2616
+                    boolean zlib = read == 2 && (header[0] & 0x0F) == 8
+                            && (((header[0] & 0xFF) << 8) | (header[1] & 0xFF)) % 31 == 0;
+                    decoded = new InflaterInputStream(pushback, new Inflater(!zlib));
+                }
+            }
+        }
+        return new ContentInputStream(decoded, wireCounter, compressed, routine);
+    }
+
+    private static boolean isGzip(String contentEncoding) {
+        String encoding = contentEncoding == null ? "" : contentEncoding.trim().toLowerCase(Locale.US);
+        return "gzip".equals(encoding) || "x-gzip".equals(encoding);
+    }
+
+    static boolean isCompressed(String contentEncoding) {
+        return isGzip(contentEncoding)
+                || (contentEncoding != null && "deflate".equals(contentEncoding.trim().toLowerCase(Locale.US)));
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        private long count = 0;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int result = super.read();
+            if (result >= 0) {
+                count++;
+            }
+            return result;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int result = super.read(buffer, offset, length);
+            if (result > 0) {
+                count += result;
+            }
+            return result;
+        }
+
+        @Override
+        public long skip(long byteCount) throws IOException {
+            long result = super.skip(byteCount);
+            count += result;
+            return result;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        long getCount() {
+            return count;
+        }
+    }
+
+    /**
+     * Reports the traffic, when closed
+     */
+    private static class ContentInputStream extends CountingInputStream {
+        private final CountingInputStream wireCounter;
+        private final boolean compressed;
+        private final ApiRoutineEnum routine;
+        private final long startedAt = System.currentTimeMillis();
+        private boolean closed = false;
+
+        ContentInputStream(InputStream decoded, CountingInputStream wireCounter, boolean compressed,
+                ApiRoutineEnum routine) {
+            super(decoded);
+            this.wireCounter = wireCounter;
+            this.compressed = compressed;
+            this.routine = routine;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                HttpTraffic.onResponseRead(routine, compressed, wireCounter.getCount(), getCount(),
+                        System.currentTimeMillis() - startedAt);
+            }
+            super.close();
+        }
+    }
+
+    private static class DecodingEntity extends HttpEntityWrapper {
+        private final String contentEncoding;
+        private final ApiRoutineEnum routine;
+
+        DecodingEntity(HttpEntity wrapped, String contentEncoding, ApiRoutineEnum routine) {
+            super(wrapped);
+            this.contentEncoding = contentEncoding;
+            this.routine = routine;
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            return decodingStream(wrappedEntity.getContent(), contentEncoding, routine);
+        }
+
+        @Override
+        public void writeTo(OutputStream outstream) throws IOException {
+            InputStream in = getContent();
+            try {
+                byte[] buffer = new byte[4096];
+                int count;
+                while ((count = in.read(buffer)) != -1) {
+                    outstream.write(buffer, 0, count);
+                }
+            } finally {
+                in.close();
+            }
+        }
+
+        /**
+         * Decoded length is not known in advance
+         */
+        @Override
+        public long getContentLength() {
+            return isCompressed(contentEncoding) ? -1 : wrappedEntity.getContentLength();
+        }
+
+        @Override
+        public Header getContentEncoding() {
+            return isCompressed(contentEncoding) ? null : wrappedEntity.getContentEncoding();
+        }
+    }
+}
@@ -19,12 +19,19 @@ package org.andstatus.app.net;
 import android.net.Uri;
 
 import org.andstatus.app.account.AccountDataWriter;
+import org.andstatus.app.net.Connection.ApiRoutineEnum;
 import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 
 public abstract class HttpConnection {
     protected static final Integer DEFAULT_GET_REQUEST_TIMEOUT = 15000;
     protected static final Integer DEFAULT_POST_REQUEST_TIMEOUT = 20000;
+    /**
+     * Servers send "keep-alive" new lines into streams every 30 seconds,
+     * so a stream without any data for longer than this is stalled
+     */
+    protected static final Integer STREAM_STALL_TIMEOUT = 90000;
     
     protected HttpConnectionData data;
 
@@ -37,7 +44,8 @@ public abstract class HttpConnection {
  
     public void registerClient(String path) throws ConnectionException {}
     
-    protected abstract JSONObject postRequest(String path, JSONObject jso) throws ConnectionException;
+    protected abstract JSONObject postRequest(ApiRoutineEnum routine, String path, JSONObject jso)
+            throws ConnectionException;
 
     protected void setConnectionData(HttpConnectionData data) {
         this.data = data;
@@ -53,11 +61,49 @@ public abstract class HttpConnection {
         }
     }
     
-    protected abstract JSONObject postRequest(String path) throws ConnectionException;
+    /**
+     * Waits for the rate limit of the account's endpoint, see {@link RateLimiter}.
+     * Each request is sent with its {@link ApiRoutineEnum}, which is also used for the traffic counters
+     * and the validators cache, including requests of the following pages of a collection
+     */
+    protected void beforeRequest(ApiRoutineEnum routine) throws ConnectionException {
+        RateLimiter.getInstance().acquire(RateLimiter.accountKey(data), routine);
+    }
+
+    protected abstract JSONObject postRequest(ApiRoutineEnum routine, String path) throws ConnectionException;
 
-    protected abstract JSONObject getRequest(String path) throws ConnectionException;
+    protected abstract JSONObject getRequest(ApiRoutineEnum routine, String path) throws ConnectionException;
     
-    protected abstract JSONArray getRequestAsArray(String path) throws ConnectionException;
+    protected abstract JSONArray getRequestAsArray(ApiRoutineEnum routine, String path) throws ConnectionException;
+
+    /**
+     * Passes objects of the array, returned by the request, to the consumer one by one.
+     * This implementation builds the whole array first,
+     * streaming implementations parse the response while it is being received
+     * @param arrayName Name of the array inside the response object. If empty, the first array found is used
+     */
+    protected void getRequestArrayItems(ApiRoutineEnum routine, String path, String arrayName,
+            JsonObjectConsumer consumer) throws ConnectionException {
+        JSONArray jArr = getRequestAsArray(routine, path);
+        for (int index = 0; jArr != null && index < jArr.length(); index++) {
+            try {
+                consumer.onJsonObject(jArr.getJSONObject(index));
+            } catch (JSONException e) {
+                throw ConnectionException.loggedJsonException(this, e, null, "Parsing array item " + index);
+            }
+        }
+    }
+
+    /**
+     * Reads a long-lived response, which is a stream of JSON objects, delimited by new lines,
+     * see {@link JsonStreamReader}. Returns when the server closes the stream or the consumer stops it.
+     * This implementation doesn't support streams
+     */
+    protected void getRequestStream(ApiRoutineEnum routine, String path, JsonStreamConsumer consumer)
+            throws ConnectionException {
+        throw new ConnectionException(ConnectionException.StatusCode.UNSUPPORTED_API,
+                "Streams are not supported by " + this.getClass().getSimpleName());
+    }
 
     public abstract void clearAuthInformation();
 
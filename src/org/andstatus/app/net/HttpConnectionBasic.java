@@ -21,7 +21,8 @@ import android.text.TextUtils;
 import android.util.Base64;
 
 import org.andstatus.app.account.AccountDataWriter;
-import org.andstatus.app.data.DbUtils;
+import org.andstatus.app.net.Connection.ApiRoutineEnum;
+import org.andstatus.app.util.IoUtils;
 import org.andstatus.app.util.MyLog;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
@@ -49,32 +50,36 @@ public class HttpConnectionBasic extends HttpConnection implements HttpApacheReq
     }  
     
     @Override
-    protected JSONObject postRequest(String path) throws ConnectionException {
-        return new HttpApacheUtils(this).postRequest(path);
+    protected JSONObject postRequest(ApiRoutineEnum routine, String path) throws ConnectionException {
+        return new HttpApacheUtils(this).postRequest(routine, path);
     }
     
     @Override
-    protected JSONObject postRequest(String path, JSONObject jso) throws ConnectionException {
-        return new HttpApacheUtils(this).postRequest(path, jso);
+    protected JSONObject postRequest(ApiRoutineEnum routine, String path, JSONObject jso) throws ConnectionException {
+        return new HttpApacheUtils(this).postRequest(routine, path, jso);
     }
 
     @Override
-    public JSONObject postRequest(HttpPost postMethod) throws ConnectionException {
+    public JSONObject postRequest(ApiRoutineEnum routine, HttpPost postMethod) throws ConnectionException {
         String method = "postRequest";
         String result = "?";
         JSONObject jObj = null;
         int statusCode = 0;
+        boolean responseRead = false;
+        beforeRequest(routine);
         try {
             HttpClient client = HttpApacheUtils.getHttpClient();
             postMethod.setHeader("User-Agent", HttpConnection.USER_AGENT);
             if (getCredentialsPresent()) {
                 postMethod.addHeader("Authorization", "Basic " + getCredentials());
             }
-            client.getParams().setIntParameter(CoreConnectionPNames.CONNECTION_TIMEOUT, DEFAULT_POST_REQUEST_TIMEOUT);
-            client.getParams().setIntParameter(CoreConnectionPNames.SO_TIMEOUT, DEFAULT_POST_REQUEST_TIMEOUT);
-            HttpResponse httpResponse = client.execute(postMethod);
+            // The client is shared, so the timeouts are set for this request only
+            postMethod.getParams().setIntParameter(CoreConnectionPNames.CONNECTION_TIMEOUT, DEFAULT_POST_REQUEST_TIMEOUT);
+            postMethod.getParams().setIntParameter(CoreConnectionPNames.SO_TIMEOUT, DEFAULT_POST_REQUEST_TIMEOUT);
+            HttpResponse httpResponse = client.execute(postMethod, HttpApacheUtils.newContext(data, routine));
             statusCode = httpResponse.getStatusLine().getStatusCode();
             result = retrieveInputStream(httpResponse.getEntity());
+            responseRead = true;
             jObj = new JSONObject(result);
             if (jObj != null) {
                 String error = jObj.optString("error");
@@ -90,24 +95,101 @@ public class HttpConnectionBasic extends HttpConnection implements HttpApacheReq
             MyLog.e(this, method, e);
             throw new ConnectionException(e);
         } finally {
-            postMethod.abort();
+            if (!responseRead) {
+                // Otherwise the connection was returned to the pool for reuse
+                postMethod.abort();
+            }
         }
         parseStatusCode(statusCode);
         return jObj;
     }
 
     @Override
-    protected final JSONObject getRequest(String path) throws ConnectionException {
+    protected final JSONObject getRequest(ApiRoutineEnum routine, String path) throws ConnectionException {
         HttpGet get = new HttpGet(pathToUrl(path));
-        return new HttpApacheUtils(this).getRequestAsObject(get);
+        return new HttpApacheUtils(this).getRequestAsObject(routine, get);
     }
 
     @Override
-    protected final JSONArray getRequestAsArray(String path) throws ConnectionException {
+    protected final JSONArray getRequestAsArray(ApiRoutineEnum routine, String path) throws ConnectionException {
         HttpGet get = new HttpGet(pathToUrl(path));
-        return new HttpApacheUtils(this).getRequestAsArray(get);
+        return new HttpApacheUtils(this).getRequestAsArray(routine, get);
     }
     
+    @Override
+    protected void getRequestArrayItems(ApiRoutineEnum routine, String path, String arrayName,
+            JsonObjectConsumer consumer) throws ConnectionException {
+        final String method = "getRequestArrayItems";
+        HttpGet getMethod = new HttpGet(pathToUrl(path));
+        boolean ok = false;
+        int statusCode = 0;
+        HttpClient client = HttpApacheUtils.getHttpClient();
+        beforeRequest(routine);
+        try {
+            prepareGet(getMethod);
+            HttpResponse httpResponse = client.execute(getMethod, HttpApacheUtils.newContext(data, routine));
+            statusCode = httpResponse.getStatusLine().getStatusCode();
+            if (statusCode == 200) {
+                JsonArrayItemReader.readAll(new InputStreamReader(httpResponse.getEntity().getContent(), HTTP.UTF_8),
+                        arrayName, consumer);
+            } else {
+                MyLog.v(this, method + "; status=" + statusCode + ", response: "
+                        + retrieveInputStream(httpResponse.getEntity()));
+            }
+            ok = true;
+        } catch (ConnectionException e) {
+            throw e;
+        } catch (JSONException e) {
+            throw ConnectionException.loggedJsonException(this, e, null, method + "; path=" + path);
+        } catch (Exception e) {
+            MyLog.e(this, method, e);
+            throw new ConnectionException(e);
+        } finally {
+            if (!ok) {
+                getMethod.abort();
+            }
+        }
+        parseStatusCode(statusCode);
+    }
+
+    @Override
+    protected void getRequestStream(ApiRoutineEnum routine, String path, JsonStreamConsumer consumer)
+            throws ConnectionException {
+        final String method = "getRequestStream";
+        HttpGet getMethod = new HttpGet(pathToUrl(path));
+        HttpClient client = HttpApacheUtils.getHttpClient();
+        beforeRequest(routine);
+        try {
+            prepareGet(getMethod);
+            getMethod.getParams().setIntParameter(CoreConnectionPNames.SO_TIMEOUT, STREAM_STALL_TIMEOUT);
+            HttpResponse httpResponse = client.execute(getMethod, HttpApacheUtils.newContext(data, routine));
+            int statusCode = httpResponse.getStatusLine().getStatusCode();
+            if (statusCode != 200) {
+                throw ConnectionException.fromStatusCodeHttp(statusCode, method + "; "
+                        + httpResponse.getStatusLine().getReasonPhrase());
+            }
+            int count = JsonStreamReader.readAll(new InputStreamReader(httpResponse.getEntity().getContent(),
+                    HTTP.UTF_8), consumer);
+            MyLog.v(this, method + "; " + count + " objects received");
+        } catch (ConnectionException e) {
+            throw e;
+        } catch (Exception e) {
+            MyLog.d(this, method + "; path=" + path, e);
+            throw new ConnectionException(e);
+        } finally {
+            // The stream doesn't end by itself, so its connection isn't reused
+            getMethod.abort();
+        }
+    }
+
+    private void prepareGet(HttpGet getMethod) {
+        getMethod.setHeader("User-Agent", HttpConnection.USER_AGENT);
+        getMethod.addHeader("Authorization", "Basic " + getCredentials());
+        // The client is shared, so the timeouts are set for this request only
+        getMethod.getParams().setIntParameter(CoreConnectionPNames.CONNECTION_TIMEOUT, DEFAULT_GET_REQUEST_TIMEOUT);
+        getMethod.getParams().setIntParameter(CoreConnectionPNames.SO_TIMEOUT, DEFAULT_GET_REQUEST_TIMEOUT);
+    }
+
     /**
      * Execute a GET request against the Twitter REST API.
      * 
@@ -116,27 +198,40 @@ public class HttpConnectionBasic extends HttpConnection implements HttpApacheReq
      * @throws ConnectionException
      */
     @Override
-    public JSONTokener getRequest(HttpGet getMethod) throws ConnectionException {
+    public JSONTokener getRequest(ApiRoutineEnum routine, HttpGet getMethod) throws ConnectionException {
         JSONTokener jso = null;
         String response = null;
         boolean ok = false;
         int statusCode = 0;
         HttpClient client = HttpApacheUtils.getHttpClient();
+        beforeRequest(routine);
         try {
-            getMethod.setHeader("User-Agent", HttpConnection.USER_AGENT);
-            getMethod.addHeader("Authorization", "Basic " + getCredentials());
-            client.getParams().setIntParameter(CoreConnectionPNames.CONNECTION_TIMEOUT, DEFAULT_GET_REQUEST_TIMEOUT);
-            client.getParams().setIntParameter(CoreConnectionPNames.SO_TIMEOUT, DEFAULT_GET_REQUEST_TIMEOUT);
-            HttpResponse httpResponse = client.execute(getMethod);
+            prepareGet(getMethod);
+            HttpValidatorCache.Request conditional = HttpValidatorCache.getInstance().newRequest(data, routine,
+                    getMethod.getURI().toString());
+            conditional.addValidators(getMethod);
+            HttpResponse httpResponse = client.execute(getMethod, HttpApacheUtils.newContext(data, routine));
             statusCode = httpResponse.getStatusLine().getStatusCode();
-            response = retrieveInputStream(httpResponse.getEntity());
+            if (conditional.isNotModified(statusCode)) {
+                if (httpResponse.getEntity() != null) {
+                    httpResponse.getEntity().consumeContent();
+                }
+                response = conditional.onNotModified();
+            } else {
+                response = retrieveInputStream(httpResponse.getEntity());
+                if (statusCode == 200) {
+                    conditional.onOk(httpResponse, response);
+                }
+            }
             jso = new JSONTokener(response);
             ok = true;
         } catch (Exception e) {
             MyLog.e(this, "getRequest", e);
             throw new ConnectionException(e);
         } finally {
-            getMethod.abort();
+            if (!ok) {
+                getMethod.abort();
+            }
         }
         parseStatusCode(statusCode);
         if (!ok) {
@@ -180,6 +275,7 @@ public class HttpConnectionBasic extends HttpConnection implements HttpApacheReq
     
     /**
      * Retrieve the input stream from the HTTP connection.
+     * The stream is read to the end and closed, so the connection may be reused
      * 
      * @param httpEntity
      * @return String
@@ -206,7 +302,7 @@ public class HttpConnectionBasic extends HttpConnection implements HttpApacheReq
         } catch (IOException e) {
             MyLog.e(this, e);
         } finally {
-            DbUtils.closeSilently(inputStreamReader);
+            IoUtils.closeSilently(inputStreamReader);
         }
         return stringBuffer.toString();
     }
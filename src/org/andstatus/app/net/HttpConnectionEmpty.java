@@ -16,31 +16,32 @@
 
 package org.andstatus.app.net;
 
+import org.andstatus.app.net.Connection.ApiRoutineEnum;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
 public class HttpConnectionEmpty extends HttpConnection {
 
     @Override
-    protected JSONObject postRequest(String path, JSONObject jso) throws ConnectionException {
+    protected JSONObject postRequest(ApiRoutineEnum routine, String path, JSONObject jso) throws ConnectionException {
         // TODO Auto-generated method stub
         return null;
     }
 
     @Override
-    protected JSONObject postRequest(String path) throws ConnectionException {
+    protected JSONObject postRequest(ApiRoutineEnum routine, String path) throws ConnectionException {
         // TODO Auto-generated method stub
         return null;
     }
 
     @Override
-    protected JSONObject getRequest(String path) throws ConnectionException {
+    protected JSONObject getRequest(ApiRoutineEnum routine, String path) throws ConnectionException {
         // TODO Auto-generated method stub
         return null;
     }
 
     @Override
-    protected JSONArray getRequestAsArray(String path) throws ConnectionException {
+    protected JSONArray getRequestAsArray(ApiRoutineEnum routine, String path) throws ConnectionException {
         // TODO Auto-generated method stub
         return null;
     }
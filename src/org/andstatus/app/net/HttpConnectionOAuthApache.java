@@ -23,60 +23,81 @@ import oauth.signpost.commonshttp.CommonsHttpOAuthProvider;
 
 import org.andstatus.app.net.Connection.ApiRoutineEnum;
 import org.andstatus.app.util.MyLog;
-import org.apache.http.client.HttpClient;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.StatusLine;
 import org.apache.http.client.HttpResponseException;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.impl.client.BasicResponseHandler;
+import org.apache.http.params.CoreConnectionPNames;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.util.EntityUtils;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONTokener;
 
+import java.io.InputStreamReader;
+
 public class HttpConnectionOAuthApache extends HttpConnectionOAuth implements HttpApacheRequest {
     private static final String NULL_JSON = "(null)";
     private static final String TAG = HttpConnectionOAuth.class.getSimpleName();
-    private HttpClient mClient;
-
-    @Override
-    protected void setConnectionData(HttpConnectionData connectionData) {
-        super.setConnectionData(connectionData);
-        mClient = HttpApacheUtils.getHttpClient();
-    }  
-
     @Override
     public OAuthProvider getProvider() {
         CommonsHttpOAuthProvider provider = null;
         provider = new CommonsHttpOAuthProvider(getApiUrl(ApiRoutineEnum.OAUTH_REQUEST_TOKEN),
                 getApiUrl(ApiRoutineEnum.OAUTH_ACCESS_TOKEN), getApiUrl(ApiRoutineEnum.OAUTH_AUTHORIZE));
 
-        provider.setHttpClient(mClient);
+        provider.setHttpClient(HttpApacheUtils.getHttpClient());
         provider.setOAuth10a(true);
         return provider;
     }
     
     @Override
-    protected final JSONObject getRequest(String path) throws ConnectionException {
+    protected final JSONObject getRequest(ApiRoutineEnum routine, String path) throws ConnectionException {
         HttpGet get = new HttpGet(pathToUrl(path));
-        return new HttpApacheUtils(this).getRequestAsObject(get);
+        return new HttpApacheUtils(this).getRequestAsObject(routine, get);
     }
 
     @Override
-    protected final JSONArray getRequestAsArray(String path) throws ConnectionException {
+    protected final JSONArray getRequestAsArray(ApiRoutineEnum routine, String path) throws ConnectionException {
         HttpGet get = new HttpGet(pathToUrl(path));
-        return new HttpApacheUtils(this).getRequestAsArray(get);
+        return new HttpApacheUtils(this).getRequestAsArray(routine, get);
     }
 
     @Override
-    public JSONTokener getRequest(HttpGet get) throws ConnectionException {
+    public JSONTokener getRequest(ApiRoutineEnum routine, HttpGet get) throws ConnectionException {
         JSONTokener jso = null;
         String response = null;
         boolean ok = false;
+        beforeRequest(routine);
         try {
             if (data.oauthClientKeys.areKeysPresent()) {
                 getConsumer().sign(get);
             }
-            response = mClient.execute(get, new BasicResponseHandler());
+            HttpValidatorCache.Request conditional = HttpValidatorCache.getInstance().newRequest(data, routine,
+                    get.getURI().toString());
+            conditional.addValidators(get);
+            HttpResponse httpResponse = HttpApacheUtils.getHttpClient().execute(get,
+                    HttpApacheUtils.newContext(data, routine));
+            StatusLine statusLine = httpResponse.getStatusLine();
+            HttpEntity entity = httpResponse.getEntity();
+            if (conditional.isNotModified(statusLine.getStatusCode())) {
+                if (entity != null) {
+                    entity.consumeContent();
+                }
+                response = conditional.onNotModified();
+            } else if (statusLine.getStatusCode() >= 300) {
+                // The same as in the BasicResponseHandler
+                if (entity != null) {
+                    entity.consumeContent();
+                }
+                throw new HttpResponseException(statusLine.getStatusCode(), statusLine.getReasonPhrase());
+            } else {
+                response = entity == null ? null : EntityUtils.toString(entity);
+                conditional.onOk(httpResponse, response);
+            }
             jso = new JSONTokener(response);
             ok = true;
         } catch (Exception e) {
@@ -89,6 +110,80 @@ public class HttpConnectionOAuthApache extends HttpConnectionOAuth implements Ht
         return jso;
     }
 
+    @Override
+    protected void getRequestArrayItems(ApiRoutineEnum routine, String path, String arrayName,
+            JsonObjectConsumer consumer) throws ConnectionException {
+        final String method = "getRequestArrayItems";
+        HttpGet get = new HttpGet(pathToUrl(path));
+        boolean ok = false;
+        beforeRequest(routine);
+        try {
+            if (data.oauthClientKeys.areKeysPresent()) {
+                getConsumer().sign(get);
+            }
+            HttpResponse response = HttpApacheUtils.getHttpClient().execute(get,
+                    HttpApacheUtils.newContext(data, routine));
+            int statusCode = response.getStatusLine().getStatusCode();
+            if (statusCode >= 300) {
+                if (response.getEntity() != null) {
+                    // Release the connection for reuse
+                    response.getEntity().consumeContent();
+                }
+                ok = true;
+                throw ConnectionException.fromStatusCodeHttp(statusCode, method + "; "
+                        + response.getStatusLine().getReasonPhrase());
+            }
+            JsonArrayItemReader.readAll(new InputStreamReader(response.getEntity().getContent(), HTTP.UTF_8),
+                    arrayName, consumer);
+            ok = true;
+        } catch (ConnectionException e) {
+            throw e;
+        } catch (JSONException e) {
+            throw ConnectionException.loggedJsonException(this, e, null, method + "; URL='" + get.getURI() + "'");
+        } catch (Exception e) {
+            MyLog.e(this, "Exception was caught, URL='" + get.getURI().toString() + "'", e);
+            throw new ConnectionException(e);
+        } finally {
+            if (!ok) {
+                get.abort();
+            }
+        }
+    }
+
+    @Override
+    protected void getRequestStream(ApiRoutineEnum routine, String path, JsonStreamConsumer consumer)
+            throws ConnectionException {
+        final String method = "getRequestStream";
+        HttpGet get = new HttpGet(pathToUrl(path));
+        beforeRequest(routine);
+        try {
+            // The client is shared, so the timeouts are set for this request only
+            get.getParams().setIntParameter(CoreConnectionPNames.CONNECTION_TIMEOUT, DEFAULT_GET_REQUEST_TIMEOUT);
+            get.getParams().setIntParameter(CoreConnectionPNames.SO_TIMEOUT, STREAM_STALL_TIMEOUT);
+            if (data.oauthClientKeys.areKeysPresent()) {
+                getConsumer().sign(get);
+            }
+            HttpResponse response = HttpApacheUtils.getHttpClient().execute(get,
+                    HttpApacheUtils.newContext(data, routine));
+            int statusCode = response.getStatusLine().getStatusCode();
+            if (statusCode != 200) {
+                throw ConnectionException.fromStatusCodeHttp(statusCode, method + "; "
+                        + response.getStatusLine().getReasonPhrase());
+            }
+            int count = JsonStreamReader.readAll(new InputStreamReader(response.getEntity().getContent(),
+                    HTTP.UTF_8), consumer);
+            MyLog.v(this, method + "; " + count + " objects received");
+        } catch (ConnectionException e) {
+            throw e;
+        } catch (Exception e) {
+            MyLog.d(this, method + "; URL='" + get.getURI() + "'", e);
+            throw new ConnectionException(e);
+        } finally {
+            // The stream doesn't end by itself, so its connection isn't reused
+            get.abort();
+        }
+    }
+
     @Override
     public OAuthConsumer getConsumer() {
         OAuthConsumer consumer = new CommonsHttpOAuthConsumer(data.oauthClientKeys.getConsumerKey(),
@@ -100,26 +195,28 @@ public class HttpConnectionOAuthApache extends HttpConnectionOAuth implements Ht
     }
     
     @Override
-    protected final JSONObject postRequest(String path) throws ConnectionException {
-        return new HttpApacheUtils(this).postRequest(path);
+    protected final JSONObject postRequest(ApiRoutineEnum routine, String path) throws ConnectionException {
+        return new HttpApacheUtils(this).postRequest(routine, path);
     }
 
     @Override
-    protected JSONObject postRequest(String path, JSONObject jso) throws ConnectionException {
-        return new HttpApacheUtils(this).postRequest(path, jso);
+    protected JSONObject postRequest(ApiRoutineEnum routine, String path, JSONObject jso) throws ConnectionException {
+        return new HttpApacheUtils(this).postRequest(routine, path, jso);
     }
     
     @Override
-    public JSONObject postRequest(HttpPost post) throws ConnectionException {
+    public JSONObject postRequest(ApiRoutineEnum routine, HttpPost post) throws ConnectionException {
         JSONObject jso = null;
         String response = null;
         boolean ok = false;
+        beforeRequest(routine);
         try {
             if (data.oauthClientKeys.areKeysPresent()) {
                 // sign the request to authenticate
                 getConsumer().sign(post);
             }
-            response = mClient.execute(post, new BasicResponseHandler());
+            response = HttpApacheUtils.getHttpClient().execute(post, new BasicResponseHandler(),
+                    HttpApacheUtils.newContext(data, routine));
             jso = new JSONObject(response);
             ok = true;
         } catch (HttpResponseException e) {
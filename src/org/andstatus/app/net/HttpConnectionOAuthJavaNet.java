@@ -26,9 +26,9 @@ import oauth.signpost.exception.OAuthCommunicationException;
 import oauth.signpost.exception.OAuthExpectationFailedException;
 import oauth.signpost.exception.OAuthMessageSignerException;
 
-import org.andstatus.app.data.DbUtils;
 import org.andstatus.app.net.Connection.ApiRoutineEnum;
 import org.andstatus.app.net.ConnectionException.StatusCode;
+import org.andstatus.app.util.IoUtils;
 import org.andstatus.app.util.MyLog;
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -58,9 +58,11 @@ public class HttpConnectionOAuthJavaNet extends HttpConnectionOAuth {
         String consumerSecret = "";
         data.oauthClientKeys.clear();
         Writer writer = null;
+        beforeRequest(ApiRoutineEnum.REGISTER_CLIENT);
         try {
             URL endpoint = new URL(pathToUrl(path));
-            HttpURLConnection conn = (HttpURLConnection) endpoint.openConnection();
+            HttpURLConnection conn = HttpConnectionPool.openConnection(endpoint);
+            HttpCompression.acceptCompressed(conn);
                     
             HashMap<String, String> params = new HashMap<String, String>();
             params.put("type", "client_associate");
@@ -76,12 +78,15 @@ public class HttpConnectionOAuthJavaNet extends HttpConnectionOAuth {
             writer.write(requestBody);
             writer.close();
             
+            RateLimiter.onResponse(data, ApiRoutineEnum.REGISTER_CLIENT, conn);
             if(conn.getResponseCode() != 200) {
-                String msg = HttpJavaNetUtils.readAll(new InputStreamReader(conn.getErrorStream(), "UTF-8"));
+                String msg = HttpJavaNetUtils.readAll(HttpCompression.getErrorStream(conn,
+                        ApiRoutineEnum.REGISTER_CLIENT));
                 MyLog.e(this, "Server returned an error response: " + msg);
                 MyLog.e(this, "Server returned an error response: " + conn.getResponseMessage());
             } else {
-                String response = HttpJavaNetUtils.readAll(new InputStreamReader(conn.getInputStream(), "UTF-8"));
+                String response = HttpJavaNetUtils.readAll(HttpCompression.getInputStream(conn,
+                        ApiRoutineEnum.REGISTER_CLIENT));
                 JSONObject jso = new JSONObject(response);
                 if (jso != null) {
                     consumerKey = jso.getString("client_id");
@@ -94,7 +99,7 @@ public class HttpConnectionOAuthJavaNet extends HttpConnectionOAuth {
         } catch (JSONException e) {
             MyLog.e(this, "registerClient Exception", e);
         } finally {
-            DbUtils.closeSilently(writer);
+            IoUtils.closeSilently(writer);
         }
         if (data.oauthClientKeys.areKeysPresent()) {
             MyLog.v(this, "Registered client for " + data.host);
@@ -114,20 +119,22 @@ public class HttpConnectionOAuthJavaNet extends HttpConnectionOAuth {
     }
 
     @Override
-    protected JSONObject postRequest(String path, JSONObject jso) throws ConnectionException {
+    protected JSONObject postRequest(ApiRoutineEnum routine, String path, JSONObject jso) throws ConnectionException {
         String method = "postRequest: ";
         URL url = null;
         JSONObject result = null;
         OutputStreamWriter writer = null;
+        beforeRequest(routine);
         try {
             MyLog.v(this, method + (jso == null ? "(empty)" : jso.toString(2)));
         
             url = new URL(pathToUrl(path));
-            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+            HttpURLConnection conn = HttpConnectionPool.openConnection(url);
             conn.setDoOutput(true);
             conn.setDoInput(true);
             conn.setRequestMethod("POST");
             conn.setRequestProperty("Content-Type", "application/json");
+            HttpCompression.acceptCompressed(conn);
             setAuthorization(conn, getConsumer(), false);
             
             if (jso != null) {
@@ -139,12 +146,13 @@ public class HttpConnectionOAuthJavaNet extends HttpConnectionOAuth {
             }
                         
             int responseCode = conn.getResponseCode();
+            RateLimiter.onResponse(data, routine, conn);
             switch(responseCode) {
                 case 200:
-                    result = new JSONObject(HttpJavaNetUtils.readAll(conn.getInputStream()));
+                    result = new JSONObject(HttpJavaNetUtils.readAll(HttpCompression.getInputStream(conn, routine)));
                     break;
                 default:
-                    String responseString = HttpJavaNetUtils.readAll(new InputStreamReader(conn.getErrorStream(), "UTF-8"));
+                    String responseString = HttpJavaNetUtils.readAll(HttpCompression.getErrorStream(conn, routine));
                     throw exceptionFromJsonErrorResponse(path, responseCode, responseString, StatusCode.UNKNOWN);
             }
         } catch (JSONException e) {
@@ -152,7 +160,7 @@ public class HttpConnectionOAuthJavaNet extends HttpConnectionOAuth {
         } catch(Exception e) {
             throw new ConnectionException(method + urlAndDataToString(url), e);
         } finally {
-            DbUtils.closeSilently(writer);
+            IoUtils.closeSilently(writer);
         }
         return result;
     }
@@ -172,44 +180,97 @@ public class HttpConnectionOAuthJavaNet extends HttpConnectionOAuth {
     }
     
     @Override
-    protected JSONObject postRequest(String path) throws ConnectionException {
-        return postRequest(path, null);
+    protected JSONObject postRequest(ApiRoutineEnum routine, String path) throws ConnectionException {
+        return postRequest(routine, path, null);
     }
 
     @Override
-    protected JSONObject getRequest(String path) throws ConnectionException {
+    protected JSONObject getRequest(ApiRoutineEnum routine, String path) throws ConnectionException {
+        String responseString = "";
+        JSONObject result = null;
+        try {
+            HttpValidatorCache.Request conditional = HttpValidatorCache.getInstance().newRequest(data, routine,
+                    pathToUrl(path));
+            HttpURLConnection conn = openGetConnection(routine, path, conditional);
+            try {
+                if (conditional.isNotModified(conn.getResponseCode())) {
+                    responseString = conditional.onNotModified();
+                } else {
+                    responseString = HttpJavaNetUtils.readAll(HttpCompression.getInputStream(conn, routine));
+                    conditional.onOk(conn, responseString);
+                }
+                result = new JSONObject(responseString);
+            } catch (JSONException e) {
+                throw ConnectionException.loggedJsonException(this, e, null,
+                        "Error reading response from '"
+                                + path + COMMA_STATUS
+                                + conn.getResponseCode() + NON_JSON_RESPONSE + responseString
+                                + "'");
+            }
+        } catch (ConnectionException e) {
+            throw e;
+        } catch(Exception e) {
+            throw new ConnectionException(ERROR_GETTING + path + "'", e);
+        }
+        return result;
+    }
+
+    /**
+     * Parses the "items" array of the response while it is being received
+     */
+    @Override
+    protected void getRequestArrayItems(ApiRoutineEnum routine, String path, String arrayName,
+            JsonObjectConsumer consumer) throws ConnectionException {
+        try {
+            HttpURLConnection conn = openGetConnection(routine, path, null);
+            JsonArrayItemReader.readAll(new InputStreamReader(HttpCompression.getInputStream(conn, routine), "UTF-8"),
+                    TextUtils.isEmpty(arrayName) ? "items" : arrayName, consumer);
+        } catch (ConnectionException e) {
+            throw e;
+        } catch (JSONException e) {
+            throw ConnectionException.loggedJsonException(this, e, null, "Error reading response from '" + path + "'");
+        } catch(Exception e) {
+            throw new ConnectionException(ERROR_GETTING + path + "'", e);
+        }
+    }
+
+    /**
+     * Follows redirects
+     * @param conditional null if the request is not conditional
+     * @return Connection with the "200" (or "304" for the conditional request) response ready to be read
+     */
+    private HttpURLConnection openGetConnection(ApiRoutineEnum routine, String path,
+            HttpValidatorCache.Request conditional) throws ConnectionException {
         if (TextUtils.isEmpty(path)) {
             throw new IllegalArgumentException("path is empty");
         }
         String responseString = "";
-        JSONObject result = null;
+        HttpURLConnection conn = null;
+        beforeRequest(routine);
         try {
             OAuthConsumer consumer = getConsumer();
             
             URL url = new URL(pathToUrl(path));
-            HttpURLConnection conn;
             boolean redirected = false;
             boolean done=false;
             do {
-                conn = (HttpURLConnection) url.openConnection();
+                conn = HttpConnectionPool.openConnection(url);
                 conn.setInstanceFollowRedirects(false);
+                HttpCompression.acceptCompressed(conn);
+                if (conditional != null) {
+                    conditional.addValidators(conn);
+                }
                 setAuthorization(conn, consumer, redirected);
                 conn.connect();
                 int responseCode = conn.getResponseCode();
+                RateLimiter.onResponse(data, routine, conn);
                 StatusCode statusCode = StatusCode.fromResponseCode(responseCode);
+                if (conditional != null && conditional.isNotModified(responseCode)) {
+                    break;
+                }
                 switch(responseCode) {
                     case 200:
-                        try {
-                            responseString = HttpJavaNetUtils.readAll(conn.getInputStream());
-                            result = new JSONObject(responseString);
-                            done = true;
-                        } catch (JSONException e) {
-                            throw ConnectionException.loggedJsonException(this, e, null,
-                                    "Error reading response from '"
-                                            + path + COMMA_STATUS
-                                            + responseCode + NON_JSON_RESPONSE + responseString
-                                            + "'");
-                        }
+                        done = true;
                         break;
                     case 301:
                     case 302:
@@ -231,7 +292,7 @@ public class HttpConnectionOAuthJavaNet extends HttpConnectionOAuth {
                         }
                         break;                        
                     default:
-                        responseString = HttpJavaNetUtils.readAll(new InputStreamReader(conn.getErrorStream(), "UTF-8"));
+                        responseString = HttpJavaNetUtils.readAll(HttpCompression.getErrorStream(conn, routine));
                         throw exceptionFromJsonErrorResponse(path, responseCode, responseString, statusCode);
                 }
             } while (!done);
@@ -240,7 +301,7 @@ public class HttpConnectionOAuthJavaNet extends HttpConnectionOAuth {
         } catch(Exception e) {
             throw new ConnectionException(ERROR_GETTING + path + "'", e);
         }
-        return result;
+        return conn;
     }
 
     public ConnectionException exceptionFromJsonErrorResponse(String path, int responseCode, String responseString,
@@ -282,8 +343,8 @@ public class HttpConnectionOAuthJavaNet extends HttpConnectionOAuth {
     }
 
     @Override
-    protected JSONArray getRequestAsArray(String path) throws ConnectionException {
-        JSONObject jso = getRequest(path);
+    protected JSONArray getRequestAsArray(ApiRoutineEnum routine, String path) throws ConnectionException {
+        JSONObject jso = getRequest(routine, path);
         JSONArray jsa = null;
         if (jso == null) {
             throw new ConnectionException("Response is null");
@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) 2014 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app.net;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+import org.andstatus.app.util.MyLog;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.HttpClient;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.scheme.LayeredSocketFactory;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.scheme.SocketFactory;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide pool of keep-alive HTTP connections, shared by all {@link HttpConnection}s.
+ * Connections are kept per host ("route") and reused, together with their TLS sessions,
+ * so a sync of several timelines of one host doesn't pay for TCP and TLS handshakes again and again.
+ * The Apache HttpClient family uses the shared {@link HttpClient},
+ * the java.net family uses the keep-alive pool of {@link HttpURLConnection}, configured here.
+ * @author yvolk@yurivolkov.com
+ */
+@ThreadSafe
+public final class HttpConnectionPool {
+    static final int MAX_CONNECTIONS_PER_HOST_DEFAULT = 4;
+    static final int MAX_CONNECTIONS_TOTAL = 20;
+    /** Connections idle for longer than this are closed before the next request */
+    static final long IDLE_CONNECTION_SECONDS = 60;
+    private static final int SOCKET_TIMEOUT_MS = 30000;
+    /** Waiting for a free connection of the pool longer than this fails the request */
+    private static final long CONNECTION_POOL_TIMEOUT_MS = 30000;
+
+    @GuardedBy("HttpConnectionPool.class")
+    private static int maxConnectionsPerHost = MAX_CONNECTIONS_PER_HOST_DEFAULT;
+    @GuardedBy("HttpConnectionPool.class")
+    private static DefaultHttpClient httpClient = null;
+    @GuardedBy("HttpConnectionPool.class")
+    private static boolean javaNetConfigured = false;
+
+    private static final AtomicLong socketsOpened = new AtomicLong();
+    private static final AtomicLong requestsStarted = new AtomicLong();
+
+    private HttpConnectionPool() {
+    }
+
+    /**
+     * The client is recreated by {@link #setMaxConnectionsPerHost(int)}, so don't keep a reference to it.
+     * Get it for each request instead
+     * @return The shared client. Request specific parameters (e.g. timeouts)
+     * should be set on the request, not on the client
+     */
+    static HttpClient getHttpClient() {
+        DefaultHttpClient client;
+        synchronized (HttpConnectionPool.class) {
+            if (httpClient == null) {
+                httpClient = newHttpClient();
+            }
+            client = httpClient;
+        }
+        client.getConnectionManager().closeIdleConnections(IDLE_CONNECTION_SECONDS, TimeUnit.SECONDS);
+        return client;
+    }
+
+    private static DefaultHttpClient newHttpClient() {
+        SchemeRegistry schemeRegistry = new SchemeRegistry();
+        schemeRegistry.register(new Scheme("http", new CountingSocketFactory(PlainSocketFactory.getSocketFactory()), 80));
+
+        // One factory for all connections, so TLS sessions are reused
+        SSLSocketFactory socketFactory = SSLSocketFactory.getSocketFactory();
+        // This is done to get rid of the "javax.net.ssl.SSLException: hostname in certificate didn't match" error
+        // See e.g. http://stackoverflow.com/questions/8839541/hostname-in-certificate-didnt-match
+        socketFactory.setHostnameVerifier(SSLSocketFactory.ALLOW_ALL_HOSTNAME_VERIFIER);
+        schemeRegistry.register(new Scheme("https", new CountingLayeredSocketFactory(socketFactory), 443));
+
+        HttpParams params = getHttpParams();
+        ClientConnectionManager clientConnectionManager = new ThreadSafeClientConnManager(params, schemeRegistry);
+        MyLog.v(HttpConnectionPool.class.getSimpleName(), "New HttpClient; " + toStatistics());
+        DefaultHttpClient client = new DefaultHttpClient(clientConnectionManager, params);
+        client.addRequestInterceptor(COUNTING_INTERCEPTOR);
+        client.addRequestInterceptor(HttpCompression.REQUEST_INTERCEPTOR);
+        client.addResponseInterceptor(HttpCompression.RESPONSE_INTERCEPTOR);
+        client.addResponseInterceptor(RateLimiter.RESPONSE_INTERCEPTOR);
+        return client;
+    }
+
+    private static HttpParams getHttpParams() {
+        HttpParams params = new BasicHttpParams();
+        HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
+        HttpProtocolParams.setContentCharset(params, HTTP.UTF_8);
+        HttpConnectionParams.setStaleCheckingEnabled(params, true);
+
+        HttpProtocolParams.setUseExpectContinue(params, false);
+        HttpConnectionParams.setSoTimeout(params, SOCKET_TIMEOUT_MS);
+        HttpConnectionParams.setSocketBufferSize(params, 2*8192);
+
+        ConnManagerParams.setMaxConnectionsPerRoute(params, new ConnPerRouteBean(maxConnectionsPerHost));
+        ConnManagerParams.setMaxTotalConnections(params, Math.max(MAX_CONNECTIONS_TOTAL, maxConnectionsPerHost));
+        ConnManagerParams.setTimeout(params, CONNECTION_POOL_TIMEOUT_MS);
+        return params;
+    }
+
+    /**
+     * Opens a connection, which will be returned to the keep-alive pool,
+     * after its input (or error) stream is read to the end and closed.
+     * Don't call {@link HttpURLConnection#disconnect()} for it
+     */
+    static HttpURLConnection openConnection(URL url) throws IOException {
+        configureJavaNet();
+        requestsStarted.incrementAndGet();
+        return (HttpURLConnection) url.openConnection();
+    }
+
+    private static synchronized void configureJavaNet() {
+        if (!javaNetConfigured) {
+            System.setProperty("http.keepAlive", "true");
+            System.setProperty("http.maxConnections", Integer.toString(maxConnectionsPerHost));
+            javaNetConfigured = true;
+        }
+    }
+
+    /**
+     * Applies to connections, opened after this call
+     */
+    public static synchronized void setMaxConnectionsPerHost(int maxConnections) {
+        if (maxConnections < 1 || maxConnections == maxConnectionsPerHost) {
+            return;
+        }
+        maxConnectionsPerHost = maxConnections;
+        javaNetConfigured = false;
+        if (httpClient != null) {
+            // Clients, which are executing requests now, still have a reference to the old one
+            httpClient.getConnectionManager().closeIdleConnections(0, TimeUnit.SECONDS);
+            httpClient = null;
+        }
+    }
+
+    public static synchronized int getMaxConnectionsPerHost() {
+        return maxConnectionsPerHost;
+    }
+
+    /**
+     * Number of sockets opened by the Apache HttpClient family
+     */
+    public static long getSocketsOpened() {
+        return socketsOpened.get();
+    }
+
+    public static long getRequestsStarted() {
+        return requestsStarted.get();
+    }
+
+    public static String toStatistics() {
+        return MyLog.formatKeyValue("HttpConnectionPool", "maxPerHost:" + getMaxConnectionsPerHost()
+                + ",requests:" + requestsStarted.get() + ",socketsOpened:" + socketsOpened.get());
+    }
+
+    /**
+     * Counts requests, actually executed by the Apache HttpClient family
+     */
+    private static final HttpRequestInterceptor COUNTING_INTERCEPTOR = new HttpRequestInterceptor() {
+        @Override
+        public void process(HttpRequest request, HttpContext context) throws HttpException, IOException {
+            requestsStarted.incrementAndGet();
+        }
+    };
+
+    /**
+     * Counts sockets, actually connected, to see how many connections are reused
+     */
+    private static class CountingSocketFactory implements SocketFactory {
+        protected final SocketFactory factory;
+
+        CountingSocketFactory(SocketFactory factory) {
+            this.factory = factory;
+        }
+
+        @Override
+        public Socket createSocket() throws IOException {
+            return factory.createSocket();
+        }
+
+        @Override
+        public Socket connectSocket(Socket sock, String host, int port, InetAddress localAddress, int localPort,
+                HttpParams params) throws IOException, UnknownHostException {
+            socketsOpened.incrementAndGet();
+            return factory.connectSocket(sock, host, port, localAddress, localPort, params);
+        }
+
+        @Override
+        public boolean isSecure(Socket sock) {
+            return factory.isSecure(sock);
+        }
+    }
+
+    /**
+     * The scheme is "layered" (secure) only if its factory is
+     */
+    private static class CountingLayeredSocketFactory extends CountingSocketFactory implements LayeredSocketFactory {
+
+        CountingLayeredSocketFactory(LayeredSocketFactory factory) {
+            super(factory);
+        }
+
+        @Override
+        public Socket createSocket(Socket socket, String host, int port, boolean autoClose) throws IOException,
+                UnknownHostException {
+            return ((LayeredSocketFactory) factory).createSocket(socket, host, port, autoClose);
+        }
+    }
+}
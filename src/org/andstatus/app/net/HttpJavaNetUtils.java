@@ -16,6 +16,8 @@
 
 package org.andstatus.app.net;
 
+import org.andstatus.app.util.IoUtils;
+
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -54,18 +56,25 @@ public class HttpJavaNetUtils {
         return readAll(new InputStreamReader(s, "UTF-8"));
     }
     
+    /**
+     * Reads to the end and closes the reader, so the underlying connection may be reused
+     */
     static String readAll(Reader r) throws IOException {
         int nRead;
         char[] buf = new char[16 * 1024];
         StringBuilder bld = new StringBuilder();
-        while((nRead = r.read(buf)) != -1) {
-            bld.append(buf, 0, nRead);
+        try {
+            while((nRead = r.read(buf)) != -1) {
+                bld.append(buf, 0, nRead);
+            }
+        } finally {
+            IoUtils.closeSilently(r);
         }
         return bld.toString();
     }
 
     public static InputStream urlOpenStream(URL url) throws IOException {
-        URLConnection con = url.openConnection();
+        URLConnection con = HttpConnectionPool.openConnection(url);
         con.setConnectTimeout(CONNECTION_TIMEOUT_MS);
         con.setReadTimeout(CONNECTION_TIMEOUT_MS);
         InputStream is = con.getInputStream();
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2014 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app.net;
+
+import net.jcip.annotations.ThreadSafe;
+
+import org.andstatus.app.net.Connection.ApiRoutineEnum;
+import org.andstatus.app.util.MyLog;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bytes of HTTP responses per {@link ApiRoutineEnum}: as received ("wire") and after decompression ("content").
+ * The routine is passed with each request, see {@link HttpConnection}
+ * @author yvolk@yurivolkov.com
+ */
+@ThreadSafe
+public final class HttpTraffic {
+    private static final Map<ApiRoutineEnum, Counters> counters = new ConcurrentHashMap<ApiRoutineEnum, Counters>();
+
+    private HttpTraffic() {
+    }
+
+    static void onResponseRead(ApiRoutineEnum routine, boolean compressed, long wireBytes, long contentBytes,
+            long millis) {
+        Counters routineCounters = getCounters(routine);
+        routineCounters.responses.incrementAndGet();
+        if (compressed) {
+            routineCounters.compressedResponses.incrementAndGet();
+        }
+        routineCounters.wireBytes.addAndGet(wireBytes);
+        routineCounters.contentBytes.addAndGet(contentBytes);
+        routineCounters.millis.addAndGet(millis);
+    }
+
+    /**
+     * @return Live counters of the routine
+     */
+    public static Counters getCounters(ApiRoutineEnum routine) {
+        Counters routineCounters = counters.get(routine);
+        if (routineCounters == null) {
+            synchronized (counters) {
+                routineCounters = counters.get(routine);
+                if (routineCounters == null) {
+                    routineCounters = new Counters();
+                    counters.put(routine, routineCounters);
+                }
+            }
+        }
+        return routineCounters;
+    }
+
+    static void clear() {
+        counters.clear();
+    }
+
+    public static String toStatistics() {
+        StringBuilder builder = new StringBuilder();
+        for (ApiRoutineEnum routine : ApiRoutineEnum.values()) {
+            Counters routineCounters = counters.get(routine);
+            if (routineCounters != null) {
+                builder.append(routine + ":{" + routineCounters + "},");
+            }
+        }
+        return MyLog.formatKeyValue("HttpTraffic", builder.toString());
+    }
+
+    @ThreadSafe
+    public static final class Counters {
+        private final AtomicLong responses = new AtomicLong();
+        private final AtomicLong compressedResponses = new AtomicLong();
+        private final AtomicLong wireBytes = new AtomicLong();
+        private final AtomicLong contentBytes = new AtomicLong();
+        private final AtomicLong millis = new AtomicLong();
+
+        public long getResponses() {
+            return responses.get();
+        }
+
+        public long getCompressedResponses() {
+            return compressedResponses.get();
+        }
+
+        public long getWireBytes() {
+            return wireBytes.get();
+        }
+
+        public long getContentBytes() {
+            return contentBytes.get();
+        }
+
+        /**
+         * Time of reading response bodies (including their parsing, if streamed)
+         */
+        public long getMillis() {
+            return millis.get();
+        }
+
+        /**
+         * @return Percent of bytes, which were not transferred thanks to compression
+         */
+        public long getSavedPercent() {
+            long content = contentBytes.get();
+            return content == 0 ? 0 : (content - wireBytes.get()) * 100 / content;
+        }
+
+        @Override
+        public String toString() {
+            return "responses:" + responses.get() + ",compressed:" + compressedResponses.get()
+                    + ",wireBytes:" + wireBytes.get() + ",contentBytes:" + contentBytes.get()
+                    + ",saved:" + getSavedPercent() + "%,ms:" + millis.get();
+        }
+    }
+}
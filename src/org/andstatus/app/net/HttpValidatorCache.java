@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) 2014 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app.net;
+
+import android.text.TextUtils;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+import org.andstatus.app.net.Connection.ApiRoutineEnum;
+import org.andstatus.app.util.MyLog;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+
+import java.net.HttpURLConnection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of responses to GET requests, which rarely change (users, lists of friends, configuration...),
+ * together with their validators ("ETag" and "Last-Modified" headers).
+ * The requests are made conditional, so "304 Not Modified" responses are answered from the cache.
+ * Keyed by the account and URL.
+ * @author yvolk@yurivolkov.com
+ */
+@ThreadSafe
+final class HttpValidatorCache {
+    static final int MAX_SIZE = 300;
+    /** Total length of cached responses */
+    static final int MAX_CHARS = 1024 * 1024;
+    static final int NOT_MODIFIED = 304;
+
+    private static final HttpValidatorCache INSTANCE = new HttpValidatorCache();
+    private static final ThreadLocal<Boolean> lastResponseNotModified = new ThreadLocal<Boolean>();
+
+    @GuardedBy("this")
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    @GuardedBy("this")
+    private long chars = 0;
+    @GuardedBy("this")
+    private long hits = 0;
+    @GuardedBy("this")
+    private long misses = 0;
+
+    static HttpValidatorCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return true for the routines, which responses are worth caching
+     */
+    static boolean isCacheable(ApiRoutineEnum routine) {
+        switch (routine) {
+            case GET_USER:
+            case GET_FRIENDS:
+            case GET_FRIENDS_IDS:
+            case GET_CONFIG:
+            case GET_MESSAGE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @return true if the last GET request of the current thread was answered with "304 Not Modified"
+     */
+    static boolean isLastResponseNotModified() {
+        Boolean notModified = lastResponseNotModified.get();
+        return notModified != null && notModified;
+    }
+
+    /**
+     * Starts a request of the routine
+     */
+    Request newRequest(HttpConnectionData data, ApiRoutineEnum routine, String url) {
+        lastResponseNotModified.set(false);
+        String key = "";
+        Entry cached = null;
+        if (isCacheable(routine)) {
+            key = data.originType + ";" + data.accountUsername + ";" + url;
+            cached = get(key);
+        }
+        return new Request(key, cached);
+    }
+
+    private synchronized Entry get(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+        }
+        return entry;
+    }
+
+    private synchronized void put(String key, Entry entry) {
+        remove(key);
+        if (entry.body.length() > MAX_CHARS / 4) {
+            return;
+        }
+        entries.put(key, entry);
+        chars += entry.body.length();
+        // Evict the least recently used
+        for (Iterator<Entry> iterator = entries.values().iterator();
+                (chars > MAX_CHARS || entries.size() > MAX_SIZE) && iterator.hasNext(); ) {
+            chars -= iterator.next().body.length();
+            iterator.remove();
+        }
+    }
+
+    private synchronized void remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            chars -= entry.body.length();
+        }
+    }
+
+    private synchronized void onHit() {
+        hits++;
+    }
+
+    /**
+     * Removes all responses for the account, e.g. if they were not processed
+     */
+    synchronized void clear(HttpConnectionData data) {
+        String prefix = data.originType + ";" + data.accountUsername + ";";
+        for (Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator(); iterator.hasNext(); ) {
+            Map.Entry<String, Entry> entry = iterator.next();
+            if (entry.getKey().startsWith(prefix)) {
+                chars -= entry.getValue().body.length();
+                iterator.remove();
+            }
+        }
+    }
+
+    synchronized void clear() {
+        entries.clear();
+        chars = 0;
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized long getHits() {
+        return hits;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return MyLog.formatKeyValue("HttpValidatorCache", "size:" + entries.size() + ",chars:" + chars
+                + ",hits:" + hits + ",misses:" + misses);
+    }
+
+    private static final class Entry {
+        final String eTag;
+        final String lastModified;
+        final String body;
+
+        Entry(String eTag, String lastModified, String body) {
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            this.body = body;
+        }
+    }
+
+    /**
+     * One conditional GET request
+     */
+    final class Request {
+        private final String key;
+        private final Entry cached;
+
+        private Request(String key, Entry cached) {
+            this.key = key;
+            this.cached = cached;
+        }
+
+        void addValidators(HttpRequest request) {
+            if (cached != null) {
+                if (!TextUtils.isEmpty(cached.eTag)) {
+                    request.setHeader("If-None-Match", cached.eTag);
+                }
+                if (!TextUtils.isEmpty(cached.lastModified)) {
+                    request.setHeader("If-Modified-Since", cached.lastModified);
+                }
+            }
+        }
+
+        void addValidators(HttpURLConnection conn) {
+            if (cached != null) {
+                if (!TextUtils.isEmpty(cached.eTag)) {
+                    conn.setRequestProperty("If-None-Match", cached.eTag);
+                }
+                if (!TextUtils.isEmpty(cached.lastModified)) {
+                    conn.setRequestProperty("If-Modified-Since", cached.lastModified);
+                }
+            }
+        }
+
+        /**
+         * @return true if the cached response should be used instead of the response body
+         */
+        boolean isNotModified(int statusCode) {
+            return statusCode == NOT_MODIFIED && cached != null;
+        }
+
+        /**
+         * @return The cached body
+         */
+        String onNotModified() {
+            lastResponseNotModified.set(true);
+            onHit();
+            return cached.body;
+        }
+
+        void onOk(HttpResponse response, String body) {
+            onOk(headerValue(response, "ETag"), headerValue(response, "Last-Modified"), body);
+        }
+
+        void onOk(HttpURLConnection conn, String body) {
+            onOk(conn.getHeaderField("ETag"), conn.getHeaderField("Last-Modified"), body);
+        }
+
+        void onOk(String eTag, String lastModified, String body) {
+            if (TextUtils.isEmpty(key)) {
+                return;
+            }
+            if (TextUtils.isEmpty(eTag) && TextUtils.isEmpty(lastModified) || body == null) {
+                remove(key);
+            } else {
+                put(key, new Entry(eTag, lastModified, body));
+            }
+        }
+
+        private String headerValue(HttpResponse response, String name) {
+            return response.containsHeader(name) ? response.getFirstHeader(name).getValue() : "";
+        }
+    }
+}
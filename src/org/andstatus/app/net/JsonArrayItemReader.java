@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) 2014 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app.net;
+
+import android.text.TextUtils;
+
+import org.andstatus.app.util.IoUtils;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Pull parser of a JSON array of objects, e.g. of a timeline response.
+ * Only one object of the array is in memory at a time,
+ * so objects may be processed while the rest of the response is still being received.
+ * The array may be the response itself or a member of the response object
+ * (e.g. "items" of a Pump.io collection or "statuses" of Twitter search results).
+ * android.util.JsonReader is not used because it appeared in API 11.
+ * @author yvolk@yurivolkov.com
+ */
+class JsonArrayItemReader {
+    private static final int BUFFER_SIZE = 8 * 1024;
+    private static final int END_OF_INPUT = -1;
+
+    private final Reader reader;
+    private final String arrayName;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int position = 0;
+    private int limit = 0;
+    private long charsRead = 0;
+    private boolean arrayFound = false;
+    private boolean finished = false;
+
+    /**
+     * @param arrayName Name of the array inside the response object. If empty, the first array found is read
+     */
+    JsonArrayItemReader(Reader reader, String arrayName) {
+        this.reader = reader;
+        this.arrayName = arrayName;
+    }
+
+    /**
+     * Reads all objects of the array, passing them to the consumer, and closes the reader
+     * @return Number of objects read
+     */
+    static int readAll(Reader reader, String arrayName, JsonObjectConsumer consumer) throws IOException,
+            JSONException, ConnectionException {
+        int count = 0;
+        try {
+            JsonArrayItemReader itemReader = new JsonArrayItemReader(reader, arrayName);
+            for (JSONObject jso = itemReader.nextObject(); jso != null; jso = itemReader.nextObject()) {
+                count++;
+                consumer.onJsonObject(jso);
+            }
+        } finally {
+            IoUtils.closeSilently(reader);
+        }
+        return count;
+    }
+
+    /**
+     * @return The next object of the array or null if there are no more objects
+     */
+    JSONObject nextObject() throws IOException, JSONException {
+        if (!finished && !arrayFound) {
+            findArray();
+        }
+        if (finished) {
+            return null;
+        }
+        int c = nextNonWhitespace();
+        if (c == ',') {
+            c = nextNonWhitespace();
+        }
+        if (c == ']' || c == END_OF_INPUT) {
+            finished = true;
+            return null;
+        }
+        if (c != '{') {
+            throw syntaxError("Object expected");
+        }
+        StringBuilder builder = new StringBuilder();
+        builder.append('{');
+        readComposite(builder);
+        return new JSONObject(builder.toString());
+    }
+
+    private void findArray() throws IOException, JSONException {
+        int c = nextNonWhitespace();
+        if (c == '[') {
+            arrayFound = true;
+            return;
+        }
+        if (c != '{') {
+            finished = true;
+            throw syntaxError("Array or object expected");
+        }
+        while (true) {
+            c = nextNonWhitespace();
+            if (c == ',') {
+                continue;
+            }
+            if (c == '}' || c == END_OF_INPUT) {
+                // There is no array in the object
+                finished = true;
+                return;
+            }
+            if (c != '"') {
+                throw syntaxError("Name expected");
+            }
+            String name = readString(new StringBuilder());
+            if (nextNonWhitespace() != ':') {
+                throw syntaxError("':' expected");
+            }
+            c = nextNonWhitespace();
+            if (c == '[' && (TextUtils.isEmpty(arrayName) || arrayName.equals(name))) {
+                arrayFound = true;
+                return;
+            }
+            skipValue(c);
+        }
+    }
+
+    private void skipValue(int firstChar) throws IOException, JSONException {
+        switch (firstChar) {
+            case '{':
+            case '[':
+                readComposite(null);
+                break;
+            case '"':
+                readString(null);
+                break;
+            default:
+                // A number, true, false or null
+                for (int c = read(); c != END_OF_INPUT; c = read()) {
+                    if (c == ',' || c == '}' || c == ']') {
+                        unread();
+                        break;
+                    }
+                }
+                break;
+        }
+    }
+
+    /**
+     * Reads the rest of the object or array, which opening bracket has already been read
+     * @param builder null to skip the value
+     */
+    private void readComposite(StringBuilder builder) throws IOException, JSONException {
+        int depth = 1;
+        while (depth > 0) {
+            int c = read();
+            switch (c) {
+                case END_OF_INPUT:
+                    throw syntaxError("Unterminated object");
+                case '"':
+                    if (builder != null) {
+                        builder.append('"');
+                    }
+                    readString(builder);
+                    if (builder != null) {
+                        builder.append('"');
+                    }
+                    continue;
+                case '{':
+                case '[':
+                    depth++;
+                    break;
+                case '}':
+                case ']':
+                    depth--;
+                    break;
+                default:
+                    break;
+            }
+            if (builder != null) {
+                builder.append((char) c);
+            }
+        }
+    }
+
+    /**
+     * Reads the rest of the string, which opening quote has already been read.
+     * Escape sequences are left as is
+     * @return the string without quotes
+     */
+    private String readString(StringBuilder builder) throws IOException, JSONException {
+        int start = builder == null ? 0 : builder.length();
+        boolean escaped = false;
+        while (true) {
+            int c = read();
+            if (c == END_OF_INPUT) {
+                throw syntaxError("Unterminated string");
+            }
+            if (!escaped && c == '"') {
+                break;
+            }
+            escaped = !escaped && c == '\\';
+            if (builder != null) {
+                builder.append((char) c);
+            }
+        }
+        return builder == null ? "" : builder.substring(start);
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        int c;
+        do {
+            c = read();
+        } while (c == ' ' || c == '\n' || c == '\r' || c == '\t');
+        return c;
+    }
+
+    private int read() throws IOException {
+        if (position >= limit) {
+            limit = reader.read(buffer, 0, buffer.length);
+            position = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return END_OF_INPUT;
+            }
+        }
+        charsRead++;
+        return buffer[position++];
+    }
+
+    /**
+     * Allowed only once after {@link #read()}, which returned a character
+     */
+    private void unread() {
+        position--;
+        charsRead--;
+    }
+
+    private JSONException syntaxError(String message) {
+        return new JSONException(message + " at character " + charsRead);
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2014 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.andstatus.app.net;
+
+import org.andstatus.app.util.MyLog;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reader of a long-lived stream of JSON objects, delimited by new lines (e.g. of the Twitter user stream).
+ * Each object is passed to the consumer as soon as its line is received.
+ * Blank lines are "keep-alive" signals of the server, they let us check, if the stream should be stopped.
+ * The reader isn't closed here: the stream doesn't end by itself,
+ * so the request should be aborted instead of reading the response till its end
+ * @author yvolk@yurivolkov.com
+ */
+class JsonStreamReader {
+    private static final String TAG = JsonStreamReader.class.getSimpleName();
+
+    private JsonStreamReader() {
+    }
+
+    /**
+     * Reads the stream till it's closed by the server or stopped by the consumer.
+     * A line, which is not a JSON object, is logged and skipped
+     * @return Number of objects read
+     */
+    static int readAll(Reader reader, JsonStreamConsumer consumer) throws IOException, ConnectionException {
+        int count = 0;
+        BufferedReader lineReader = new BufferedReader(reader);
+        while (!consumer.isStopped()) {
+            if (!lineReader.ready()) {
+                consumer.onIdle();
+            }
+            String line = lineReader.readLine();
+            if (line == null) {
+                break;
+            }
+            line = line.trim();
+            if (line.length() == 0) {
+                continue;
+            }
+            JSONObject jso;
+            try {
+                jso = new JSONObject(line);
+            } catch (JSONException e) {
+                MyLog.d(TAG, "Skipped line: '" + line + "'", e);
+                continue;
+            }
+            count++;
+            consumer.onJsonObject(jso);
+        }
+        return count;
+    }
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright (c) 2014 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app.net;
+
+import android.text.TextUtils;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+import org.andstatus.app.net.Connection.ApiRoutineEnum;
+import org.andstatus.app.net.ConnectionException.StatusCode;
+import org.andstatus.app.util.MyLog;
+import org.apache.http.HttpException;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Paces requests of each account to each {@link ApiRoutineEnum} ("endpoint"),
+ * so we don't burst through the quota and get locked out till the end of the rate limit window.
+ * The token bucket of the endpoint is fed from the rate limit headers of its responses
+ * (the limit, remaining requests and the reset time) and spreads the remaining requests over the rest of the window.
+ * Endpoints, which didn't report their limits yet, are not paced.
+ * @author yvolk@yurivolkov.com
+ */
+@ThreadSafe
+public final class RateLimiter {
+    /** The quota is "low", when less than this part of the limit remains */
+    static final int LOW_QUOTA_PERCENT = 10;
+    /** Requests, which may be sent without pacing */
+    static final int BURST_SIZE = 5;
+    /** Wait longer than this is not done in the caller's thread: the command is retried later instead */
+    static final long MAX_WAIT_MILLIS = 10000;
+
+    private static final String[][] HEADER_NAMES = {
+        // Twitter API 1.1
+        {"x-rate-limit-limit", "x-rate-limit-remaining", "x-rate-limit-reset"},
+        // Twitter API 1.0 and StatusNet
+        {"X-RateLimit-Limit", "X-RateLimit-Remaining", "X-RateLimit-Reset"}
+    };
+
+    private static final RateLimiter INSTANCE = new RateLimiter();
+
+    @GuardedBy("this")
+    private final Map<String, Bucket> buckets = new HashMap<String, Bucket>();
+
+    public static RateLimiter getInstance() {
+        return INSTANCE;
+    }
+
+    private RateLimiter() {
+    }
+
+    static String accountKey(HttpConnectionData data) {
+        return data.originType + ";" + data.accountUsername;
+    }
+
+    /**
+     * Waits for the token of the endpoint. Called before each request is sent
+     * @throws ConnectionException if the wait would be too long
+     */
+    void acquire(String accountKey, ApiRoutineEnum routine) throws ConnectionException {
+        Bucket bucket = getBucket(accountKey, routine);
+        long waitMillis = bucket.reserve(System.currentTimeMillis());
+        if (waitMillis > MAX_WAIT_MILLIS) {
+            throw new ConnectionException(StatusCode.RATE_LIMITED, "Rate limit of " + routine + " for " + accountKey
+                    + ", " + bucket + ", retry in " + waitMillis / 1000 + " s");
+        }
+        if (waitMillis > 0) {
+            MyLog.v(this, "Pacing " + routine + " for " + waitMillis + " ms, " + bucket);
+            try {
+                Thread.sleep(waitMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ConnectionException(StatusCode.RATE_LIMITED, "Interrupted while pacing " + routine);
+            }
+        }
+    }
+
+    private synchronized Bucket getBucket(String accountKey, ApiRoutineEnum routine) {
+        String key = accountKey + ";" + routine;
+        Bucket bucket = buckets.get(key);
+        if (bucket == null) {
+            bucket = new Bucket(accountKey, routine);
+            buckets.put(key, bucket);
+        }
+        return bucket;
+    }
+
+    /**
+     * @param routine {@link ApiRoutineEnum#DUMMY} for any endpoint of the account
+     * @return true if the low priority work should be deferred
+     */
+    public synchronized boolean isQuotaLow(String accountKey, ApiRoutineEnum routine) {
+        long now = System.currentTimeMillis();
+        for (Bucket bucket : buckets.values()) {
+            if (bucket.accountKey.equals(accountKey)
+                    && (routine == ApiRoutineEnum.DUMMY || bucket.routine == routine)
+                    && bucket.isLow(now)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    synchronized void clear() {
+        buckets.clear();
+    }
+
+    /**
+     * Finds the endpoint in the context of the request,
+     * see {@link HttpApacheUtils#newContext(HttpConnectionData, ApiRoutineEnum)}
+     */
+    static final HttpResponseInterceptor RESPONSE_INTERCEPTOR = new HttpResponseInterceptor() {
+        @Override
+        public void process(HttpResponse response, HttpContext context) throws HttpException, IOException {
+            ApiRoutineEnum routine = HttpApacheUtils.getApiRoutine(context);
+            if (routine == ApiRoutineEnum.DUMMY) {
+                return;
+            }
+            Bucket bucket = getInstance().getBucket(HttpApacheUtils.getAccountKey(context), routine);
+            for (String[] names : HEADER_NAMES) {
+                if (response.containsHeader(names[0])) {
+                    bucket.update(response.getStatusLine().getStatusCode(),
+                            response.getFirstHeader(names[0]).getValue(),
+                            headerValue(response, names[1]), headerValue(response, names[2]));
+                    return;
+                }
+            }
+            bucket.update(response.getStatusLine().getStatusCode(), "", "", "");
+        }
+
+        private String headerValue(HttpResponse response, String name) {
+            return response.containsHeader(name) ? response.getFirstHeader(name).getValue() : "";
+        }
+    };
+
+    /**
+     * Should be called after the response code is received
+     */
+    static void onResponse(HttpConnectionData data, ApiRoutineEnum routine, HttpURLConnection conn)
+            throws IOException {
+        Bucket bucket = getInstance().getBucket(accountKey(data), routine);
+        for (String[] names : HEADER_NAMES) {
+            String limit = conn.getHeaderField(names[0]);
+            if (!TextUtils.isEmpty(limit)) {
+                bucket.update(conn.getResponseCode(), limit, conn.getHeaderField(names[1]),
+                        conn.getHeaderField(names[2]));
+                return;
+            }
+        }
+        bucket.update(conn.getResponseCode(), "", "", "");
+    }
+
+    @Override
+    public synchronized String toString() {
+        return MyLog.formatKeyValue("RateLimiter", buckets.values().toString());
+    }
+
+    /**
+     * Token bucket of one endpoint of one account
+     */
+    @ThreadSafe
+    static final class Bucket {
+        /** Used, if the server didn't tell the reset time */
+        static final long DEFAULT_WINDOW_MILLIS = 15 * 60 * 1000L;
+
+        final String accountKey;
+        final ApiRoutineEnum routine;
+        @GuardedBy("this")
+        private int limit = 0;
+        @GuardedBy("this")
+        private int remaining = 0;
+        @GuardedBy("this")
+        private long resetAt = 0;
+        @GuardedBy("this")
+        private double tokens = 0;
+        @GuardedBy("this")
+        private long refilledAt = 0;
+
+        Bucket(String accountKey, ApiRoutineEnum routine) {
+            this.accountKey = accountKey;
+            this.routine = routine;
+        }
+
+        /**
+         * @param statusCode 429 and 420 ("Enhance Your Calm") mean that the limit is exceeded
+         * @param resetValue Epoch seconds
+         */
+        synchronized void update(int statusCode, String limitValue, String remainingValue, String resetValue) {
+            long now = System.currentTimeMillis();
+            boolean exceeded = statusCode == 429 || statusCode == 420;
+            int limitNew = (int) parseLong(limitValue, limit);
+            if (limitNew <= 0 && !exceeded) {
+                return;
+            }
+            limit = limitNew;
+            remaining = exceeded ? 0 : (int) parseLong(remainingValue, remaining);
+            long resetSeconds = parseLong(resetValue, 0);
+            resetAt = resetSeconds > 0 ? resetSeconds * 1000 : Math.max(resetAt, now + DEFAULT_WINDOW_MILLIS);
+            tokens = Math.min(tokens, Math.min(remaining, BURST_SIZE));
+            if (refilledAt == 0) {
+                tokens = Math.min(remaining, BURST_SIZE);
+            }
+            refilledAt = now;
+        }
+
+        private static long parseLong(String value, long defaultValue) {
+            if (TextUtils.isEmpty(value)) {
+                return defaultValue;
+            }
+            try {
+                return Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                return defaultValue;
+            }
+        }
+
+        /**
+         * Takes a token, if it is available now
+         * @return 0 if the request may be sent now, otherwise time to wait for the token
+         */
+        synchronized long reserve(long now) {
+            if (resetAt == 0) {
+                // The limits are not known
+                return 0;
+            }
+            if (now >= resetAt) {
+                if (limit == 0) {
+                    // We only knew that the limit was exceeded
+                    resetAt = 0;
+                    return 0;
+                }
+                // New window
+                remaining = Math.max(remaining, limit);
+                tokens = Math.min(remaining, BURST_SIZE);
+                resetAt = now + DEFAULT_WINDOW_MILLIS;
+                refilledAt = now;
+            }
+            if (remaining <= 0) {
+                return resetAt - now;
+            }
+            // The remaining requests are spread evenly till the reset
+            double tokensPerMilli = (double) remaining / (resetAt - now);
+            tokens = Math.min(tokens + (now - refilledAt) * tokensPerMilli, Math.min(remaining, BURST_SIZE));
+            refilledAt = now;
+            if (tokens < 1) {
+                long waitMillis = (long) Math.ceil((1 - tokens) / tokensPerMilli);
+                if (waitMillis > MAX_WAIT_MILLIS) {
+                    return waitMillis;
+                }
+                // The caller will wait for the token, which is taken now
+                tokens -= 1;
+                remaining--;
+                return waitMillis;
+            }
+            tokens -= 1;
+            remaining--;
+            return 0;
+        }
+
+        synchronized boolean isLow(long now) {
+            return limit > 0 && now < resetAt && remaining * 100 < limit * LOW_QUOTA_PERCENT;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return routine + ":{limit:" + limit + ",remaining:" + remaining + ",resetInS:"
+                    + (resetAt - System.currentTimeMillis()) / 1000 + "}";
+        }
+    }
+}
@@ -0,0 +1,27 @@
+/*
+ * Copyright (c) 2014 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app.net;
+
+/**
+ * Receives items of a timeline as soon as they are downloaded and parsed,
+ * see {@link Connection#getTimeline(Connection.ApiRoutineEnum, TimelinePosition, int, String, TimelineItemConsumer)}.
+ * Items of a page come newest first. A consumer may store them at once:
+ * timelines are sorted by the sent date, so the order of row ids doesn't matter
+ */
+public interface TimelineItemConsumer {
+    void onTimelineItem(MbTimelineItem item) throws ConnectionException;
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright (c) 2014 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.andstatus.app.net;
+
+/**
+ * Receives items of the User's timelines from a long-lived connection as soon as they appear,
+ * see {@link Connection#readUserStream(UserStreamConsumer)}
+ */
+public interface UserStreamConsumer extends TimelineItemConsumer {
+    /**
+     * Nothing more is received yet: the items, received before, may be processed now
+     */
+    void onIdle();
+
+    /**
+     * @return true if the stream should be closed
+     */
+    boolean isStopped();
+}
@@ -0,0 +1,27 @@
+/*
+ * Copyright (c) 2014 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app.net;
+
+import java.util.List;
+
+/**
+ * Receives a list of Users page by page, as soon as each page is downloaded and parsed,
+ * see {@link Connection#getUsersFollowedBy(String, UsersPageConsumer)}
+ */
+public interface UsersPageConsumer {
+    void onUsersPage(List<MbUser> users) throws ConnectionException;
+}
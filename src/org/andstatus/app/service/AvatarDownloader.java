@@ -9,6 +9,7 @@ import android.text.TextUtils;
 import org.andstatus.app.context.MyContextHolder;
 import org.andstatus.app.data.AvatarDrawable;
 import org.andstatus.app.data.AvatarStatus;
+import org.andstatus.app.data.DatabaseWriter;
 import org.andstatus.app.data.DbUtils;
 import org.andstatus.app.data.MyProvider;
 import org.andstatus.app.data.MyDatabase.Avatar;
@@ -25,6 +26,8 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
 
 class AvatarDownloader {
     private long userId;
@@ -242,37 +245,42 @@ class AvatarDownloader {
     
     private void removeOld() {
         String method = "removeOld";
-        int rowsDeleted = 0;
+        long rowsDeleted = 0;
         String where = Avatar.USER_ID + "=" + userId
                 + " AND " + Avatar._ID + "<>" + Long.toString(rowId) ;
-        String sql = "SELECT " + Avatar._ID + ", "
+        final String sql = "SELECT " + Avatar._ID + ", "
                 + Avatar.FILE_NAME
                 + " FROM " + Avatar.TABLE_NAME 
                 + " WHERE " + where;
         boolean done = false;
-        for (int pass=0; !done && pass<3; pass++) {
-            SQLiteDatabase db = MyContextHolder.get().getDatabase().getWritableDatabase();
-            Cursor cursor = null;
-            try {
-                cursor = db.rawQuery(sql, null);
-                while (cursor.moveToNext()) {
-                    long rowIdOld = cursor.getLong(0);
-                    deleteAvatarByFileName(cursor.getString(1));
-                    rowsDeleted += db.delete(Avatar.TABLE_NAME, Avatar._ID + "=" + Long.toString(rowIdOld), null);
-                }
-                done = true;
-            } catch (SQLiteException e) {
-                MyLog.i(this, method + ", Database is locked, pass=" + pass + "; sql='" + sql + "'", e);
-            } finally {
-                DbUtils.closeSilently(cursor);
-            }
-            if (!done) {
-                try {
-                    Thread.sleep(Math.round((Math.random() + 1) * 500));
-                } catch (InterruptedException e) {
-                    MyLog.e(this, e);
+        // The operation may be replayed by the writer, so the files are deleted only after the commit
+        final List<String> fileNames = new ArrayList<String>();
+        try {
+            rowsDeleted = MyContextHolder.get().getDatabase().getWriter().execute(new DatabaseWriter.Operation() {
+                @Override
+                public long execute(SQLiteDatabase db) {
+                    fileNames.clear();
+                    long deleted = 0;
+                    Cursor cursor = null;
+                    try {
+                        cursor = db.rawQuery(sql, null);
+                        while (cursor.moveToNext()) {
+                            long rowIdOld = cursor.getLong(0);
+                            fileNames.add(cursor.getString(1));
+                            deleted += db.delete(Avatar.TABLE_NAME, Avatar._ID + "=" + Long.toString(rowIdOld), null);
+                        }
+                    } finally {
+                        DbUtils.closeSilently(cursor);
+                    }
+                    return deleted;
                 }
+            });
+            for (String fileName : fileNames) {
+                deleteAvatarByFileName(fileName);
             }
+            done = true;
+        } catch (SQLiteException e) {
+            MyLog.i(this, method + "; sql='" + sql + "'", e);
         }
         MyLog.v(this, method + (done ? " succeeded" : " failed") + "; deleted " + rowsDeleted + " old rows");
     }
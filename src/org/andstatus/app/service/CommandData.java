@@ -17,9 +17,13 @@
 package org.andstatus.app.service;
 
 import android.app.SearchManager;
+import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.provider.BaseColumns;
 import android.os.Bundle;
 import android.text.TextUtils;
 
@@ -27,12 +31,17 @@ import org.andstatus.app.IntentExtra;
 import org.andstatus.app.account.MyAccount;
 import org.andstatus.app.context.MyContextHolder;
 import org.andstatus.app.context.MyPreferences;
+import org.andstatus.app.data.CommandQueueTable;
+import org.andstatus.app.data.DatabaseWriter;
+import org.andstatus.app.data.DbUtils;
 import org.andstatus.app.data.MyDatabase;
+import org.andstatus.app.data.MyDatabase.CommandQueue;
 import org.andstatus.app.data.TimelineTypeEnum;
 import org.andstatus.app.util.MyLog;
 import org.andstatus.app.util.SharedPreferencesUtil;
 
 import java.util.Queue;
+import java.util.concurrent.Future;
 
 /**
  * Command data store (message...)
@@ -70,6 +79,17 @@ public class CommandData implements Comparable<CommandData> {
     private int hashcode = 0;
 
     private CommandResult commandResult = new CommandResult();
+
+    /**
+     * Row of the {@link CommandQueue} table. 0 if the command is not persisted
+     */
+    private volatile long queueRowId = 0;
+    /**
+     * Set, when the removal from the persistent queue was submitted: the command is not persisted any more,
+     * even if it is being saved by another thread at the same time
+     */
+    private volatile boolean deletedFromDatabase = false;
+    private long createdDate = System.currentTimeMillis();
     
     public CommandData(CommandEnum commandIn, String accountNameIn, TimelineTypeEnum timelineTypeIn, long itemIdIn) {
         this(commandIn, accountNameIn, itemIdIn);
@@ -115,6 +135,7 @@ public class CommandData implements Comparable<CommandData> {
                     commandData = new CommandData();
                     commandData.bundle = bundle;
                     commandData.command = command;
+                    commandData.priority = command.getPriority();
                     commandData.accountName = commandData.bundle.getString(IntentExtra.EXTRA_ACCOUNT_NAME.key);
                     commandData.timelineType = TimelineTypeEnum.load(commandData.bundle.getString(IntentExtra.EXTRA_TIMELINE_TYPE.key));
                     commandData.itemId = commandData.bundle.getLong(IntentExtra.EXTRA_ITEMID.key);
@@ -230,6 +251,142 @@ public class CommandData implements Comparable<CommandData> {
         return count;
     }
     
+    /**
+     * Put the command to the persistent queue or move it there from the other queue.
+     * Only the row of this command is written. The caller is not blocked: the row is written by the
+     * {@link DatabaseWriter} later, but before any operation on this command, submitted after this call.
+     * The row id is known in the writer's thread only, so it is read and set there
+     * @param queueType {@link CommandQueueTable#MAIN_QUEUE} or {@link CommandQueueTable#RETRY_QUEUE}
+     * @return Row id of the command, when written, 0 if the command was deleted.
+     *      null if the operation couldn't be submitted
+     */
+    Future<Long> saveToDatabase(String queueType) {
+        final ContentValues values = new ContentValues();
+        values.put(CommandQueue.QUEUE_TYPE, queueType);
+        commandResult.toContentValues(values);
+        values.put(CommandQueue.COMMAND_CODE, command.save());
+        values.put(CommandQueue.PRIORITY, priority);
+        values.put(CommandQueue.ACCOUNT_NAME, getAccountName());
+        values.put(CommandQueue.TIMELINE_TYPE, timelineType.save());
+        values.put(CommandQueue.ITEM_ID, itemId);
+        if (command == CommandEnum.UPDATE_STATUS) {
+            values.put(CommandQueue.STATUS, bundle.getString(IntentExtra.EXTRA_STATUS.key));
+            values.put(CommandQueue.IN_REPLY_TO_ID, bundle.getLong(IntentExtra.EXTRA_INREPLYTOID.key));
+            values.put(CommandQueue.RECIPIENT_ID, bundle.getLong(IntentExtra.EXTRA_RECIPIENTID.key));
+        }
+        values.put(CommandQueue.CREATED_DATE, createdDate);
+        try {
+            return MyContextHolder.get().getDatabase().getWriter().submit(new DatabaseWriter.Operation() {
+                @Override
+                public long execute(SQLiteDatabase db) {
+                    if (deletedFromDatabase) {
+                        return 0;
+                    }
+                    long rowId = queueRowId;
+                    // The row is absent also, if its insert was rolled back and is being replayed
+                    if (rowId != 0
+                            && db.update(CommandQueue.TABLE_NAME, values, BaseColumns._ID + "=" + rowId, null) > 0) {
+                        return rowId;
+                    }
+                    rowId = db.insert(CommandQueue.TABLE_NAME, null, values);
+                    queueRowId = rowId > 0 ? rowId : 0;
+                    return rowId;
+                }
+            });
+        } catch (Exception e) {
+            MyLog.e(this, "saveToDatabase " + queueType + " " + this, e);
+            return null;
+        }
+    }
+
+    /**
+     * Remove the command from the persistent queue, e.g. after it was executed.
+     * Nothing is deleted, if the command is not persisted. Doesn't block the caller, see {@link #saveToDatabase(String)}
+     * @return Number of rows deleted, when done. null if the operation couldn't be submitted
+     */
+    Future<Long> deleteFromDatabase() {
+        deletedFromDatabase = true;
+        try {
+            return MyContextHolder.get().getDatabase().getWriter().submit(new DatabaseWriter.Operation() {
+                @Override
+                public long execute(SQLiteDatabase db) {
+                    // The row id is kept, so the operation may be replayed after a roll back
+                    long rowId = queueRowId;
+                    if (rowId == 0) {
+                        return 0;
+                    }
+                    return db.delete(CommandQueue.TABLE_NAME, BaseColumns._ID + "=" + rowId, null);
+                }
+            });
+        } catch (Exception e) {
+            MyLog.e(this, "deleteFromDatabase " + this, e);
+            return null;
+        }
+    }
+
+    private static CommandData fromCursor(Cursor cursor) {
+        CommandData commandData = new CommandData(
+                CommandEnum.load(cursor.getString(cursor.getColumnIndex(CommandQueue.COMMAND_CODE))),
+                cursor.getString(cursor.getColumnIndex(CommandQueue.ACCOUNT_NAME)),
+                TimelineTypeEnum.load(cursor.getString(cursor.getColumnIndex(CommandQueue.TIMELINE_TYPE))),
+                cursor.getLong(cursor.getColumnIndex(CommandQueue.ITEM_ID)));
+        commandData.queueRowId = cursor.getLong(cursor.getColumnIndex(BaseColumns._ID));
+        commandData.priority = cursor.getInt(cursor.getColumnIndex(CommandQueue.PRIORITY));
+        commandData.createdDate = cursor.getLong(cursor.getColumnIndex(CommandQueue.CREATED_DATE));
+        switch (commandData.command) {
+            case UPDATE_STATUS:
+                commandData.bundle.putString(IntentExtra.EXTRA_STATUS.key,
+                        cursor.getString(cursor.getColumnIndex(CommandQueue.STATUS)));
+                commandData.bundle.putLong(IntentExtra.EXTRA_INREPLYTOID.key,
+                        cursor.getLong(cursor.getColumnIndex(CommandQueue.IN_REPLY_TO_ID)));
+                commandData.bundle.putLong(IntentExtra.EXTRA_RECIPIENTID.key,
+                        cursor.getLong(cursor.getColumnIndex(CommandQueue.RECIPIENT_ID)));
+                break;
+            default:
+                break;
+        }
+        commandData.getResult().loadFromCursor(cursor);
+        return commandData;
+    }
+
+    /**
+     * Commands are read from the persistent queue one by one, the highest priority first.
+     * They stay in the database till they are executed or moved to another queue
+     * @return Number of items loaded
+     */
+    static int loadFromDatabase(Queue<CommandData> q, String queueType) {
+        String method = "loadFromDatabase: ";
+        int count = 0;
+        Cursor cursor = null;
+        try {
+            // Changes of the queues are submitted without waiting, see saveToDatabase
+            MyContextHolder.get().getDatabase().getWriter().flush();
+            cursor = CommandQueueTable.query(queueType);
+            while (cursor.moveToNext()) {
+                CommandData cd = fromCursor(cursor);
+                if (cd.getCommand() == CommandEnum.UNKNOWN) {
+                    MyLog.w(CommandData.class, method + "unknown command in the " + queueType + " queue, deleted " + cd);
+                    cd.deleteFromDatabase();
+                } else if (q.offer(cd)) {
+                    MyLog.v(CommandData.class, method + cd.toString());
+                    count += 1;
+                } else {
+                    MyLog.e(CommandData.class, method + cd.toString());
+                }
+            }
+        } catch (Exception e) {
+            MyLog.e(CommandData.class, method + queueType, e);
+        } finally {
+            DbUtils.closeSilently(cursor);
+        }
+        MyLog.d(CommandData.class, "Queue loaded from the " + queueType + " queue table, " + count + " msgs");
+        return count;
+    }
+
+    long getQueueRowId() {
+        return queueRowId;
+    }
+
     /**
      * It's used in equals() method. We need to distinguish duplicated
      * commands but to ignore differences in results!
@@ -26,6 +26,15 @@ public enum CommandEnum {
      * Fetch timeline(s) of the specified type for the specified MyAccount. 
      */
     FETCH_TIMELINE("fetch-timeline", -4),
+    /**
+     * Fetch one page of the timeline, which is older than the downloaded part of it.
+     * The User is scrolling down to it
+     */
+    FETCH_OLDER("fetch-older", -4),
+    /**
+     * Download missing parts of the timeline in the background, see {@link org.andstatus.app.data.TimelineGaps}
+     */
+    FILL_GAPS("fill-gaps", -6),
 
     /**
      * Fetch avatar for the specified user and URL 
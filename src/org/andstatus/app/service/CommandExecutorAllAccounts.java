@@ -20,6 +20,9 @@ import org.andstatus.app.account.MyAccount;
 import org.andstatus.app.account.MyAccount.CredentialsVerificationStatus;
 import org.andstatus.app.context.MyContextHolder;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Execute command for each account
  * @author yvolk@yurivolkov.com
@@ -28,6 +31,10 @@ public class CommandExecutorAllAccounts extends CommandExecutorStrategy {
 
     @Override
     public void execute() {
+        if (isTimelineCommand() && ParallelTimelineLoader.isEnabled()) {
+            executeInParallel();
+            return;
+        }
         for (MyAccount acc : MyContextHolder.get().persistentAccounts().collection()) {
             if ( acc.getCredentialsVerified() != CredentialsVerificationStatus.SUCCEEDED) {
                 execContext.getResult().incrementNumAuthExceptions();
@@ -41,4 +48,35 @@ public class CommandExecutorAllAccounts extends CommandExecutorStrategy {
             }
         }
     }
+
+    private boolean isTimelineCommand() {
+        switch (execContext.getCommandData().getCommand()) {
+            case AUTOMATIC_UPDATE:
+            case FETCH_TIMELINE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Timelines of all accounts are loaded at once, and the User is notified once
+     */
+    private void executeInParallel() {
+        List<MyAccount> accounts = new ArrayList<MyAccount>();
+        for (MyAccount acc : MyContextHolder.get().persistentAccounts().collection()) {
+            if ( acc.getCredentialsVerified() != CredentialsVerificationStatus.SUCCEEDED) {
+                execContext.getResult().incrementNumAuthExceptions();
+            } else if (acc.isValid()) {
+                accounts.add(acc);
+            }
+        }
+        new ParallelTimelineLoader(execContext, this).load(accounts);
+        if (isStopping()) {
+            execContext.getResult().setSoftErrorIfNotOk(false);
+        }
+        CommandExecutorLoadTimeline finisher = new CommandExecutorLoadTimeline();
+        finisher.setContext(execContext).setParent(this);
+        finisher.onTimelinesLoaded();
+    }
 }
@@ -27,15 +27,22 @@ import android.net.Uri;
 import org.andstatus.app.IntentExtra;
 import org.andstatus.app.R;
 import org.andstatus.app.TimelineActivity;
+import org.andstatus.app.account.MyAccount;
 import org.andstatus.app.appwidget.MyAppWidgetProvider;
 import org.andstatus.app.context.MyPreferences;
 import org.andstatus.app.data.DataPruner;
 import org.andstatus.app.data.MyProvider;
+import org.andstatus.app.data.TimelineGaps;
 import org.andstatus.app.data.TimelineTypeEnum;
+import org.andstatus.app.net.Connection;
+import org.andstatus.app.net.Connection.ApiRoutineEnum;
 import org.andstatus.app.net.ConnectionException;
+import org.andstatus.app.net.HttpTraffic;
 import org.andstatus.app.util.I18n;
 import org.andstatus.app.util.MyLog;
 
+import java.util.Collections;
+
 class CommandExecutorLoadTimeline extends CommandExecutorStrategy {
 
     private boolean mNotificationsEnabled;
@@ -51,9 +58,27 @@ class CommandExecutorLoadTimeline extends CommandExecutorStrategy {
      */
     @Override
     void execute() {
-        loadTimelines();
+        TimelineTypeEnum[] timelineTypes = getTimelines(execContext.getCommandData().getTimelineType());
+        if (timelineTypes.length > 1 && ParallelTimelineLoader.isEnabled()) {
+            new ParallelTimelineLoader(execContext, this).load(Collections.singletonList(execContext.getMyAccount()));
+        } else {
+            loadTimelines(timelineTypes);
+        }
+        onTimelinesLoaded();
+    }
+
+    /**
+     * Notifies the User and cleans up after all timelines of the command were loaded
+     */
+    void onTimelinesLoaded() {
+        if (!execContext.getResult().hasError()
+                && execContext.getCommandData().getCommand() != CommandEnum.FETCH_OLDER
+                && execContext.getCommandData().getCommand() != CommandEnum.FILL_GAPS) {
+            notifyOfUpdatedTimeline(execContext.getResult().getMessagesAdded(), 
+                    execContext.getResult().getMentionsAdded(), execContext.getResult().getDirectedAdded());
+        }
         if (!execContext.getResult().hasError() && execContext.getCommandData().getTimelineType() == TimelineTypeEnum.ALL && !isStopping()) {
-            new DataPruner(execContext.getContext()).prune();
+            new DataPruner(execContext.getContext(), this, execContext.getResult()).prune();
         }
         if (!execContext.getResult().hasError()) {
             // Notify all timelines, 
@@ -66,23 +91,36 @@ class CommandExecutorLoadTimeline extends CommandExecutorStrategy {
      * Load Timeline(s) for one MyAccount
      * @return True if everything Succeeded
      */
-    private void loadTimelines() {
-        for (TimelineTypeEnum timelineType : getTimelines()) {
+    private void loadTimelines(TimelineTypeEnum[] timelineTypes) {
+        for (TimelineTypeEnum timelineType : timelineTypes) {
             if (isStopping()) {
                 break;
             }
+            if (timelineType == TimelineTypeEnum.FOLLOWING_USER
+                    && execContext.getCommandData().getTimelineType() == TimelineTypeEnum.ALL
+                    && isFollowingQuotaLow(execContext.getMyAccount())) {
+                MyLog.d(this, "Rate limit quota is low, deferring " + timelineType + " for "
+                        + execContext.getMyAccount().getAccountName());
+                continue;
+            }
             execContext.setTimelineType(timelineType);
             loadTimeline();
         }
-        if (!execContext.getResult().hasError()) {
-            notifyOfUpdatedTimeline(execContext.getResult().getMessagesAdded(), 
-                    execContext.getResult().getMentionsAdded(), execContext.getResult().getDirectedAdded());
-        }
     }
 
-    private TimelineTypeEnum[] getTimelines() {
+    /**
+     * Refreshing the list of followed users may be postponed
+     */
+    static boolean isFollowingQuotaLow(MyAccount ma) {
+        Connection connection = ma.getConnection();
+        return connection.isQuotaLow(ApiRoutineEnum.GET_FRIENDS)
+                || connection.isQuotaLow(ApiRoutineEnum.GET_FRIENDS_IDS)
+                || connection.isQuotaLow(ApiRoutineEnum.GET_USER);
+    }
+
+    static TimelineTypeEnum[] getTimelines(TimelineTypeEnum commandTimelineType) {
         TimelineTypeEnum[] timelineTypes;
-        if (execContext.getCommandData().getTimelineType() == TimelineTypeEnum.ALL) {
+        if (commandTimelineType == TimelineTypeEnum.ALL) {
             timelineTypes = new TimelineTypeEnum[] {
                     TimelineTypeEnum.HOME, TimelineTypeEnum.MENTIONS,
                     TimelineTypeEnum.DIRECT,
@@ -90,13 +128,16 @@ class CommandExecutorLoadTimeline extends CommandExecutorStrategy {
             };
         } else {
             timelineTypes = new TimelineTypeEnum[] {
-                    execContext.getCommandData().getTimelineType()
+                    commandTimelineType
             };
         }
         return timelineTypes;
     }
 
-    private void loadTimeline() {
+    /**
+     * Loads the timeline of {@link CommandExecutionContext#getTimelineType()}
+     */
+    void loadTimeline() {
         boolean ok = false;
         try {
             if (execContext.getMyAccount().getConnection().isApiSupported(execContext.getTimelineType().getConnectionApiRoutine())) {
@@ -106,7 +147,11 @@ class CommandExecutorLoadTimeline extends CommandExecutorStrategy {
                 }
                 execContext.setTimelineUserId(userId);
                 MyLog.d(this, "Getting " + execContext.getTimelineType() + " timeline for " + execContext.getMyAccount().getAccountName() );
-                TimelineDownloader.getStrategy(execContext).download();
+                TimelineDownloader.getStrategy(execContext, this).download();
+                fillGapsLater();
+                if (MyLog.isLoggable(this, MyLog.VERBOSE)) {
+                    MyLog.v(this, HttpTraffic.toStatistics());
+                }
             } else {
                 MyLog.v(this, execContext.getTimelineType() + " is not supported for "
                         + execContext.getMyAccount().getAccountName());
@@ -120,13 +165,28 @@ class CommandExecutorLoadTimeline extends CommandExecutorStrategy {
         }
     }
     
+    /**
+     * The newest page is already here, so the rest is downloaded by a separate command
+     */
+    private void fillGapsLater() {
+        if (isStopping() || execContext.getTimelineType() == TimelineTypeEnum.FOLLOWING_USER
+                || new TimelineGaps(execContext.getTimelineType(), execContext.getTimelineUserId()).isEmpty()) {
+            return;
+        }
+        MyLog.v(this, "Gaps left in " + execContext.getTimelineType() + " for "
+                + execContext.getMyAccount().getAccountName());
+        MyServiceManager.sendCommand(new CommandData(CommandEnum.FILL_GAPS,
+                execContext.getMyAccount().getAccountName(), execContext.getTimelineType(),
+                execContext.getCommandData().itemId));
+    }
+
     /**
      * TODO: Different notifications for different Accounts
      * @param msgAdded Number of "Tweets" added
      * @param mentionsAdded
      * @param directedAdded
      */
-    private void notifyOfUpdatedTimeline(int msgAdded, int mentionsAdded, int directedAdded) {
+    void notifyOfUpdatedTimeline(int msgAdded, int mentionsAdded, int directedAdded) {
         boolean notified = false;
         if (mentionsAdded > 0) {
             notifyOfNewTweets(mentionsAdded, CommandEnum.NOTIFY_MENTIONS);
@@ -67,6 +67,8 @@ class CommandExecutorStrategy implements CommandExecutorParent {
                     switch (execContext.getCommandData().getCommand()) {
                         case AUTOMATIC_UPDATE:
                         case FETCH_TIMELINE:
+                        case FETCH_OLDER:
+                        case FILL_GAPS:
                             strategy = new CommandExecutorLoadTimeline();
                             break;
                         case SEARCH_MESSAGE:
@@ -16,11 +16,14 @@
 
 package org.andstatus.app.service;
 
+import android.content.ContentValues;
 import android.content.SharedPreferences;
+import android.database.Cursor;
 import android.os.Parcel;
 import android.os.Parcelable;
 
 import org.andstatus.app.IntentExtra;
+import org.andstatus.app.data.MyDatabase.CommandQueue;
 import org.andstatus.app.data.TimelineTypeEnum;
 import org.andstatus.app.util.MyLog;
 
@@ -50,6 +53,16 @@ public final class CommandResult implements Parcelable {
     private int directedAdded = 0;
     private int downloadedCount = 0;
 
+    // Cost of the database pruning
+    private int messagesPruned = 0;
+    private int pruneChunks = 0;
+    private long pruneMillis = 0;
+
+    // Stages of the pipelined download, see {@link DownloadPipeline}
+    private long fetchMillis = 0;
+    private long insertMillis = 0;
+    private long pipelineMillis = 0;
+
     public CommandResult() {
     }
     
@@ -80,6 +93,14 @@ public final class CommandResult implements Parcelable {
         if (directedAdded > 0) {
             message.append("directedAdded:" + directedAdded + ",");
         }
+        if (pruneChunks > 0) {
+            message.append("pruned:" + messagesPruned + ",pruneChunks:" + pruneChunks 
+                    + ",pruneMs:" + pruneMillis + ",");
+        }
+        if (pipelineMillis > 0) {
+            message.append("fetchMs:" + fetchMillis + ",insertMs:" + insertMillis 
+                    + ",pipelineMs:" + pipelineMillis + ",");
+        }
         
         return MyLog.formatKeyValue("CommandResult", message);
     }
@@ -92,6 +113,7 @@ public final class CommandResult implements Parcelable {
         numParseExceptions = parcel.readLong();
         hourlyLimit = parcel.readInt();
         remainingHits = parcel.readInt();
+        downloadedCount = parcel.readInt();
     }
 
     public int getExecutionCount() {
@@ -128,6 +150,16 @@ public final class CommandResult implements Parcelable {
         executionCount = sp.getInt(IntentExtra.EXTRA_EXECUTION_COUNT.key + si, executionCount);
         retriesLeft = sp.getInt(IntentExtra.EXTRA_RETRIES_LEFT.key + si, retriesLeft);
     }
+
+    void toContentValues(ContentValues values) {
+        values.put(CommandQueue.EXECUTION_COUNT, executionCount);
+        values.put(CommandQueue.RETRIES_LEFT, retriesLeft);
+    }
+
+    void loadFromCursor(Cursor cursor) {
+        executionCount = cursor.getInt(cursor.getColumnIndex(CommandQueue.EXECUTION_COUNT));
+        retriesLeft = cursor.getInt(cursor.getColumnIndex(CommandQueue.RETRIES_LEFT));
+    }
     
     @Override
     public void writeToParcel(Parcel dest, int flags) {
@@ -138,6 +170,7 @@ public final class CommandResult implements Parcelable {
         dest.writeLong(numParseExceptions);
         dest.writeInt(hourlyLimit);
         dest.writeInt(remainingHits);
+        dest.writeInt(downloadedCount);
     }
 
     public static final Creator<CommandResult> CREATOR = new Creator<CommandResult>() {
@@ -222,6 +255,62 @@ public final class CommandResult implements Parcelable {
     public void incrementDownloadedCount() {
         downloadedCount++;
     }
+
+    /**
+     * Accumulates results of {@link org.andstatus.app.data.DataPruner}
+     * @param chunks Number of transactions used
+     */
+    public void onPruned(int messagesDeleted, int chunks, long millis) {
+        messagesPruned += messagesDeleted;
+        pruneChunks += chunks;
+        pruneMillis += millis;
+    }
+
+    /**
+     * Accumulates timing of the {@link DownloadPipeline} stages. The stages overlap,
+     * so the elapsed time may be less than their sum
+     */
+    void onPipelined(long fetchMillisIn, long insertMillisIn, long elapsedMillis) {
+        fetchMillis += fetchMillisIn;
+        insertMillis += insertMillisIn;
+        pipelineMillis += elapsedMillis;
+    }
+
+    /**
+     * Adds counters of a part of the command, which was executed separately,
+     * see {@link ParallelTimelineLoader}
+     */
+    void accumulate(CommandResult other) {
+        numAuthExceptions += other.numAuthExceptions;
+        numIoExceptions += other.numIoExceptions;
+        numParseExceptions += other.numParseExceptions;
+        if (other.hourlyLimit > 0) {
+            hourlyLimit = other.hourlyLimit;
+            remainingHits = other.remainingHits;
+        }
+        messagesAdded += other.messagesAdded;
+        mentionsAdded += other.mentionsAdded;
+        directedAdded += other.directedAdded;
+        downloadedCount += other.downloadedCount;
+        onPruned(other.messagesPruned, other.pruneChunks, other.pruneMillis);
+        onPipelined(other.fetchMillis, other.insertMillis, other.pipelineMillis);
+    }
+
+    long getFetchMillis() {
+        return fetchMillis;
+    }
+
+    long getInsertMillis() {
+        return insertMillis;
+    }
+
+    public int getMessagesPruned() {
+        return messagesPruned;
+    }
+
+    public int getPruneChunks() {
+        return pruneChunks;
+    }
     
     protected int getMessagesAdded() {
         return messagesAdded;
@@ -234,6 +323,13 @@ public final class CommandResult implements Parcelable {
     protected int getDirectedAdded() {
         return directedAdded;
     }
+
+    /**
+     * @return Number of downloaded messages, e.g. 0 if nothing older was found for the {@link CommandEnum#FETCH_OLDER}
+     */
+    public int getDownloadedCount() {
+        return downloadedCount;
+    }
     
     protected int getRetriesLeft() {
         return retriesLeft;
@@ -244,6 +340,8 @@ public final class CommandResult implements Parcelable {
         switch (command) {
             case AUTOMATIC_UPDATE:
             case FETCH_TIMELINE:
+            case FETCH_OLDER:
+            case FILL_GAPS:
             case RATE_LIMIT_STATUS:
             case SEARCH_MESSAGE:
                 retriesLeft = 0;
@@ -267,6 +365,14 @@ public final class CommandResult implements Parcelable {
         messagesAdded = 0;
         mentionsAdded = 0;
         directedAdded = 0;
+
+        messagesPruned = 0;
+        pruneChunks = 0;
+        pruneMillis = 0;
+
+        fetchMillis = 0;
+        insertMillis = 0;
+        pipelineMillis = 0;
     }
     
     /**
@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2014 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.andstatus.app.service;
+
+import org.andstatus.app.net.ConnectionException;
+import org.andstatus.app.util.MyLog;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lets the download (HTTP requests and parsing of the responses) go on in its own thread,
+ * while the downloaded elements are being stored to the database by the command executor's thread,
+ * so the network latency and the database time overlap instead of adding up.
+ * The queue between the stages is bounded: the producer waits, when the consumer lags behind.
+ * Both stages stop, when the {@link CommandExecutorParent} is stopping.
+ * @author yvolk@yurivolkov.com
+ */
+class DownloadPipeline<T> {
+    static final int QUEUE_CAPACITY = 100;
+    /** How often the stages check, if they should stop */
+    static final long WAIT_MILLIS = 500;
+
+    interface Producer<T> {
+        /**
+         * Downloads the elements in the producer's thread and passes them to {@link DownloadPipeline#put(Object)}
+         */
+        void produce(DownloadPipeline<T> pipeline) throws ConnectionException;
+    }
+
+    private final CommandExecutorParent parent;
+    private final BlockingQueue<T> queue;
+    private Thread producerThread = null;
+    private volatile boolean stopped = false;
+    private volatile boolean produced = false;
+    private volatile ConnectionException exception = null;
+
+    private long startedAt = 0;
+    /** Time of the producer's thread, except the time it waited for the consumer */
+    private volatile long produceNanos = 0;
+    private volatile long putWaitNanos = 0;
+    private long takeWaitNanos = 0;
+    private long consumeNanos = 0;
+    private long elapsedNanos = 0;
+
+    DownloadPipeline(CommandExecutorParent parent, int capacity) {
+        this.parent = parent;
+        queue = new ArrayBlockingQueue<T>(capacity);
+    }
+
+    void start(final Producer<T> producer, String threadName) {
+        startedAt = System.nanoTime();
+        producerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long producerStartedAt = System.nanoTime();
+                try {
+                    producer.produce(DownloadPipeline.this);
+                } catch (ConnectionException e) {
+                    exception = e;
+                } catch (RuntimeException e) {
+                    MyLog.e(this, "Producer failed", e);
+                    exception = new ConnectionException(e);
+                } finally {
+                    produceNanos = System.nanoTime() - producerStartedAt - putWaitNanos;
+                    produced = true;
+                }
+            }
+        }, threadName);
+        producerThread.start();
+    }
+
+    /**
+     * Called by the producer. Waits, while the queue is full
+     * @throws ConnectionException if the pipeline is stopped, so the producer should stop too
+     */
+    void put(T element) throws ConnectionException {
+        long waitStartedAt = System.nanoTime();
+        try {
+            do {
+                if (isStopped()) {
+                    throw new ConnectionException("Download stopped");
+                }
+            } while (!queue.offer(element, WAIT_MILLIS, TimeUnit.MILLISECONDS));
+        } catch (InterruptedException e) {
+            throw new ConnectionException("Download interrupted", e);
+        } finally {
+            putWaitNanos += System.nanoTime() - waitStartedAt;
+        }
+    }
+
+    /**
+     * Called by the consumer. Waits, while the queue is empty
+     * @return null, when all elements were taken or the pipeline is stopped
+     * @throws ConnectionException of the producer, after all the elements, which it produced, were taken
+     */
+    T take() throws ConnectionException {
+        long waitStartedAt = System.nanoTime();
+        try {
+            while (!isStopped()) {
+                boolean wasProduced = produced;
+                T element = wasProduced ? queue.poll() : queue.poll(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+                if (element != null) {
+                    return element;
+                }
+                if (wasProduced) {
+                    if (exception != null) {
+                        throw exception;
+                    }
+                    break;
+                }
+            }
+            return null;
+        } catch (InterruptedException e) {
+            stop();
+            throw new ConnectionException("Download interrupted", e);
+        } finally {
+            takeWaitNanos += System.nanoTime() - waitStartedAt;
+        }
+    }
+
+    boolean isStopped() {
+        return stopped || parent.isStopping();
+    }
+
+    /**
+     * Called by the consumer, when it's done. The producer is interrupted and stops at its next element at the latest.
+     * We wait for it a bit, so its time is counted, see {@link #getProduceMillis()}
+     */
+    void stop() {
+        if (!stopped) {
+            stopped = true;
+            elapsedNanos = System.nanoTime() - startedAt;
+            consumeNanos = elapsedNanos - takeWaitNanos;
+            queue.clear();
+            if (producerThread != null) {
+                producerThread.interrupt();
+                try {
+                    producerThread.join(WAIT_MILLIS);
+                } catch (InterruptedException e) {
+                    MyLog.d(this, "Interrupted while waiting for the producer", e);
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    long getProduceMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(produceNanos);
+    }
+
+    long getConsumeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(consumeNanos);
+    }
+
+    long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+    }
+}
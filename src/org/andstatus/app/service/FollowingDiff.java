@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2014 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app.service;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Difference between the stored list of followed Users and the downloaded one.
+ * New followed Users are known at once, while the Users, who are not followed any more,
+ * are known only after the last page of the list was downloaded
+ * @author yvolk@yurivolkov.com
+ */
+class FollowingDiff {
+    /** Old list of followed users, the users found in the new list are removed from it */
+    private final Set<Long> followedIdsOld;
+    private final Set<Long> followedIdsNew = new HashSet<Long>();
+    private final Set<Long> added = new HashSet<Long>();
+    private boolean complete = false;
+
+    FollowingDiff(Set<Long> followedIdsOld) {
+        this.followedIdsOld = new HashSet<Long>(followedIdsOld);
+    }
+
+    /**
+     * @return false if the User is already in the downloaded list
+     */
+    boolean onFollowed(long userId) {
+        if (userId == 0 || !followedIdsNew.add(userId)) {
+            return false;
+        }
+        if (!followedIdsOld.remove(userId)) {
+            added.add(userId);
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the User is followed now and wasn't followed before
+     */
+    boolean isAdded(long userId) {
+        return added.contains(userId);
+    }
+
+    /**
+     * To be called after the last page of the list was downloaded
+     */
+    void onListComplete() {
+        complete = true;
+    }
+
+    /**
+     * @return empty set, till the whole list was downloaded, see {@link #onListComplete()}
+     */
+    Set<Long> getNotFollowedAnyMore() {
+        if (!complete) {
+            return Collections.emptySet();
+        }
+        return Collections.unmodifiableSet(followedIdsOld);
+    }
+
+    int getFollowedCount() {
+        return followedIdsNew.size();
+    }
+
+    int getAddedCount() {
+        return added.size();
+    }
+}
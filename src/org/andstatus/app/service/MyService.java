@@ -17,13 +17,19 @@
 
 package org.andstatus.app.service;
 
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Queue;
 import java.util.concurrent.PriorityBlockingQueue;
 
 import org.andstatus.app.IntentExtra;
 import org.andstatus.app.R;
+import org.andstatus.app.account.MyAccount;
 import org.andstatus.app.context.MyContextHolder;
 import org.andstatus.app.context.MyPreferences;
+import org.andstatus.app.data.CommandQueueTable;
+import org.andstatus.app.data.TimelineTypeEnum;
 import org.andstatus.app.util.I18n;
 import org.andstatus.app.util.MyLog;
 
@@ -38,8 +44,6 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.net.ConnectivityManager;
-import android.os.AsyncTask;
-import android.os.AsyncTask.Status;
 import android.os.IBinder;
 import android.os.PowerManager;
 
@@ -51,6 +55,7 @@ import net.jcip.annotations.GuardedBy;
  */
 public class MyService extends Service {
     private static final String TAG = MyService.class.getSimpleName();
+    /** Queues were kept in these SharedPreferences files before the {@link CommandQueueTable} */
     private static final String COMMANDS_QUEUE_FILENAME = TAG + "-commands-queue";
     private static final String RETRY_QUEUE_FILENAME = TAG + "-retry-queue";
     
@@ -160,11 +165,10 @@ public class MyService extends Service {
     @GuardedBy("serviceStateLock")
     private int lastProcessedStartId = 0;
     /**
-     * For now let's have only ONE working thread 
-     * (it seems there is some problem in parallel execution...)
+     * Working threads: not more than {@link QueueLane#threads} for each lane
      */
     @GuardedBy("serviceStateLock")
-    private QueueExecutor executor = null;
+    private final List<QueueExecutor> executors = new ArrayList<QueueExecutor>();
 
     private final Object wakeLockLock = new Object();
     /**
@@ -245,7 +249,7 @@ public class MyService extends Service {
                     dontStop = false;
                 }
             }
-            decideIfStopTheService(false);
+            decideIfStopTheService(null);
         } else {
             addToTheQueueWhileStopping(commandData);
         }
@@ -288,12 +292,19 @@ public class MyService extends Service {
             for (CommandData cd:mainCommandQueue) {
                 if (cd.equals(commandData)) {
                     cd.getResult().resetRetries(commandData.getCommand());
+                    cd.saveToDatabase(CommandQueueTable.MAIN_QUEUE);
+                    if (cd != commandData) {
+                        // The duplicate is e.g. from the retry queue
+                        commandData.deleteFromDatabase();
+                    }
                     break;
                 }
             }
         } else {
             MyLog.d(this, "Adding to the queue " + commandData);
-            if (!mainCommandQueue.offer(commandData)) {
+            if (mainCommandQueue.offer(commandData)) {
+                commandData.saveToDatabase(CommandQueueTable.MAIN_QUEUE);
+            } else {
                 MyLog.e(this, "Couldn't add to the main queue, size=" + mainCommandQueue.size());
                 ok = false;
             }
@@ -301,6 +312,19 @@ public class MyService extends Service {
         return ok;
     }
 
+    /**
+     * Executed commands, which should be retried, and deferred commands go here
+     */
+    private synchronized void addToTheRetryQueue(CommandData commandData) {
+        if (retryCommandQueue.contains(commandData)) {
+            commandData.deleteFromDatabase();
+        } else if (retryCommandQueue.offer(commandData)) {
+            commandData.saveToDatabase(CommandQueueTable.RETRY_QUEUE);
+        } else {
+            MyLog.e(this, "mRetryQueue is full?");
+        }
+    }
+
     private void moveCommandsFromRetryToMainQueue() {
         while (!retryCommandQueue.isEmpty()) {
             CommandData cd = retryCommandQueue.poll();
@@ -325,9 +349,22 @@ public class MyService extends Service {
 
         synchronized (serviceStateLock) {
             if (!mInitialized) {
+                migrateQueueFile(COMMANDS_QUEUE_FILENAME, CommandQueueTable.MAIN_QUEUE);
+                migrateQueueFile(RETRY_QUEUE_FILENAME, CommandQueueTable.RETRY_QUEUE);
+                // Executors, cancelled on the previous stop, might have left commands here
+                mainCommandQueue.clear();
+                retryCommandQueue.clear();
                 int count = 0;
-                count += CommandData.loadQueue(this, mainCommandQueue, COMMANDS_QUEUE_FILENAME);
-                count += CommandData.loadQueue(this, retryCommandQueue, RETRY_QUEUE_FILENAME);
+                count += CommandData.loadFromDatabase(mainCommandQueue, CommandQueueTable.MAIN_QUEUE);
+                count += CommandData.loadFromDatabase(retryCommandQueue, CommandQueueTable.RETRY_QUEUE);
+                // ...and might still be executing some of them
+                for (QueueExecutor executor : executors) {
+                    for (CommandData cd : executor.getCommandsInHand()) {
+                        if (mainCommandQueue.remove(cd) || retryCommandQueue.remove(cd)) {
+                            count--;
+                        }
+                    }
+                }
                 MyLog.d(this, "State restored, " + (count>0 ? Integer.toString(count) : "no") + " msg in the Queues");
 
                 registerReceiver(intentReceiver, new IntentFilter(ACTION_GO));
@@ -367,9 +404,27 @@ public class MyService extends Service {
         return MyPreferences.getSharedPreferences(TAG);
     }
 
-    private void decideIfStopTheService(boolean calledFromExecutor) {
+    /**
+     * Commands, which were saved to the SharedPreferences file by an older version, are moved to the table
+     */
+    private void migrateQueueFile(String prefsFileName, String queueType) {
+        Queue<CommandData> queue = new LinkedList<CommandData>();
+        if (CommandData.loadQueue(this, queue, prefsFileName) > 0) {
+            for (CommandData cd : queue) {
+                cd.saveToDatabase(queueType);
+            }
+        }
+    }
+
+    /**
+     * @param finishedExecutor not null, if called by the executor, which has finished its work
+     */
+    private void decideIfStopTheService(QueueExecutor finishedExecutor) {
         synchronized(serviceStateLock) {
             boolean isStopping = false;
+            if (finishedExecutor != null) {
+                executors.remove(finishedExecutor);
+            }
             if (!mInitialized) {
                 isStopping = false;
                 return;
@@ -379,13 +434,13 @@ public class MyService extends Service {
                 return;
             }
             isStopping = isStopping();
+            boolean mayExecute = false;
             if (!isStopping) {
-                isStopping = mainCommandQueue.isEmpty()
-                        || !isOnline() 
-                        || !MyContextHolder.get().isReady();
-                if (isStopping && !calledFromExecutor && executor!= null) {
-                    isStopping = (executor.getStatus() != Status.RUNNING);
-                }
+                mayExecute = !mainCommandQueue.isEmpty()
+                        && isOnline() 
+                        && MyContextHolder.get().isReady();
+                // Executors of other lanes may still be working
+                isStopping = !mayExecute && executors.isEmpty();
             }
             if (this.mIsStopping != isStopping) {
                 if (isStopping) {
@@ -397,21 +452,71 @@ public class MyService extends Service {
                 }
                 this.mIsStopping = isStopping;
             }
-            if (isStopping || calledFromExecutor ) {
-                executor = null;
-            }
             if (isStopping) {
-                stopDelayed(true);
-            } else {
-                acquireWakeLock();
-                if (executor == null) {
-                    executor = new QueueExecutor();
-                    MyLog.v(this, "Adding new executor " + executor);
-                    executor.execute();
+                if (executors.isEmpty()) {
+                    stopDelayed(true);
                 } else {
-                    MyLog.v(this, "There is an Executor already");
+                    MyLog.v(this, "Waiting for " + executors.size() + " executors to finish");
+                }
+            } else if (mayExecute) {
+                acquireWakeLock();
+                startExecutors();
+            }
+        }
+    }
+
+    /**
+     * Start executors for the lanes, which have commands in the main queue
+     * and didn't reach their thread limits yet
+     */
+    @GuardedBy("serviceStateLock")
+    private void startExecutors() {
+        for (QueueLane lane : QueueLane.values()) {
+            int running = 0;
+            for (QueueExecutor executor : executors) {
+                if (executor.lane == lane) {
+                    running++;
+                }
+            }
+            int toStart = Math.min(lane.threads - running, countInTheQueue(lane));
+            for (int ind = 0; ind < toStart; ind++) {
+                QueueExecutor executor = new QueueExecutor(lane);
+                executors.add(executor);
+                MyLog.v(this, "Adding new executor " + executor);
+                executor.start();
+            }
+            if (toStart <= 0 && running > 0) {
+                MyLog.v(this, "There are " + running + " executors of the " + lane + " lane already");
+            }
+        }
+    }
+
+    private int countInTheQueue(QueueLane lane) {
+        int count = 0;
+        for (CommandData cd : mainCommandQueue) {
+            if (QueueLane.of(cd.getCommand()) == lane) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Like {@link Queue#poll()}, but only commands of the lane are taken
+     * @return null if there are no commands of the lane
+     */
+    private CommandData pollTheQueue(QueueLane lane) {
+        while (true) {
+            CommandData head = null;
+            for (CommandData cd : mainCommandQueue) {
+                if (QueueLane.of(cd.getCommand()) == lane && (head == null || cd.compareTo(head) < 0)) {
+                    head = cd;
                 }
             }
+            if (head == null || mainCommandQueue.remove(head)) {
+                return head;
+            }
+            // Taken by another executor of the lane
         }
     }
 
@@ -479,11 +584,16 @@ public class MyService extends Service {
                 mIsStopping = false;
                 return;
             }
-            boolean mayStop = executor == null || executor.getStatus() != Status.RUNNING;
+            boolean mayStop = executors.isEmpty();
             if (!mayStop) {
                 if (forceNow) {
-                    MyLog.d(this, method + ": Forced to stop now, cancelling Executor");
-                    executor.cancel(true);
+                    MyLog.d(this, method + ": Forced to stop now, cancelling " + executors.size() + " Executors");
+                    // We don't wait for them: e.g. a blocked HTTP read is not interrupted.
+                    // Their commands are in the persistent queue, and the executors stay in the list,
+                    // till they finish, so the next start doesn't execute these commands again
+                    for (QueueExecutor executor : executors) {
+                        executor.cancel();
+                    }
                 } else {
                     MyLog.v(this, method + ": Cannot stop now, executor is working");
                     broadcastState(null);
@@ -495,10 +605,10 @@ public class MyService extends Service {
                     unregisterReceiver(intentReceiver);
     
                     notifyOfQueue();
-                    int count = 0;
-                    count += CommandData.saveQueue(this, mainCommandQueue, COMMANDS_QUEUE_FILENAME);
-                    count += CommandData.saveQueue(this, retryCommandQueue, RETRY_QUEUE_FILENAME);
-                    MyLog.d(this, "State saved, " + (count>0 ? Integer.toString(count) : "no ") + " msg in the Queues");
+                    // Every change of the queues is already submitted to the database
+                    mainCommandQueue.clear();
+                    retryCommandQueue.clear();
+                    MyLog.d(this, "State saved, " + CommandQueueTable.describe());
     
                     relealeWakeLock();
                     stopSelfResult(lastProcessedStartId);
@@ -603,59 +713,138 @@ public class MyService extends Service {
         MyLog.v(TAG, "state: " + state);
     }
     
-    private class QueueExecutor extends AsyncTask<Void, Void, Boolean> implements CommandExecutorParent {
-        
+    /**
+     * Executes commands of one lane till there are no more of them
+     */
+    private class QueueExecutor implements Runnable, CommandExecutorParent {
+        final QueueLane lane;
+        private final Thread thread;
+        private volatile boolean cancelled = false;
+        /** Taken from the queue and being executed */
+        private volatile CommandData currentCommand = null;
+        /** Taken from the queue, to be returned to the retry queue at the end */
+        private final List<CommandData> deferred = new ArrayList<CommandData>();
+
+        QueueExecutor(QueueLane lane) {
+            this.lane = lane;
+            thread = new Thread(this, "QueueExecutor-" + lane);
+        }
+
+        void start() {
+            thread.start();
+        }
+
+        void cancel() {
+            cancelled = true;
+            thread.interrupt();
+        }
+
+        /**
+         * @return The commands, which were taken from the queues and are not returned yet
+         */
+        List<CommandData> getCommandsInHand() {
+            List<CommandData> commands = new ArrayList<CommandData>();
+            synchronized (deferred) {
+                commands.addAll(deferred);
+            }
+            CommandData commandData = currentCommand;
+            if (commandData != null) {
+                commands.add(commandData);
+            }
+            return commands;
+        }
+
         @Override
-        protected Boolean doInBackground(Void... arg0) {
-            MyLog.d(this, "CommandExecutor started, " + mainCommandQueue.size() + " commands to process");
+        public void run() {
+            try {
+                executeCommands();
+            } finally {
+                MyLog.v(this, cancelled ? "Cancelled" : "Finished");
+                decideIfStopTheService(this);
+            }
+        }
+
+        private void executeCommands() {
+            MyLog.d(this, "CommandExecutor started, " + mainCommandQueue.size() + " commands in the queue");
             do {
                 if (isStopping()) {
                     break;
                 }
-                CommandData commandData = mainCommandQueue.poll();
+                CommandData commandData = pollTheQueue(lane);
                 if (commandData == null) {
                     break;
                 }
+                currentCommand = commandData;
+                if (cancelled) {
+                    // It is still in the persistent queue
+                    break;
+                }
+                if (shouldBeDeferred(commandData)) {
+                    MyLog.v(this, "Rate limit quota is low, deferring " + commandData);
+                    synchronized (deferred) {
+                        deferred.add(commandData);
+                    }
+                    currentCommand = null;
+                    continue;
+                }
                 CommandExecutorStrategy.executeCommand(commandData, this);
                 if (commandData.getResult().shouldWeRetry()) {
-                    synchronized(MyService.this) {
-                        // Put the command to the retry queue
-                        if (!retryCommandQueue.contains(commandData) 
-                                && !retryCommandQueue.offer(commandData)) {
-                            MyLog.e(this, "mRetryQueue is full?");
-                        }
-                    }        
+                    addToTheRetryQueue(commandData);
+                } else {
+                    // The command stays in the persistent queue till it is executed
+                    commandData.deleteFromDatabase();
                 }
+                currentCommand = null;
                 broadcastState(commandData);
                 if (commandData.getResult().hasError() && !isOnline()) {
                     // Don't bother with other commands if we're not Online :-)
                     break;
                 }
             } while (true);
-            MyLog.d(this, "CommandExecutor ended, " + mainCommandQueue.size() + " commands left");
-            return true;
+            int deferredCount;
+            synchronized (deferred) {
+                for (CommandData commandData : deferred) {
+                    addToTheRetryQueue(commandData);
+                }
+                deferredCount = deferred.size();
+                deferred.clear();
+            }
+            currentCommand = null;
+            MyLog.d(this, "CommandExecutor ended, " + mainCommandQueue.size() + " commands left"
+                    + (deferredCount == 0 ? "" : ", " + deferredCount + " deferred"));
         }
-        
+
         /**
-         * This is in the UI thread, so we can mess with the UI
+         * Low priority work is deferred while little of the rate limit quota of its account remains,
+         * leaving the quota for the work, which the User waits for.
+         * Avatars are not requested through the API, so they don't use the quota
          */
-        @Override
-        protected void onPostExecute(Boolean notUsed) {
-            MyLog.v(this, "onPostExecute");
-            decideIfStopTheService(true);
+        private boolean shouldBeDeferred(CommandData commandData) {
+            switch (commandData.getCommand()) {
+                case FETCH_TIMELINE:
+                    if (commandData.getTimelineType() == TimelineTypeEnum.FOLLOWING_USER) {
+                        MyAccount ma = commandData.getAccount();
+                        return ma != null && CommandExecutorLoadTimeline.isFollowingQuotaLow(ma);
+                    }
+                    return false;
+                case FILL_GAPS:
+                    MyAccount ma = commandData.getAccount();
+                    return ma != null
+                            && ma.getConnection().isQuotaLow(commandData.getTimelineType().getConnectionApiRoutine());
+                default:
+                    return false;
+            }
         }
-
+        
         @Override
-        protected void onCancelled(Boolean result) {
-            MyLog.v(this, "onCancelled, result=" + result);
-            decideIfStopTheService(true);
+        public boolean isStopping() {
+            return cancelled || MyService.this.isStopping();
         }
 
         @Override
-        public boolean isStopping() {
-            return MyService.this.isStopping();
+        public String toString() {
+            return "QueueExecutor-" + lane;
         }
-        
     }
     
     @Override
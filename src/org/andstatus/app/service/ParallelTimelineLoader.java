@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2014 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.andstatus.app.service;
+
+import org.andstatus.app.account.MyAccount;
+import org.andstatus.app.context.MyPreferences;
+import org.andstatus.app.data.TimelineTypeEnum;
+import org.andstatus.app.util.MyLog;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Loads timelines of several accounts at once: each "account × timeline" is a separate task
+ * for a bounded pool of threads, see {@link MyPreferences#KEY_PARALLEL_DOWNLOADS}.
+ * Not more than {@link #MAX_TASKS_PER_ORIGIN} tasks of one Microblogging system run at the same time:
+ * a task is submitted only when its system has a free slot, so tasks of other systems go first
+ * and no thread of the pool waits for a slot.
+ * All the tasks take their requests from the shared {@link org.andstatus.app.net.RateLimiter} budget.
+ * Each task has its own {@link CommandResult}, which is added to the command's result, when all the tasks end,
+ * so the User is notified once
+ * @author yvolk@yurivolkov.com
+ */
+class ParallelTimelineLoader {
+    static final int MAX_THREADS = 4;
+    static final int MAX_TASKS_PER_ORIGIN = 2;
+
+    private final CommandExecutionContext execContext;
+    private final CommandExecutorParent parent;
+
+    ParallelTimelineLoader(CommandExecutionContext execContext, CommandExecutorParent parent) {
+        this.execContext = execContext;
+        this.parent = parent;
+    }
+
+    static boolean isEnabled() {
+        return MyPreferences.getDefaultSharedPreferences().getBoolean(MyPreferences.KEY_PARALLEL_DOWNLOADS, false);
+    }
+
+    /**
+     * @param accounts Accounts with verified credentials
+     */
+    void load(List<MyAccount> accounts) {
+        List<Task> tasks = new ArrayList<Task>();
+        for (MyAccount ma : accounts) {
+            for (TimelineTypeEnum timelineType : CommandExecutorLoadTimeline.getTimelines(
+                    execContext.getCommandData().getTimelineType())) {
+                if (timelineType == TimelineTypeEnum.FOLLOWING_USER
+                        && execContext.getCommandData().getTimelineType() == TimelineTypeEnum.ALL
+                        && CommandExecutorLoadTimeline.isFollowingQuotaLow(ma)) {
+                    MyLog.d(this, "Rate limit quota is low, deferring " + timelineType + " for " + ma.getAccountName());
+                    continue;
+                }
+                tasks.add(new Task(ma, timelineType));
+            }
+        }
+        if (tasks.isEmpty()) {
+            return;
+        }
+        long startedAt = System.currentTimeMillis();
+        int threads = Math.min(MAX_THREADS, tasks.size());
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CompletionService<CommandResult> completion = new ExecutorCompletionService<CommandResult>(pool);
+        List<Task> pending = new LinkedList<Task>(tasks);
+        Map<Future<CommandResult>, Task> running = new HashMap<Future<CommandResult>, Task>();
+        try {
+            while (!pending.isEmpty() || !running.isEmpty()) {
+                submitTasks(pending, running, completion, threads);
+                Future<CommandResult> future = completion.take();
+                Task task = running.remove(future);
+                try {
+                    CommandResult result = future.get();
+                    if (result != null) {
+                        execContext.getResult().accumulate(result);
+                    }
+                } catch (ExecutionException e) {
+                    MyLog.e(this, "Failed to load " + task, e.getCause());
+                    execContext.getResult().incrementNumIoExceptions();
+                }
+            }
+        } catch (InterruptedException e) {
+            MyLog.d(this, "Interrupted", e);
+            execContext.getResult().incrementNumIoExceptions();
+        } finally {
+            pool.shutdownNow();
+        }
+        MyLog.d(this, tasks.size() + " timelines of " + accounts.size() + " accounts loaded in "
+                + (System.currentTimeMillis() - startedAt) + " ms, " + execContext.getResult());
+    }
+
+    /**
+     * Submits pending tasks in their order, skipping the tasks of the systems, which have no free slots.
+     * When nothing is running, the first pending task is always submitted
+     */
+    private void submitTasks(List<Task> pending, Map<Future<CommandResult>, Task> running,
+            CompletionService<CommandResult> completion, int threads) {
+        Map<Long, Integer> originTasks = new HashMap<Long, Integer>();
+        for (Task task : running.values()) {
+            Integer count = originTasks.get(task.ma.getOriginId());
+            originTasks.put(task.ma.getOriginId(), count == null ? 1 : count + 1);
+        }
+        Iterator<Task> iterator = pending.iterator();
+        while (iterator.hasNext() && running.size() < threads) {
+            Task task = iterator.next();
+            Integer count = originTasks.get(task.ma.getOriginId());
+            if (count != null && count >= MAX_TASKS_PER_ORIGIN) {
+                continue;
+            }
+            iterator.remove();
+            originTasks.put(task.ma.getOriginId(), count == null ? 1 : count + 1);
+            running.put(completion.submit(task), task);
+        }
+    }
+
+    /**
+     * Loads one timeline of one account with its own execution context
+     */
+    private class Task implements Callable<CommandResult> {
+        private final MyAccount ma;
+        private final TimelineTypeEnum timelineType;
+
+        Task(MyAccount ma, TimelineTypeEnum timelineType) {
+            this.ma = ma;
+            this.timelineType = timelineType;
+        }
+
+        /**
+         * @return null if the task was skipped
+         */
+        @Override
+        public CommandResult call() {
+            if (parent.isStopping()) {
+                return null;
+            }
+            CommandData commandData = new CommandData(execContext.getCommandData().getCommand(),
+                    ma.getAccountName(), timelineType, execContext.getCommandData().itemId);
+            CommandExecutionContext taskContext = new CommandExecutionContext(commandData, ma);
+            CommandExecutorLoadTimeline executor = new CommandExecutorLoadTimeline();
+            executor.setContext(taskContext).setParent(parent);
+            executor.loadTimeline();
+            return commandData.getResult();
+        }
+
+        @Override
+        public String toString() {
+            return timelineType + " of " + ma.getAccountName();
+        }
+    }
+}
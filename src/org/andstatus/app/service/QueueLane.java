@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2014 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.andstatus.app.service;
+
+/**
+ * Commands of different lanes are executed by different threads of {@link MyService},
+ * so e.g. a slow download of avatars doesn't delay a message, which the User is sending.
+ * All lanes take their commands from the same (shared) queues
+ * @author yvolk@yurivolkov.com
+ */
+enum QueueLane {
+    /** Commands, which the User waits for */
+    INTERACTIVE(1),
+    /**
+     * Commands, which change timelines and their positions (latest and oldest items, gaps).
+     * One thread only, so two commands never write the same timeline at a time
+     */
+    SYNC(1),
+    /** Avatars and other background work */
+    BULK(2);
+
+    /** Maximum number of threads, executing commands of the lane */
+    final int threads;
+
+    private QueueLane(int threads) {
+        this.threads = threads;
+    }
+
+    static QueueLane of(CommandEnum command) {
+        switch (command) {
+            case UPDATE_STATUS:
+            case DESTROY_STATUS:
+            case GET_STATUS:
+            case CREATE_FAVORITE:
+            case DESTROY_FAVORITE:
+            case REBLOG:
+            case DESTROY_REBLOG:
+            case FOLLOW_USER:
+            case STOP_FOLLOWING_USER:
+            case SEARCH_MESSAGE:
+            case RATE_LIMIT_STATUS:
+                return INTERACTIVE;
+            case AUTOMATIC_UPDATE:
+            case FETCH_TIMELINE:
+            case FETCH_OLDER:
+            case FILL_GAPS:
+                return SYNC;
+            default:
+                return BULK;
+        }
+    }
+}
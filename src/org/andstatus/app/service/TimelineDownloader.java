@@ -30,8 +30,9 @@ abstract class TimelineDownloader {
     private static final String TAG = TimelineDownloader.class.getSimpleName();
 
     protected CommandExecutionContext execContext;
+    protected CommandExecutorParent parent;
     
-    protected static TimelineDownloader getStrategy(CommandExecutionContext execContext) {
+    protected static TimelineDownloader getStrategy(CommandExecutionContext execContext, CommandExecutorParent parent) {
         TimelineDownloader td;
         switch (execContext.getTimelineType()) {
             case FOLLOWING_USER:
@@ -40,10 +41,21 @@ abstract class TimelineDownloader {
             case ALL:
                 throw new IllegalArgumentException(TAG + ": Invalid TimelineType for loadTimeline: " + execContext.getTimelineType());
             default:
-                td = new TimelineDownloaderOther();
+                switch (execContext.getCommandData().getCommand()) {
+                    case FETCH_OLDER:
+                        td = new TimelineDownloaderOlder();
+                        break;
+                    case FILL_GAPS:
+                        td = new TimelineDownloaderGaps();
+                        break;
+                    default:
+                        td = new TimelineDownloaderOther();
+                        break;
+                }
                 break;
         }
         td.execContext = execContext;
+        td.parent = parent;
         return td;
     }
     
@@ -16,10 +16,8 @@
 
 package org.andstatus.app.service;
 
-import android.database.sqlite.SQLiteDatabase;
 import android.text.TextUtils;
 
-import org.andstatus.app.context.MyContextHolder;
 import org.andstatus.app.data.DataInserter;
 import org.andstatus.app.data.FollowingUserValues;
 import org.andstatus.app.data.LatestTimelineItem;
@@ -29,6 +27,7 @@ import org.andstatus.app.data.MyProvider;
 import org.andstatus.app.data.MyDatabase.OidEnum;
 import org.andstatus.app.data.MyDatabase.User;
 import org.andstatus.app.data.TimelineTypeEnum;
+import org.andstatus.app.net.Connection;
 import org.andstatus.app.net.ConnectionException;
 import org.andstatus.app.net.MbTimelineItem;
 import org.andstatus.app.net.MbTimelineItem.ItemType;
@@ -36,12 +35,12 @@ import org.andstatus.app.net.MbUser;
 import org.andstatus.app.net.Connection.ApiRoutineEnum;
 import org.andstatus.app.net.ConnectionException.StatusCode;
 import org.andstatus.app.net.TimelinePosition;
+import org.andstatus.app.net.UsersPageConsumer;
 import org.andstatus.app.util.MyLog;
 
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
-import java.util.Set;
 
 class TimelineDownloaderFollowing extends TimelineDownloader {
 
@@ -68,67 +67,152 @@ class TimelineDownloaderFollowing extends TimelineDownloader {
             MyLog.d(this, strLog);
         }
         
+        boolean downloadedBefore = latestTimelineItem.getTimelineDownloadedDate() > 0;
         latestTimelineItem.onTimelineDownloaded();
-        List<String> followedUsersOids = null;
-        List<MbUser> followedUsers = null;
-        LatestUserMessages lum = new LatestUserMessages();
-        // Retrieve new list of followed users
-        DataInserter di = new DataInserter(execContext);
-        if (execContext.getMyAccount().getConnection().isApiSupported(ApiRoutineEnum.GET_FRIENDS)) {
-            followedUsers = execContext.getMyAccount().getConnection().getUsersFollowedBy(userOid);
-            followedUsersOids = new ArrayList<String>();
-            for (MbUser followedUser : followedUsers) {
-                followedUsersOids.add(followedUser.oid);
-                di.insertOrUpdateUser(followedUser, lum);
+        boolean ok = false;
+        try {
+            ok = downloadFollowingFor(userOid, latestTimelineItem, downloadedBefore);
+        } finally {
+            if (!ok) {
+                execContext.getMyAccount().getConnection().clearCachedResponses();
             }
-        } else if (execContext.getMyAccount().getConnection().isApiSupported(ApiRoutineEnum.GET_FRIENDS_IDS)) {
-            followedUsersOids = execContext.getMyAccount().getConnection().getIdsOfUsersFollowedBy(userOid);
+        }
+    }
+
+    /**
+     * @return true if succeeded
+     */
+    private boolean downloadFollowingFor(String userOid, LatestTimelineItem latestTimelineItem,
+            boolean downloadedBefore) throws ConnectionException {
+        Connection connection = execContext.getMyAccount().getConnection();
+        FollowingPageConsumer consumer = new FollowingPageConsumer(downloadedBefore);
+        // Retrieve new list of followed users
+        if (connection.isApiSupported(ApiRoutineEnum.GET_FRIENDS)) {
+            connection.getUsersFollowedBy(userOid, consumer);
+        } else if (connection.isApiSupported(ApiRoutineEnum.GET_FRIENDS_IDS)) {
+            connection.getIdsOfUsersFollowedBy(userOid, consumer);
         } else {
             throw new ConnectionException(StatusCode.UNSUPPORTED_API, ApiRoutineEnum.GET_FRIENDS 
                     + " and " + ApiRoutineEnum.GET_FRIENDS_IDS);
         }
-        // Old list of followed users
-        Set<Long> followedIdsOld = MyProvider.getIdsOfUsersFollowedBy(execContext.getTimelineUserId());
-        SQLiteDatabase db = MyContextHolder.get().getDatabase().getWritableDatabase();
-        for (String followedUserOid : followedUsersOids) {
-            long friendId = MyProvider.oidToId(MyDatabase.OidEnum.USER_OID, execContext.getMyAccount().getOriginId(), followedUserOid);
-            long msgId = 0;
-            if (friendId != 0) {
-                followedIdsOld.remove(friendId);
-                msgId = MyProvider.userIdToLongColumnValue(User.USER_MSG_ID, friendId);
+        consumer.onAllPagesDownloaded();
+        latestTimelineItem.save();
+        return true;
+    }
+
+    /**
+     * Compares each downloaded page of the list of followed users with the old list 
+     * and writes changed "following" information only.
+     * The users, who are not followed any more, are known after the last page only,
+     * so nobody is marked as unfollowed, if the list wasn't downloaded completely:
+     * the {@link Connection} throws an exception then and {@link #onAllPagesDownloaded()} isn't called
+     */
+    private class FollowingPageConsumer implements UsersPageConsumer {
+        private final boolean downloadedBefore;
+        private final DataInserter di = new DataInserter(execContext);
+        private final LatestUserMessages lum = new LatestUserMessages();
+        private final FollowingDiff diff = new FollowingDiff(
+                MyProvider.getIdsOfUsersFollowedBy(execContext.getTimelineUserId()));
+
+        FollowingPageConsumer(boolean downloadedBefore) {
+            this.downloadedBefore = downloadedBefore;
+        }
+
+        @Override
+        public void onUsersPage(List<MbUser> users) throws ConnectionException {
+            // The page is the same as the one, which we stored last time
+            boolean notModified = downloadedBefore
+                    && execContext.getMyAccount().getConnection().isLastResponseNotModified();
+            List<String> followedUsersOids = new ArrayList<String>();
+            List<MbTimelineItem> items = new ArrayList<MbTimelineItem>();
+            for (MbUser followedUser : users) {
+                followedUsersOids.add(followedUser.oid);
+                if (!TextUtils.isEmpty(followedUser.userName)) {
+                    MbTimelineItem item = new MbTimelineItem();
+                    item.mbUser = followedUser;
+                    items.add(item);
+                }
+            }
+            if (!notModified) {
+                if (!items.isEmpty()) {
+                    di.insertOrUpdateTimelinePage(items, lum, null);
+                }
+                downloadUsers(usersToDownload(followedUsersOids), di, lum);
             }
-            // The Friend doesn't have any messages sent, so let's download the latest
-            if (msgId == 0) {
-                try {
-                    // Download the Users's info + optionally his latest message
-                    if (friendId == 0 || execContext.getMyAccount().getConnection().userObjectHasMessage()) {
-                        MbUser mbUser = execContext.getMyAccount().getConnection().getUser(followedUserOid);
-                        friendId = di.insertOrUpdateUser(mbUser, lum);
-                        msgId = MyProvider.userIdToLongColumnValue(User.USER_MSG_ID, friendId);
-                    } 
-                    if (friendId != 0 && msgId == 0) {
+            for (String followedUserOid : followedUsersOids) {
+                long friendId = MyProvider.oidToId(MyDatabase.OidEnum.USER_OID, execContext.getMyAccount().getOriginId(), followedUserOid);
+                if (!diff.onFollowed(friendId)) {
+                    continue;
+                }
+                if (diff.isAdded(friendId)) {
+                    setFollowed(friendId, true);
+                }
+                // The Friend doesn't have any messages sent, so let's download the latest
+                if (!notModified && MyProvider.userIdToLongColumnValue(User.USER_MSG_ID, friendId) == 0) {
+                    try {
                         downloadOneMessageBy(followedUserOid, lum);
+                    } catch (ConnectionException e) {
+                        MyLog.i(this, "Failed to download a message for oid=" + followedUserOid, e);
                     }
-                } catch (ConnectionException e) {
-                    MyLog.i(this, "Failed to download the User object or his message for oid=" + followedUserOid, e);
                 }
             }
-            if (friendId != 0) {
-                FollowingUserValues fu = new FollowingUserValues(execContext.getTimelineUserId(), friendId);
-                fu.setFollowed(true);
-                fu.update(db);
+        }
+
+        void onAllPagesDownloaded() {
+            lum.save();
+            diff.onListComplete();
+            // Now let's remove "following" information for all users left in the old list:
+            for (long notFollowingId : diff.getNotFollowedAnyMore()) {
+                setFollowed(notFollowingId, false);
             }
+            MyLog.d(this, "Followed users: " + diff.getFollowedCount() + ", new: " + diff.getAddedCount()
+                    + ", not followed any more: " + diff.getNotFollowedAnyMore().size());
         }
-        
-        lum.save();
-        
-        // Now let's remove "following" information for all users left in the Set:
-        for (long notFollowingId : followedIdsOld) {
-            FollowingUserValues fu = new FollowingUserValues(execContext.getTimelineUserId(), notFollowingId);
-            fu.setFollowed(false);
-            fu.update(db);
+
+        private void setFollowed(long friendId, boolean followed) {
+            FollowingUserValues fu = new FollowingUserValues(execContext.getTimelineUserId(), friendId);
+            fu.setFollowed(followed);
+            fu.update();
+        }
+    }
+
+    /**
+     * @return oids of the followed Users without messages, who are new for us,
+     *  or whose User object may have their latest message
+     */
+    private List<String> usersToDownload(List<String> followedUsersOids) {
+        List<String> userOids = new ArrayList<String>();
+        boolean userObjectHasMessage = execContext.getMyAccount().getConnection().userObjectHasMessage();
+        for (String followedUserOid : followedUsersOids) {
+            long friendId = MyProvider.oidToId(MyDatabase.OidEnum.USER_OID, execContext.getMyAccount().getOriginId(), followedUserOid);
+            if (friendId == 0 || (userObjectHasMessage
+                    && MyProvider.userIdToLongColumnValue(User.USER_MSG_ID, friendId) == 0)) {
+                userOids.add(followedUserOid);
+            }
+        }
+        return userOids;
+    }
+
+    /**
+     * Downloads the Users with one bulk lookup, instead of a request per User,
+     * and stores them in one transaction
+     */
+    private void downloadUsers(List<String> userOids, DataInserter di, LatestUserMessages lum) {
+        if (userOids.isEmpty()) {
+            return;
+        }
+        try {
+            List<MbTimelineItem> items = new ArrayList<MbTimelineItem>();
+            for (MbUser mbUser : execContext.getMyAccount().getConnection().getUsers(userOids)) {
+                MbTimelineItem item = new MbTimelineItem();
+                item.mbUser = mbUser;
+                items.add(item);
+            }
+            di.insertOrUpdateTimelinePage(items, lum, null);
+            MyLog.d(this, "Downloaded " + items.size() + " of " + userOids.size() + " users");
+        } catch (ConnectionException e) {
+            MyLog.i(this, "Failed to download " + userOids.size() + " User objects", e);
         }
-        latestTimelineItem.save();
     }
 
     private void downloadOneMessageBy(String userOid, LatestUserMessages lum) throws ConnectionException {
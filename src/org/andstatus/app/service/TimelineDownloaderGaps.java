@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2014 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app.service;
+
+import android.text.TextUtils;
+
+import org.andstatus.app.data.DataInserter;
+import org.andstatus.app.data.LatestUserMessages;
+import org.andstatus.app.data.MyDatabase.OidEnum;
+import org.andstatus.app.data.MyProvider;
+import org.andstatus.app.data.OldestTimelineItem;
+import org.andstatus.app.data.TimelineGaps;
+import org.andstatus.app.net.ConnectionException;
+import org.andstatus.app.net.ConnectionException.StatusCode;
+import org.andstatus.app.util.MyLog;
+
+/**
+ * Fills the {@link TimelineGaps} of a timeline ({@link CommandEnum#FILL_GAPS}), newest gap first.
+ * Each page is requested inside the gap: older than its newer bound and newer than its older bound,
+ * so the gap shrinks from its newer end, till a page reaches the gap's older bound or comes back empty.
+ * A page, which isn't full, doesn't mean the end of the gap: servers may return less items,
+ * than requested, e.g. skipping deleted ones.
+ * Not more than {@link #MAX_PAGES} pages are downloaded by one command, so the commands,
+ * which the User waits for, are not delayed much. The command is repeated while gaps are left
+ * @author yvolk@yurivolkov.com
+ */
+class TimelineDownloaderGaps extends TimelineDownloader {
+    static final int MAX_PAGES = 5;
+    static final int MESSAGES_IN_PAGE = 100;
+
+    @Override
+    public void download() throws ConnectionException {
+        TimelineGaps gaps = new TimelineGaps(execContext.getTimelineType(), execContext.getTimelineUserId());
+        if (gaps.isEmpty()) {
+            return;
+        }
+        String userOid =  MyProvider.idToOid(OidEnum.USER_OID, execContext.getTimelineUserId(), 0);
+        if (TextUtils.isEmpty(userOid)) {
+            throw new ConnectionException("User oId is not found for id=" + execContext.getTimelineUserId());
+        }
+        OldestTimelineItem oldestTimelineItem = new OldestTimelineItem(execContext.getTimelineType(), execContext.getTimelineUserId());
+        LatestUserMessages latestUserMessages = new LatestUserMessages();
+        DataInserter di = new DataInserter(execContext);
+        int limit = execContext.getMyAccount().getConnection().fixedDownloadLimitForApiRoutine(MESSAGES_IN_PAGE,
+                execContext.getTimelineType().getConnectionApiRoutine());
+        for (int pageNumber = 0; pageNumber < MAX_PAGES && !gaps.isEmpty(); pageNumber++) {
+            TimelineGaps.Gap gap = gaps.getGaps().get(0);
+            TimelinePageConsumer page = new TimelinePageConsumer(di, latestUserMessages);
+            try {
+                execContext.getMyAccount().getConnection().getTimelineOlder(
+                        execContext.getTimelineType().getConnectionApiRoutine(), gap.olderPosition,
+                        gap.newerPosition, limit, userOid, page);
+            } catch (ConnectionException e) {
+                if (e.getStatusCode() != StatusCode.NOT_FOUND) {
+                    throw e;
+                }
+                MyLog.d(this, "Bound of the gap was not found, the gap is dropped: " + gap, e);
+                gaps.replace(gap, null);
+                continue;
+            }
+            int count = page.onPageDownloaded(null, oldestTimelineItem);
+            if (count == 0 || page.getOldestPosition() == null || isGapFilled(gap, page)) {
+                MyLog.d(this, "Gap filled with " + count + " items: " + gap);
+                gaps.replace(gap, null);
+            } else {
+                gaps.replace(gap, gap.withNewerBound(page.getOldestPosition(), page.getOldestDate()));
+            }
+        }
+        latestUserMessages.save();
+    }
+
+    /**
+     * @return true if the page reached a bound of the gap, so nothing is left between them
+     */
+    private boolean isGapFilled(TimelineGaps.Gap gap, TimelinePageConsumer page) {
+        return page.getOldestPosition().equals(gap.newerPosition)
+                || page.getOldestPosition().equals(gap.olderPosition)
+                || (gap.olderDate > 0 && page.getOldestDate() <= gap.olderDate);
+    }
+}
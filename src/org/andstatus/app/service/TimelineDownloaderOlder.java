@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2014 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app.service;
+
+import android.text.TextUtils;
+
+import org.andstatus.app.data.DataInserter;
+import org.andstatus.app.data.LatestUserMessages;
+import org.andstatus.app.data.MyDatabase.OidEnum;
+import org.andstatus.app.data.MyProvider;
+import org.andstatus.app.data.OldestTimelineItem;
+import org.andstatus.app.net.ConnectionException;
+import org.andstatus.app.net.TimelinePosition;
+import org.andstatus.app.util.MyLog;
+
+/**
+ * Downloads one page of the timeline items, which are older than the oldest downloaded one
+ * ({@link CommandEnum#FETCH_OLDER}). Backward paging, see {@link OldestTimelineItem}
+ * @author yvolk@yurivolkov.com
+ */
+class TimelineDownloaderOlder extends TimelineDownloader {
+    static final int MESSAGES_IN_PAGE = 40;
+
+    @Override
+    public void download() throws ConnectionException {
+        OldestTimelineItem oldestTimelineItem = new OldestTimelineItem(execContext.getTimelineType(), execContext.getTimelineUserId());
+        if (oldestTimelineItem.isEndReached()) {
+            MyLog.d(this, "Nothing older: " + oldestTimelineItem);
+            return;
+        }
+        if (execContext.getMyAccount().getConnection().isTimelinePositionMsgOid()
+                && oldestTimelineItem.onOldestStoredMessage()) {
+            oldestTimelineItem.save();
+        }
+        TimelinePosition olderThan = oldestTimelineItem.getPosition();
+        if (olderThan.isEmpty()) {
+            MyLog.d(this, "The oldest position is not known yet, loading the latest items");
+            TimelineDownloader td = new TimelineDownloaderOther();
+            td.execContext = execContext;
+            td.parent = parent;
+            td.download();
+            return;
+        }
+        String userOid =  MyProvider.idToOid(OidEnum.USER_OID, execContext.getTimelineUserId(), 0);
+        if (TextUtils.isEmpty(userOid)) {
+            throw new ConnectionException("User oId is not found for id=" + execContext.getTimelineUserId());
+        }
+        MyLog.d(this, "Loading older " + execContext.getTimelineType() + "; account="
+                + execContext.getMyAccount().getAccountName() + "; " + oldestTimelineItem);
+        LatestUserMessages latestUserMessages = new LatestUserMessages();
+        int limit = execContext.getMyAccount().getConnection().fixedDownloadLimitForApiRoutine(MESSAGES_IN_PAGE,
+                execContext.getTimelineType().getConnectionApiRoutine());
+        TimelinePageConsumer page = new TimelinePageConsumer(new DataInserter(execContext), latestUserMessages);
+        execContext.getMyAccount().getConnection().getTimelineOlder(
+                execContext.getTimelineType().getConnectionApiRoutine(), TimelinePosition.getEmpty(), olderThan,
+                limit, userOid, page);
+        int count = page.onPageDownloaded(null, oldestTimelineItem);
+        if (count == 0 || olderThan.equals(oldestTimelineItem.getPosition())) {
+            oldestTimelineItem.onEndReached();
+            oldestTimelineItem.save();
+        }
+        latestUserMessages.save();
+        MyLog.d(this, count + " older items loaded; " + oldestTimelineItem);
+    }
+}
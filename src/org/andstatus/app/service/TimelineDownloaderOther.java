@@ -22,22 +22,72 @@ import org.andstatus.app.data.DataInserter;
 import org.andstatus.app.data.LatestTimelineItem;
 import org.andstatus.app.data.LatestUserMessages;
 import org.andstatus.app.data.MyProvider;
+import org.andstatus.app.data.OldestTimelineItem;
+import org.andstatus.app.data.TimelineGaps;
 import org.andstatus.app.data.MyDatabase.OidEnum;
 import org.andstatus.app.net.ConnectionException;
 import org.andstatus.app.net.MbTimelineItem;
+import org.andstatus.app.net.TimelineItemConsumer;
 import org.andstatus.app.net.TimelinePosition;
 import org.andstatus.app.net.ConnectionException.StatusCode;
 import org.andstatus.app.util.MyLog;
 
 import java.util.Date;
-import java.util.List;
 
+/**
+ * Downloads the newest items of a timeline page by page.
+ * The pages are downloaded in a separate thread of the {@link DownloadPipeline}, so the next page is being
+ * downloaded, while the previous one is being stored
+ */
 class TimelineDownloaderOther extends TimelineDownloader {
     private static final int MAXIMUM_NUMBER_OF_MESSAGES_TO_DOWNLOAD = 200;
 
+    /**
+     * A downloaded item or, if the item is null, the end of a downloaded page
+     */
+    private static final class PipelineElement {
+        final MbTimelineItem item;
+        final int limit;
+        final boolean isFirstPage;
+
+        private PipelineElement(MbTimelineItem item, int limit, boolean isFirstPage) {
+            this.item = item;
+            this.limit = limit;
+            this.isFirstPage = isFirstPage;
+        }
+    }
+
+    /**
+     * Passes items of a page to the pipeline and finds the newest of them,
+     * so the next page may be requested before this one is stored
+     */
+    private static final class PageProducer implements TimelineItemConsumer {
+        private final DownloadPipeline<PipelineElement> pipeline;
+        int count = 0;
+        TimelinePosition newestPosition = null;
+        long newestDate;
+
+        PageProducer(DownloadPipeline<PipelineElement> pipeline, long newestDate) {
+            this.pipeline = pipeline;
+            this.newestDate = newestDate;
+        }
+
+        @Override
+        public void onTimelineItem(MbTimelineItem item) throws ConnectionException {
+            if (item.timelineItemPosition != null && !item.timelineItemPosition.isEmpty()
+                    && item.timelineItemDate > newestDate) {
+                newestPosition = item.timelineItemPosition;
+                newestDate = item.timelineItemDate;
+            }
+            count++;
+            pipeline.put(new PipelineElement(item, 0, false));
+        }
+    }
+
     @Override
     public void download() throws ConnectionException {
         LatestTimelineItem latestTimelineItem = new LatestTimelineItem(execContext.getTimelineType(), execContext.getTimelineUserId());
+        OldestTimelineItem oldestTimelineItem = new OldestTimelineItem(execContext.getTimelineType(), execContext.getTimelineUserId());
         
         if (MyLog.isLoggable(this, MyLog.DEBUG)) {
             String strLog = "Loading " + execContext.getTimelineType() + "; account=" 
@@ -49,40 +99,71 @@ class TimelineDownloaderOther extends TimelineDownloader {
             }
             MyLog.d(this, strLog);
         }
-        String userOid =  MyProvider.idToOid(OidEnum.USER_OID, execContext.getTimelineUserId(), 0);
+        final String userOid =  MyProvider.idToOid(OidEnum.USER_OID, execContext.getTimelineUserId(), 0);
         if (TextUtils.isEmpty(userOid)) {
             throw new ConnectionException("User oId is not found for id=" + execContext.getTimelineUserId());
         }
-        int toDownload = MAXIMUM_NUMBER_OF_MESSAGES_TO_DOWNLOAD;
-        TimelinePosition lastPosition = latestTimelineItem.getPosition();
+        final TimelinePosition previousPosition = latestTimelineItem.getPosition();
+        final long previousDate = latestTimelineItem.getTimelineItemDate();
         LatestUserMessages latestUserMessages = new LatestUserMessages();
         latestTimelineItem.onTimelineDownloaded();
         DataInserter di = new DataInserter(execContext);
+        DownloadPipeline<PipelineElement> pipeline = new DownloadPipeline<PipelineElement>(parent,
+                DownloadPipeline.QUEUE_CAPACITY);
+        pipeline.start(new DownloadPipeline.Producer<PipelineElement>() {
+            @Override
+            public void produce(DownloadPipeline<PipelineElement> producerPipeline) throws ConnectionException {
+                downloadPages(producerPipeline, userOid, previousPosition, previousDate);
+            }
+        }, "Download" + execContext.getTimelineType().save());
+        try {
+            TimelinePageConsumer page = new TimelinePageConsumer(di, latestUserMessages);
+            for (PipelineElement element = pipeline.take(); element != null; element = pipeline.take()) {
+                if (element.item != null) {
+                    page.onTimelineItem(element.item);
+                    continue;
+                }
+                int count = page.onPageDownloaded(latestTimelineItem, oldestTimelineItem);
+                if (count >= element.limit && !previousPosition.isEmpty() && element.isFirstPage) {
+                    // The newest page is full, so older new items may be left between it and the previous download
+                    onGapFound(new TimelineGaps.Gap(page.getOldestPosition(), page.getOldestDate(),
+                            previousPosition, previousDate));
+                }
+                page = new TimelinePageConsumer(di, latestUserMessages);
+            }
+        } finally {
+            pipeline.stop();
+            execContext.getResult().onPipelined(pipeline.getProduceMillis(), pipeline.getConsumeMillis(),
+                    pipeline.getElapsedMillis());
+            MyLog.v(this, "Pipeline of " + execContext.getTimelineType() + ": fetch " + pipeline.getProduceMillis()
+                    + " ms, insert " + pipeline.getConsumeMillis() + " ms, elapsed " + pipeline.getElapsedMillis() + " ms");
+        }
+        latestUserMessages.save();
+        latestTimelineItem.save();
+    }
+
+    /**
+     * The producer's stage of the pipeline
+     */
+    private void downloadPages(DownloadPipeline<PipelineElement> pipeline, String userOid,
+            TimelinePosition previousPosition, long previousDate) throws ConnectionException {
+        int toDownload = MAXIMUM_NUMBER_OF_MESSAGES_TO_DOWNLOAD;
+        TimelinePosition lastPosition = previousPosition;
+        long lastDate = previousDate;
         for (boolean done = false; !done; ) {
             try {
                 int limit = execContext.getMyAccount().getConnection().fixedDownloadLimitForApiRoutine(toDownload, 
                         execContext.getTimelineType().getConnectionApiRoutine()); 
-                List<MbTimelineItem> messages = execContext.getMyAccount().getConnection().getTimeline(
-                        execContext.getTimelineType().getConnectionApiRoutine(), lastPosition, limit, userOid);
-                for (MbTimelineItem item : messages) {
-                    toDownload--;
-                    latestTimelineItem.onNewMsg(item.timelineItemPosition, item.timelineItemDate);
-                    switch (item.getType()) {
-                        case MESSAGE:
-                            di.insertOrUpdateMsg(item.mbMessage, latestUserMessages);
-                            break;
-                        case USER:
-                            di.insertOrUpdateUser(item.mbUser);
-                            break;
-                        default:
-                            break;
-                    }
-                }
-                if (toDownload <= 0
-                        || lastPosition == latestTimelineItem.getPosition()) {
+                PageProducer page = new PageProducer(pipeline, lastDate);
+                execContext.getMyAccount().getConnection().getTimeline(
+                        execContext.getTimelineType().getConnectionApiRoutine(), lastPosition, limit, userOid, page);
+                pipeline.put(new PipelineElement(null, limit, lastPosition == previousPosition));
+                toDownload -= page.count;
+                if (toDownload <= 0 || page.newestPosition == null) {
                     done = true;
                 } else {
-                    lastPosition = latestTimelineItem.getPosition();
+                    lastPosition = page.newestPosition;
+                    lastDate = page.newestDate;
                 }
             } catch (ConnectionException e) {
                 if (e.getStatusCode() != StatusCode.NOT_FOUND) {
@@ -96,8 +177,14 @@ class TimelineDownloaderOther extends TimelineDownloader {
                 lastPosition = TimelinePosition.getEmpty();
             }
         }
-        latestUserMessages.save();
-        latestTimelineItem.save();
     }
 
+    private void onGapFound(TimelineGaps.Gap gap) {
+        if (gap.newerPosition == null) {
+            return;
+        }
+        MyLog.d(this, "Gap found in " + execContext.getTimelineType() + ": " + gap);
+        TimelineGaps gaps = new TimelineGaps(execContext.getTimelineType(), execContext.getTimelineUserId());
+        gaps.add(gap);
+    }
 }
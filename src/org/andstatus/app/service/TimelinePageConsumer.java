@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2014 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app.service;
+
+import org.andstatus.app.data.DataInserter;
+import org.andstatus.app.data.LatestTimelineItem;
+import org.andstatus.app.data.LatestUserMessages;
+import org.andstatus.app.data.OldestTimelineItem;
+import org.andstatus.app.net.MbTimelineItem;
+import org.andstatus.app.net.TimelineItemConsumer;
+import org.andstatus.app.net.TimelinePosition;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stores items of a timeline page in small batches while the rest of the page is being received.
+ * The batches are stored in the order of the response: timelines are sorted by the sent date, not by row ids.
+ * The timeline positions are advanced only after the whole page is stored,
+ * so an interrupted page will be downloaded again
+ */
+class TimelinePageConsumer implements TimelineItemConsumer {
+    private static final int ITEMS_IN_BATCH = 20;
+
+    private final DataInserter di;
+    private final LatestUserMessages latestUserMessages;
+    private final List<MbTimelineItem> batch = new ArrayList<MbTimelineItem>();
+    private int count = 0;
+    private TimelinePosition newestPosition = null;
+    private long newestDate = 0;
+    private TimelinePosition oldestPosition = null;
+    private long oldestDate = 0;
+
+    TimelinePageConsumer(DataInserter di, LatestUserMessages latestUserMessages) {
+        this.di = di;
+        this.latestUserMessages = latestUserMessages;
+    }
+
+    @Override
+    public void onTimelineItem(MbTimelineItem item) {
+        if (item.timelineItemPosition != null && !item.timelineItemPosition.isEmpty()
+                && item.timelineItemDate > 0) {
+            if (item.timelineItemDate > newestDate) {
+                newestPosition = item.timelineItemPosition;
+                newestDate = item.timelineItemDate;
+            }
+            if (oldestDate == 0 || item.timelineItemDate < oldestDate) {
+                oldestPosition = item.timelineItemPosition;
+                oldestDate = item.timelineItemDate;
+            }
+        }
+        batch.add(item);
+        if (batch.size() >= ITEMS_IN_BATCH) {
+            flush();
+        }
+    }
+
+    private void flush() {
+        if (!batch.isEmpty()) {
+            count += di.insertOrUpdateTimelinePage(batch, latestUserMessages, null);
+            batch.clear();
+        }
+    }
+
+    /**
+     * @return Position of the oldest item of the page, null if none
+     */
+    TimelinePosition getOldestPosition() {
+        return oldestPosition;
+    }
+
+    long getOldestDate() {
+        return oldestDate;
+    }
+
+    /**
+     * @param latestTimelineItem null, if the newest position shouldn't be changed
+     * @return number of items of the page
+     */
+    int onPageDownloaded(LatestTimelineItem latestTimelineItem, OldestTimelineItem oldestTimelineItem) {
+        flush();
+        if (latestTimelineItem != null) {
+            latestTimelineItem.onNewMsg(newestPosition, newestDate);
+            latestTimelineItem.save();
+        }
+        oldestTimelineItem.onMsg(oldestPosition, oldestDate);
+        oldestTimelineItem.save();
+        return count;
+    }
+}
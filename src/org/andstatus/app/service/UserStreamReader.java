@@ -0,0 +1,241 @@
+/*
+ * Copyright (c) 2014 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.andstatus.app.service;
+
+import org.andstatus.app.account.MyAccount;
+import org.andstatus.app.account.MyAccount.CredentialsVerificationStatus;
+import org.andstatus.app.context.MyContextHolder;
+import org.andstatus.app.data.DataInserter;
+import org.andstatus.app.data.LatestTimelineItem;
+import org.andstatus.app.data.LatestUserMessages;
+import org.andstatus.app.data.MyProvider;
+import org.andstatus.app.data.TimelineTypeEnum;
+import org.andstatus.app.net.ConnectionException;
+import org.andstatus.app.net.ConnectionException.StatusCode;
+import org.andstatus.app.net.MbTimelineItem;
+import org.andstatus.app.net.UserStreamConsumer;
+import org.andstatus.app.util.MyLog;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the "user stream" connection of one account, see {@link UserStreams}.
+ * Received messages are stored in small batches: when {@link #ITEMS_IN_BATCH} are received
+ * or when nothing more is received yet. Positions of the {@link LatestTimelineItem}s of the Home and Direct timelines
+ * are advanced with each batch, so the next download starts after the streamed messages.
+ * The stream is reconnected with an exponential backoff. After {@link #MAX_FAILURES} failures in a row
+ * (or at once, if the stream is not supported or not authorized) the reader stops, so the account is polled again.
+ * Messages, which were sent while the stream was disconnected, are downloaded by an {@link CommandEnum#AUTOMATIC_UPDATE}.
+ * The reader stops, when automatic sync of the account is turned off
+ */
+class UserStreamReader implements Runnable, UserStreamConsumer {
+    static final int ITEMS_IN_BATCH = 20;
+    static final long MIN_BACKOFF_MILLIS = 5000;
+    static final long MAX_BACKOFF_MILLIS = 320000;
+    static final int MAX_FAILURES = 6;
+    /** A stream, which was connected for this long, is healthy, so the backoff starts anew */
+    static final long HEALTHY_STREAM_MILLIS = 60000;
+    /** How often the sync settings of the account are checked, while the stream is idle */
+    static final long SYNC_CHECK_MILLIS = 60000;
+
+    private final String accountName;
+    private volatile boolean stopped = false;
+    private volatile boolean alive = true;
+    private volatile boolean connected = false;
+
+    /** These are used by the reader's thread only */
+    private MyAccount ma = null;
+    private final List<MbTimelineItem> batch = new ArrayList<MbTimelineItem>();
+    private long syncCheckedAt = 0;
+
+    UserStreamReader(String accountName) {
+        this.accountName = accountName;
+    }
+
+    @Override
+    public void run() {
+        MyLog.d(this, "Started for " + accountName);
+        int failures = 0;
+        boolean fallBackToPolling = false;
+        try {
+            while (!isStopped()) {
+                ma = MyContextHolder.get().persistentAccounts().fromAccountName(accountName);
+                if (ma == null || !ma.isValid()
+                        || ma.getCredentialsVerified() != CredentialsVerificationStatus.SUCCEEDED) {
+                    MyLog.d(this, "The account is not usable: " + accountName);
+                    break;
+                }
+                if (!isSyncOn()) {
+                    break;
+                }
+                if (failures > 0) {
+                    catchUp();
+                }
+                long startedAt = System.currentTimeMillis();
+                try {
+                    ma.getConnection().readUserStream(this);
+                    MyLog.d(this, "Closed by the server, account=" + accountName);
+                } catch (ConnectionException e) {
+                    MyLog.i(this, "Failed for " + accountName, e);
+                    if (e.isHardError() || e.getStatusCode() == StatusCode.UNSUPPORTED_API
+                            || e.getStatusCode() == StatusCode.AUTHENTICATION_ERROR) {
+                        fallBackToPolling = true;
+                        break;
+                    }
+                } finally {
+                    connected = false;
+                    flush();
+                }
+                if (isStopped()) {
+                    break;
+                }
+                failures = System.currentTimeMillis() - startedAt > HEALTHY_STREAM_MILLIS ? 1 : failures + 1;
+                if (failures > MAX_FAILURES) {
+                    fallBackToPolling = true;
+                    break;
+                }
+                Thread.sleep(backoffMillis(failures));
+            }
+        } catch (InterruptedException e) {
+            MyLog.d(this, "Interrupted, account=" + accountName, e);
+        } finally {
+            connected = false;
+            alive = false;
+        }
+        if (fallBackToPolling && !stopped) {
+            MyLog.i(this, "Falling back to polling, account=" + accountName);
+            catchUp();
+        }
+        MyLog.d(this, "Ended for " + accountName);
+    }
+
+    /**
+     * @param failures 1 and more
+     */
+    static long backoffMillis(int failures) {
+        long millis = MIN_BACKOFF_MILLIS;
+        for (int count = 1; count < failures && millis < MAX_BACKOFF_MILLIS; count++) {
+            millis *= 2;
+        }
+        return Math.min(millis, MAX_BACKOFF_MILLIS);
+    }
+
+    /**
+     * Download messages, which were sent, while the stream was disconnected
+     */
+    private void catchUp() {
+        MyServiceManager.sendCommand(new CommandData(CommandEnum.AUTOMATIC_UPDATE, accountName,
+                TimelineTypeEnum.ALL, 0));
+    }
+
+    @Override
+    public void onTimelineItem(MbTimelineItem item) {
+        batch.add(item);
+        if (batch.size() >= ITEMS_IN_BATCH) {
+            flush();
+        }
+    }
+
+    @Override
+    public void onIdle() {
+        connected = true;
+        flush();
+        if (System.currentTimeMillis() - syncCheckedAt > SYNC_CHECK_MILLIS) {
+            isSyncOn();
+        }
+    }
+
+    /**
+     * Stops the reader, if automatic sync of the account was turned off
+     */
+    private boolean isSyncOn() {
+        syncCheckedAt = System.currentTimeMillis();
+        if (!ma.isSyncedAutomatically()) {
+            MyLog.d(this, "Sync is off, account=" + accountName);
+            stop();
+            return false;
+        }
+        return true;
+    }
+
+    private void flush() {
+        if (batch.isEmpty() || ma == null) {
+            return;
+        }
+        List<MbTimelineItem> messages = new ArrayList<MbTimelineItem>();
+        List<MbTimelineItem> directMessages = new ArrayList<MbTimelineItem>();
+        for (MbTimelineItem item : batch) {
+            if (item.mbMessage != null && item.mbMessage.recipient != null) {
+                directMessages.add(item);
+            } else {
+                messages.add(item);
+            }
+        }
+        batch.clear();
+        LatestUserMessages latestUserMessages = new LatestUserMessages();
+        CommandExecutionContext home = insert(messages, TimelineTypeEnum.HOME, latestUserMessages);
+        CommandExecutionContext direct = insert(directMessages, TimelineTypeEnum.DIRECT, latestUserMessages);
+        latestUserMessages.save();
+        int msgAdded = home.getResult().getMessagesAdded();
+        int mentionsAdded = home.getResult().getMentionsAdded();
+        int directedAdded = direct.getResult().getDirectedAdded();
+        if (msgAdded + mentionsAdded + directedAdded > 0) {
+            home.getContext().getContentResolver().notifyChange(MyProvider.TIMELINE_URI, null);
+            ((CommandExecutorLoadTimeline) new CommandExecutorLoadTimeline().setContext(home))
+                    .notifyOfUpdatedTimeline(msgAdded, mentionsAdded, directedAdded);
+        }
+    }
+
+    private CommandExecutionContext insert(List<MbTimelineItem> items, TimelineTypeEnum timelineType,
+            LatestUserMessages latestUserMessages) {
+        CommandExecutionContext execContext = new CommandExecutionContext(
+                new CommandData(CommandEnum.FETCH_TIMELINE, accountName, timelineType, 0), ma)
+                .setTimelineUserId(ma.getUserId());
+        if (!items.isEmpty()) {
+            new DataInserter(execContext).insertOrUpdateTimelinePage(items, latestUserMessages, null);
+            LatestTimelineItem latestTimelineItem = new LatestTimelineItem(timelineType, ma.getUserId());
+            for (MbTimelineItem item : items) {
+                latestTimelineItem.onNewMsg(item.timelineItemPosition, item.timelineItemDate);
+            }
+            latestTimelineItem.save();
+        }
+        return execContext;
+    }
+
+    @Override
+    public boolean isStopped() {
+        return stopped || !UserStreams.isEnabled();
+    }
+
+    void stop() {
+        stopped = true;
+    }
+
+    boolean isAlive() {
+        return alive && !stopped;
+    }
+
+    boolean isConnected() {
+        return connected && !isStopped();
+    }
+
+    @Override
+    public String toString() {
+        return MyLog.formatKeyValue("UserStreamReader", accountName
+                + (connected ? ",connected" : "") + (stopped ? ",stopped" : ""));
+    }
+}
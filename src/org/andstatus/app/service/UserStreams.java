@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2014 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.andstatus.app.service;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+import org.andstatus.app.account.MyAccount;
+import org.andstatus.app.context.MyPreferences;
+import org.andstatus.app.net.Connection.ApiRoutineEnum;
+import org.andstatus.app.syncadapter.SyncAdapter;
+import org.andstatus.app.util.MyLog;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * "User stream" connections of the accounts, an alternative to polling:
+ * new messages are received as soon as they appear, see {@link MyPreferences#KEY_USER_STREAM}.
+ * The streams are started by the periodic sync ({@link SyncAdapter}), each one runs in its own thread.
+ * While the stream of an account is connected, the periodic sync doesn't poll its timelines.
+ * The account falls back to polling, if the stream is not supported or unavailable
+ * @author yvolk@yurivolkov.com
+ */
+@ThreadSafe
+public final class UserStreams {
+    private static final String TAG = UserStreams.class.getSimpleName();
+    private static final UserStreams INSTANCE = new UserStreams();
+
+    @GuardedBy("this")
+    private final Map<String, UserStreamReader> readers = new HashMap<String, UserStreamReader>();
+
+    private UserStreams() {
+    }
+
+    public static UserStreams getInstance() {
+        return INSTANCE;
+    }
+
+    public static boolean isEnabled() {
+        return MyPreferences.getDefaultSharedPreferences().getBoolean(MyPreferences.KEY_USER_STREAM, false);
+    }
+
+    /**
+     * Starts the stream of the account, if streams are enabled and supported, and it's not running yet
+     */
+    public synchronized void start(MyAccount ma) {
+        if (!isEnabled() || !ma.getConnection().isApiSupported(ApiRoutineEnum.USER_STREAM)) {
+            return;
+        }
+        UserStreamReader reader = readers.get(ma.getAccountName());
+        if (reader != null && reader.isAlive()) {
+            return;
+        }
+        reader = new UserStreamReader(ma.getAccountName());
+        readers.put(ma.getAccountName(), reader);
+        MyLog.d(TAG, "Starting the stream of " + ma.getAccountName());
+        new Thread(reader, TAG + "-" + ma.getAccountName()).start();
+    }
+
+    /**
+     * The stream is closed, when anything is received from the server next time,
+     * at least a "keep-alive" line
+     */
+    public synchronized void stop(String accountName) {
+        UserStreamReader reader = readers.remove(accountName);
+        if (reader != null) {
+            reader.stop();
+        }
+    }
+
+    public synchronized void stopAll() {
+        for (UserStreamReader reader : readers.values()) {
+            reader.stop();
+        }
+        readers.clear();
+    }
+
+    /**
+     * @return true if the stream of the account is connected, so its timelines don't need to be polled
+     */
+    public synchronized boolean isConnected(String accountName) {
+        UserStreamReader reader = readers.get(accountName);
+        return reader != null && reader.isConnected();
+    }
+}
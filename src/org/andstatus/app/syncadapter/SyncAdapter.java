@@ -35,6 +35,7 @@ import org.andstatus.app.service.MyService;
 import org.andstatus.app.service.MyServiceListener;
 import org.andstatus.app.service.MyServiceManager;
 import org.andstatus.app.service.MyServiceReceiver;
+import org.andstatus.app.service.UserStreams;
 import org.andstatus.app.util.MyLog;
 
 /**
@@ -80,6 +81,11 @@ public class SyncAdapter extends AbstractThreadedSyncAdapter implements MyServic
             MyLog.d(this, method + " Credentials failed, skipping; account=" + account.name);
             return;
         }
+        UserStreams.getInstance().start(ma);
+        if (UserStreams.getInstance().isConnected(account.name)) {
+            MyLog.d(this, method + " The user stream is connected, skipping; account=" + account.name);
+            return;
+        }
         intentReceiver = new MyServiceReceiver(this);
         syncCompleted = false;
         try {
@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2014 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Stream utilities, which don't depend on the database,
+ * so e.g. the network layer doesn't need {@link org.andstatus.app.data.DbUtils}
+ * @author yvolk@yurivolkov.com
+ */
+public final class IoUtils {
+
+    private IoUtils() {
+    }
+
+    public static void closeSilently(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                MyLog.ignored(closeable, e);
+            }
+        }
+    }
+}
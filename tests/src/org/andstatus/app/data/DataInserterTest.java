@@ -16,6 +16,7 @@
 
 package org.andstatus.app.data;
 
+import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.net.Uri;
@@ -32,7 +33,9 @@ import org.andstatus.app.data.MyDatabase.User;
 import org.andstatus.app.net.ConnectionException;
 import org.andstatus.app.net.ConnectionPumpio;
 import org.andstatus.app.net.MbMessage;
+import org.andstatus.app.net.MbTimelineItem;
 import org.andstatus.app.net.MbUser;
+import org.andstatus.app.net.TimelinePosition;
 import org.andstatus.app.origin.Origin;
 import org.andstatus.app.origin.OriginType;
 import org.andstatus.app.service.CommandData;
@@ -40,6 +43,8 @@ import org.andstatus.app.service.CommandExecutionContext;
 import org.andstatus.app.util.SelectionAndArgs;
 import org.andstatus.app.util.TriState;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
 
 public class DataInserterTest extends InstrumentationTestCase {
@@ -324,6 +329,64 @@ public class DataInserterTest extends InstrumentationTestCase {
         addPublicMessage(reply11, true);
     }
     
+    public void testTimelinePage() {
+        MbUser author = userFromPumpioOid("acct:pager@example.net");
+        List<MbTimelineItem> items = new ArrayList<MbTimelineItem>();
+        for (int ind = 0; ind < 3; ind++) {
+            MbTimelineItem item = new MbTimelineItem();
+            item.mbMessage = buildPumpIoMessage(author, "Page message " + ind, null, null);
+            item.timelineItemPosition = new TimelinePosition(item.mbMessage.oid);
+            item.timelineItemDate = item.mbMessage.sentDate;
+            items.add(item);
+        }
+        DataInserter di = new DataInserter(new CommandExecutionContext(CommandData.getEmpty(), ma).setTimelineType(TimelineTypeEnum.HOME));
+        LatestUserMessages lum = new LatestUserMessages();
+        LatestTimelineItem latestTimelineItem = new LatestTimelineItem(TimelineTypeEnum.HOME, ma.getUserId());
+        assertEquals("Items processed", items.size(), di.insertOrUpdateTimelinePage(items, lum, latestTimelineItem));
+        long lastMsgId = 0;
+        for (MbTimelineItem item : items) {
+            lastMsgId = MyProvider.oidToId(OidEnum.MSG_OID, origin.getId(), item.mbMessage.oid);
+            assertTrue("Message added " + item.mbMessage.oid, lastMsgId != 0);
+        }
+        assertEquals("Latest timeline position", items.get(items.size() - 1).timelineItemPosition, 
+                latestTimelineItem.getPosition());
+        long authorId = MyProvider.oidToId(OidEnum.USER_OID, origin.getId(), author.oid);
+        assertEquals("Latest message of the author", lastMsgId, 
+                MyProvider.userIdToLongColumnValue(User.USER_MSG_ID, authorId));
+    }
+
+    public void testFullTextSearch() {
+        String uniqueWord = "Fulltext" + System.nanoTime();
+        MbUser author = userFromPumpioOid("acct:searchable" + iteration + "@example.net");
+        MbMessage message = buildPumpIoMessage(author, "Message with " + uniqueWord + " inside", null, null);
+        long msgId = addMessage(message);
+
+        assertEquals("Found by the word", msgId, searchForSingleMessage(uniqueWord));
+        assertEquals("Found by the prefix", msgId, searchForSingleMessage(uniqueWord.substring(0, uniqueWord.length() - 3)));
+        assertEquals("Found by the prefix of the username", msgId, 
+                searchForSingleMessage("searchable" + iteration + " " + uniqueWord));
+
+        ContentValues values = new ContentValues();
+        values.put(Msg.BODY, "Changed message body");
+        context.getContentResolver().update(MyProvider.getTimelineMsgUri(ma.getUserId(), TimelineTypeEnum.HOME, true, msgId), values, null, null);
+        assertEquals("Not found after update", 0, searchForSingleMessage(uniqueWord));
+    }
+
+    private long searchForSingleMessage(String searchText) {
+        Uri uri = MyProvider.getTimelineSearchUri(ma.getUserId(), TimelineTypeEnum.HOME, true, searchText);
+        Cursor cursor = context.getContentResolver().query(uri, new String[] { Msg._ID }, null, null, null);
+        long msgId = 0;
+        try {
+            if (cursor.moveToFirst()) {
+                assertEquals("Only one message found by '" + searchText + "'", 1, cursor.getCount());
+                msgId = cursor.getLong(0);
+            }
+        } finally {
+            cursor.close();
+        }
+        return msgId;
+    }
+
     private void addPublicMessage(MbMessage message, boolean isPublic) {
         message.setPublic(isPublic);
         long id = addMessage(message);
@@ -409,4 +472,33 @@ public class DataInserterTest extends InstrumentationTestCase {
         String body2 = MyProvider.msgIdToStringColumnValue(Msg.BODY, msgId2);
         assertEquals("HTML removed", MbMessage.stripHtml(bodyString), body2);
     }
+
+    public void testConcurrentInsertOfTheSameUser() throws InterruptedException {
+        final String userOid = "acct:concurrent" + System.nanoTime() + "@identi.ca";
+        final long[] userIds = new long[4];
+        Thread[] threads = new Thread[userIds.length];
+        for (int ind = 0; ind < threads.length; ind++) {
+            final int index = ind;
+            threads[ind] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    DataInserter di = new DataInserter(new CommandExecutionContext(CommandData.getEmpty(), ma)
+                            .setTimelineType(TimelineTypeEnum.HOME));
+                    MbUser user = userFromPumpioOid(userOid);
+                    userIds[index] = di.insertOrUpdateUser(user);
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long userId = MyProvider.oidToId(OidEnum.USER_OID, origin.getId(), userOid);
+        assertTrue("User added", userId != 0);
+        for (int ind = 0; ind < userIds.length; ind++) {
+            assertEquals("The same User from thread " + ind, userId, userIds[ind]);
+        }
+    }
 }
@@ -1,12 +1,123 @@
 package org.andstatus.app.data;
 
+import android.content.SharedPreferences;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.test.InstrumentationTestCase;
 
 import org.andstatus.app.context.MyContextHolder;
+import org.andstatus.app.context.MyPreferences;
+import org.andstatus.app.context.TestSuite;
+import org.andstatus.app.data.MyDatabase.Msg;
+import org.andstatus.app.data.MyDatabase.MsgOfUser;
+import org.andstatus.app.data.MyDatabase.Timeline;
+import org.andstatus.app.data.MyDatabase.User;
+import org.andstatus.app.service.CommandExecutorParent;
+import org.andstatus.app.service.CommandResult;
 
 public class DataPrunerTest extends InstrumentationTestCase  {
+    private static final String OID_PREFIX = "prunertest";
+    private static final int OLD_MESSAGES = DataPruner.CHUNK_SIZE * 2 + 50;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestSuite.initialize(this);
+    }
+
     public void testPruneSqlSyntax() {
         DataPruner dp = new DataPruner(MyContextHolder.get().context());
         dp.prune();
     }
+
+    public void testStoppedPruneDeletesNothing() {
+        CommandResult result = new CommandResult();
+        CommandExecutorParent stoppingParent = new CommandExecutorParent() {
+            @Override
+            public boolean isStopping() {
+                return true;
+            }
+        };
+        DataPruner dp = new DataPruner(MyContextHolder.get().context(), stoppingParent, result);
+        assertTrue(dp.prune());
+        assertEquals(0, dp.getDeleted());
+        assertEquals(0, dp.getChunks());
+        assertEquals(0, result.getMessagesPruned());
+        assertEquals(0, result.getPruneChunks());
+    }
+
+    public void testPruneInChunks() {
+        SQLiteDatabase db = MyContextHolder.get().getDatabase().getWritableDatabase();
+        long authorId = insertOldMessages(db);
+        String msgIds = " IN (SELECT " + Msg._ID + " FROM " + Msg.TABLE_NAME 
+                + " WHERE " + Msg.MSG_OID + " LIKE '" + OID_PREFIX + "%')";
+        assertEquals(OLD_MESSAGES, queryForLong(db, "SELECT count(*) FROM " + MsgOfUser.TABLE_NAME 
+                + " WHERE " + MsgOfUser.MSG_ID + msgIds));
+        assertEquals(OLD_MESSAGES * 2, queryForLong(db, "SELECT count(*) FROM " + Timeline.TABLE_NAME 
+                + " WHERE " + Timeline.USER_ID + "=" + authorId));
+
+        SharedPreferences sp = MyPreferences.getDefaultSharedPreferences();
+        String historyTime = sp.getString(MyPreferences.KEY_HISTORY_TIME, "3");
+        String historySize = sp.getString(MyPreferences.KEY_HISTORY_SIZE, "2000");
+        CommandResult result = new CommandResult();
+        DataPruner dp = new DataPruner(MyContextHolder.get().context(), null, result);
+        try {
+            sp.edit().putString(MyPreferences.KEY_HISTORY_TIME, "3")
+                    .putString(MyPreferences.KEY_HISTORY_SIZE, "0").commit();
+            assertTrue(dp.prune());
+        } finally {
+            sp.edit().putString(MyPreferences.KEY_HISTORY_TIME, historyTime)
+                    .putString(MyPreferences.KEY_HISTORY_SIZE, historySize).commit();
+        }
+        assertTrue("Deleted: " + dp.getDeleted(), dp.getDeleted() >= OLD_MESSAGES);
+        assertTrue("Chunks: " + dp.getChunks(), dp.getChunks() >= OLD_MESSAGES / DataPruner.CHUNK_SIZE + 1);
+        assertEquals(dp.getDeleted(), result.getMessagesPruned());
+        assertEquals(dp.getChunks(), result.getPruneChunks());
+        assertEquals("Messages", 0, queryForLong(db, "SELECT count(*) FROM " + Msg.TABLE_NAME 
+                + " WHERE " + Msg.MSG_OID + " LIKE '" + OID_PREFIX + "%'"));
+        assertEquals("Rows of the messages of users", 0, queryForLong(db, "SELECT count(*) FROM " 
+                + MsgOfUser.TABLE_NAME + " WHERE " + MsgOfUser.USER_ID + "=" + authorId));
+        assertEquals("Timeline rows", 0, queryForLong(db, "SELECT count(*) FROM " + Timeline.TABLE_NAME 
+                + " WHERE " + Timeline.USER_ID + "=" + authorId));
+        db.delete(User.TABLE_NAME, User._ID + "=" + authorId, null);
+    }
+
+    /**
+     * Messages of a new author, inserted a year ago. Each of them is in the author's Home timeline
+     * @return id of the author
+     */
+    private long insertOldMessages(SQLiteDatabase db) {
+        long insDate = System.currentTimeMillis() - 365 * 24 * 60 * 60 * 1000L;
+        long authorId = 0;
+        db.beginTransaction();
+        try {
+            db.execSQL("INSERT INTO " + User.TABLE_NAME + " (" + User.ORIGIN_ID + ", " + User.USER_OID + ", " 
+                    + User.USERNAME + ", " + User.INS_DATE + ") VALUES (1, '" + OID_PREFIX + "', '" 
+                    + OID_PREFIX + "', " + insDate + ")");
+            authorId = queryForLong(db, "SELECT " + User._ID + " FROM " + User.TABLE_NAME 
+                    + " WHERE " + User.USER_OID + "='" + OID_PREFIX + "'");
+            for (int ind = 0; ind < OLD_MESSAGES; ind++) {
+                db.execSQL("INSERT INTO " + Msg.TABLE_NAME + " (" + Msg.ORIGIN_ID + ", " + Msg.MSG_OID + ", " 
+                        + Msg.AUTHOR_ID + ", " + Msg.SENDER_ID + ", " + Msg.SENT_DATE + ", " + Msg.INS_DATE 
+                        + ") VALUES (1, '" + OID_PREFIX + ind + "', " + authorId + ", " + authorId + ", " 
+                        + (insDate + ind) + ", " + insDate + ")");
+                db.execSQL("INSERT INTO " + MsgOfUser.TABLE_NAME + " (" + MsgOfUser.USER_ID + ", " 
+                        + MsgOfUser.MSG_ID + ", " + MsgOfUser.SUBSCRIBED + ") VALUES (" + authorId 
+                        + ", last_insert_rowid(), 1)");
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return authorId;
+    }
+
+    private static long queryForLong(SQLiteDatabase db, String sql) {
+        SQLiteStatement statement = db.compileStatement(sql);
+        try {
+            return statement.simpleQueryForLong();
+        } finally {
+            statement.close();
+        }
+    }
 }
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2014 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.InstrumentationTestCase;
+
+import org.andstatus.app.context.MyContextHolder;
+import org.andstatus.app.context.TestSuite;
+import org.andstatus.app.data.MyDatabase.Msg;
+import org.andstatus.app.util.MyLog;
+
+/**
+ * Benchmark: "sync" writes in long transactions while the timeline is being "scrolled".
+ * With Write-Ahead Logging reads don't wait for the writer
+ * @author yvolk@yurivolkov.com
+ */
+public class DatabaseConcurrencyTest extends InstrumentationTestCase {
+    private static final long WRITE_TRANSACTION_MILLIS = 500;
+    private static final int WRITE_TRANSACTIONS = 4;
+    private static final int PAGE_SIZE = 20;
+
+    private volatile boolean writing = false;
+    private volatile long writeStartedAt = 0;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestSuite.initializeWithData(this);
+    }
+
+    public void testProfile() {
+        DatabaseProfile profile = new DatabaseProfile(0);
+        assertEquals(DatabaseProfile.MEMORY_CLASS_DEFAULT, profile.getMemoryClass());
+        assertEquals(512L * 1024, profile.getCacheSizeBytes());
+        profile = new DatabaseProfile(256);
+        assertEquals(4L * 1024 * 1024, profile.getCacheSizeBytes());
+    }
+
+    /**
+     * Pooled connections get the cache size from the database file, not from the primary connection
+     */
+    public void testCacheSizePersists() {
+        SQLiteDatabase db = MyContextHolder.get().getDatabase().getReadableDatabase();
+        long pageSize = DatabaseUtils.longForQuery(db, "PRAGMA page_size", null);
+        assertEquals(MyContextHolder.get().getDatabase().getProfile().getCacheSizeBytes() / pageSize, 
+                DatabaseUtils.longForQuery(db, "PRAGMA default_cache_size", null));
+    }
+
+    public void testReadsDuringSync() throws InterruptedException {
+        final SQLiteDatabase db = MyContextHolder.get().getDatabase().getWritableDatabase();
+        Thread sync = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int ind = 0; ind < WRITE_TRANSACTIONS; ind++) {
+                    db.beginTransaction();
+                    try {
+                        writing = true;
+                        writeStartedAt = System.currentTimeMillis();
+                        db.execSQL("UPDATE " + Msg.TABLE_NAME + " SET " + Msg.BODY + "=" + Msg.BODY
+                                + " WHERE " + Msg._ID + " IN (SELECT " + Msg._ID + " FROM " + Msg.TABLE_NAME
+                                + " LIMIT " + PAGE_SIZE + ")");
+                        Thread.sleep(WRITE_TRANSACTION_MILLIS);
+                    } catch (InterruptedException e) {
+                        MyLog.v(this, "Interrupted");
+                    } finally {
+                        writing = false;
+                        // Rolled back: the test doesn't change data
+                        db.endTransaction();
+                    }
+                    try {
+                        Thread.sleep(50);
+                    } catch (InterruptedException e) {
+                        MyLog.v(this, "Interrupted");
+                    }
+                }
+            }
+        });
+
+        sync.start();
+        long maxWaitMillis = 0;
+        long totalWaitMillis = 0;
+        int readsDuringWrites = 0;
+        int reads = 0;
+        while (sync.isAlive()) {
+            boolean startedDuringWrite = writing && System.currentTimeMillis() - writeStartedAt < WRITE_TRANSACTION_MILLIS / 2;
+            long startedAt = System.currentTimeMillis();
+            readPage();
+            long waitMillis = System.currentTimeMillis() - startedAt;
+            reads++;
+            if (startedDuringWrite) {
+                readsDuringWrites++;
+                totalWaitMillis += waitMillis;
+                maxWaitMillis = Math.max(maxWaitMillis, waitMillis);
+            }
+            Thread.sleep(10);
+        }
+        sync.join();
+
+        boolean wal = MyContextHolder.get().getDatabase().isWriteAheadLoggingEnabled();
+        String message = "WAL:" + wal + ", reads:" + reads + ", during writes:" + readsDuringWrites
+                + ", max wait:" + maxWaitMillis + " ms, total wait:" + totalWaitMillis + " ms";
+        MyLog.i(this, message);
+        if (wal && readsDuringWrites > 0) {
+            assertTrue("Reads were blocked by the writer; " + message,
+                    maxWaitMillis < WRITE_TRANSACTION_MILLIS / 2);
+        }
+    }
+
+    private void readPage() {
+        Cursor cursor = null;
+        try {
+            cursor = MyContextHolder.get().getDatabase().getReadableDatabase().rawQuery(
+                    "SELECT " + Msg._ID + ", " + Msg.BODY + " FROM " + Msg.TABLE_NAME
+                    + " ORDER BY " + Msg.SENT_DATE + " DESC LIMIT " + PAGE_SIZE, null);
+            while (cursor.moveToNext()) {
+                cursor.getString(1);
+            }
+        } finally {
+            DbUtils.closeSilently(cursor);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2014 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app.data;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.test.InstrumentationTestCase;
+
+import org.andstatus.app.data.MyDatabase.OidEnum;
+import org.andstatus.app.util.MyLog;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class DatabaseWriterTest extends InstrumentationTestCase {
+    private static final String TABLE_NAME = "writertest";
+    private SQLiteOpenHelper helper;
+    private DatabaseWriter writer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // In-memory database
+        helper = new SQLiteOpenHelper(getInstrumentation().getTargetContext(), null, null, 1) {
+            @Override
+            public void onCreate(SQLiteDatabase db) {
+                db.execSQL("CREATE TABLE " + TABLE_NAME + " (_id INTEGER PRIMARY KEY, name TEXT NOT NULL)");
+            }
+
+            @Override
+            public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+                // Nothing to upgrade
+            }
+        };
+        writer = new DatabaseWriter(helper);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        writer.stop();
+        helper.close();
+        super.tearDown();
+    }
+
+    public void testRowIdsOfSubmittedInserts() throws InterruptedException, ExecutionException {
+        final int count = 500;
+        List<Future<Long>> futures = new ArrayList<Future<Long>>();
+        for (int ind = 0; ind < count; ind++) {
+            futures.add(writer.submit(insertOperation("name" + ind)));
+        }
+        long previousRowId = 0;
+        for (Future<Long> future : futures) {
+            long rowId = future.get();
+            assertTrue("Row id " + rowId + " after " + previousRowId, rowId > previousRowId);
+            previousRowId = rowId;
+        }
+        assertEquals(count, writer.getOperationsCount());
+        MyLog.v(this, writer.toString());
+        assertTrue("Operations were grouped: " + writer, writer.getTransactionsCount() < count);
+    }
+
+    public void testFailedOperationDoesntAffectOthers() throws InterruptedException {
+        Future<Long> before = writer.submit(insertOperation("before"));
+        Future<Long> failed = writer.submit(insertOperation(null));
+        Future<Long> after = writer.submit(insertOperation("after"));
+        try {
+            assertTrue(before.get() > 0);
+            assertTrue(after.get() > 0);
+        } catch (ExecutionException e) {
+            fail("Unexpected failure " + e.getCause());
+        }
+        try {
+            failed.get();
+            fail("Constraint violation should be reported");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause().getClass().getName(), e.getCause() instanceof SQLiteException);
+        }
+    }
+
+    public void testRollbackClearsOidCache() throws InterruptedException {
+        final OidCache cache = new OidCache();
+        DatabaseWriter cachingWriter = new DatabaseWriter(helper, cache);
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final AtomicInteger executions = new AtomicInteger();
+        try {
+            // Let the next operations queue up into one batch
+            cachingWriter.submit(new DatabaseWriter.Operation() {
+                @Override
+                public long execute(SQLiteDatabase db) {
+                    try {
+                        blocked.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return 0;
+                }
+            });
+            Future<Long> cached = cachingWriter.submit(new DatabaseWriter.Operation() {
+                @Override
+                public long execute(SQLiteDatabase db) {
+                    long rowId = insertOperation("cached").execute(db);
+                    // Cache only the first, rolled back row
+                    if (executions.incrementAndGet() == 1) {
+                        cache.put(OidEnum.MSG_OID, 1, "oid1", rowId);
+                    }
+                    return rowId;
+                }
+            });
+            Future<Long> failed = cachingWriter.submit(insertOperation(null));
+            blocked.countDown();
+            try {
+                failed.get();
+                fail("Constraint violation should be reported");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause().getClass().getName(), e.getCause() instanceof SQLiteException);
+            }
+            try {
+                long rowId = cached.get();
+                assertTrue("Replayed alone", rowId > 0);
+            } catch (ExecutionException e) {
+                fail("Unexpected failure " + e.getCause());
+            }
+            assertEquals("Executions", 2, executions.get());
+            assertEquals("Rolled back id is not cached", 0, cache.get(OidEnum.MSG_OID, 1, "oid1"));
+        } finally {
+            cachingWriter.stop();
+        }
+    }
+
+    public void testNestedExecute() {
+        long rowId = writer.execute(new DatabaseWriter.Operation() {
+            @Override
+            public long execute(SQLiteDatabase db) {
+                assertTrue(writer.isWriterThread());
+                // Would deadlock, if queued
+                return writer.execute(insertOperation("nested"));
+            }
+        });
+        assertTrue(rowId > 0);
+    }
+
+    private DatabaseWriter.Operation insertOperation(final String name) {
+        return new DatabaseWriter.Operation() {
+            @Override
+            public long execute(SQLiteDatabase db) {
+                ContentValues values = new ContentValues();
+                values.put("name", name);
+                return db.insertOrThrow(TABLE_NAME, null, values);
+            }
+        };
+    }
+}
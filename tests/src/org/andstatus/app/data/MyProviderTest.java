@@ -12,4 +12,13 @@ public class MyProviderTest extends InstrumentationTestCase {
         assertEquals("quoted", "'''toQuote'", MyProvider.quoteIfNotQuoted("'toQuote"));
         assertEquals("quoted", "'''toQuo''te'", MyProvider.quoteIfNotQuoted("'toQuo'te"));
     }
+
+    public void testToFtsQuery() {
+        assertEquals("Null", "", MyProvider.toFtsQuery(null));
+        assertEquals("Spaces only", "", MyProvider.toFtsQuery("  "));
+        assertEquals("One word", "andstatus*", MyProvider.toFtsQuery("andstatus"));
+        assertEquals("Two words", "and* status*", MyProvider.toFtsQuery(" and   status "));
+        assertEquals("Syntax characters", "and* status*", MyProvider.toFtsQuery("\"and\" -status*"));
+        assertEquals("Operators", "and* status*", MyProvider.toFtsQuery("and OR status NEAR"));
+    }
 }
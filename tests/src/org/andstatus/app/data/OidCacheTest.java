@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2014 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app.data;
+
+import android.test.InstrumentationTestCase;
+
+import org.andstatus.app.data.MyDatabase.OidEnum;
+
+public class OidCacheTest extends InstrumentationTestCase {
+
+    public void testGetAndPut() {
+        OidCache cache = new OidCache();
+        assertEquals("Not cached yet", 0, cache.get(OidEnum.USER_OID, 1, "acct:one@example.com"));
+        cache.put(OidEnum.USER_OID, 1, "acct:one@example.com", 15);
+        assertEquals("Cached", 15, cache.get(OidEnum.USER_OID, 1, "acct:one@example.com"));
+        assertEquals("Other origin", 0, cache.get(OidEnum.USER_OID, 2, "acct:one@example.com"));
+        assertEquals("Other entity", 0, cache.get(OidEnum.MSG_OID, 1, "acct:one@example.com"));
+        assertEquals("Hits", 1, cache.getHits());
+        assertEquals("Misses", 3, cache.getMisses());
+
+        cache.put(OidEnum.MSG_OID, 1, "msg1", 25);
+        cache.clear(OidEnum.USER_OID);
+        assertEquals("Cleared", 0, cache.get(OidEnum.USER_OID, 1, "acct:one@example.com"));
+        assertEquals("Not cleared", 25, cache.get(OidEnum.MSG_OID, 1, "msg1"));
+    }
+
+    public void testEviction() {
+        OidCache cache = new OidCache();
+        cache.put(OidEnum.MSG_OID, 1, "msg0", 1);
+        for (int ind = 1; ind <= OidCache.MAX_SIZE; ind++) {
+            cache.put(OidEnum.MSG_OID, 1, "msg" + ind, ind + 1);
+            if (ind == OidCache.MAX_SIZE / 2) {
+                assertEquals("Recently used", 1, cache.get(OidEnum.MSG_OID, 1, "msg0"));
+            }
+        }
+        assertEquals("Size is bounded", OidCache.MAX_SIZE, cache.size());
+        assertEquals("Recently used is kept", 1, cache.get(OidEnum.MSG_OID, 1, "msg0"));
+        assertEquals("Least recently used is evicted", 0, cache.get(OidEnum.MSG_OID, 1, "msg1"));
+    }
+}
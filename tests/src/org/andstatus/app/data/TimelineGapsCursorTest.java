@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2014 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app.data;
+
+import android.database.MatrixCursor;
+import android.test.InstrumentationTestCase;
+
+import org.andstatus.app.data.MyDatabase.Msg;
+import org.andstatus.app.net.TimelinePosition;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class TimelineGapsCursorTest extends InstrumentationTestCase {
+    private static final String[] COLUMNS = new String[] {Msg._ID, Msg.SENT_DATE, Msg.BODY};
+    private static final String PLACEHOLDER = "Missing messages";
+
+    public void testPlaceholderRows() {
+        MatrixCursor page1 = new MatrixCursor(COLUMNS);
+        page1.addRow(new Object[] {40L, 4000L, "Fourth"});
+        page1.addRow(new Object[] {30L, 3000L, "Third"});
+        MatrixCursor page2 = new MatrixCursor(COLUMNS);
+        page2.addRow(new Object[] {20L, 2000L, "Second"});
+        page2.addRow(new Object[] {10L, 1000L, "First"});
+
+        List<TimelineGaps.Gap> gaps = new ArrayList<TimelineGaps.Gap>();
+        gaps.add(gap(500L, 100L));
+        gaps.add(gap(3000L, 2000L));
+
+        TimelineGapsCursor cursor = new TimelineGapsCursor(new TimelinePagesCursor(page1), gaps, PLACEHOLDER);
+        assertEquals("No gaps in the first page", 2, cursor.getCount());
+
+        cursor = cursor.append(page2, gaps);
+        assertEquals("The gap between the pages", 5, cursor.getCount());
+        assertEquals(2, cursor.getPagesCount());
+        assertRow(cursor, 1, 30L, "Third");
+        assertTrue(cursor.moveToNext());
+        assertEquals("Placeholder id", -1, cursor.getLong(0));
+        assertEquals("Date of the gap", 3000L, cursor.getLong(1));
+        assertEquals(PLACEHOLDER, cursor.getString(2));
+        assertFalse(cursor.isNull(2));
+        assertRow(cursor, 3, 20L, "Second");
+        assertRow(cursor, 4, 10L, "First");
+        assertTrue(cursor.isLast());
+        assertFalse("The older gap is below the loaded rows", cursor.moveToNext());
+        assertTrue(cursor.isAfterLast());
+
+        assertEquals("Continue after the last message", new TimelinePageToken(1000L, 10L),
+                TimelinePageToken.afterLastRow(cursor));
+        cursor.close();
+    }
+
+    private TimelineGaps.Gap gap(long newerDate, long olderDate) {
+        return new TimelineGaps.Gap(new TimelinePosition("newer" + newerDate), newerDate,
+                new TimelinePosition("older" + olderDate), olderDate);
+    }
+
+    private void assertRow(TimelineGapsCursor cursor, int position, long id, String body) {
+        assertTrue("Position " + position, cursor.moveToPosition(position));
+        assertEquals(position, cursor.getPosition());
+        assertEquals(id, cursor.getLong(0));
+        assertEquals(body, cursor.getString(2));
+    }
+}
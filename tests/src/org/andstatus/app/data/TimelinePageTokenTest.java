@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2014 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app.data;
+
+import android.database.MatrixCursor;
+import android.test.InstrumentationTestCase;
+
+import org.andstatus.app.data.MyDatabase.Msg;
+
+public class TimelinePageTokenTest extends InstrumentationTestCase {
+    private static final String[] COLUMNS = new String[] {Msg._ID, Msg.SENT_DATE};
+
+    public void testToken() {
+        assertTrue("Empty", TimelinePageToken.fromString(null).isEmpty());
+        assertTrue("Invalid", TimelinePageToken.fromString("12;abc").isEmpty());
+        assertEquals("Empty selection", "", TimelinePageToken.EMPTY.getSelection());
+
+        TimelinePageToken token = new TimelinePageToken(1393000000000L, 25);
+        assertEquals("Restored from string", token, TimelinePageToken.fromString(token.toString()));
+        assertEquals("Selection args", 3, token.getSelectionArgs().length);
+        assertEquals("Message id arg", "25", token.getSelectionArgs()[2]);
+    }
+
+    public void testAfterLastRow() {
+        assertTrue("No cursor", TimelinePageToken.afterLastRow(null).isEmpty());
+        MatrixCursor cursor = new MatrixCursor(COLUMNS);
+        assertTrue("Empty cursor", TimelinePageToken.afterLastRow(cursor).isEmpty());
+        cursor.addRow(new Object[] {30L, 3000L});
+        cursor.addRow(new Object[] {20L, 2000L});
+        assertEquals("Last row", new TimelinePageToken(2000L, 20L), TimelinePageToken.afterLastRow(cursor));
+    }
+
+    public void testPagesCursor() {
+        MatrixCursor page1 = new MatrixCursor(COLUMNS);
+        page1.addRow(new Object[] {30L, 3000L});
+        MatrixCursor page2 = new MatrixCursor(COLUMNS);
+        page2.addRow(new Object[] {20L, 2000L});
+        page2.addRow(new Object[] {10L, 1000L});
+
+        TimelinePagesCursor pages1 = new TimelinePagesCursor(page1);
+        TimelinePagesCursor pages2 = pages1.append(page2);
+        pages1.close();
+        assertFalse("Page is not closed by the old cursor", page1.isClosed());
+        assertEquals("Rows in all pages", 3, pages2.getCount());
+        assertEquals("Pages", 2, pages2.getPagesCount());
+        assertEquals("Continue after", new TimelinePageToken(1000L, 10L), TimelinePageToken.afterLastRow(pages2));
+        pages2.close();
+        assertTrue("Pages closed", page1.isClosed() && page2.isClosed());
+    }
+}
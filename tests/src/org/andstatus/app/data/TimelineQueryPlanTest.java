@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2014 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.test.InstrumentationTestCase;
+
+import org.andstatus.app.account.MyAccount;
+import org.andstatus.app.context.MyContextHolder;
+import org.andstatus.app.context.TestSuite;
+import org.andstatus.app.data.MyDatabase.Msg;
+import org.andstatus.app.data.MyDatabase.MsgOfUser;
+import org.andstatus.app.data.MyDatabase.User;
+import org.andstatus.app.util.MyLog;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs "EXPLAIN QUERY PLAN" for the SQL, built for each timeline,
+ * and fails if any table is scanned without an index
+ * or if a timeline is sorted in a temporary B-tree instead of being read in the index order
+ * @author yvolk@yurivolkov.com
+ */
+public class TimelineQueryPlanTest extends InstrumentationTestCase {
+    private static final String[] PROJECTION = new String[] {
+            Msg._ID,
+            User.AUTHOR_NAME,
+            User.SENDER_NAME,
+            Msg.BODY,
+            Msg.IN_REPLY_TO_MSG_ID,
+            User.IN_REPLY_TO_NAME,
+            User.RECIPIENT_NAME,
+            MsgOfUser.FAVORITED,
+            Msg.CREATED_DATE,
+            User.LINKED_USER_ID,
+            Msg.AUTHOR_ID,
+            MyDatabase.Avatar.FILE_NAME,
+            MyDatabase.FollowingUser.AUTHOR_FOLLOWED,
+            MyDatabase.FollowingUser.SENDER_FOLLOWED
+    };
+
+    private long accountUserId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestSuite.initializeWithData(this);
+        MyAccount ma = MyContextHolder.get().persistentAccounts().fromAccountName(TestSuite.CONVERSATION_ACCOUNT_NAME);
+        assertTrue(TestSuite.CONVERSATION_ACCOUNT_NAME + " exists", ma != null);
+        accountUserId = ma.getUserId();
+    }
+
+    public void testTimelineQueryPlans() {
+        for (TimelineTypeEnum timelineType : TimelineTypeEnum.values()) {
+            if (timelineType == TimelineTypeEnum.UNKNOWN || timelineType == TimelineTypeEnum.ALL) {
+                continue;
+            }
+            for (boolean isCombined : new boolean[] {false, true}) {
+                Uri uri = MyProvider.getTimelineUri(accountUserId, timelineType, isCombined);
+                String sql = MyProvider.timelineQuerySql(uri, PROJECTION,
+                        selectionFor(timelineType, isCombined), Msg.DEFAULT_SORT_ORDER);
+                assertNoFullScans(timelineType + (isCombined ? " combined" : ""), sql, true);
+            }
+        }
+    }
+
+    public void testSearchQueryPlan() {
+        Uri uri = MyProvider.getTimelineUri(accountUserId, TimelineTypeEnum.HOME, true);
+        String sql = MyProvider.timelineQuerySql(uri, PROJECTION,
+                MyProvider.MSG_TABLE_ALIAS + "." + Msg._ID + " IN (" + MyProvider.FTS_SELECT_DOCIDS + ")", 
+                Msg.DEFAULT_SORT_ORDER);
+        assertNoFullScans("Search", sql.replace("?", "'andstatus*'"), false);
+    }
+
+    public void testReplyIdsQueryPlan() {
+        assertNoFullScans("Replies", "SELECT " + Msg._ID + " FROM " + Msg.TABLE_NAME
+                + " WHERE " + Msg.IN_REPLY_TO_MSG_ID + "=1"
+                + " ORDER BY " + Msg.CREATED_DATE + " DESC", false);
+    }
+
+    /**
+     * The same selections as TimelineActivity uses
+     */
+    private String selectionFor(TimelineTypeEnum timelineType, boolean isCombined) {
+        String selection = null;
+        switch (timelineType) {
+            case HOME:
+                if (!isCombined) {
+                    selection = MsgOfUser.SUBSCRIBED + "=1";
+                }
+                break;
+            case MENTIONS:
+                selection = MsgOfUser.MENTIONED + "=1";
+                break;
+            case FAVORITES:
+                selection = MsgOfUser.FAVORITED + "=1";
+                break;
+            case DIRECT:
+                selection = MsgOfUser.DIRECTED + "=1";
+                break;
+            case USER:
+                AccountUserIds userIds = new AccountUserIds(isCombined, accountUserId);
+                selection = MyProvider.MSG_TABLE_ALIAS + "." + Msg._ID + " IN ("
+                        + TimelineTable.selectMsgIdsSql(TimelineTypeEnum.USER, userIds.getSqlUserIds()) + ")";
+                break;
+            default:
+                break;
+        }
+        return selection;
+    }
+
+    /**
+     * @param isSortChecked true for timelines: the whole timeline shouldn't be sorted on opening.
+     *    Search results and replies are small sets, which may be sorted
+     */
+    private void assertNoFullScans(String description, String sql, boolean isSortChecked) {
+        SQLiteDatabase db = MyContextHolder.get().getDatabase().getReadableDatabase();
+        List<String> fullScans = new ArrayList<String>();
+        StringBuilder plan = new StringBuilder();
+        Cursor c = null;
+        try {
+            c = db.rawQuery("EXPLAIN QUERY PLAN " + sql, null);
+            int detailIndex = c.getColumnIndex("detail");
+            while (c.moveToNext()) {
+                String detail = c.getString(detailIndex);
+                plan.append(detail + "\n");
+                if (isFullScan(detail) || (isSortChecked && isTempSort(detail))) {
+                    fullScans.add(detail);
+                }
+            }
+        } finally {
+            DbUtils.closeSilently(c);
+        }
+        MyLog.v(this, description + " query plan:\n" + plan);
+        assertTrue(description + " has full table scans or sorts: " + fullScans
+                + "\nSQL: " + sql + "\nPlan:\n" + plan, fullScans.isEmpty());
+    }
+
+    /**
+     * Both old ("TABLE msg WITH INDEX ...") and new ("SCAN TABLE msg USING INDEX ...")
+     * formats of SQLite query plans are supported.
+     * Scans of subqueries are checked in their own plan lines,
+     * virtual (full text search) tables use their own indexes
+     */
+    static boolean isFullScan(String detail) {
+        if (detail == null || detail.contains("VIRTUAL TABLE")) {
+            return false;
+        }
+        if (detail.startsWith("SCAN ")) {
+            return !detail.contains(" USING ") && !detail.startsWith("SCAN SUBQUERY");
+        }
+        if (detail.startsWith("TABLE ")) {
+            return !detail.contains(" WITH INDEX") && !detail.contains(" USING PRIMARY KEY");
+        }
+        return false;
+    }
+
+    static boolean isTempSort(String detail) {
+        return detail != null && detail.contains("USE TEMP B-TREE FOR ORDER BY");
+    }
+}
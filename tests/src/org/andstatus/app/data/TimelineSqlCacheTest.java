@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2014 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app.data;
+
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.InstrumentationTestCase;
+
+import org.andstatus.app.account.MyAccount;
+import org.andstatus.app.context.MyContextHolder;
+import org.andstatus.app.context.TestSuite;
+import org.andstatus.app.data.MyDatabase.Msg;
+import org.andstatus.app.data.MyDatabase.User;
+
+public class TimelineSqlCacheTest extends InstrumentationTestCase {
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestSuite.initializeWithData(this);
+    }
+
+    public void testGetAndPut() {
+        TimelineSqlCache cache = new TimelineSqlCache();
+        String key = TimelineSqlCache.toKey("shape", new String[] {Msg._ID}, "selection", "order");
+        assertEquals("Not cached yet", "", cache.get(key));
+        cache.put(key, "SELECT 1", 2000000);
+        assertEquals("Cached", "SELECT 1", cache.get(key));
+        assertEquals("Other projection", "", cache.get(TimelineSqlCache.toKey("shape", 
+                new String[] {Msg._ID, Msg.BODY}, "selection", "order")));
+        assertEquals("Hits", 1, cache.getHits());
+        assertEquals("Misses", 2, cache.getMisses());
+        assertEquals("Saved", 1000, cache.getMicrosSaved());
+
+        for (int ind = 0; ind < TimelineSqlCache.MAX_SIZE; ind++) {
+            cache.put("key" + ind, "SELECT " + ind, 0);
+        }
+        assertEquals("Bounded", TimelineSqlCache.MAX_SIZE, cache.size());
+        assertEquals("Evicted", "", cache.get(key));
+    }
+
+    public void testTimelineQueryIsCached() {
+        MyAccount ma = MyContextHolder.get().persistentAccounts().fromAccountName(TestSuite.CONVERSATION_ACCOUNT_NAME);
+        assertTrue(TestSuite.CONVERSATION_ACCOUNT_NAME + " exists", ma != null);
+        Uri uri = MyProvider.getTimelineUri(ma.getUserId(), TimelineTypeEnum.HOME, false);
+        String[] projection = new String[] {Msg._ID, User.AUTHOR_NAME, Msg.BODY};
+        TimelineSqlCache cache = MyContextHolder.get().getDatabase().getTimelineSqlCache();
+
+        query(uri, projection);
+        long hits = cache.getHits();
+        query(uri, projection);
+        assertEquals("The same SQL is reused", hits + 1, cache.getHits());
+    }
+
+    private void query(Uri uri, String[] projection) {
+        Cursor cursor = MyContextHolder.get().context().getContentResolver().query(uri, projection, 
+                MyDatabase.MsgOfUser.SUBSCRIBED + "=?", new String[] {"1"}, Msg.DEFAULT_SORT_ORDER);
+        assertTrue("Cursor returned", cursor != null);
+        cursor.close();
+    }
+}
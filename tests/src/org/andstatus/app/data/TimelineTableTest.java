@@ -0,0 +1,268 @@
+/*
+ * Copyright (c) 2014 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.net.Uri;
+import android.test.InstrumentationTestCase;
+
+import org.andstatus.app.account.MyAccount;
+import org.andstatus.app.context.MyContextHolder;
+import org.andstatus.app.context.TestSuite;
+import org.andstatus.app.data.MyDatabase.Msg;
+import org.andstatus.app.data.MyDatabase.MsgOfUser;
+import org.andstatus.app.data.MyDatabase.Timeline;
+import org.andstatus.app.data.MyDatabase.User;
+import org.andstatus.app.util.MyLog;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The {@link Timeline} table is tested in a separate in-memory database
+ * @author yvolk@yurivolkov.com
+ */
+public class TimelineTableTest extends InstrumentationTestCase {
+    private static final int COMPARED_MESSAGES = 2000;
+    private static final int BENCHMARK_MESSAGES = 100000;
+    private static final int BENCHMARK_RUNS = 5;
+    private static final String[] PROJECTION = new String[] {
+            Msg._ID,
+            User.AUTHOR_NAME,
+            Msg.BODY,
+            MsgOfUser.FAVORITED,
+            Msg.SENT_DATE,
+            User.LINKED_USER_ID
+    };
+
+    private SQLiteDatabase db;
+    private long accountUserId;
+    
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestSuite.initializeWithData(this);
+        MyAccount ma = MyContextHolder.get().persistentAccounts().fromAccountName(TestSuite.CONVERSATION_ACCOUNT_NAME);
+        assertTrue(TestSuite.CONVERSATION_ACCOUNT_NAME + " exists", ma != null);
+        accountUserId = ma.getUserId();
+        db = SQLiteDatabase.create(null);
+        new MyDatabase(TestSuite.getMyContextForTest().context()).onCreate(db);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        db.close();
+        super.tearDown();
+    }
+
+    public void testMembership() {
+        long authorId = accountUserId + 1;
+        db.execSQL("INSERT INTO " + Msg.TABLE_NAME + " (" + Msg._ID + ", " + Msg.ORIGIN_ID + ", " 
+                + Msg.AUTHOR_ID + ", " + Msg.SENDER_ID + ", " + Msg.SENT_DATE + ", " + Msg.INS_DATE 
+                + ") VALUES (1, 1, " + authorId + ", " + authorId + ", 1000, 1000)");
+        assertEquals("Author's timeline", 1, count(authorId, TimelineTypeEnum.USER));
+        assertEquals("No Home yet", 0, count(accountUserId, TimelineTypeEnum.HOME));
+
+        db.execSQL("INSERT INTO " + MsgOfUser.TABLE_NAME + " (" + MsgOfUser.USER_ID + ", " 
+                + MsgOfUser.MSG_ID + ", " + MsgOfUser.SUBSCRIBED + ", " + MsgOfUser.MENTIONED 
+                + ") VALUES (" + accountUserId + ", 1, 1, 1)");
+        assertEquals("Home", 1, count(accountUserId, TimelineTypeEnum.HOME));
+        assertEquals("Mentions", 1, count(accountUserId, TimelineTypeEnum.MENTIONS));
+        assertEquals("Favorites", 0, count(accountUserId, TimelineTypeEnum.FAVORITES));
+
+        db.execSQL("UPDATE " + MsgOfUser.TABLE_NAME + " SET " + MsgOfUser.MENTIONED + "=0, " 
+                + MsgOfUser.FAVORITED + "=1");
+        assertEquals("Not mentioned", 0, count(accountUserId, TimelineTypeEnum.MENTIONS));
+        assertEquals("Favorited", 1, count(accountUserId, TimelineTypeEnum.FAVORITES));
+
+        db.execSQL("UPDATE " + Msg.TABLE_NAME + " SET " + Msg.SENT_DATE + "=2000");
+        assertEquals("Sent date copied", 2000, 
+                queryForLong("SELECT max(" + Timeline.SENT_DATE + ") FROM " + Timeline.TABLE_NAME));
+
+        db.execSQL("DELETE FROM " + MsgOfUser.TABLE_NAME);
+        assertEquals("No Home", 0, count(accountUserId, TimelineTypeEnum.HOME));
+        assertEquals("Author's timeline stays", 1, count(authorId, TimelineTypeEnum.USER));
+        db.execSQL("DELETE FROM " + Msg.TABLE_NAME);
+        assertEquals("Nothing left", 0, queryForLong("SELECT count(*) FROM " + Timeline.TABLE_NAME));
+    }
+
+    public void testFlagChangeTouchesOneRow() {
+        long authorId = accountUserId + 1;
+        db.execSQL("INSERT INTO " + Msg.TABLE_NAME + " (" + Msg._ID + ", " + Msg.ORIGIN_ID + ", " 
+                + Msg.AUTHOR_ID + ", " + Msg.SENDER_ID + ", " + Msg.SENT_DATE + ", " + Msg.INS_DATE 
+                + ") VALUES (1, 1, " + authorId + ", " + authorId + ", 1000, 1000)");
+        db.execSQL("INSERT INTO " + MsgOfUser.TABLE_NAME + " (" + MsgOfUser.USER_ID + ", " 
+                + MsgOfUser.MSG_ID + ", " + MsgOfUser.SUBSCRIBED + ", " + MsgOfUser.REBLOGGED 
+                + ") VALUES (" + accountUserId + ", 1, 1, 1)");
+        db.execSQL("INSERT INTO " + MsgOfUser.TABLE_NAME + " (" + MsgOfUser.USER_ID + ", " 
+                + MsgOfUser.MSG_ID + ", " + MsgOfUser.REBLOGGED 
+                + ") VALUES (" + authorId + ", 1, 1)");
+        assertEquals("Reblogged", 1, count(accountUserId, TimelineTypeEnum.USER));
+        long homeRowId = queryForLong("SELECT rowid FROM " + Timeline.TABLE_NAME 
+                + " WHERE " + Timeline.TIMELINE_TYPE + "='" + TimelineTypeEnum.HOME.save() + "'");
+
+        db.execSQL("UPDATE " + MsgOfUser.TABLE_NAME + " SET " + MsgOfUser.SUBSCRIBED + "=1, " 
+                + MsgOfUser.FAVORITED + "=1 WHERE " + MsgOfUser.USER_ID + "=" + accountUserId);
+        assertEquals("Favorited", 1, count(accountUserId, TimelineTypeEnum.FAVORITES));
+        assertEquals("Home row is not rewritten", homeRowId, queryForLong("SELECT rowid FROM " + Timeline.TABLE_NAME 
+                + " WHERE " + Timeline.TIMELINE_TYPE + "='" + TimelineTypeEnum.HOME.save() + "'"));
+
+        db.execSQL("UPDATE " + MsgOfUser.TABLE_NAME + " SET " + MsgOfUser.REBLOGGED + "=0");
+        assertEquals("Not reblogged", 0, count(accountUserId, TimelineTypeEnum.USER));
+        assertEquals("Author's timeline stays", 1, count(authorId, TimelineTypeEnum.USER));
+        assertEquals("Home stays", 1, count(accountUserId, TimelineTypeEnum.HOME));
+    }
+
+    private long count(long userId, TimelineTypeEnum timelineType) {
+        return queryForLong("SELECT count(*) FROM (" 
+                + TimelineTable.selectMsgIdsSql(timelineType, "=" + userId) + ")");
+    }
+
+    private long queryForLong(String sql) {
+        SQLiteStatement statement = db.compileStatement(sql);
+        try {
+            return statement.simpleQueryForLong();
+        } finally {
+            statement.close();
+        }
+    }
+    
+    /**
+     * The old (joins only) and the new (through the {@link Timeline} table) query paths 
+     * return the same messages
+     */
+    public void testSameMessagesAsJoins() {
+        fillMessages(COMPARED_MESSAGES);
+        compare(TimelineTypeEnum.HOME, MsgOfUser.SUBSCRIBED + "=1");
+        compare(TimelineTypeEnum.MENTIONS, MsgOfUser.MENTIONED + "=1");
+        compare(TimelineTypeEnum.FAVORITES, MsgOfUser.FAVORITED + "=1");
+    }
+
+    /**
+     * Compares the old (joins only) and the new (through the {@link Timeline} table) query paths  
+     * on a synthetic dataset
+     */
+    public void testBenchmark() {
+        long startTime = System.nanoTime();
+        fillMessages(BENCHMARK_MESSAGES);
+        MyLog.i(this, BENCHMARK_MESSAGES + " messages inserted in " 
+                + (System.nanoTime() - startTime) / 1000000 + " ms");
+        benchmark(TimelineTypeEnum.HOME, MsgOfUser.SUBSCRIBED + "=1");
+        benchmark(TimelineTypeEnum.MENTIONS, MsgOfUser.MENTIONED + "=1");
+        benchmark(TimelineTypeEnum.FAVORITES, MsgOfUser.FAVORITED + "=1");
+    }
+
+    private void fillMessages(int nMessages) {
+        int nAuthors = 50;
+        db.beginTransaction();
+        try {
+            for (int ind = 1; ind <= nAuthors; ind++) {
+                db.execSQL("INSERT INTO " + User.TABLE_NAME + " (" + User._ID + ", " + User.ORIGIN_ID + ", " 
+                        + User.USERNAME + ", " + User.INS_DATE + ") VALUES (" 
+                        + (accountUserId + ind) + ", 1, 'author" + ind + "', 1)");
+            }
+            SQLiteStatement msgInsert = db.compileStatement("INSERT INTO " + Msg.TABLE_NAME 
+                    + " (" + Msg._ID + ", " + Msg.ORIGIN_ID + ", " + Msg.AUTHOR_ID + ", " + Msg.SENDER_ID + ", " 
+                    + Msg.BODY + ", " + Msg.SENT_DATE + ", " + Msg.INS_DATE 
+                    + ") VALUES (?, 1, ?, ?, ?, ?, ?)");
+            SQLiteStatement mouInsert = db.compileStatement("INSERT INTO " + MsgOfUser.TABLE_NAME 
+                    + " (" + MsgOfUser.USER_ID + ", " + MsgOfUser.MSG_ID + ", " + MsgOfUser.SUBSCRIBED + ", " 
+                    + MsgOfUser.MENTIONED + ", " + MsgOfUser.FAVORITED 
+                    + ") VALUES (?, ?, ?, ?, ?)");
+            try {
+                insertMessages(nMessages, nAuthors, msgInsert, mouInsert);
+            } finally {
+                msgInsert.close();
+                mouInsert.close();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        db.execSQL("ANALYZE");
+    }
+
+    private void insertMessages(int nMessages, int nAuthors, SQLiteStatement msgInsert, SQLiteStatement mouInsert) {
+        for (long msgId = 1; msgId <= nMessages; msgId++) {
+            long authorId = accountUserId + 1 + msgId % nAuthors;
+            msgInsert.bindLong(1, msgId);
+            msgInsert.bindLong(2, authorId);
+            msgInsert.bindLong(3, authorId);
+            msgInsert.bindString(4, "Message " + msgId);
+            msgInsert.bindLong(5, 1000000L + msgId * 1000);
+            msgInsert.bindLong(6, 1000000L + msgId * 1000);
+            msgInsert.executeInsert();
+            if (msgId % 2 == 0) {
+                mouInsert.bindLong(1, accountUserId);
+                mouInsert.bindLong(2, msgId);
+                mouInsert.bindLong(3, 1);
+                mouInsert.bindLong(4, msgId % 50 == 0 ? 1 : 0);
+                mouInsert.bindLong(5, msgId % 500 == 0 ? 1 : 0);
+                mouInsert.executeInsert();
+            }
+        }
+    }
+
+    private void compare(TimelineTypeEnum timelineType, String selection) {
+        String[] sqls = oldAndNewSql(timelineType, selection);
+        List<Long> oldIds = new ArrayList<Long>();
+        List<Long> newIds = new ArrayList<Long>();
+        runQuery(sqls[0], oldIds);
+        runQuery(sqls[1], newIds);
+        assertTrue(timelineType + " is not empty", !newIds.isEmpty());
+        assertEquals(timelineType + " the same messages", oldIds, newIds);
+    }
+
+    private String[] oldAndNewSql(TimelineTypeEnum timelineType, String selection) {
+        Uri uri = MyProvider.getTimelineUri(accountUserId, timelineType, false);
+        String sortOrder = TimelinePageToken.SORT_ORDER + " LIMIT 100";
+        String oldSql = MyProvider.timelineQuerySql(uri, PROJECTION, selection, sortOrder, false);
+        String newSql = MyProvider.timelineQuerySql(uri, PROJECTION, selection, sortOrder, true);
+        assertFalse("Different SQL", oldSql.equals(newSql));
+        return new String[] {oldSql, newSql};
+    }
+
+    private void benchmark(TimelineTypeEnum timelineType, String selection) {
+        String[] sqls = oldAndNewSql(timelineType, selection);
+        List<Long> ids = new ArrayList<Long>();
+        long oldNanos = 0;
+        long newNanos = 0;
+        for (int run = 0; run < BENCHMARK_RUNS; run++) {
+            oldNanos += runQuery(sqls[0], ids);
+            newNanos += runQuery(sqls[1], ids);
+        }
+        assertTrue(timelineType + " is not empty", !ids.isEmpty());
+        MyLog.i(this, timelineType + " timeline, " + BENCHMARK_MESSAGES + " messages: old path " 
+                + oldNanos / BENCHMARK_RUNS / 1000 + " us, new path " + newNanos / BENCHMARK_RUNS / 1000 + " us");
+    }
+
+    private long runQuery(String sql, List<Long> ids) {
+        ids.clear();
+        long startTime = System.nanoTime();
+        Cursor cursor = db.rawQuery(sql, null);
+        try {
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return System.nanoTime() - startTime;
+    }
+}
@@ -25,8 +25,10 @@ import org.andstatus.app.net.Connection.ApiRoutineEnum;
 import org.andstatus.app.origin.Origin;
 import org.andstatus.app.origin.OriginConnectionData;
 import org.andstatus.app.util.TriState;
+import org.json.JSONArray;
 import org.json.JSONObject;
 
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
@@ -120,8 +122,91 @@ public class ConnectionTwitterTest extends InstrumentationTestCase {
         assertEquals("Body of this message starts with", startsWith, mbMessage.getBody().substring(0, startsWith.length()));
     }
     
+    public void testGetTimelineOlder() throws ConnectionException {
+        JSONObject jso = RawResourceReader.getJSONObjectResource(this.getInstrumentation().getContext(), 
+                org.andstatus.app.tests.R.raw.home_timeline);
+        httpConnection.setResponse(jso);
+
+        final List<MbTimelineItem> timeline = new ArrayList<MbTimelineItem>();
+        TimelineItemConsumer consumer = new TimelineItemConsumer() {
+            @Override
+            public void onTimelineItem(MbTimelineItem item) {
+                timeline.add(item);
+            }
+        };
+        int count = connection.getTimelineOlder(ApiRoutineEnum.STATUSES_HOME_TIMELINE, TimelinePosition.getEmpty(),
+                new TimelinePosition("380925803053449216"), 20, connectionData.getAccountUserOid(), consumer);
+        assertEquals("Number of items in the Timeline", 4, count);
+        assertEquals(count, timeline.size());
+        String path = httpConnection.getPathString();
+        assertTrue("Older than the position: " + path, path.contains("max_id=380925803053449215"));
+        assertFalse(path, path.contains("since_id"));
+
+        // Filling a gap
+        connection.getTimelineOlder(ApiRoutineEnum.STATUSES_HOME_TIMELINE, new TimelinePosition("17176774678"),
+                new TimelinePosition("380925803053449216"), 20, connectionData.getAccountUserOid(), consumer);
+        path = httpConnection.getPathString();
+        assertTrue("Newer than the gap start: " + path, path.contains("since_id=17176774678"));
+        assertTrue(path, path.contains("max_id=380925803053449215"));
+
+        assertEquals("Not numeric", "abc", ConnectionTwitter.maxIdOlderThan(new TimelinePosition("abc")));
+    }
+
+    public void testGetUsers() throws Exception {
+        JSONObject user = RawResourceReader.getJSONObjectResource(this.getInstrumentation().getContext(), 
+                org.andstatus.app.tests.R.raw.verify_credentials_twitter);
+        JSONObject jso = new JSONObject();
+        jso.put("items", new JSONArray().put(user));
+        httpConnection.setResponse(jso);
+
+        List<String> userIds = new ArrayList<String>();
+        for (int index = 0; index < ConnectionTwitter.USERS_IN_LOOKUP + 3; index++) {
+            userIds.add(Long.toString(1000 + index));
+        }
+        List<MbUser> users = connection.getUsers(userIds);
+        assertEquals("One user in each of two requests", 2, users.size());
+        assertEquals("144771645", users.get(0).oid);
+        String path = httpConnection.getPathString();
+        assertTrue("Bulk lookup: " + path, path.contains("users/lookup"));
+        assertTrue("The rest of the Users: " + path, path.contains("user_id=1100%2C1101%2C1102"));
+    }
+
+    public void testGetIdsOfUsersFollowedBy() throws Exception {
+        httpConnection.addResponse(RawResourceReader.getJSONObjectResource(this.getInstrumentation().getContext(),
+                org.andstatus.app.tests.R.raw.friends_ids_twitter));
+        httpConnection.addResponse(RawResourceReader.getJSONObjectResource(this.getInstrumentation().getContext(),
+                org.andstatus.app.tests.R.raw.friends_ids_last_page_twitter));
+
+        final List<Integer> pages = new ArrayList<Integer>();
+        UsersPageConsumer consumer = new UsersPageConsumer() {
+            @Override
+            public void onUsersPage(List<MbUser> users) {
+                pages.add(users.size());
+            }
+        };
+        int count = connection.getIdsOfUsersFollowedBy(connectionData.getAccountUserOid(), consumer);
+        assertEquals("Till the last cursor", 2, pages.size());
+        assertEquals(8, count);
+        String path = httpConnection.getPathString();
+        assertTrue("The next page: " + path, path.contains("cursor=1374004777531007833"));
+
+        pages.clear();
+        httpConnection.addResponse(RawResourceReader.getJSONObjectResource(this.getInstrumentation().getContext(),
+                org.andstatus.app.tests.R.raw.friends_ids_twitter));
+        httpConnection.setResponse(null);
+        try {
+            connection.getIdsOfUsersFollowedBy(connectionData.getAccountUserOid(), consumer);
+            fail("The list was not downloaded completely");
+        } catch (ConnectionException e) {
+            assertEquals("The first page only", 1, pages.size());
+        }
+    }
+
     public void testParseDate() {
         String stringDate = "Wed Nov 27 09:27:01 -0300 2013";
+        assertEquals("Negative time zone offset (" + stringDate + ")",
+                TestSuite.utcTime(2013, Calendar.NOVEMBER, 27, 12, 27, 01).getTime(), connection.parseDate(stringDate) );
+        stringDate = "Some day in November";
         assertEquals("Bad date shouldn't throw (" + stringDate + ")", 0, connection.parseDate(stringDate) );
         Date date = TestSuite.utcTime(2013, Calendar.SEPTEMBER, 26, 18, 23, 05);
         stringDate = "Thu Sep 26 22:23:05 GMT+04:00 2013";   // date.toString gives wrong value!!!
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2014 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.andstatus.app.net;
+
+import android.test.InstrumentationTestCase;
+
+import org.andstatus.app.context.TestSuite;
+import org.andstatus.app.util.MyLog;
+
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class DateParserTest extends InstrumentationTestCase {
+    private static final int BENCHMARK_RUNS = 200;
+    private static final Pattern DATE_FIELD = Pattern.compile(
+            "\"(created_at|published|updated)\"\\s*:\\s*\"([^\"]+)\"");
+
+    public void testParseRfc822() {
+        Date date = TestSuite.utcTime(2013, Calendar.SEPTEMBER, 26, 18, 23, 05);
+        assertEquals(date.getTime(), DateParser.parseRfc822("Thu Sep 26 18:23:05 +0000 2013"));
+        assertEquals(date.getTime(), DateParser.parseRfc822("Thu Sep 26 22:23:05 +0400 2013"));
+        assertEquals(date.getTime(), DateParser.parseRfc822("Thu Sep 26 15:23:05 -0300 2013"));
+        assertEquals("Leap day", TestSuite.utcTime(2012, Calendar.FEBRUARY, 29, 23, 59, 59).getTime(),
+                DateParser.parseRfc822("Wed Feb 29 23:59:59 +0000 2012"));
+        assertEquals("Not the fast format", DateParser.NOT_PARSED, DateParser.fastRfc822("2013-09-26T18:23:05Z"));
+        assertEquals("Bad month", DateParser.NOT_PARSED, DateParser.fastRfc822("Thu Sec 26 18:23:05 +0000 2013"));
+        assertEquals(0, DateParser.parseRfc822("Not a date"));
+        assertEquals(0, DateParser.parseRfc822(null));
+    }
+
+    public void testParseIso8601() {
+        Date date = TestSuite.utcTime(2013, Calendar.SEPTEMBER, 26, 18, 23, 05);
+        assertEquals(date.getTime(), DateParser.parseIso8601("2013-09-26T18:23:05Z"));
+        assertEquals(date.getTime(), DateParser.parseIso8601("2013-09-26T20:23:05+02:00"));
+        assertEquals(date.getTime(), DateParser.parseIso8601("2013-09-26T17:23:05-0100"));
+        assertEquals("Fraction of a second", date.getTime() + 250, DateParser.parseIso8601("2013-09-26T18:23:05.25Z"));
+        assertEquals("Not the fast format", DateParser.NOT_PARSED, DateParser.fastIso8601("2013-09-26 18:23:05"));
+        assertEquals(0, DateParser.parseIso8601("Wed Nov 27 09:27:01 -0300 2013"));
+        assertEquals(0, DateParser.parseIso8601(null));
+    }
+
+    /**
+     * Compares per call cost of the previous parsers and of the {@link DateParser}
+     * on the dates of our test responses
+     */
+    public void testBenchmark() throws Exception {
+        List<String> rfc822 = new ArrayList<String>();
+        List<String> iso8601 = new ArrayList<String>();
+        int[] resources = {org.andstatus.app.tests.R.raw.home_timeline,
+                org.andstatus.app.tests.R.raw.verify_credentials_twitter,
+                org.andstatus.app.tests.R.raw.update_status_response_status_net,
+                org.andstatus.app.tests.R.raw.user_t131t_inbox,
+                org.andstatus.app.tests.R.raw.user_t131t_following,
+                org.andstatus.app.tests.R.raw.unfollow_pumpio,
+                org.andstatus.app.tests.R.raw.destroy_status_response_pumpio};
+        for (int resource : resources) {
+            Matcher matcher = DATE_FIELD.matcher(RawResourceReader.getStringResource(
+                    getInstrumentation().getContext(), resource));
+            while (matcher.find()) {
+                String stringDate = matcher.group(2);
+                (Character.isDigit(stringDate.charAt(0)) ? iso8601 : rfc822).add(stringDate);
+            }
+        }
+        assertTrue("Twitter dates found", !rfc822.isEmpty());
+        assertTrue("pump.io dates found", !iso8601.isEmpty());
+
+        DateFormat oldFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ", Locale.GERMANY);
+        for (String stringDate : rfc822) {
+            assertEquals(stringDate, oldParseRfc822(stringDate), DateParser.parseRfc822(stringDate));
+        }
+        for (String stringDate : iso8601) {
+            assertEquals(stringDate, oldParseIso8601(oldFormat, stringDate), DateParser.parseIso8601(stringDate));
+        }
+
+        long oldNanos = 0;
+        long newNanos = 0;
+        long startTime;
+        for (int run = 0; run < BENCHMARK_RUNS; run++) {
+            startTime = System.nanoTime();
+            for (String stringDate : rfc822) {
+                oldParseRfc822(stringDate);
+            }
+            oldNanos += System.nanoTime() - startTime;
+            startTime = System.nanoTime();
+            for (String stringDate : rfc822) {
+                DateParser.parseRfc822(stringDate);
+            }
+            newNanos += System.nanoTime() - startTime;
+        }
+        MyLog.i(this, "Twitter dates, " + rfc822.size() + " in the corpus: Date.parse "
+                + oldNanos / BENCHMARK_RUNS / rfc822.size() + " ns, DateParser "
+                + newNanos / BENCHMARK_RUNS / rfc822.size() + " ns per call");
+
+        oldNanos = 0;
+        newNanos = 0;
+        for (int run = 0; run < BENCHMARK_RUNS; run++) {
+            startTime = System.nanoTime();
+            for (String stringDate : iso8601) {
+                oldParseIso8601(oldFormat, stringDate);
+            }
+            oldNanos += System.nanoTime() - startTime;
+            startTime = System.nanoTime();
+            for (String stringDate : iso8601) {
+                DateParser.parseIso8601(stringDate);
+            }
+            newNanos += System.nanoTime() - startTime;
+        }
+        MyLog.i(this, "pump.io dates, " + iso8601.size() + " in the corpus: SimpleDateFormat "
+                + oldNanos / BENCHMARK_RUNS / iso8601.size() + " ns, DateParser "
+                + newNanos / BENCHMARK_RUNS / iso8601.size() + " ns per call");
+    }
+
+    /** The parser, which was used by {@link Connection} */
+    @SuppressWarnings("deprecation")
+    private static long oldParseRfc822(String stringDate) {
+        return Date.parse(stringDate);
+    }
+
+    /** The parser, which was used by {@link ConnectionPumpio} */
+    private static long oldParseIso8601(DateFormat dateFormat, String stringDate) throws ParseException {
+        String datePrepared;
+        if (stringDate.lastIndexOf('Z') == stringDate.length()-1) {
+            datePrepared = stringDate.substring(0, stringDate.length()-1) + "+0000";
+        } else {
+            datePrepared = stringDate.replaceAll("\\+0([0-9]){1}\\:00", "+0$100");
+        }
+        return dateFormat.parse(datePrepared).getTime();
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2014 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app.net;
+
+import android.test.InstrumentationTestCase;
+
+import org.andstatus.app.net.Connection.ApiRoutineEnum;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+public class HttpCompressionTest extends InstrumentationTestCase {
+    private static final String CONTENT;
+    static {
+        StringBuilder builder = new StringBuilder("[");
+        for (int ind = 0; ind < 100; ind++) {
+            builder.append("{\"id\":" + ind + ",\"text\":\"Highly compressible timeline item\"},");
+        }
+        CONTENT = builder.append("{}]").toString();
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        HttpTraffic.clear();
+    }
+
+    public void testGzip() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(new GZIPOutputStream(out));
+        assertDecoded(out.toByteArray(), "gzip", ApiRoutineEnum.STATUSES_HOME_TIMELINE);
+    }
+
+    public void testDeflate() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(new DeflaterOutputStream(out));
+        assertDecoded(out.toByteArray(), "deflate", ApiRoutineEnum.PUBLIC_TIMELINE);
+
+        // Raw deflate data without the zlib header
+        out = new ByteArrayOutputStream();
+        write(new DeflaterOutputStream(out, new Deflater(Deflater.DEFAULT_COMPRESSION, true)));
+        assertDecoded(out.toByteArray(), "Deflate", ApiRoutineEnum.SEARCH_MESSAGES);
+    }
+
+    public void testIdentityAndEmpty() throws IOException {
+        byte[] bytes = CONTENT.getBytes("UTF-8");
+        assertEquals(CONTENT, readAll(HttpCompression.decodingStream(new ByteArrayInputStream(bytes), null,
+                ApiRoutineEnum.GET_USER)));
+        HttpTraffic.Counters counters = HttpTraffic.getCounters(ApiRoutineEnum.GET_USER);
+        assertEquals(1, counters.getResponses());
+        assertEquals(0, counters.getCompressedResponses());
+        assertEquals(bytes.length, counters.getWireBytes());
+        assertEquals(0, counters.getSavedPercent());
+
+        assertEquals("", readAll(HttpCompression.decodingStream(new ByteArrayInputStream(new byte[0]), "gzip",
+                ApiRoutineEnum.GET_USER)));
+        assertEquals(2, counters.getResponses());
+    }
+
+    private void write(OutputStream out) throws IOException {
+        out.write(CONTENT.getBytes("UTF-8"));
+        out.close();
+    }
+
+    private void assertDecoded(byte[] compressed, String contentEncoding, ApiRoutineEnum routine)
+            throws IOException {
+        InputStream in = HttpCompression.decodingStream(new ByteArrayInputStream(compressed), contentEncoding,
+                routine);
+        assertEquals(CONTENT, readAll(in));
+        HttpTraffic.Counters counters = HttpTraffic.getCounters(routine);
+        assertEquals(1, counters.getCompressedResponses());
+        assertEquals(compressed.length, counters.getWireBytes());
+        assertEquals(CONTENT.length(), counters.getContentBytes());
+        assertTrue(counters.toString(), counters.getSavedPercent() > 50);
+        assertTrue(HttpTraffic.toStatistics(), HttpTraffic.toStatistics().contains(routine.toString()));
+    }
+
+    private String readAll(InputStream in) throws IOException {
+        return HttpJavaNetUtils.readAll(in);
+    }
+}
@@ -18,17 +18,27 @@ package org.andstatus.app.net;
 
 import android.text.TextUtils;
 
+import org.andstatus.app.net.Connection.ApiRoutineEnum;
 import org.andstatus.app.net.ConnectionException;
 import org.andstatus.app.util.MyLog;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
 public class HttpConnectionMock extends HttpConnection {
     private JSONObject postedObject = null;
     private String pathString = "";
     private JSONObject responseObject = null;
+    /** Returned one by one before the {@link #responseObject} */
+    private final List<JSONObject> responses = new ArrayList<JSONObject>();
     private ConnectionException exception = null;
+    private String stream = null;
+    private volatile int streamIdleCount = 0;
 
     private String password = "password";
     private String userToken = "token";
@@ -38,16 +48,42 @@ public class HttpConnectionMock extends HttpConnection {
         responseObject = jso;
     }
 
+    /**
+     * Queues the response for the next request, e.g. for the next page of a list
+     */
+    public void addResponse(JSONObject jso) {
+        responses.add(jso);
+    }
+
+    private JSONObject nextResponse() {
+        return responses.isEmpty() ? responseObject : responses.remove(0);
+    }
+
+    /**
+     * @param stream Lines of the stream. After them the stream stays open,
+     *  sending "keep-alive" signals, till the consumer stops it
+     */
+    public void setStream(String stream) {
+        this.stream = stream;
+    }
+
+    /**
+     * @return How many times the consumer was idle after the lines of the stream were read
+     */
+    public int getStreamIdleCount() {
+        return streamIdleCount;
+    }
+
     public void setException(ConnectionException exception) {
         this.exception = exception;
     }
     
     @Override
-    protected JSONObject postRequest(String path, JSONObject jso) throws ConnectionException {
+    protected JSONObject postRequest(ApiRoutineEnum routine, String path, JSONObject jso) throws ConnectionException {
         pathString = path;
         postedObject = jso;
         throwExceptionIfSet();
-        return responseObject;
+        return nextResponse();
     }
 
     private void throwExceptionIfSet() throws ConnectionException {
@@ -73,23 +109,46 @@ public class HttpConnectionMock extends HttpConnection {
     }
 
     @Override
-    protected JSONObject postRequest(String path) throws ConnectionException {
+    protected JSONObject postRequest(ApiRoutineEnum routine, String path) throws ConnectionException {
         pathString = path;
         throwExceptionIfSet();
-        return responseObject;
+        return nextResponse();
     }
 
     @Override
-    protected JSONObject getRequest(String path) throws ConnectionException {
+    protected JSONObject getRequest(ApiRoutineEnum routine, String path) throws ConnectionException {
         pathString = path;
         throwExceptionIfSet();
-        return responseObject;
+        return nextResponse();
+    }
+
+    @Override
+    protected void getRequestStream(ApiRoutineEnum routine, String path, JsonStreamConsumer consumer)
+            throws ConnectionException {
+        pathString = path;
+        throwExceptionIfSet();
+        if (stream == null) {
+            super.getRequestStream(routine, path, consumer);
+            return;
+        }
+        try {
+            JsonStreamReader.readAll(new StringReader(stream), consumer);
+            while (!consumer.isStopped()) {
+                consumer.onIdle();
+                streamIdleCount++;
+                Thread.sleep(100);
+            }
+        } catch (IOException e) {
+            throw new ConnectionException(e);
+        } catch (InterruptedException e) {
+            throw new ConnectionException(e);
+        }
     }
 
     @Override
-    protected JSONArray getRequestAsArray(String path) throws ConnectionException {
+    protected JSONArray getRequestAsArray(ApiRoutineEnum routine, String path) throws ConnectionException {
         pathString = path;
-        JSONObject jso = getRequest(path);
+        JSONObject jso = getRequest(routine, path);
         JSONArray jsa = null;
         if (jso == null) {
             throw new ConnectionException("Response is null");
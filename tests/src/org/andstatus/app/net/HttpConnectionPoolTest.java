@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2014 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app.net;
+
+import android.test.InstrumentationTestCase;
+
+import org.apache.http.HttpHost;
+import org.apache.http.client.HttpClient;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.routing.HttpRoute;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+public class HttpConnectionPoolTest extends InstrumentationTestCase {
+
+    @Override
+    protected void tearDown() throws Exception {
+        HttpConnectionPool.setMaxConnectionsPerHost(HttpConnectionPool.MAX_CONNECTIONS_PER_HOST_DEFAULT);
+        super.tearDown();
+    }
+
+    public void testClientIsShared() {
+        HttpClient client1 = HttpApacheUtils.getHttpClient();
+        HttpClient client2 = HttpApacheUtils.getHttpClient();
+        assertSame("The same client for all requests", client1, client2);
+        assertSame("Schemes are shared", client1.getConnectionManager().getSchemeRegistry(),
+                client2.getConnectionManager().getSchemeRegistry());
+        assertTrue(client1.getConnectionManager().getSchemeRegistry().getScheme("https").isLayered());
+        assertFalse(client1.getConnectionManager().getSchemeRegistry().getScheme("http").isLayered());
+        assertTrue("Waiting for a pooled connection is limited", 
+                ConnManagerParams.getTimeout(client1.getParams()) > 0);
+    }
+
+    public void testMaxConnectionsPerHost() throws IOException {
+        HttpClient client1 = HttpApacheUtils.getHttpClient();
+        HttpRoute route = new HttpRoute(new HttpHost("identi.ca", 443, "https"));
+        assertEquals(HttpConnectionPool.MAX_CONNECTIONS_PER_HOST_DEFAULT,
+                ConnManagerParams.getMaxConnectionsPerRoute(client1.getParams()).getMaxForRoute(route));
+
+        final int maxConnections = 2;
+        HttpConnectionPool.setMaxConnectionsPerHost(maxConnections);
+        HttpClient client2 = HttpApacheUtils.getHttpClient();
+        assertNotSame("New limits, new client", client1, client2);
+        assertEquals(maxConnections,
+                ConnManagerParams.getMaxConnectionsPerRoute(client2.getParams()).getMaxForRoute(route));
+
+        HttpURLConnection conn = HttpConnectionPool.openConnection(new URL("http://identi.ca/api"));
+        assertNotNull(conn);
+        assertEquals(Integer.toString(maxConnections), System.getProperty("http.maxConnections"));
+        assertEquals("true", System.getProperty("http.keepAlive"));
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2014 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app.net;
+
+import android.test.InstrumentationTestCase;
+
+import org.andstatus.app.net.Connection.ApiRoutineEnum;
+import org.andstatus.app.origin.OriginType;
+import org.apache.http.client.methods.HttpGet;
+
+public class HttpValidatorCacheTest extends InstrumentationTestCase {
+    private static final String URL = "https://identi.ca/api/friends/ids.json?user_id=123";
+    private static final String BODY = "[1,2,3]";
+    private static final String ETAG = "\"abc\"";
+
+    private HttpValidatorCache cache = HttpValidatorCache.getInstance();
+    private HttpConnectionData data;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        cache.clear();
+        data = new HttpConnectionData();
+        data.originType = OriginType.STATUSNET;
+        data.accountUsername = "testuser";
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        cache.clear();
+        super.tearDown();
+    }
+
+    public void testNotModified() {
+        HttpValidatorCache.Request request = cache.newRequest(data, ApiRoutineEnum.GET_FRIENDS_IDS, URL);
+        HttpGet get = new HttpGet(URL);
+        request.addValidators(get);
+        assertFalse("Nothing cached yet", get.containsHeader("If-None-Match"));
+        assertFalse(request.isNotModified(HttpValidatorCache.NOT_MODIFIED));
+        request.onOk(ETAG, "", BODY);
+        assertEquals(1, cache.size());
+
+        request = cache.newRequest(data, ApiRoutineEnum.GET_FRIENDS_IDS, URL);
+        assertFalse(HttpValidatorCache.isLastResponseNotModified());
+        get = new HttpGet(URL);
+        request.addValidators(get);
+        assertEquals(ETAG, get.getFirstHeader("If-None-Match").getValue());
+        assertFalse(get.containsHeader("If-Modified-Since"));
+        assertTrue(request.isNotModified(HttpValidatorCache.NOT_MODIFIED));
+        assertFalse(request.isNotModified(200));
+        assertEquals(BODY, request.onNotModified());
+        assertTrue(HttpValidatorCache.isLastResponseNotModified());
+        assertEquals(1, cache.getHits());
+
+        data.accountUsername = "otheruser";
+        request = cache.newRequest(data, ApiRoutineEnum.GET_FRIENDS_IDS, URL);
+        assertFalse("Other account", request.isNotModified(HttpValidatorCache.NOT_MODIFIED));
+        assertFalse(HttpValidatorCache.isLastResponseNotModified());
+    }
+
+    public void testNotCached() {
+        cache.newRequest(data, ApiRoutineEnum.STATUSES_HOME_TIMELINE, URL).onOk(ETAG, "", BODY);
+        assertEquals("Timelines are not cached", 0, cache.size());
+
+        cache.newRequest(data, ApiRoutineEnum.GET_USER, URL).onOk("", "", BODY);
+        assertEquals("No validators", 0, cache.size());
+        cache.newRequest(data, ApiRoutineEnum.GET_USER, URL).onOk("", "Tue, 15 Nov 1994 12:45:26 GMT", BODY);
+        assertEquals(1, cache.size());
+        cache.newRequest(data, ApiRoutineEnum.GET_USER, URL).onOk("", "", BODY);
+        assertEquals("The old response is removed", 0, cache.size());
+    }
+
+    public void testEviction() {
+        for (int ind = 0; ind < HttpValidatorCache.MAX_SIZE + 10; ind++) {
+            cache.newRequest(data, ApiRoutineEnum.GET_USER, URL + ind).onOk(ETAG, "", BODY);
+        }
+        assertEquals(HttpValidatorCache.MAX_SIZE, cache.size());
+        assertFalse("The eldest was evicted",
+                cache.newRequest(data, ApiRoutineEnum.GET_USER, URL + 0).isNotModified(HttpValidatorCache.NOT_MODIFIED));
+
+        cache.clear(data);
+        assertEquals(0, cache.size());
+    }
+}
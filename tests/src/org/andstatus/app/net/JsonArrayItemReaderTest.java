@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2014 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app.net;
+
+import android.test.InstrumentationTestCase;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+public class JsonArrayItemReaderTest extends InstrumentationTestCase {
+
+    public void testTopLevelArray() throws IOException, JSONException, ConnectionException {
+        List<JSONObject> objects = readAll("[{\"id\":1,\"text\":\"one\"}, {\"id\":2,\"nested\":{\"a\":[1,2]}}]", "");
+        assertEquals(2, objects.size());
+        assertEquals(1, objects.get(0).getInt("id"));
+        assertEquals("one", objects.get(0).getString("text"));
+        assertEquals(2, objects.get(1).getJSONObject("nested").getJSONArray("a").getInt(1));
+    }
+
+    public void testNamedArrayInObject() throws IOException, JSONException, ConnectionException {
+        String json = "{\"displayName\":\"Timeline [1]\", \"totalItems\":2, \"links\":[{\"href\":\"x\"}],"
+                + " \"items\":[{\"id\":\"a\"},{\"id\":\"b\"}], \"after\":true}";
+        List<JSONObject> objects = readAll(json, "items");
+        assertEquals(2, objects.size());
+        assertEquals("a", objects.get(0).getString("id"));
+        assertEquals("b", objects.get(1).getString("id"));
+
+        objects = readAll(json, "");
+        assertEquals("The first array", 1, objects.size());
+        assertEquals("x", objects.get(0).getString("href"));
+    }
+
+    public void testEscapedStrings() throws IOException, JSONException, ConnectionException {
+        String text = "Quote \\\" and brackets ]}{[ and backslash \\\\";
+        List<JSONObject> objects = readAll("[{\"text\":\"" + text + "\"},{\"text\":\"\\\\\"}]", "");
+        assertEquals(2, objects.size());
+        assertEquals("Quote \" and brackets ]}{[ and backslash \\", objects.get(0).getString("text"));
+        assertEquals("\\", objects.get(1).getString("text"));
+    }
+
+    public void testEmptyAndAbsentArrays() throws IOException, JSONException, ConnectionException {
+        assertEquals(0, readAll("[]", "").size());
+        assertEquals(0, readAll(" { \"items\" : [ ] } ", "items").size());
+        assertEquals(0, readAll("{\"error\":\"Not found\"}", "items").size());
+    }
+
+    public void testTruncatedResponse() throws IOException, ConnectionException {
+        try {
+            readAll("[{\"id\":1},{\"id\":", "");
+            fail("Truncated response should be reported");
+        } catch (JSONException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("Unterminated"));
+        }
+    }
+
+    private List<JSONObject> readAll(String json, String arrayName) throws IOException, JSONException,
+            ConnectionException {
+        final List<JSONObject> objects = new ArrayList<JSONObject>();
+        int count = JsonArrayItemReader.readAll(new StringReader(json), arrayName, new JsonObjectConsumer() {
+            @Override
+            public void onJsonObject(JSONObject jso) {
+                objects.add(jso);
+            }
+        });
+        assertEquals(objects.size(), count);
+        return objects;
+    }
+}
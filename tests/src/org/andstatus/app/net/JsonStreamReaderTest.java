@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2014 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.andstatus.app.net;
+
+import android.test.InstrumentationTestCase;
+
+import org.json.JSONObject;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+public class JsonStreamReaderTest extends InstrumentationTestCase {
+
+    private static class StreamConsumer implements JsonStreamConsumer {
+        final List<JSONObject> objects = new ArrayList<JSONObject>();
+        int idleCount = 0;
+        int stopAfter = Integer.MAX_VALUE;
+
+        @Override
+        public void onJsonObject(JSONObject jso) throws ConnectionException {
+            objects.add(jso);
+        }
+
+        @Override
+        public void onIdle() throws ConnectionException {
+            idleCount++;
+        }
+
+        @Override
+        public boolean isStopped() {
+            return objects.size() >= stopAfter;
+        }
+    }
+
+    public void testReadAll() throws Exception {
+        String stream = "{\"friends\":[1,2]}\r\n"
+                + "\r\n"
+                + "{\"id_str\":\"10\",\"text\":\"First\"}\r\n"
+                + "Not a JSON object\r\n"
+                + "   \r\n"
+                + "{\"id_str\":\"11\",\"text\":\"Second\"}\r\n";
+        StreamConsumer consumer = new StreamConsumer();
+        int count = JsonStreamReader.readAll(new StringReader(stream), consumer);
+        assertEquals("Keep-alive lines and bad lines are skipped", 3, count);
+        assertEquals(3, consumer.objects.size());
+        assertEquals("Second", consumer.objects.get(2).getString("text"));
+
+        consumer = new StreamConsumer();
+        consumer.stopAfter = 2;
+        count = JsonStreamReader.readAll(new StringReader(stream), consumer);
+        assertEquals("Stopped by the consumer", 2, count);
+        assertEquals("First", consumer.objects.get(1).getString("text"));
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2014 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app.net;
+
+import android.test.InstrumentationTestCase;
+
+import org.andstatus.app.net.Connection.ApiRoutineEnum;
+import org.andstatus.app.net.ConnectionException.StatusCode;
+import org.apache.http.HttpException;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.IOException;
+
+public class RateLimiterTest extends InstrumentationTestCase {
+    private static final String ACCOUNT_KEY = "TWITTER;testuser";
+
+    @Override
+    protected void tearDown() throws Exception {
+        RateLimiter.getInstance().clear();
+        super.tearDown();
+    }
+
+    public void testUnknownLimitsAreNotPaced() {
+        RateLimiter.Bucket bucket = new RateLimiter.Bucket(ACCOUNT_KEY, ApiRoutineEnum.GET_USER);
+        long now = System.currentTimeMillis();
+        for (int ind = 0; ind < 100; ind++) {
+            assertEquals(0, bucket.reserve(now));
+        }
+        bucket.update(200, "", "", "");
+        assertEquals(0, bucket.reserve(now));
+        assertFalse(bucket.isLow(now));
+    }
+
+    public void testPacing() {
+        RateLimiter.Bucket bucket = new RateLimiter.Bucket(ACCOUNT_KEY, ApiRoutineEnum.STATUSES_HOME_TIMELINE);
+        long now = System.currentTimeMillis();
+        long resetSeconds = (now + 900 * 1000) / 1000;
+        bucket.update(200, "15", "15", Long.toString(resetSeconds));
+        for (int ind = 0; ind < RateLimiter.BURST_SIZE; ind++) {
+            assertEquals("Burst request " + ind, 0, bucket.reserve(now));
+        }
+        long waitMillis = bucket.reserve(now);
+        assertTrue("Paced: " + waitMillis, waitMillis > 0);
+        assertFalse(bucket.isLow(now));
+
+        bucket.update(200, "15", "1", Long.toString(resetSeconds));
+        assertTrue(bucket.toString(), bucket.isLow(now));
+        assertFalse("New window", bucket.isLow(now + 901 * 1000));
+    }
+
+    public void testLimitExceeded() {
+        RateLimiter.Bucket bucket = new RateLimiter.Bucket(ACCOUNT_KEY, ApiRoutineEnum.GET_FRIENDS);
+        long now = System.currentTimeMillis();
+        bucket.update(429, "", "", "");
+        assertTrue(bucket.reserve(now) > RateLimiter.MAX_WAIT_MILLIS);
+        assertEquals("The window has passed", 0,
+                bucket.reserve(now + RateLimiter.Bucket.DEFAULT_WINDOW_MILLIS + 1000));
+    }
+
+    public void testAcquire() throws ConnectionException, HttpException, IOException {
+        RateLimiter limiter = RateLimiter.getInstance();
+        limiter.acquire(ACCOUNT_KEY, ApiRoutineEnum.GET_FRIENDS_IDS);
+        assertFalse(limiter.isQuotaLow(ACCOUNT_KEY, ApiRoutineEnum.DUMMY));
+
+        long resetSeconds = System.currentTimeMillis() / 1000 + 600;
+        RateLimiter.RESPONSE_INTERCEPTOR.process(response(200, "15", "0", resetSeconds), null);
+        assertFalse("The request was sent without the context",
+                limiter.isQuotaLow(ACCOUNT_KEY, ApiRoutineEnum.DUMMY));
+        // The context of the request tells, which endpoint the response belongs to
+        HttpContext context = new BasicHttpContext();
+        context.setAttribute(HttpApacheUtils.CONTEXT_API_ROUTINE, ApiRoutineEnum.GET_FRIENDS_IDS);
+        context.setAttribute(HttpApacheUtils.CONTEXT_ACCOUNT_KEY, ACCOUNT_KEY);
+        RateLimiter.RESPONSE_INTERCEPTOR.process(response(200, "15", "0", resetSeconds), context);
+        assertTrue(limiter.isQuotaLow(ACCOUNT_KEY, ApiRoutineEnum.GET_FRIENDS_IDS));
+        assertTrue(limiter.isQuotaLow(ACCOUNT_KEY, ApiRoutineEnum.DUMMY));
+        assertFalse(limiter.isQuotaLow(ACCOUNT_KEY, ApiRoutineEnum.STATUSES_HOME_TIMELINE));
+        assertFalse(limiter.isQuotaLow("TWITTER;otheruser", ApiRoutineEnum.DUMMY));
+        try {
+            limiter.acquire(ACCOUNT_KEY, ApiRoutineEnum.GET_FRIENDS_IDS);
+            fail("Should not wait till the reset");
+        } catch (ConnectionException e) {
+            assertEquals(StatusCode.RATE_LIMITED, e.getStatusCode());
+            assertFalse("Will be retried", e.isHardError());
+        }
+    }
+
+    private HttpResponse response(int statusCode, String limit, String remaining, long reset) {
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, statusCode, "");
+        response.addHeader("x-rate-limit-limit", limit);
+        response.addHeader("x-rate-limit-remaining", remaining);
+        response.addHeader("x-rate-limit-reset", Long.toString(reset));
+        return response;
+    }
+}
@@ -2,10 +2,14 @@ package org.andstatus.app.service;
 
 import android.test.InstrumentationTestCase;
 
+import org.andstatus.app.IntentExtra;
 import org.andstatus.app.context.MyContextHolder;
 import org.andstatus.app.context.TestSuite;
+import org.andstatus.app.data.CommandQueueTable;
+import org.andstatus.app.data.TimelineTypeEnum;
 import org.andstatus.app.util.SharedPreferencesUtil;
 
+import java.util.LinkedList;
 import java.util.Queue;
 import java.util.concurrent.PriorityBlockingQueue;
 
@@ -43,6 +47,70 @@ public class CommandDataTest extends InstrumentationTestCase {
         assertEquals(commandData.getResult().getRetriesLeft(), commandData2.getResult().getRetriesLeft());
     }
 
+    public void testQueueInDatabase() throws Exception {
+        long mainCount = CommandQueueTable.getCount(CommandQueueTable.MAIN_QUEUE);
+        long retryCount = CommandQueueTable.getCount(CommandQueueTable.RETRY_QUEUE);
+        String body = "Persistent text to send " + System.currentTimeMillis() + "ms"; 
+        CommandData post = CommandData.updateStatus(TestSuite.CONVERSATION_ACCOUNT_NAME, body, 0, 0);
+        CommandData fetch = new CommandData(CommandEnum.FETCH_TIMELINE, TestSuite.CONVERSATION_ACCOUNT_NAME, 
+                TimelineTypeEnum.MENTIONS, 0);
+        assertTrue(fetch.saveToDatabase(CommandQueueTable.MAIN_QUEUE).get() > 0);
+        assertTrue(post.saveToDatabase(CommandQueueTable.MAIN_QUEUE).get() > 0);
+        assertTrue(post.getQueueRowId() > fetch.getQueueRowId());
+        assertEquals(mainCount + 2, CommandQueueTable.getCount(CommandQueueTable.MAIN_QUEUE));
+        assertTrue(CommandQueueTable.getOldestAge(CommandQueueTable.MAIN_QUEUE) >= 0);
+
+        LinkedList<CommandData> loaded = new LinkedList<CommandData>();
+        assertEquals(mainCount + 2, CommandData.loadFromDatabase(loaded, CommandQueueTable.MAIN_QUEUE));
+        int indPost = loaded.indexOf(post);
+        int indFetch = loaded.indexOf(fetch);
+        assertTrue("Higher priority first", indPost >= 0 && indPost < indFetch);
+        CommandData post2 = loaded.get(indPost);
+        assertEquals(post.getQueueRowId(), post2.getQueueRowId());
+        assertEquals(body, post2.bundle.getString(IntentExtra.EXTRA_STATUS.key));
+        assertEquals(post.getResult().getRetriesLeft(), post2.getResult().getRetriesLeft());
+
+        post.getResult().onLaunched();
+        post.getResult().onExecuted();
+        assertEquals("Moved to the retry queue", Long.valueOf(post.getQueueRowId()),
+                post.saveToDatabase(CommandQueueTable.RETRY_QUEUE).get());
+        assertEquals(mainCount + 1, CommandQueueTable.getCount(CommandQueueTable.MAIN_QUEUE));
+        assertEquals(retryCount + 1, CommandQueueTable.getCount(CommandQueueTable.RETRY_QUEUE));
+        loaded.clear();
+        CommandData.loadFromDatabase(loaded, CommandQueueTable.RETRY_QUEUE);
+        assertEquals(1, loaded.get(loaded.indexOf(post)).getResult().getExecutionCount());
+
+        assertEquals(Long.valueOf(1), post.deleteFromDatabase().get());
+        assertEquals(Long.valueOf(1), fetch.deleteFromDatabase().get());
+        assertEquals("Deleted already", Long.valueOf(0), post.deleteFromDatabase().get());
+
+        CommandData fetch2 = new CommandData(CommandEnum.FETCH_TIMELINE, TestSuite.CONVERSATION_ACCOUNT_NAME, 
+                TimelineTypeEnum.HOME, 0);
+        fetch2.saveToDatabase(CommandQueueTable.MAIN_QUEUE);
+        fetch2.deleteFromDatabase().get();
+        assertEquals(mainCount, CommandQueueTable.getCount(CommandQueueTable.MAIN_QUEUE));
+        assertEquals(retryCount, CommandQueueTable.getCount(CommandQueueTable.RETRY_QUEUE));
+    }
+
+    public void testAccumulateResults() {
+        CommandResult result = new CommandResult();
+        CommandResult homeResult = new CommandResult();
+        homeResult.incrementMessagesCount(TimelineTypeEnum.HOME);
+        homeResult.incrementMessagesCount(TimelineTypeEnum.HOME);
+        homeResult.onPipelined(30, 20, 40);
+        CommandResult directResult = new CommandResult();
+        directResult.incrementMessagesCount(TimelineTypeEnum.DIRECT);
+        directResult.incrementMentionsCount();
+        directResult.incrementNumIoExceptions();
+        result.accumulate(homeResult);
+        result.accumulate(directResult);
+        assertEquals(2, result.getMessagesAdded());
+        assertEquals(1, result.getMentionsAdded());
+        assertEquals(1, result.getDirectedAdded());
+        assertEquals(30, result.getFetchMillis());
+        assertTrue("Errors of the parts are errors of the command", result.hasSoftError());
+    }
+
     @Override
     protected void tearDown() throws Exception {
         SharedPreferencesUtil.delete(MyContextHolder.get().context(), TEST_QUEUE_FILE_NAME);
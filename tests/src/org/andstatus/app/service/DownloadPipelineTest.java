@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2014 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.andstatus.app.service;
+
+import android.test.InstrumentationTestCase;
+
+import org.andstatus.app.net.ConnectionException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class DownloadPipelineTest extends InstrumentationTestCase {
+    private volatile boolean stopping = false;
+    private final CommandExecutorParent parent = new CommandExecutorParent() {
+        @Override
+        public boolean isStopping() {
+            return stopping;
+        }
+    };
+
+    public void testAllElementsInOrder() throws ConnectionException {
+        final int count = 50;
+        DownloadPipeline<Integer> pipeline = new DownloadPipeline<Integer>(parent, 3);
+        pipeline.start(new DownloadPipeline.Producer<Integer>() {
+            @Override
+            public void produce(DownloadPipeline<Integer> pipeline) throws ConnectionException {
+                for (int ind = 0; ind < count; ind++) {
+                    pipeline.put(ind);
+                }
+            }
+        }, "testProducer");
+        List<Integer> taken = new ArrayList<Integer>();
+        for (Integer element = pipeline.take(); element != null; element = pipeline.take()) {
+            taken.add(element);
+        }
+        pipeline.stop();
+        assertEquals(count, taken.size());
+        for (int ind = 0; ind < count; ind++) {
+            assertEquals("Element " + ind, Integer.valueOf(ind), taken.get(ind));
+        }
+        assertTrue(pipeline.getElapsedMillis() >= 0);
+    }
+
+    public void testErrorAfterElements() {
+        DownloadPipeline<Integer> pipeline = new DownloadPipeline<Integer>(parent, 10);
+        pipeline.start(new DownloadPipeline.Producer<Integer>() {
+            @Override
+            public void produce(DownloadPipeline<Integer> pipeline) throws ConnectionException {
+                pipeline.put(1);
+                pipeline.put(2);
+                throw new ConnectionException("Second page failed");
+            }
+        }, "testProducer");
+        List<Integer> taken = new ArrayList<Integer>();
+        try {
+            for (Integer element = pipeline.take(); element != null; element = pipeline.take()) {
+                taken.add(element);
+            }
+            fail("The error should be passed to the consumer");
+        } catch (ConnectionException e) {
+            assertEquals("Produced elements are taken first", 2, taken.size());
+        } finally {
+            pipeline.stop();
+        }
+    }
+
+    public void testStopping() throws Exception {
+        final boolean[] producerStopped = {false};
+        DownloadPipeline<Integer> pipeline = new DownloadPipeline<Integer>(parent, 2);
+        pipeline.start(new DownloadPipeline.Producer<Integer>() {
+            @Override
+            public void produce(DownloadPipeline<Integer> pipeline) throws ConnectionException {
+                try {
+                    for (int ind = 0; ; ind++) {
+                        pipeline.put(ind);
+                    }
+                } catch (ConnectionException e) {
+                    synchronized (producerStopped) {
+                        producerStopped[0] = true;
+                        producerStopped.notifyAll();
+                    }
+                    throw e;
+                }
+            }
+        }, "testProducer");
+        assertEquals(Integer.valueOf(0), pipeline.take());
+        stopping = true;
+        assertNull("Stopped by the parent", pipeline.take());
+        synchronized (producerStopped) {
+            if (!producerStopped[0]) {
+                producerStopped.wait(DownloadPipeline.WAIT_MILLIS * 4);
+            }
+        }
+        assertTrue("The producer stopped too", producerStopped[0]);
+        pipeline.stop();
+    }
+
+    public void testStopInterruptsProducer() throws Exception {
+        final boolean[] producerStopped = {false};
+        DownloadPipeline<Integer> pipeline = new DownloadPipeline<Integer>(parent, 2);
+        pipeline.start(new DownloadPipeline.Producer<Integer>() {
+            @Override
+            public void produce(DownloadPipeline<Integer> pipeline) throws ConnectionException {
+                pipeline.put(1);
+                try {
+                    // As if waiting for the next page
+                    Thread.sleep(DownloadPipeline.WAIT_MILLIS * 100);
+                } catch (InterruptedException e) {
+                    producerStopped[0] = true;
+                    throw new ConnectionException("Interrupted", e);
+                }
+            }
+        }, "testProducer");
+        assertEquals(Integer.valueOf(1), pipeline.take());
+        pipeline.stop();
+        assertTrue("The producer was interrupted and waited for", producerStopped[0]);
+        assertTrue("Time of the producer is known", pipeline.getProduceMillis() >= 0);
+    }
+}
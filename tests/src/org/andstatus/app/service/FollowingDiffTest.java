@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2014 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.andstatus.app.service;
+package org.andstatus.app.service;
+
+import android.test.InstrumentationTestCase;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+public class FollowingDiffTest extends InstrumentationTestCase {
+
+    public void testNewAndNotFollowedAnyMore() {
+        FollowingDiff diff = new FollowingDiff(new HashSet<Long>(Arrays.asList(1L, 2L, 3L)));
+        // The first page
+        assertTrue(diff.onFollowed(2L));
+        assertFalse("Followed before", diff.isAdded(2L));
+        assertTrue(diff.onFollowed(4L));
+        assertTrue("New followed", diff.isAdded(4L));
+        assertTrue("Nobody is unfollowed before the last page", diff.getNotFollowedAnyMore().isEmpty());
+        // The last page
+        assertFalse("The same User on the next page", diff.onFollowed(4L));
+        assertFalse("Unknown User", diff.onFollowed(0L));
+        assertTrue(diff.onFollowed(5L));
+        diff.onListComplete();
+
+        assertEquals(3, diff.getFollowedCount());
+        assertEquals(2, diff.getAddedCount());
+        Set<Long> notFollowed = diff.getNotFollowedAnyMore();
+        assertEquals(new HashSet<Long>(Arrays.asList(1L, 3L)), notFollowed);
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2014 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.andstatus.app.service;
+
+import android.test.InstrumentationTestCase;
+
+public class QueueLaneTest extends InstrumentationTestCase {
+
+    public void testLanes() {
+        assertEquals(QueueLane.INTERACTIVE, QueueLane.of(CommandEnum.UPDATE_STATUS));
+        assertEquals(QueueLane.INTERACTIVE, QueueLane.of(CommandEnum.CREATE_FAVORITE));
+        assertEquals(QueueLane.INTERACTIVE, QueueLane.of(CommandEnum.REBLOG));
+        assertEquals(QueueLane.INTERACTIVE, QueueLane.of(CommandEnum.GET_STATUS));
+        assertEquals(QueueLane.SYNC, QueueLane.of(CommandEnum.AUTOMATIC_UPDATE));
+        assertEquals(QueueLane.SYNC, QueueLane.of(CommandEnum.FETCH_TIMELINE));
+        assertEquals(QueueLane.BULK, QueueLane.of(CommandEnum.FETCH_AVATAR));
+        assertEquals(QueueLane.SYNC, QueueLane.of(CommandEnum.FILL_GAPS));
+        assertEquals(QueueLane.SYNC, QueueLane.of(CommandEnum.FETCH_OLDER));
+        for (CommandEnum command : CommandEnum.values()) {
+            assertNotNull(command.toString(), QueueLane.of(command));
+        }
+        for (QueueLane lane : QueueLane.values()) {
+            assertTrue(lane + " has threads", lane.threads > 0);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2014 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.andstatus.app.service;
+
+import android.test.InstrumentationTestCase;
+
+import org.andstatus.app.account.MyAccount;
+import org.andstatus.app.context.MyContextHolder;
+import org.andstatus.app.context.TestSuite;
+import org.andstatus.app.data.DataInserter;
+import org.andstatus.app.data.LatestTimelineItem;
+import org.andstatus.app.data.LatestUserMessages;
+import org.andstatus.app.data.OldestTimelineItem;
+import org.andstatus.app.data.TimelineTypeEnum;
+import org.andstatus.app.net.MbTimelineItem;
+import org.andstatus.app.net.TimelinePosition;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class TimelinePageConsumerTest extends InstrumentationTestCase {
+    private MyAccount ma;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestSuite.initializeWithData(this);
+        ma = MyContextHolder.get().persistentAccounts().fromAccountName(TestSuite.CONVERSATION_ACCOUNT_NAME);
+        assertTrue(TestSuite.CONVERSATION_ACCOUNT_NAME + " exists", ma != null);
+    }
+
+    /**
+     * Items are stored in batches, as they come, before the page end
+     */
+    public void testItemsAreStoredWhileReceived() {
+        final List<List<String>> batches = new ArrayList<List<String>>();
+        DataInserter di = new DataInserter(ma) {
+            @Override
+            public int insertOrUpdateTimelinePage(List<MbTimelineItem> items, LatestUserMessages lum,
+                    LatestTimelineItem latestTimelineItem) {
+                List<String> positions = new ArrayList<String>();
+                for (MbTimelineItem item : items) {
+                    positions.add(item.timelineItemPosition.getPosition());
+                }
+                batches.add(positions);
+                return items.size();
+            }
+        };
+        TimelinePageConsumer page = new TimelinePageConsumer(di, new LatestUserMessages());
+        final int itemsCount = 45;
+        for (int ind = itemsCount; ind > 0; ind--) {
+            MbTimelineItem item = new MbTimelineItem();
+            item.timelineItemPosition = new TimelinePosition(Integer.toString(ind));
+            page.onTimelineItem(item);
+        }
+        assertEquals("Full batches are stored before the page end " + batches, 2, batches.size());
+
+        int count = page.onPageDownloaded(null, new OldestTimelineItem(TimelineTypeEnum.HOME, ma.getUserId()));
+        assertEquals(itemsCount, count);
+        assertEquals("Batches " + batches, 3, batches.size());
+        int expected = itemsCount;
+        for (List<String> batch : batches) {
+            for (String position : batch) {
+                assertEquals("In the order of the response", Integer.toString(expected), position);
+                expected--;
+            }
+        }
+    }
+}
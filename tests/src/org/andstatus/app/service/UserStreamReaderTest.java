@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2014 yvolk (Yuri Volkov), http://yurivolkov.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.andstatus.app.service;
+package org.andstatus.app.service;
+
+import android.test.InstrumentationTestCase;
+
+import org.andstatus.app.account.MyAccount;
+import org.andstatus.app.context.MyContextHolder;
+import org.andstatus.app.context.MyPreferences;
+import org.andstatus.app.context.TestSuite;
+import org.andstatus.app.data.LatestTimelineItem;
+import org.andstatus.app.data.MyDatabase.OidEnum;
+import org.andstatus.app.data.MyProvider;
+import org.andstatus.app.data.TimelineTypeEnum;
+import org.andstatus.app.net.HttpConnectionMock;
+import org.andstatus.app.net.RawResourceReader;
+import org.json.JSONObject;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+public class UserStreamReaderTest extends InstrumentationTestCase {
+    private HttpConnectionMock httpConnection;
+    private MyAccount ma;
+    private boolean userStreamEnabled;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestSuite.initializeWithData(this);
+
+        httpConnection = new HttpConnectionMock();
+        TestSuite.setHttpConnection(httpConnection);
+        MyContextHolder.get().persistentAccounts().initialize();
+        ma = MyContextHolder.get().persistentAccounts().fromAccountName(TestSuite.TWITTER_TEST_ACCOUNT_NAME);
+        assertTrue(TestSuite.TWITTER_TEST_ACCOUNT_NAME + " exists", ma != null && ma.isValid());
+        userStreamEnabled = UserStreams.isEnabled();
+        setUserStreamEnabled(true);
+    }
+
+    public void testStreamedMessagesAdvanceTimelines() throws Exception {
+        JSONObject status = RawResourceReader.getJSONObjectResource(this.getInstrumentation().getContext(),
+                org.andstatus.app.tests.R.raw.home_timeline).getJSONArray("items").getJSONObject(0);
+        String createdAt = new SimpleDateFormat("EEE MMM dd HH:mm:ss Z yyyy", Locale.US).format(new Date());
+        String statusOid = "8" + System.currentTimeMillis();
+        status.put("id_str", statusOid);
+        status.put("created_at", createdAt);
+        JSONObject directMessage = new JSONObject();
+        String directMessageOid = "9" + System.currentTimeMillis();
+        directMessage.put("id_str", directMessageOid);
+        directMessage.put("created_at", createdAt);
+        directMessage.put("text", "Streamed direct message " + directMessageOid);
+        directMessage.put("sender", status.getJSONObject("user"));
+        directMessage.put("recipient", status.getJSONObject("user"));
+        httpConnection.setStream(status.toString() + "\n\n"
+                + new JSONObject().put("direct_message", directMessage).toString() + "\n");
+
+        UserStreamReader reader = new UserStreamReader(ma.getAccountName());
+        Thread thread = new Thread(reader);
+        thread.start();
+        for (int attempt = 0; attempt < 100 && httpConnection.getStreamIdleCount() == 0; attempt++) {
+            Thread.sleep(100);
+        }
+        assertTrue("The stream was read", httpConnection.getStreamIdleCount() > 0);
+        reader.stop();
+        thread.join(5000);
+        assertFalse("The reader stopped", thread.isAlive());
+
+        assertTrue("Message stored", MyProvider.oidToId(OidEnum.MSG_OID, ma.getOriginId(), statusOid) != 0);
+        assertTrue("Direct message stored",
+                MyProvider.oidToId(OidEnum.MSG_OID, ma.getOriginId(), directMessageOid) != 0);
+        assertEquals("Home timeline position", statusOid,
+                new LatestTimelineItem(TimelineTypeEnum.HOME, ma.getUserId()).getPosition().getPosition());
+        assertEquals("Direct timeline position", directMessageOid,
+                new LatestTimelineItem(TimelineTypeEnum.DIRECT, ma.getUserId()).getPosition().getPosition());
+    }
+
+    private void setUserStreamEnabled(boolean enabled) {
+        MyPreferences.getDefaultSharedPreferences().edit()
+                .putBoolean(MyPreferences.KEY_USER_STREAM, enabled).commit();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        setUserStreamEnabled(userStreamEnabled);
+        TestSuite.setHttpConnection(null);
+        MyContextHolder.get().persistentAccounts().initialize();
+        super.tearDown();
+    }
+}